@@ -0,0 +1,115 @@
+package org.apache.commons.jcs.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every configured thread count. JMH cannot use the thread count as
+ * a <code>@Param</code>, so this runner provides that dimension.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar [-Djcs.benchmark.threads=1,2,4,8]
+ * org.apache.commons.jcs.benchmarks.BenchmarkRunner [regexp]</code>
+ * <p>
+ * The thread counts default to powers of two up to the number of available processors. The
+ * optional regular expression selects the benchmarks to run.
+ */
+public class BenchmarkRunner
+{
+    /** System property holding a comma separated list of thread counts */
+    public static final String THREADS_PROPERTY = "jcs.benchmark.threads";
+
+    /** Seed for the generated values, so that every run uses the same data */
+    private static final long SEED = 42L;
+
+    /**
+     * @param args optional regular expression selecting the benchmarks
+     * @throws RunnerException
+     */
+    public static void main( String[] args )
+        throws RunnerException
+    {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+
+        for ( int threads : getThreadCounts() )
+        {
+            Options opt = new OptionsBuilder()
+                .include( include )
+                .threads( threads )
+                .build();
+
+            new Runner( opt ).run();
+        }
+    }
+
+    /**
+     * @return the thread counts to run with
+     */
+    private static List<Integer> getThreadCounts()
+    {
+        List<Integer> counts = new ArrayList<Integer>();
+        String prop = System.getProperty( THREADS_PROPERTY );
+
+        if ( prop != null && prop.trim().length() > 0 )
+        {
+            for ( String count : prop.split( "," ) )
+            {
+                counts.add( Integer.valueOf( count.trim() ) );
+            }
+        }
+        else
+        {
+            int maxThreads = Runtime.getRuntime().availableProcessors();
+            for ( int threads = 1; threads <= maxThreads; threads *= 2 )
+            {
+                counts.add( Integer.valueOf( threads ) );
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Creates a value of the given size. Half of the bytes are random, so the value neither
+     * compresses perfectly nor not at all.
+     * <p>
+     * @param size the number of bytes
+     * @return a new byte array
+     */
+    public static byte[] createValue( int size )
+    {
+        byte[] value = new byte[size];
+        Random random = new Random( SEED );
+
+        for ( int i = 0; i < size; i++ )
+        {
+            value[i] = i % 2 == 0 ? (byte) random.nextInt() : (byte) i;
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,149 @@
+package org.apache.commons.jcs.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of get and update on a single region, without auxiliaries, for every
+ * memory cache implementation. Run it through {@link BenchmarkRunner} to see how operations on
+ * different keys scale with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositeCacheBenchmark
+{
+    /** The number of distinct keys */
+    @Param({ "10000" })
+    private int keyCount;
+
+    /** The size of the values in bytes */
+    @Param({ "100", "10000" })
+    private int valueSize;
+
+    /** The memory cache implementation */
+    @Param({
+        "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.lru.BufferedLRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.lru.LHMLRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.mru.MRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.fifo.FIFOMemoryCache",
+        "org.apache.commons.jcs.engine.memory.soft.SoftReferenceMemoryCache",
+        "org.apache.commons.jcs.engine.memory.tinylfu.TinyLFUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.offheap.OffHeapMemoryCache" })
+    private String memoryCacheName;
+
+    /** The region under test */
+    private CompositeCache<Integer, byte[]> cache;
+
+    /** The value stored under every key */
+    private byte[] value;
+
+    /**
+     * Creates the region and fills it with all keys.
+     * <p>
+     * @throws IOException
+     */
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        CompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "benchmark" );
+        cattr.setMaxObjects( keyCount );
+        cattr.setMemoryCacheName( memoryCacheName );
+        cattr.setUseMemoryShrinker( false );
+
+        ElementAttributes attr = new ElementAttributes();
+        attr.setIsEternal( true );
+
+        cache = new CompositeCache<Integer, byte[]>( cattr, attr );
+        value = BenchmarkRunner.createValue( valueSize );
+
+        for ( int i = 0; i < keyCount; i++ )
+        {
+            cache.update( createElement( i ) );
+        }
+    }
+
+    /**
+     * Disposes of the region.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        cache.dispose();
+    }
+
+    /**
+     * @return a random element from the region
+     */
+    @Benchmark
+    public ICacheElement<Integer, byte[]> get()
+    {
+        return cache.get( Integer.valueOf( ThreadLocalRandom.current().nextInt( keyCount ) ) );
+    }
+
+    /**
+     * Replaces a random element of the region.
+     * <p>
+     * @throws IOException
+     */
+    @Benchmark
+    public void update()
+        throws IOException
+    {
+        cache.update( createElement( ThreadLocalRandom.current().nextInt( keyCount ) ) );
+    }
+
+    /**
+     * @param key
+     * @return a new element for the key
+     */
+    private ICacheElement<Integer, byte[]> createElement( int key )
+    {
+        return new CacheElement<Integer, byte[]>( "benchmark", Integer.valueOf( key ), value,
+            cache.getElementAttributes() );
+    }
+}
@@ -0,0 +1,270 @@
+package org.apache.commons.jcs.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.block.BlockDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.block.BlockDiskCacheAttributes;
+import org.apache.commons.jcs.auxiliary.disk.indexed.IndexedDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.indexed.IndexedDiskCacheAttributes;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures raw reads and writes of the indexed and the block disk cache. The benchmark bypasses
+ * purgatory and the event queue and calls processGet and processUpdate directly, so it measures
+ * serialization and file I/O only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskCacheBenchmark
+{
+    /** The number of distinct keys */
+    @Param({ "10000" })
+    private int keyCount;
+
+    /** The size of the values in bytes */
+    @Param({ "100", "10000" })
+    private int valueSize;
+
+    /** The disk cache implementation, "indexed" or "block" */
+    @Param({ "indexed", "block" })
+    private String diskType;
+
+    /** The disk cache under test */
+    private DiskAccess disk;
+
+    /** The value stored under every key */
+    private byte[] value;
+
+    /**
+     * Creates the disk cache and writes all keys.
+     * <p>
+     * @throws IOException
+     */
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        File diskPath = new File( System.getProperty( "java.io.tmpdir" ), "jcs-benchmarks" );
+        String cacheName = "benchmark-" + diskType + "-" + valueSize;
+
+        if ( "indexed".equals( diskType ) )
+        {
+            IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+            cattr.setCacheName( cacheName );
+            cattr.setDiskPath( diskPath );
+            cattr.setMaxKeySize( keyCount );
+            cattr.setClearDiskOnStartup( true );
+            cattr.setOptimizeOnShutdown( false );
+            disk = new IndexedDiskAccess( cattr );
+        }
+        else if ( "block".equals( diskType ) )
+        {
+            BlockDiskCacheAttributes cattr = new BlockDiskCacheAttributes();
+            cattr.setCacheName( cacheName );
+            cattr.setDiskPath( diskPath );
+            cattr.setMaxKeySize( keyCount );
+            cattr.setKeyPersistenceIntervalSeconds( -1 );
+            disk = new BlockDiskAccess( cattr );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown disk type " + diskType );
+        }
+
+        disk.clear();
+        value = BenchmarkRunner.createValue( valueSize );
+
+        for ( int i = 0; i < keyCount; i++ )
+        {
+            disk.write( createElement( i ) );
+        }
+    }
+
+    /**
+     * Disposes of the disk cache.
+     * <p>
+     * @throws IOException
+     */
+    @TearDown
+    public void tearDown()
+        throws IOException
+    {
+        disk.dispose();
+    }
+
+    /**
+     * @return a random element read from disk
+     * @throws IOException
+     */
+    @Benchmark
+    public ICacheElement<Integer, byte[]> read()
+        throws IOException
+    {
+        return disk.read( Integer.valueOf( ThreadLocalRandom.current().nextInt( keyCount ) ) );
+    }
+
+    /**
+     * Overwrites a random element on disk.
+     * <p>
+     * @throws IOException
+     */
+    @Benchmark
+    public void write()
+        throws IOException
+    {
+        disk.write( createElement( ThreadLocalRandom.current().nextInt( keyCount ) ) );
+    }
+
+    /**
+     * @param key
+     * @return a new element for the key
+     */
+    private ICacheElement<Integer, byte[]> createElement( int key )
+    {
+        return new CacheElement<Integer, byte[]>( "benchmark", Integer.valueOf( key ), value );
+    }
+
+    /**
+     * Exposes the protected storage methods of the disk caches.
+     */
+    private interface DiskAccess
+    {
+        /**
+         * @param key
+         * @return the element or null
+         * @throws IOException
+         */
+        ICacheElement<Integer, byte[]> read( Integer key )
+            throws IOException;
+
+        /**
+         * @param element
+         * @throws IOException
+         */
+        void write( ICacheElement<Integer, byte[]> element )
+            throws IOException;
+
+        /**
+         * Removes all data from disk.
+         * <p>
+         * @throws IOException
+         */
+        void clear()
+            throws IOException;
+
+        /**
+         * @throws IOException
+         * @see AbstractDiskCache#dispose()
+         */
+        void dispose()
+            throws IOException;
+    }
+
+    /**
+     * Indexed disk cache with public storage methods.
+     */
+    private static class IndexedDiskAccess
+        extends IndexedDiskCache<Integer, byte[]>
+        implements DiskAccess
+    {
+        /**
+         * @param cattr
+         */
+        public IndexedDiskAccess( IndexedDiskCacheAttributes cattr )
+        {
+            super( cattr );
+        }
+
+        @Override
+        public ICacheElement<Integer, byte[]> read( Integer key )
+        {
+            return processGet( key );
+        }
+
+        @Override
+        public void write( ICacheElement<Integer, byte[]> element )
+        {
+            processUpdate( element );
+        }
+
+        @Override
+        public void clear()
+        {
+            processRemoveAll();
+        }
+    }
+
+    /**
+     * Block disk cache with public storage methods.
+     */
+    private static class BlockDiskAccess
+        extends BlockDiskCache<Integer, byte[]>
+        implements DiskAccess
+    {
+        /**
+         * @param cattr
+         */
+        public BlockDiskAccess( BlockDiskCacheAttributes cattr )
+        {
+            super( cattr );
+        }
+
+        @Override
+        public ICacheElement<Integer, byte[]> read( Integer key )
+        {
+            return processGet( key );
+        }
+
+        @Override
+        public void write( ICacheElement<Integer, byte[]> element )
+        {
+            processUpdate( element );
+        }
+
+        @Override
+        public void clear()
+        {
+            processRemoveAll();
+        }
+    }
+}
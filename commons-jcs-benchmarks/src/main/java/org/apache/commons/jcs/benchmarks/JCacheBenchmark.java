@@ -0,0 +1,158 @@
+package org.apache.commons.jcs.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.spi.CachingProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the JCache operations of JCSCache with the default configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JCacheBenchmark
+{
+    /** The JCS caching provider */
+    private static final String PROVIDER = "org.apache.commons.jcs.jcache.JCSCachingProvider";
+
+    /** The number of distinct keys */
+    @Param({ "10000" })
+    private int keyCount;
+
+    /** The size of the values in bytes */
+    @Param({ "100", "10000" })
+    private int valueSize;
+
+    /** The cache manager owning the cache */
+    private CacheManager cacheManager;
+
+    /** The cache under test */
+    private Cache<Integer, byte[]> cache;
+
+    /** The value stored under every key */
+    private byte[] value;
+
+    /**
+     * Creates the cache and fills it with all keys.
+     */
+    @Setup
+    public void setUp()
+    {
+        CachingProvider cachingProvider = Caching.getCachingProvider( PROVIDER );
+        cacheManager = cachingProvider.getCacheManager();
+        cache = cacheManager.createCache( "benchmark", new MutableConfiguration<Integer, byte[]>()
+            .setTypes( Integer.class, byte[].class )
+            .setStoreByValue( false ) );
+        value = BenchmarkRunner.createValue( valueSize );
+
+        for ( int i = 0; i < keyCount; i++ )
+        {
+            cache.put( Integer.valueOf( i ), value );
+        }
+    }
+
+    /**
+     * Closes the cache manager.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        cacheManager.destroyCache( "benchmark" );
+        cacheManager.close();
+    }
+
+    /**
+     * @return a random value
+     */
+    @Benchmark
+    public byte[] get()
+    {
+        return cache.get( randomKey() );
+    }
+
+    /**
+     * Replaces a random value.
+     */
+    @Benchmark
+    public void put()
+    {
+        cache.put( randomKey(), value );
+    }
+
+    /**
+     * @return true if the random key was present
+     */
+    @Benchmark
+    public boolean containsKey()
+    {
+        return cache.containsKey( randomKey() );
+    }
+
+    /**
+     * @return the replaced value
+     */
+    @Benchmark
+    public byte[] getAndPut()
+    {
+        return cache.getAndPut( randomKey(), value );
+    }
+
+    /**
+     * Removes a random key and puts it back.
+     */
+    @Benchmark
+    public void removeAndPut()
+    {
+        Integer key = randomKey();
+        cache.remove( key );
+        cache.put( key, value );
+    }
+
+    /**
+     * @return a random key of the cache
+     */
+    private Integer randomKey()
+    {
+        return Integer.valueOf( ThreadLocalRandom.current().nextInt( keyCount ) );
+    }
+}
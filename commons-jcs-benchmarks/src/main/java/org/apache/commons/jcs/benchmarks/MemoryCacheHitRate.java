@@ -0,0 +1,151 @@
+package org.apache.commons.jcs.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+
+/**
+ * Replays a recorded access trace through every memory cache implementation and prints the hit
+ * rates. Every line of the trace is one access, the key is its first whitespace separated token.
+ * A miss puts the key, like a read through cache would.
+ * <p>
+ * Usage: <code>java -cp benchmarks.jar org.apache.commons.jcs.benchmarks.MemoryCacheHitRate
+ * trace maxObjects [memoryCacheName ...]</code>
+ */
+public class MemoryCacheHitRate
+{
+    /** The memory caches to compare if none are given */
+    private static final List<String> MEMORY_CACHES = Arrays.asList(
+        "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.lru.BufferedLRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.lru.LHMLRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.mru.MRUMemoryCache",
+        "org.apache.commons.jcs.engine.memory.fifo.FIFOMemoryCache",
+        "org.apache.commons.jcs.engine.memory.tinylfu.TinyLFUMemoryCache" );
+
+    /**
+     * @param args the trace file, the size of the caches and optionally the memory caches
+     * @throws IOException
+     */
+    public static void main( String[] args )
+        throws IOException
+    {
+        if ( args.length < 2 )
+        {
+            System.err.println( "Usage: MemoryCacheHitRate trace maxObjects [memoryCacheName ...]" );
+            System.exit( 1 );
+        }
+
+        String trace = args[0];
+        int maxObjects = Integer.parseInt( args[1] );
+        List<String> memoryCaches = args.length > 2 ? Arrays.asList( args ).subList( 2, args.length ) : MEMORY_CACHES;
+
+        for ( String memoryCacheName : memoryCaches )
+        {
+            long start = System.currentTimeMillis();
+            long[] result = replay( trace, maxObjects, memoryCacheName );
+            System.out.println( String.format( "%-70s %10d accesses %7.3f%% hits %8d ms", memoryCacheName,
+                Long.valueOf( result[0] ), Double.valueOf( result[0] == 0 ? 0 : 100.0 * result[1] / result[0] ),
+                Long.valueOf( System.currentTimeMillis() - start ) ) );
+        }
+    }
+
+    /**
+     * @param trace the trace file
+     * @param maxObjects the size of the cache
+     * @param memoryCacheName the memory cache class
+     * @return the number of accesses and the number of hits
+     * @throws IOException
+     */
+    private static long[] replay( String trace, int maxObjects, String memoryCacheName )
+        throws IOException
+    {
+        CompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "hitrate" );
+        cattr.setMaxObjects( maxObjects );
+        cattr.setMemoryCacheName( memoryCacheName );
+        cattr.setSpoolChunkSize( 1 );
+        cattr.setUseMemoryShrinker( false );
+
+        ElementAttributes attr = new ElementAttributes();
+        attr.setIsEternal( true );
+
+        CompositeCache<String, Boolean> cache = new CompositeCache<String, Boolean>( cattr, attr );
+        long accesses = 0;
+        long hits = 0;
+
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( trace ), "UTF-8" ) );
+        try
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                String key = firstToken( line );
+                if ( key == null )
+                {
+                    continue;
+                }
+
+                accesses++;
+                if ( cache.get( key ) != null )
+                {
+                    hits++;
+                }
+                else
+                {
+                    cache.update( new CacheElement<String, Boolean>( "hitrate", key, Boolean.TRUE,
+                        cache.getElementAttributes() ) );
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+            cache.dispose();
+        }
+
+        return new long[] { accesses, hits };
+    }
+
+    /**
+     * @param line a line of the trace
+     * @return the first token, or null for an empty line
+     */
+    private static String firstToken( String line )
+    {
+        String trimmed = line.trim();
+        if ( trimmed.length() == 0 )
+        {
+            return null;
+        }
+        String[] tokens = trimmed.split( "\\s+", 2 );
+        return tokens[0];
+    }
+}
@@ -0,0 +1,110 @@
+package org.apache.commons.jcs.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the element serializers on a cache element, the way the disk, lateral and remote
+ * auxiliaries use them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark
+{
+    /** The size of the values in bytes */
+    @Param({ "100", "10000" })
+    private int valueSize;
+
+    /** The serializer implementation */
+    @Param({
+        "org.apache.commons.jcs.utils.serialization.StandardSerializer",
+        "org.apache.commons.jcs.utils.serialization.CompressingSerializer",
+        "org.apache.commons.jcs.utils.serialization.BinarySerializer" })
+    private String serializerName;
+
+    /** The serializer under test */
+    private IElementSerializer serializer;
+
+    /** The element to serialize */
+    private ICacheElement<String, byte[]> element;
+
+    /** The serialized element */
+    private byte[] serialized;
+
+    /**
+     * Creates the serializer and the element.
+     * <p>
+     * @throws Exception
+     */
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        serializer = (IElementSerializer) Class.forName( serializerName ).newInstance();
+        element = new CacheElement<String, byte[]>( "benchmark", "key", BenchmarkRunner.createValue( valueSize ),
+            new ElementAttributes() );
+        serialized = serializer.serialize( element );
+    }
+
+    /**
+     * @return the serialized element
+     * @throws IOException
+     */
+    @Benchmark
+    public byte[] serialize()
+        throws IOException
+    {
+        return serializer.serialize( element );
+    }
+
+    /**
+     * @return the deserialized element
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @Benchmark
+    public ICacheElement<String, byte[]> deSerialize()
+        throws IOException, ClassNotFoundException
+    {
+        return serializer.deSerialize( serialized, null );
+    }
+}
@@ -23,16 +23,25 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.jcs.access.behavior.ICacheAccess;
 import org.apache.commons.jcs.access.exception.CacheException;
 import org.apache.commons.jcs.access.exception.InvalidArgumentException;
 import org.apache.commons.jcs.access.exception.InvalidHandleException;
 import org.apache.commons.jcs.access.exception.ObjectExistsException;
+import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
+import org.apache.commons.jcs.auxiliary.remote.AbstractRemoteCacheNoWaitFacade;
 import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.utils.threadpool.ThreadPoolManager;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -54,6 +63,12 @@ public class CacheAccess<K, V>
     /** The logger. */
     private static final Log log = LogFactory.getLog( CacheAccess.class );
 
+    /**
+     * The name of the thread pool for the asynchronous gets. It is configured like the other pools
+     * of the ThreadPoolManager, with thread_pool.cache_access.* properties.
+     */
+    public static final String ASYNC_POOL_NAME = "cache_access";
+
     /**
      * Constructor for the CacheAccess object.
      * <p>
@@ -78,6 +93,126 @@ public class CacheAccess<K, V>
         return ( element != null ) ? element.getVal() : null;
     }
 
+    /**
+     * Retrieve an object without blocking the caller for a round trip to an auxiliary. If the
+     * object is in memory the returned future is already done. Otherwise the disk and lateral
+     * auxiliaries are asked on a thread of the {@link #ASYNC_POOL_NAME} pool, and on a miss the
+     * request to the remote auxiliary is chained on its own asynchronous get, so the pool does
+     * not limit the number of concurrent remote gets.
+     * <p>
+     * @param name Key the object is stored as
+     * @return a future for the object, null if it is not found
+     */
+    public Future<V> getAsync( K name )
+    {
+        return new ValueFuture<K, V>( getCacheElementAsync( name ) );
+    }
+
+    /**
+     * Retrieve the wrapper of an object without blocking the caller for a round trip to an
+     * auxiliary. See {@link #getAsync(Object)}.
+     * <p>
+     * @param name Key the object is stored as
+     * @return a future for the ICacheElement&lt;K, V&gt;, null if it is not found
+     */
+    public Future<ICacheElement<K, V>> getCacheElementAsync( final K name )
+    {
+        if ( isInMemory( name ) )
+        {
+            return submitOrRun( new Callable<ICacheElement<K, V>>()
+            {
+                @Override
+                public ICacheElement<K, V> call()
+                {
+                    return getCacheControl().get( name );
+                }
+            }, true );
+        }
+
+        final AbstractRemoteCacheNoWaitFacade<K, V> remote = getRemoteAuxiliary();
+        if ( remote == null )
+        {
+            return submitOrRun( new Callable<ICacheElement<K, V>>()
+            {
+                @Override
+                public ICacheElement<K, V> call()
+                {
+                    return getCacheControl().get( name );
+                }
+            }, false );
+        }
+
+        return new RemoteChainedGet( name, remote );
+    }
+
+    /**
+     * Get multiple elements without blocking the caller for the round trips to the auxiliaries.
+     * See {@link #getAsync(Object)}.
+     * <p>
+     * @param names set of cache keys
+     * @return a future for the map of K key to ICacheElement&lt;K, V&gt; element
+     */
+    public Future<Map<K, ICacheElement<K, V>>> getCacheElementsAsync( final Set<K> names )
+    {
+        return submitOrRun( new Callable<Map<K, ICacheElement<K, V>>>()
+        {
+            @Override
+            public Map<K, ICacheElement<K, V>> call()
+            {
+                return getCacheControl().getMultiple( names );
+            }
+        }, false );
+    }
+
+    /**
+     * @param name the key
+     * @return true if the memory cache has the key, so a get does not need an auxiliary
+     */
+    private boolean isInMemory( K name )
+    {
+        try
+        {
+            return getCacheControl().getMemoryCache().getQuiet( name ) != null;
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return the remote auxiliary of the region, null if it has none
+     */
+    private AbstractRemoteCacheNoWaitFacade<K, V> getRemoteAuxiliary()
+    {
+        for ( AuxiliaryCache<K, V> aux : getCacheControl().getAuxCaches() )
+        {
+            if ( aux instanceof AbstractRemoteCacheNoWaitFacade )
+            {
+                return (AbstractRemoteCacheNoWaitFacade<K, V>) aux;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the task in the caller's thread if it is cheap, otherwise in the async pool.
+     * <p>
+     * @param task the task
+     * @param inline true to run it in the caller's thread
+     * @return the future of the task
+     */
+    private <T> Future<T> submitOrRun( Callable<T> task, boolean inline )
+    {
+        if ( inline )
+        {
+            FutureTask<T> future = new FutureTask<T>( task );
+            future.run();
+            return future;
+        }
+        return ThreadPoolManager.getInstance().getPool( ASYNC_POOL_NAME ).submit( task );
+    }
+
     /**
      * Retrieve matching objects from the cache region this instance provides access to.
      * <p>
@@ -305,4 +440,197 @@ public class CacheAccess<K, V>
 
         return attr;
     }
+
+    /**
+     * A get that looks in memory, on disk and laterally first and then asks the remote auxiliary
+     * with its asynchronous get. The element of the remote auxiliary is handed to the region once,
+     * by the first caller that waits for it.
+     */
+    private final class RemoteChainedGet
+        implements Future<ICacheElement<K, V>>
+    {
+        /** The key */
+        private final K key;
+
+        /** The lookup in memory, on disk and laterally, it starts the remote lookup on a miss */
+        private final Future<ICacheElement<K, V>> localLookup;
+
+        /** The lookup of the remote auxiliary, null until the local lookup missed */
+        private volatile Future<ICacheElement<K, V>> remoteLookup;
+
+        /** Set once the remote element was handed to the region */
+        private boolean completed;
+
+        /** The element of the remote lookup after the region has seen it */
+        private ICacheElement<K, V> result;
+
+        /**
+         * Starts the local lookup.
+         * <p>
+         * @param key the key
+         * @param remote the remote auxiliary to ask on a local miss
+         */
+        RemoteChainedGet( final K key, final AbstractRemoteCacheNoWaitFacade<K, V> remote )
+        {
+            this.key = key;
+            this.localLookup = submitOrRun( new Callable<ICacheElement<K, V>>()
+            {
+                @Override
+                public ICacheElement<K, V> call()
+                {
+                    ICacheElement<K, V> element = getCacheControl().getExceptRemote( key );
+                    if ( element == null )
+                    {
+                        remoteLookup = remote.getAsync( key );
+                    }
+                    return element;
+                }
+            }, false );
+        }
+
+        /**
+         * @param element the element of the remote auxiliary, null if there was no remote lookup
+         * @return the element, null if it is not found or expired
+         * @throws ExecutionException if the region fails to take the element
+         */
+        private synchronized ICacheElement<K, V> complete( ICacheElement<K, V> element )
+            throws ExecutionException
+        {
+            if ( !completed )
+            {
+                try
+                {
+                    result = getCacheControl().completeRemoteGet( key, element );
+                }
+                catch ( IOException e )
+                {
+                    throw new ExecutionException( e );
+                }
+                completed = true;
+            }
+            return result;
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning )
+        {
+            boolean cancelled = localLookup.cancel( mayInterruptIfRunning );
+            Future<ICacheElement<K, V>> remote = remoteLookup;
+            if ( remote != null )
+            {
+                cancelled |= remote.cancel( mayInterruptIfRunning );
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            Future<ICacheElement<K, V>> remote = remoteLookup;
+            return localLookup.isCancelled() || ( remote != null && remote.isCancelled() );
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            Future<ICacheElement<K, V>> remote = remoteLookup;
+            return localLookup.isDone() && ( remote == null || remote.isDone() );
+        }
+
+        @Override
+        public ICacheElement<K, V> get()
+            throws InterruptedException, ExecutionException
+        {
+            ICacheElement<K, V> element = localLookup.get();
+            Future<ICacheElement<K, V>> remote = remoteLookup;
+            if ( element != null )
+            {
+                return element;
+            }
+            if ( remote == null )
+            {
+                // no remote cache to ask, count the miss like a synchronous get
+                return complete( null );
+            }
+            return complete( remote.get() );
+        }
+
+        @Override
+        public ICacheElement<K, V> get( long timeout, TimeUnit unit )
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long end = System.nanoTime() + unit.toNanos( timeout );
+            ICacheElement<K, V> element = localLookup.get( timeout, unit );
+            Future<ICacheElement<K, V>> remote = remoteLookup;
+            if ( element != null )
+            {
+                return element;
+            }
+            if ( remote == null )
+            {
+                // no remote cache to ask, count the miss like a synchronous get
+                return complete( null );
+            }
+            return complete( remote.get( Math.max( 0, end - System.nanoTime() ), TimeUnit.NANOSECONDS ) );
+        }
+    }
+
+    /**
+     * Unwraps the value of an element future.
+     */
+    private static final class ValueFuture<K, V>
+        implements Future<V>
+    {
+        /** The future of the element */
+        private final Future<ICacheElement<K, V>> element;
+
+        /**
+         * @param element the future of the element
+         */
+        ValueFuture( Future<ICacheElement<K, V>> element )
+        {
+            this.element = element;
+        }
+
+        /**
+         * @param ce the element, may be null
+         * @return its value or null
+         */
+        private V valueOf( ICacheElement<K, V> ce )
+        {
+            return ce != null ? ce.getVal() : null;
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning )
+        {
+            return element.cancel( mayInterruptIfRunning );
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return element.isCancelled();
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return element.isDone();
+        }
+
+        @Override
+        public V get()
+            throws InterruptedException, ExecutionException
+        {
+            return valueOf( element.get() );
+        }
+
+        @Override
+        public V get( long timeout, TimeUnit unit )
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return valueOf( element.get( timeout, unit ) );
+        }
+    }
 }
@@ -22,7 +22,7 @@ package org.apache.commons.jcs.auxiliary.disk;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -30,18 +30,22 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.commons.jcs.auxiliary.AbstractAuxiliaryCacheEventLogging;
 import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
 import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes;
+import org.apache.commons.jcs.engine.CacheEventQueue;
 import org.apache.commons.jcs.engine.CacheEventQueueFactory;
 import org.apache.commons.jcs.engine.CacheInfo;
 import org.apache.commons.jcs.engine.CacheStatus;
 import org.apache.commons.jcs.engine.behavior.ICache;
+import org.apache.commons.jcs.engine.behavior.ICacheBatchListener;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.ICacheListener;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEvent;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
 import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.Stats;
 import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
-import org.apache.commons.jcs.utils.struct.LRUMap;
+import org.apache.commons.jcs.utils.serialization.CompressingSerializer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -63,6 +67,9 @@ public abstract class AbstractDiskCache<K, V>
     /** The logger */
     private static final Log log = LogFactory.getLog( AbstractDiskCache.class );
 
+    /** The most element locks held at once while a batch is written */
+    private static final int MAX_BATCH_LOCKS = 32;
+
     /** Generic disk cache attributes */
     private IDiskCacheAttributes diskCacheAttributes = null;
 
@@ -72,9 +79,10 @@ public abstract class AbstractDiskCache<K, V>
      * serializing the elements to persistent storage queued for later.
      *
      * If the elements are pulled into the memory cache while the are still in purgatory, writing to
-     * disk can be canceled.
+     * disk can be canceled. It is split into segments with their own locks, so gets, updates and
+     * the disk writer do not wait for each other on a single monitor.
      */
-    private Map<K, PurgatoryElement<K, V>> purgatory;
+    private ConcurrentPurgatory<K, V> purgatory;
 
     /**
      * The CacheEventQueue where changes will be queued for asynchronous updating of the persistent
@@ -118,6 +126,18 @@ public abstract class AbstractDiskCache<K, V>
         this.cacheEventQueue = fact.createCacheEventQueue( new MyCacheListener(), CacheInfo.listenerId, cacheName,
                                                            diskCacheAttributes.getEventQueuePoolName(),
                                                            diskCacheAttributes.getEventQueueType() );
+        if ( diskCacheAttributes.getMaxBatchSize() > 1 )
+        {
+            if ( cacheEventQueue instanceof CacheEventQueue )
+            {
+                ( (CacheEventQueue<K, V>) cacheEventQueue ).setBatching( diskCacheAttributes.getMaxBatchSize(),
+                                                                         diskCacheAttributes.getMaxBatchWaitMillis() );
+            }
+            else if ( log.isWarnEnabled() )
+            {
+                log.warn( "Batched writes need the single event queue type, not batching for " + cacheName );
+            }
+        }
 
         // create purgatory
         initPurgatory();
@@ -140,14 +160,18 @@ public abstract class AbstractDiskCache<K, V>
     }
 
     /**
-     * Purgatory size of -1 means to use a HashMap with no size limit. Anything greater will use an
-     * LRU map of some sort.
-     *
-     * TODO Currently setting this to 0 will cause nothing to be put to disk, since it will assume
-     *       that if an item is not in purgatory, then it must have been plucked. We should make 0
-     *       work, a way to not use purgatory.
+     * Purgatory size of 0 or less means no size limit.
+     * Anything greater drops least recently used elements when the size is exceeded.
      */
     private void initPurgatory()
+    {
+        purgatory = new ConcurrentPurgatory<K, V>( diskCacheAttributes.getMaxPurgatorySize() );
+    }
+
+    /**
+     * Removes all elements from purgatory. The statistics of purgatory are kept.
+     */
+    private void clearPurgatory()
     {
         // we need this so we can stop the updates from happening after a
         // removeall
@@ -155,17 +179,7 @@ public abstract class AbstractDiskCache<K, V>
 
         try
         {
-            synchronized (this)
-            {
-                if ( diskCacheAttributes.getMaxPurgatorySize() >= 0 )
-                {
-                    purgatory = new LRUMap<K, PurgatoryElement<K, V>>( diskCacheAttributes.getMaxPurgatorySize() );
-                }
-                else
-                {
-                    purgatory = new HashMap<K, PurgatoryElement<K, V>>();
-                }
-            }
+            purgatory.clear();
         }
         finally
         {
@@ -206,10 +220,7 @@ public abstract class AbstractDiskCache<K, V>
             pe.setSpoolable( true );
 
             // Add the element to purgatory
-            synchronized ( purgatory )
-            {
-                purgatory.put( pe.getKey(), pe );
-            }
+            purgatory.put( pe.getKey(), pe );
 
             // Queue element for serialization
             cacheEventQueue.addPutEvent( pe );
@@ -244,11 +255,7 @@ public abstract class AbstractDiskCache<K, V>
             return null;
         }
 
-        PurgatoryElement<K, V> pe = null;
-        synchronized ( purgatory )
-        {
-            pe = purgatory.get( key );
-        }
+        PurgatoryElement<K, V> pe = purgatory.get( key );
 
         // If the element was found in purgatory
         if ( pe != null )
@@ -318,14 +325,8 @@ public abstract class AbstractDiskCache<K, V>
     public Map<K, ICacheElement<K, V>> getMatching( String pattern )
         throws IOException
     {
-        // Get the keys from purgatory
-        Set<K> keyArray = null;
-
-        // this avoids locking purgatory, but it uses more memory
-        synchronized ( purgatory )
-        {
-            keyArray = new HashSet<K>(purgatory.keySet());
-        }
+        // Get a copy of the keys from purgatory
+        Set<K> keyArray = purgatory.keySet();
 
         Set<K> matchingKeys = getKeyMatcher().getMatchingKeysFromArray( pattern, keyArray );
 
@@ -388,23 +389,15 @@ public abstract class AbstractDiskCache<K, V>
     public final boolean remove( K key )
         throws IOException
     {
-        PurgatoryElement<K, V> pe = null;
-
-        synchronized ( purgatory )
-        {
-            // I'm getting the object, so I can lock on the element
-            // Remove element from purgatory if it is there
-            pe = purgatory.get( key );
-        }
+        // I'm getting the object, so I can lock on the element
+        // Remove element from purgatory if it is there
+        PurgatoryElement<K, V> pe = purgatory.get( key );
 
         if ( pe != null )
         {
             synchronized ( pe.getCacheElement() )
             {
-                synchronized ( purgatory )
-                {
-                    purgatory.remove( key );
-                }
+                purgatory.remove( key, pe );
 
                 // no way to remove from queue, just make sure it doesn't get on
                 // disk and then removed right afterwards
@@ -433,8 +426,8 @@ public abstract class AbstractDiskCache<K, V>
     {
         if ( this.diskCacheAttributes.isAllowRemoveAll() )
         {
-            // Replace purgatory with a new empty hashtable
-            initPurgatory();
+            // Empty purgatory
+            clearPurgatory();
 
             // Remove all from persistent store immediately
             doRemoveAll();
@@ -549,11 +542,23 @@ public abstract class AbstractDiskCache<K, V>
 
         elems.add(new StatElement<Integer>( "Purgatory Hits", Integer.valueOf(purgHits) ) );
         elems.add(new StatElement<Integer>( "Purgatory Size", Integer.valueOf(purgatory.size()) ) );
+        elems.add(new StatElement<Long>( "Purgatory Evictions", Long.valueOf(purgatory.getEvictionCount()) ) );
+        elems.add(new StatElement<Long>( "Purgatory Lock Acquisitions", Long.valueOf(purgatory.getLockCount()) ) );
+        elems.add(new StatElement<Long>( "Purgatory Contended Locks", Long.valueOf(purgatory.getContendedCount()) ) );
+        elems.add(new StatElement<Long>( "Purgatory Lock Wait Millis",
+            Long.valueOf(purgatory.getWaitNanos() / 1000000L) ) );
 
         // get the stats from the event queue too
         IStats eqStats = this.cacheEventQueue.getStatistics();
         elems.addAll(eqStats.getStatElements());
 
+        // the serializer is created for each region, so these are the numbers of this region
+        if ( getElementSerializer() instanceof CompressingSerializer )
+        {
+            IStats csStats = ( (CompressingSerializer) getElementSerializer() ).getStatistics();
+            elems.addAll(csStats.getStatElements());
+        }
+
         stats.setStatElements( elems );
 
         return stats;
@@ -594,7 +599,7 @@ public abstract class AbstractDiskCache<K, V>
      * parent class.
      */
     protected class MyCacheListener
-        implements ICacheListener<K, V>
+        implements ICacheBatchListener<K, V>
     {
         /** Id of the listener */
         private long listenerId = 0;
@@ -653,25 +658,17 @@ public abstract class AbstractDiskCache<K, V>
 
                         try
                         {
-                            // TODO consider changing purgatory sync
-                            // String keyAsString = element.getKey().toString();
-                            synchronized ( purgatory )
+                            // If the element has been removed from purgatory or replaced by a
+                            // newer one do nothing, the newer one has its own event
+                            if ( !purgatory.isCurrent( pe.getKey(), pe ) )
                             {
-                                // If the element has already been removed from
-                                // purgatory do nothing
-                                if ( !purgatory.containsKey( pe.getKey() ) )
-                                {
-                                    return;
-                                }
-
-                                element = pe.getCacheElement();
+                                return;
                             }
 
-                            // I took this out of the purgatory sync block.
                             // If the element is still eligible, spool it.
                             if ( pe.isSpoolable() )
                             {
-                                doUpdate( element );
+                                doUpdate( pe.getCacheElement() );
                             }
                         }
                         finally
@@ -679,12 +676,9 @@ public abstract class AbstractDiskCache<K, V>
                             removeAllLock.readLock().unlock();
                         }
 
-                        synchronized ( purgatory )
-                        {
-                            // After the update has completed, it is safe to
-                            // remove the element from purgatory.
-                            purgatory.remove( element.getKey() );
-                        }
+                        // After the update has completed, it is safe to
+                        // remove the element from purgatory.
+                        purgatory.remove( pe.getKey(), pe );
                     }
                 }
                 else
@@ -701,13 +695,108 @@ public abstract class AbstractDiskCache<K, V>
                  * done before it went in the queue. This block handles the case where the disk
                  * cache fails during normal operations.
                  */
-                synchronized ( purgatory )
+                purgatory.remove( element.getKey() );
+            }
+        }
+
+        /**
+         * Writes the elements that are still in purgatory and spoolable with one call to
+         * processUpdateBatch per chunk of at most {@link #MAX_BATCH_LOCKS} elements. Like
+         * {@link #handlePut(ICacheElement)} it holds the lock of each element while it is written,
+         * so a concurrent remove cannot be overtaken by the write.
+         * <p>
+         * @param elements the elements, normally purgatory elements
+         * @throws IOException
+         * @see ICacheBatchListener#handlePutBatch
+         */
+        @Override
+        public void handlePutBatch( List<ICacheElement<K, V>> elements )
+            throws IOException
+        {
+            if ( alive )
+            {
+                List<PurgatoryElement<K, V>> purgatoryElements = new ArrayList<PurgatoryElement<K, V>>( elements.size() );
+                for ( ICacheElement<K, V> element : elements )
+                {
+                    if ( element instanceof PurgatoryElement )
+                    {
+                        purgatoryElements.add( (PurgatoryElement<K, V>) element );
+                    }
+                    else
+                    {
+                        doUpdate( element );
+                    }
+                }
+
+                // write in chunks, so only a few element locks and stack frames are held at once
+                for ( int start = 0; start < purgatoryElements.size(); start += MAX_BATCH_LOCKS )
+                {
+                    int end = Math.min( start + MAX_BATCH_LOCKS, purgatoryElements.size() );
+                    lockAndUpdate( purgatoryElements.subList( start, end ), 0 );
+                }
+            }
+            else
+            {
+                for ( ICacheElement<K, V> element : elements )
                 {
                     purgatory.remove( element.getKey() );
                 }
             }
         }
 
+        /**
+         * Takes the lock of each element in turn and writes the chunk once all are held. Only the
+         * queue thread holds more than one element lock, so this cannot deadlock with removes.
+         * The recursion is one level per element, so the chunk must be kept small.
+         * <p>
+         * @param elements a chunk of the batch
+         * @param index the next element to lock
+         * @throws IOException
+         */
+        private void lockAndUpdate( List<PurgatoryElement<K, V>> elements, int index )
+            throws IOException
+        {
+            if ( index < elements.size() )
+            {
+                synchronized ( elements.get( index ).getCacheElement() )
+                {
+                    lockAndUpdate( elements, index + 1 );
+                }
+                return;
+            }
+
+            removeAllLock.readLock().lock();
+            try
+            {
+                // only the latest element of a key is current, earlier puts are skipped
+                List<ICacheElement<K, V>> toWrite = new ArrayList<ICacheElement<K, V>>( elements.size() );
+                for ( PurgatoryElement<K, V> pe : elements )
+                {
+                    // If the element has already been removed from purgatory do nothing
+                    if ( pe.isSpoolable() && purgatory.isCurrent( pe.getKey(), pe ) )
+                    {
+                        toWrite.add( pe.getCacheElement() );
+                    }
+                }
+
+                if ( !toWrite.isEmpty() )
+                {
+                    doUpdateBatch( toWrite );
+                }
+            }
+            finally
+            {
+                removeAllLock.readLock().unlock();
+            }
+
+            // After the update has completed, it is safe to remove the elements from
+            // purgatory.
+            for ( PurgatoryElement<K, V> pe : elements )
+            {
+                purgatory.remove( pe.getKey(), pe );
+            }
+        }
+
         /**
          * @param cacheName
          * @param key
@@ -816,6 +905,50 @@ public abstract class AbstractDiskCache<K, V>
         super.updateWithEventLogging( cacheElement );
     }
 
+    /**
+     * Add several cache elements to the persistent store. Each element is logged as an update.
+     *
+     * @param cacheElements the elements, at most one per key
+     * @throws IOException
+     */
+    protected final void doUpdateBatch( List<ICacheElement<K, V>> cacheElements )
+        throws IOException
+    {
+        List<ICacheEvent<K>> cacheEvents = new ArrayList<ICacheEvent<K>>( cacheElements.size() );
+        for ( ICacheElement<K, V> cacheElement : cacheElements )
+        {
+            cacheEvents.add( createICacheEvent( cacheElement, ICacheEventLogger.UPDATE_EVENT ) );
+        }
+        try
+        {
+            processUpdateBatch( cacheElements );
+        }
+        finally
+        {
+            for ( ICacheEvent<K> cacheEvent : cacheEvents )
+            {
+                logICacheEvent( cacheEvent );
+            }
+        }
+    }
+
+    /**
+     * Writes several elements to the persistent store. The queue hands puts over in batches if
+     * MaxBatchSize is larger than 1. This implementation writes them one by one, subclasses can
+     * write them with fewer disk operations.
+     *
+     * @param cacheElements the elements, at most one per key
+     * @throws IOException
+     */
+    protected void processUpdateBatch( List<ICacheElement<K, V>> cacheElements )
+        throws IOException
+    {
+        for ( ICacheElement<K, V> cacheElement : cacheElements )
+        {
+            processUpdate( cacheElement );
+        }
+    }
+
     /**
      * Remove an object from the persistent store if found.
      *
@@ -46,6 +46,12 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
     /** default to 5000 */
     private int maxPurgatorySize = MAX_PURGATORY_SIZE_DEFAULT;
 
+    /** the most puts written together */
+    private int maxBatchSize = MAX_BATCH_SIZE_DEFAULT;
+
+    /** how long to wait for more puts for a batch */
+    private int maxBatchWaitMillis = MAX_BATCH_WAIT_MILLIS_DEFAULT;
+
     /** Default amount of time to allow for key persistence on shutdown */
     private static final int DEFAULT_shutdownSpoolTimeLimit = 60;
 
@@ -130,6 +136,44 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
         this.maxPurgatorySize = maxPurgatorySize;
     }
 
+    /**
+     * @return the most queued puts that are written to disk together
+     */
+    @Override
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize
+     *            the most queued puts that are written to disk together, 1 disables batching
+     */
+    @Override
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return how long the queue waits for more puts for a batch, in milliseconds
+     */
+    @Override
+    public int getMaxBatchWaitMillis()
+    {
+        return maxBatchWaitMillis;
+    }
+
+    /**
+     * @param maxBatchWaitMillis
+     *            how long the queue waits for more puts for a batch, in milliseconds
+     */
+    @Override
+    public void setMaxBatchWaitMillis(int maxBatchWaitMillis)
+    {
+        this.maxBatchWaitMillis = maxBatchWaitMillis;
+    }
+
     /**
      * Get the amount of time in seconds we will wait for elements to move to disk during shutdown
      * for a particular region.
@@ -193,6 +237,8 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
         str.append("AbstractDiskCacheAttributes ");
         str.append("\n diskPath = " + getDiskPath());
         str.append("\n maxPurgatorySize   = " + getMaxPurgatorySize());
+        str.append("\n maxBatchSize   = " + getMaxBatchSize());
+        str.append("\n maxBatchWaitMillis   = " + getMaxBatchWaitMillis());
         str.append("\n allowRemoveAll   = " + isAllowRemoveAll());
         str.append("\n ShutdownSpoolTimeLimit   = " + getShutdownSpoolTimeLimit());
         return str.toString();
@@ -0,0 +1,376 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the elements that wait to be written to disk. The keys are spread over segments, each a
+ * map in access order with its own lock, so readers and the disk writer rarely wait for each
+ * other. If a maximum size is set, an element is dropped when the purgatory grows beyond it. The
+ * LRU order is only kept per segment: the eldest element of the next segment in turn is dropped,
+ * not the eldest of the whole purgatory, so a busy segment may lose recent elements while another
+ * one still holds older ones.
+ * <p>
+ * Each segment counts how often its lock was taken, how often it had to be waited for and how
+ * long, so contention can be watched in the statistics.
+ */
+class ConcurrentPurgatory<K, V>
+{
+    /** The number of segments, a power of two */
+    private static final int SEGMENTS = 16;
+
+    /** The segments */
+    private final List<Segment<K, V>> segments;
+
+    /** The maximum number of elements, no limit if 0 or less */
+    private final int maxSize;
+
+    /** The number of elements */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param maxSize the maximum number of elements, no limit if 0 or less
+     */
+    ConcurrentPurgatory( int maxSize )
+    {
+        this.maxSize = maxSize;
+        this.segments = new ArrayList<Segment<K, V>>( SEGMENTS );
+        for ( int i = 0; i < SEGMENTS; i++ )
+        {
+            segments.add( new Segment<K, V>() );
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the index of the segment for the key
+     */
+    private static int indexFor( Object key )
+    {
+        int h = key.hashCode();
+        // spread the high bits, keys often differ only there
+        h ^= ( h >>> 16 );
+        h ^= ( h >>> 8 );
+        return h & ( SEGMENTS - 1 );
+    }
+
+    /**
+     * Adds an element, replacing the one with the same key.
+     * <p>
+     * @param key the key
+     * @param pe the element
+     */
+    void put( K key, PurgatoryElement<K, V> pe )
+    {
+        int index = indexFor( key );
+        Segment<K, V> segment = segments.get( index );
+        segment.lockAndCount();
+        try
+        {
+            if ( segment.map.put( key, pe ) == null )
+            {
+                size.incrementAndGet();
+            }
+        }
+        finally
+        {
+            segment.unlock();
+        }
+
+        if ( maxSize > 0 )
+        {
+            evict( index );
+        }
+    }
+
+    /**
+     * Drops elements until the size is within the limit, each the least recently used one of its
+     * segment. The segments after the one of the last put are tried in turn, so the element just
+     * added survives if there is anything else to drop.
+     * <p>
+     * @param index the segment of the last put
+     */
+    private void evict( int index )
+    {
+        while ( size.get() > maxSize )
+        {
+            boolean evicted = false;
+            for ( int i = 1; i <= SEGMENTS && !evicted; i++ )
+            {
+                Segment<K, V> segment = segments.get( ( index + i ) & ( SEGMENTS - 1 ) );
+                segment.lockAndCount();
+                try
+                {
+                    Iterator<PurgatoryElement<K, V>> eldest = segment.map.values().iterator();
+                    if ( eldest.hasNext() )
+                    {
+                        eldest.next();
+                        eldest.remove();
+                        size.decrementAndGet();
+                        segment.evictions++;
+                        evicted = true;
+                    }
+                }
+                finally
+                {
+                    segment.unlock();
+                }
+            }
+
+            if ( !evicted )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the element, or null
+     */
+    PurgatoryElement<K, V> get( K key )
+    {
+        Segment<K, V> segment = segments.get( indexFor( key ) );
+        segment.lockAndCount();
+        try
+        {
+            return segment.map.get( key );
+        }
+        finally
+        {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * @param key the key
+     * @param pe the element
+     * @return whether the element is the one held for the key
+     */
+    boolean isCurrent( K key, PurgatoryElement<K, V> pe )
+    {
+        return get( key ) == pe;
+    }
+
+    /**
+     * @param key the key
+     * @return the removed element, or null
+     */
+    PurgatoryElement<K, V> remove( K key )
+    {
+        Segment<K, V> segment = segments.get( indexFor( key ) );
+        segment.lockAndCount();
+        try
+        {
+            PurgatoryElement<K, V> removed = segment.map.remove( key );
+            if ( removed != null )
+            {
+                size.decrementAndGet();
+            }
+            return removed;
+        }
+        finally
+        {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Removes the element only if it is still the one held for the key, so a newer element with
+     * the same key stays.
+     * <p>
+     * @param key the key
+     * @param pe the element
+     * @return whether it was removed
+     */
+    boolean remove( K key, PurgatoryElement<K, V> pe )
+    {
+        Segment<K, V> segment = segments.get( indexFor( key ) );
+        segment.lockAndCount();
+        try
+        {
+            if ( segment.map.get( key ) != pe )
+            {
+                return false;
+            }
+            segment.map.remove( key );
+            size.decrementAndGet();
+            return true;
+        }
+        finally
+        {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Removes all elements.
+     */
+    void clear()
+    {
+        for ( Segment<K, V> segment : segments )
+        {
+            segment.lockAndCount();
+            try
+            {
+                size.addAndGet( -segment.map.size() );
+                segment.map.clear();
+            }
+            finally
+            {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the keys
+     */
+    Set<K> keySet()
+    {
+        Set<K> keys = new HashSet<K>();
+        for ( Segment<K, V> segment : segments )
+        {
+            segment.lockAndCount();
+            try
+            {
+                keys.addAll( segment.map.keySet() );
+            }
+            finally
+            {
+                segment.unlock();
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the number of elements
+     */
+    int size()
+    {
+        return size.get();
+    }
+
+    /**
+     * @return how often a segment lock was taken
+     */
+    long getLockCount()
+    {
+        long count = 0;
+        for ( Segment<K, V> segment : segments )
+        {
+            count += segment.lockCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return how often a thread had to wait for a segment lock
+     */
+    long getContendedCount()
+    {
+        long count = 0;
+        for ( Segment<K, V> segment : segments )
+        {
+            count += segment.contendedCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the total time threads waited for segment locks, in nanoseconds
+     */
+    long getWaitNanos()
+    {
+        long nanos = 0;
+        for ( Segment<K, V> segment : segments )
+        {
+            nanos += segment.waitNanos;
+        }
+        return nanos;
+    }
+
+    /**
+     * @return the number of elements dropped because of the size limit
+     */
+    long getEvictionCount()
+    {
+        long count = 0;
+        for ( Segment<K, V> segment : segments )
+        {
+            count += segment.evictions;
+        }
+        return count;
+    }
+
+    /**
+     * A part of the purgatory with its own lock. The counters are only changed while the lock is
+     * held.
+     */
+    private static final class Segment<K, V>
+        extends ReentrantLock
+    {
+        /** Don't change */
+        private static final long serialVersionUID = 1L;
+
+        /** The elements in access order */
+        final LinkedHashMap<K, PurgatoryElement<K, V>> map =
+            new LinkedHashMap<K, PurgatoryElement<K, V>>( 16, 0.75f, true );
+
+        /** How often the lock was taken */
+        volatile long lockCount;
+
+        /** How often the lock had to be waited for */
+        volatile long contendedCount;
+
+        /** How long the lock was waited for */
+        volatile long waitNanos;
+
+        /** The number of elements dropped because of the size limit */
+        volatile long evictions;
+
+        /**
+         * Takes the lock and counts whether it had to be waited for.
+         */
+        void lockAndCount()
+        {
+            if ( tryLock() )
+            {
+                lockCount++;
+                return;
+            }
+
+            long start = System.nanoTime();
+            lock();
+            waitNanos += System.nanoTime() - start;
+            contendedCount++;
+            lockCount++;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.Stats;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+
+/**
+ * A pool of direct byte buffers for the disk caches. The buffers are grouped in size classes that
+ * are powers of two between the minimum and the maximum buffer size. Each class keeps a bounded
+ * number of free buffers. Requests larger than the maximum get a buffer of the maximum size and
+ * have to be processed in chunks.
+ * <p>
+ * Reading or writing a heap buffer through a file channel makes the JDK copy it through a
+ * temporary direct buffer. Reusing direct buffers avoids both that copy and the garbage of a new
+ * buffer per read or write.
+ */
+public class DiskBufferPool
+{
+    /** The size of the length header in front of a record. */
+    public static final int HEADER_SIZE_BYTES = 4;
+
+    /** The smallest buffer size, 1 KB, as a power of two. */
+    private static final int MIN_SHIFT = 10;
+
+    /** The default largest buffer size, 64 KB. */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024;
+
+    /** The default number of free buffers kept per size class. */
+    public static final int DEFAULT_BUFFERS_PER_CLASS = 16;
+
+    /** The largest buffer size, a power of two. */
+    private final int maxBufferSize;
+
+    /** The free buffers, one queue per size class. */
+    private final List<ArrayBlockingQueue<ByteBuffer>> freeBuffers;
+
+    /** The number of direct buffers created. */
+    private final AtomicLong allocations = new AtomicLong();
+
+    /** The number of requests served from a free buffer. */
+    private final AtomicLong reuses = new AtomicLong();
+
+    /** The number of returned buffers that were not kept because their class was full. */
+    private final AtomicLong discards = new AtomicLong();
+
+    /**
+     * Creates a pool with the default sizes.
+     */
+    public DiskBufferPool()
+    {
+        this( DEFAULT_MAX_BUFFER_SIZE, DEFAULT_BUFFERS_PER_CLASS );
+    }
+
+    /**
+     * @param maxBufferSize the largest buffer size, rounded up to a power of two
+     * @param buffersPerClass the number of free buffers kept per size class
+     */
+    public DiskBufferPool( int maxBufferSize, int buffersPerClass )
+    {
+        int maxShift = Math.max( MIN_SHIFT, shiftFor( maxBufferSize ) );
+        this.maxBufferSize = 1 << maxShift;
+        this.freeBuffers = new ArrayList<ArrayBlockingQueue<ByteBuffer>>( maxShift - MIN_SHIFT + 1 );
+        for ( int shift = MIN_SHIFT; shift <= maxShift; shift++ )
+        {
+            freeBuffers.add( new ArrayBlockingQueue<ByteBuffer>( Math.max( 1, buffersPerClass ) ) );
+        }
+    }
+
+    /**
+     * Gets a cleared direct buffer. The limit is the requested size, or the maximum buffer size if
+     * the request is larger.
+     * <p>
+     * @param size the number of bytes needed
+     * @return a buffer that must be given back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire( int size )
+    {
+        int shift = Math.max( MIN_SHIFT, shiftFor( Math.min( size, maxBufferSize ) ) );
+        ByteBuffer buffer = freeBuffers.get( shift - MIN_SHIFT ).poll();
+
+        if ( buffer == null )
+        {
+            allocations.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect( 1 << shift );
+        }
+        else
+        {
+            reuses.incrementAndGet();
+            buffer.clear();
+        }
+
+        buffer.limit( Math.min( size, buffer.capacity() ) );
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. Buffers that were not acquired from this pool are ignored.
+     * <p>
+     * @param buffer the buffer, may be null
+     */
+    public void release( ByteBuffer buffer )
+    {
+        if ( buffer == null || !buffer.isDirect() )
+        {
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        int shift = shiftFor( capacity );
+        if ( capacity != 1 << shift || shift < MIN_SHIFT || capacity > maxBufferSize )
+        {
+            return;
+        }
+
+        if ( !freeBuffers.get( shift - MIN_SHIFT ).offer( buffer ) )
+        {
+            discards.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads a range of the file through a pooled buffer. Reading into a heap buffer would make the
+     * JDK copy through a temporary direct buffer; the array returned here is the only allocation.
+     * <p>
+     * @param fc the channel
+     * @param position the position of the first byte
+     * @param length the number of bytes
+     * @return the bytes
+     * @throws IOException if the file ends before the range
+     */
+    public byte[] read( FileChannel fc, long position, int length )
+        throws IOException
+    {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = acquire( length );
+        try
+        {
+            int done = 0;
+            while ( done < length )
+            {
+                buffer.clear();
+                buffer.limit( Math.min( buffer.capacity(), length - done ) );
+                fill( fc, position + done, buffer );
+                buffer.flip();
+                int chunkSize = buffer.remaining();
+                buffer.get( data, done, chunkSize );
+                done += chunkSize;
+            }
+            return data;
+        }
+        finally
+        {
+            release( buffer );
+        }
+    }
+
+    /**
+     * Reads a length header through a pooled buffer.
+     * <p>
+     * @param fc the channel
+     * @param position the position of the header
+     * @return the value of the header
+     * @throws IOException if the file ends before the header
+     */
+    public int readInt( FileChannel fc, long position )
+        throws IOException
+    {
+        ByteBuffer buffer = acquire( HEADER_SIZE_BYTES );
+        try
+        {
+            fill( fc, position, buffer );
+            buffer.flip();
+            return buffer.getInt();
+        }
+        finally
+        {
+            release( buffer );
+        }
+    }
+
+    /**
+     * Reads until the buffer is full.
+     * <p>
+     * @param fc the channel
+     * @param position the position in the file of the first byte of the buffer
+     * @param buffer the cleared buffer
+     * @throws IOException if the file ends first
+     */
+    private static void fill( FileChannel fc, long position, ByteBuffer buffer )
+        throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            if ( fc.read( buffer, position + buffer.position() ) < 0 )
+            {
+                throw new EOFException( "End of file before position " + ( position + buffer.limit() ) );
+            }
+        }
+    }
+
+    /**
+     * Writes a record, a four byte length header followed by the data, at the given position.
+     * Records larger than the maximum buffer size are written in chunks.
+     * <p>
+     * @param fc the channel
+     * @param position the position of the header
+     * @param data the data
+     * @param offset the offset of the record in the data
+     * @param length the length of the record
+     * @return the number of bytes written, including the header
+     * @throws IOException
+     */
+    public long writeRecord( FileChannel fc, long position, byte[] data, int offset, int length )
+        throws IOException
+    {
+        ByteBuffer buffer = acquire( HEADER_SIZE_BYTES + length );
+        try
+        {
+            long writePos = position;
+            int end = offset + length;
+            int next = offset;
+
+            buffer.putInt( length );
+            while ( true )
+            {
+                int chunkSize = Math.min( buffer.remaining(), end - next );
+                buffer.put( data, next, chunkSize );
+                next += chunkSize;
+                buffer.flip();
+
+                while ( buffer.hasRemaining() )
+                {
+                    writePos += fc.write( buffer, writePos );
+                }
+
+                if ( next >= end )
+                {
+                    break;
+                }
+                buffer.clear();
+            }
+
+            return writePos - position;
+        }
+        finally
+        {
+            release( buffer );
+        }
+    }
+
+    /**
+     * Writes records that follow each other in the file, each with its length header. As many
+     * records as fit are gathered into one buffer, so small records cost one write per buffer
+     * instead of one write each.
+     * <p>
+     * @param fc the channel
+     * @param position the position of the first record
+     * @param records the data of the records
+     * @return the number of bytes written, including the headers
+     * @throws IOException
+     */
+    public long writeRecords( FileChannel fc, long position, List<byte[]> records )
+        throws IOException
+    {
+        ByteBuffer buffer = acquire( maxBufferSize );
+        try
+        {
+            long writePos = position;
+
+            for ( byte[] data : records )
+            {
+                if ( buffer.remaining() < HEADER_SIZE_BYTES + data.length && buffer.position() > 0 )
+                {
+                    writePos += flush( fc, writePos, buffer );
+                }
+
+                if ( buffer.remaining() < HEADER_SIZE_BYTES + data.length )
+                {
+                    // too large to gather, the buffer is empty now
+                    writePos += writeRecord( fc, writePos, data, 0, data.length );
+                }
+                else
+                {
+                    buffer.putInt( data.length );
+                    buffer.put( data );
+                }
+            }
+
+            if ( buffer.position() > 0 )
+            {
+                writePos += flush( fc, writePos, buffer );
+            }
+
+            return writePos - position;
+        }
+        finally
+        {
+            release( buffer );
+        }
+    }
+
+    /**
+     * Writes the content of the buffer and clears it.
+     * <p>
+     * @param fc the channel
+     * @param position the position in the file
+     * @param buffer the filled buffer
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    private static long flush( FileChannel fc, long position, ByteBuffer buffer )
+        throws IOException
+    {
+        buffer.flip();
+        long written = 0;
+        while ( buffer.hasRemaining() )
+        {
+            written += fc.write( buffer, position + written );
+        }
+        buffer.clear();
+        return written;
+    }
+
+    /**
+     * @return the largest buffer size
+     */
+    public int getMaxBufferSize()
+    {
+        return maxBufferSize;
+    }
+
+    /**
+     * @return the number of direct buffers created
+     */
+    public long getAllocations()
+    {
+        return allocations.get();
+    }
+
+    /**
+     * @return the number of requests served from a free buffer
+     */
+    public long getReuses()
+    {
+        return reuses.get();
+    }
+
+    /**
+     * @return the number of returned buffers that were not kept
+     */
+    public long getDiscards()
+    {
+        return discards.get();
+    }
+
+    /**
+     * @return the number of free buffers currently held
+     */
+    public int getFreeBuffers()
+    {
+        int free = 0;
+        for ( ArrayBlockingQueue<ByteBuffer> queue : freeBuffers )
+        {
+            free += queue.size();
+        }
+        return free;
+    }
+
+    /**
+     * @return the allocation counters
+     */
+    public IStats getStatistics()
+    {
+        IStats stats = new Stats();
+        stats.setTypeName( "Disk Buffer Pool" );
+
+        ArrayList<IStatElement<?>> elems = new ArrayList<IStatElement<?>>();
+
+        elems.add(new StatElement<Long>( "Buffer Allocations", Long.valueOf( getAllocations() ) ) );
+        elems.add(new StatElement<Long>( "Buffer Reuses", Long.valueOf( getReuses() ) ) );
+        elems.add(new StatElement<Long>( "Buffer Discards", Long.valueOf( getDiscards() ) ) );
+        elems.add(new StatElement<Integer>( "Free Buffers", Integer.valueOf( getFreeBuffers() ) ) );
+
+        stats.setStatElements( elems );
+
+        return stats;
+    }
+
+    /**
+     * @param size a positive size
+     * @return the exponent of the smallest power of two that is not smaller than the size
+     */
+    private static int shiftFor( int size )
+    {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros( size - 1 );
+    }
+}
@@ -42,6 +42,12 @@ public interface IDiskCacheAttributes
      */
     int MAX_PURGATORY_SIZE_DEFAULT = 5000;
 
+    /** By default every put is written on its own. */
+    int MAX_BATCH_SIZE_DEFAULT = 1;
+
+    /** By default a batch takes only the puts that are already queued. */
+    int MAX_BATCH_WAIT_MILLIS_DEFAULT = 0;
+
     /**
      * Sets the diskPath attribute of the IJISPCacheAttributes object
      * <p>
@@ -72,6 +78,36 @@ public interface IDiskCacheAttributes
      */
     void setMaxPurgatorySize( int maxPurgatorySize );
 
+    /**
+     * The most queued puts that are written to disk together. Batching only works with the single
+     * event queue type.
+     * <p>
+     * @return the batch size, 1 if batching is disabled
+     */
+    int getMaxBatchSize();
+
+    /**
+     * Sets the most queued puts that are written to disk together. 1 disables batching.
+     * <p>
+     * @param maxBatchSize
+     */
+    void setMaxBatchSize( int maxBatchSize );
+
+    /**
+     * How long the queue waits for more puts once it has started a batch.
+     * <p>
+     * @return the time in milliseconds
+     */
+    int getMaxBatchWaitMillis();
+
+    /**
+     * Sets how long the queue waits for more puts once it has started a batch. 0 means that only
+     * the puts that are already queued are taken.
+     * <p>
+     * @param maxBatchWaitMillis the time in milliseconds
+     */
+    void setMaxBatchWaitMillis( int maxBatchWaitMillis );
+
     /**
      * Get the amount of time in seconds we will wait for elements to move to
      * disk during shutdown for a particular region.
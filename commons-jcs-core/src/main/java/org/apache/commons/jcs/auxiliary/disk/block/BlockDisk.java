@@ -26,10 +26,13 @@ import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.jcs.auxiliary.disk.DiskBufferPool;
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs.utils.serialization.StandardSerializer;
 import org.apache.commons.logging.Log;
@@ -51,7 +54,7 @@ public class BlockDisk
     // N.B. 4 bytes is the size used for ByteBuffer.putInt(int value) and ByteBuffer.getInt()
 
     /** defaults to 4kb */
-    private static final int DEFAULT_BLOCK_SIZE_BYTES = 4 * 1024;
+    static final int DEFAULT_BLOCK_SIZE_BYTES = 4 * 1024;
 
     /** Size of the blocks */
     private final int blockSizeBytes;
@@ -80,6 +83,9 @@ public class BlockDisk
     /** How many items have we put to disk */
     private final AtomicLong putCount = new AtomicLong(0);
 
+    /** The buffers for reads and writes */
+    private final DiskBufferPool bufferPool;
+
     /**
      * Constructor for the Disk object
      * <p>
@@ -116,6 +122,22 @@ public class BlockDisk
      */
     public BlockDisk( File file, int blockSizeBytes, IElementSerializer elementSerializer )
         throws IOException
+    {
+        this( file, blockSizeBytes, elementSerializer, new DiskBufferPool() );
+    }
+
+    /**
+     * Creates the file and set the block size in bytes.
+     * <p>
+     * @param file
+     * @param blockSizeBytes
+     * @param elementSerializer
+     * @param bufferPool the buffers for reads and writes
+     * @throws IOException
+     */
+    public BlockDisk( File file, int blockSizeBytes, IElementSerializer elementSerializer,
+                      DiskBufferPool bufferPool )
+        throws IOException
     {
         this.filepath = file.getAbsolutePath();
         RandomAccessFile raf = new RandomAccessFile( filepath, "rw" );
@@ -129,6 +151,7 @@ public class BlockDisk
 
         this.blockSizeBytes = blockSizeBytes;
         this.elementSerializer = elementSerializer;
+        this.bufferPool = bufferPool;
     }
 
     /**
@@ -200,25 +223,15 @@ public class BlockDisk
 
         int offset = 0;
         final int maxChunkSize = blockSizeBytes - HEADER_SIZE_BYTES;
-        ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE_BYTES);
 
         for (int i = 0; i < numBlocksNeeded; i++)
         {
-            headerBuffer.clear();
             int length = Math.min(maxChunkSize, data.length - offset);
-            headerBuffer.putInt(length);
-
-            ByteBuffer dataBuffer = ByteBuffer.wrap(data, offset, length);
 
+            // write the header and the data
             long position = calculateByteOffsetForBlockAsLong(blocks[i]);
-            // write the header
-            headerBuffer.flip();
-            int written = fc.write(headerBuffer, position);
-            assert written == HEADER_SIZE_BYTES;
-
-            //write the data
-            written = fc.write(dataBuffer, position + HEADER_SIZE_BYTES);
-            assert written == length;
+            long written = bufferPool.writeRecord(fc, position, data, offset, length);
+            assert written == HEADER_SIZE_BYTES + length;
 
             offset += length;
         }
@@ -228,6 +241,103 @@ public class BlockDisk
         return blocks;
     }
 
+    /**
+     * Writes several serialized objects and returns the blocks of each. Blocks that follow each
+     * other in the file are gathered into one buffer and written together, with the unused rest
+     * of each block filled with zeros.
+     * <p>
+     * @param datas the serialized objects
+     * @return the blocks of each object, in the same order
+     * @throws IOException
+     */
+    protected List<int[]> writeBatch( List<byte[]> datas )
+        throws IOException
+    {
+        List<int[]> result = new ArrayList<int[]>( datas.size() );
+        final int maxChunkSize = blockSizeBytes - HEADER_SIZE_BYTES;
+        byte[] padding = new byte[blockSizeBytes];
+
+        ByteBuffer buffer = bufferPool.acquire( bufferPool.getMaxBufferSize() );
+        try
+        {
+            long bufferStart = 0;
+
+            for ( byte[] data : datas )
+            {
+                this.putBytes.addAndGet( data.length );
+                this.putCount.incrementAndGet();
+
+                int[] blocks = allocateBlocks( calculateTheNumberOfBlocksNeeded( data ) );
+                result.add( blocks );
+
+                int offset = 0;
+                for ( int block : blocks )
+                {
+                    int length = Math.min( maxChunkSize, data.length - offset );
+                    long position = calculateByteOffsetForBlockAsLong( block );
+                    long gap = position - ( bufferStart + buffer.position() );
+
+                    // only blocks that directly follow the buffered ones can join them
+                    if ( buffer.position() > 0
+                        && ( gap < 0 || gap >= blockSizeBytes || buffer.remaining() < gap + HEADER_SIZE_BYTES + length ) )
+                    {
+                        flush( bufferStart, buffer );
+                        gap = 0;
+                    }
+                    if ( buffer.position() == 0 )
+                    {
+                        bufferStart = position;
+                        gap = 0;
+                    }
+
+                    if ( buffer.remaining() < HEADER_SIZE_BYTES + length )
+                    {
+                        long written = bufferPool.writeRecord( fc, position, data, offset, length );
+                        assert written == HEADER_SIZE_BYTES + length;
+                    }
+                    else
+                    {
+                        buffer.put( padding, 0, (int) gap );
+                        buffer.putInt( length );
+                        buffer.put( data, offset, length );
+                    }
+
+                    offset += length;
+                }
+            }
+
+            if ( buffer.position() > 0 )
+            {
+                flush( bufferStart, buffer );
+            }
+        }
+        finally
+        {
+            bufferPool.release( buffer );
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the content of the buffer and clears it.
+     * <p>
+     * @param position the position in the file
+     * @param buffer the filled buffer
+     * @throws IOException
+     */
+    private void flush( long position, ByteBuffer buffer )
+        throws IOException
+    {
+        buffer.flip();
+        long writePos = position;
+        while ( buffer.hasRemaining() )
+        {
+            writePos += fc.write( buffer, writePos );
+        }
+        buffer.clear();
+    }
+
     /**
      * Return the amount to put in each block. Fill them all the way, minus the header.
      * <p>
@@ -331,11 +441,8 @@ public class BlockDisk
 //        }
 //        else
         {
-            ByteBuffer datalength = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-            fc.read(datalength, position);
-            datalength.flip();
-            datalen = datalength.getInt();
-            if ( position + datalen > fileLength )
+            datalen = bufferPool.readInt( fc, position );
+            if ( datalen < 0 || position + datalen > fileLength )
             {
                 corrupted = true;
                 message = "Record " + position + " exceeds file length.";
@@ -348,11 +455,7 @@ public class BlockDisk
             throw new IOException( "The File Is Corrupt, need to reset" );
         }
 
-        ByteBuffer data = ByteBuffer.allocate(datalen);
-        fc.read(data, position + HEADER_SIZE_BYTES);
-        data.flip();
-
-        return data.array();
+        return bufferPool.read( fc, position + HEADER_SIZE_BYTES, datalen );
     }
 
     /**
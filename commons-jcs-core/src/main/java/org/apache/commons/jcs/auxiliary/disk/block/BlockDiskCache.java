@@ -37,6 +37,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
 import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.DiskBufferPool;
 import org.apache.commons.jcs.engine.CacheConstants;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
@@ -80,6 +81,9 @@ public class BlockDiskCache<K, V>
     /** Store, loads, and persists the keys */
     private BlockDiskKeyStore<K> keyStore;
 
+    /** Direct buffers for writing blocks */
+    private final DiskBufferPool bufferPool = new DiskBufferPool();
+
     /**
      * Use this lock to synchronize reads and writes to the underlying storage mechanism. We don't
      * need a reentrant lock, since we only lock one level.
@@ -132,12 +136,13 @@ public class BlockDiskCache<K, V>
             {
                 this.dataFile = new BlockDisk( new File( rootDirectory, fileName + ".data" ),
                                                this.blockDiskCacheAttributes.getBlockSizeBytes(),
-                                               getElementSerializer() );
+                                               getElementSerializer(), bufferPool );
             }
             else
             {
                 this.dataFile = new BlockDisk( new File( rootDirectory, fileName + ".data" ),
-                                               getElementSerializer() );
+                                               BlockDisk.DEFAULT_BLOCK_SIZE_BYTES,
+                                               getElementSerializer(), bufferPool );
             }
 
             keyStore = new BlockDiskKeyStore<K>( this.blockDiskCacheAttributes, this );
@@ -423,6 +428,75 @@ public class BlockDiskCache<K, V>
         }
     }
 
+    /**
+     * Writes several elements with one lock acquisition. The elements are serialized before the
+     * lock is taken and written with as few disk operations as the free blocks allow.
+     * <p>
+     * @param elements the elements, at most one per key
+     */
+    @Override
+    protected void processUpdateBatch( List<ICacheElement<K, V>> elements )
+    {
+        if ( !isAlive() )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( logCacheName + "No longer alive; aborting put of " + elements.size() + " elements" );
+            }
+            return;
+        }
+
+        List<K> keys = new ArrayList<K>( elements.size() );
+        List<byte[]> datas = new ArrayList<byte[]>( elements.size() );
+        for ( ICacheElement<K, V> element : elements )
+        {
+            try
+            {
+                datas.add( getElementSerializer().serialize( element ) );
+                keys.add( element.getKey() );
+            }
+            catch ( IOException e )
+            {
+                log.error( logCacheName + "Failure serializing element, key: " + element.getKey(), e );
+            }
+        }
+
+        // make sure this only locks for one particular cache region
+        storageLock.writeLock().lock();
+
+        try
+        {
+            for ( K key : keys )
+            {
+                int[] old = this.keyStore.get( key );
+                if ( old != null )
+                {
+                    this.dataFile.freeBlocks( old );
+                }
+            }
+
+            List<int[]> blocks = this.dataFile.writeBatch( datas );
+
+            for ( int i = 0; i < keys.size(); i++ )
+            {
+                this.keyStore.put( keys.get( i ), blocks.get( i ) );
+            }
+
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( logCacheName + "Put batch to file [" + fileName + "] elements [" + keys.size() + "]" );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure updating " + keys.size() + " elements", e );
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
+
     /**
      * Returns true if the removal was successful; or false if there is nothing to remove. Current
      * implementation always result in a disk orphan.
@@ -643,6 +717,7 @@ public class BlockDiskCache<K, V>
             // Prevents any interaction with the cache while we're shutting down.
             setAlive(false);
             this.keyStore.saveKeys();
+            this.keyStore.close();
 
             if (future != null)
             {
@@ -747,6 +822,7 @@ public class BlockDiskCache<K, V>
 
         elems.add(new StatElement<Boolean>( "Is Alive", Boolean.valueOf(isAlive()) ) );
         elems.add(new StatElement<Integer>( "Key Map Size", Integer.valueOf(this.keyStore.size()) ) );
+        elems.add(new StatElement<Integer>( "Key Journal Records", Integer.valueOf(this.keyStore.getJournalRecordCount()) ) );
 
         if (this.dataFile != null)
         {
@@ -767,6 +843,7 @@ public class BlockDiskCache<K, V>
                     Long.valueOf(this.dataFile.getAveragePutSizeBytes()) ) );
             elems.add(new StatElement<Integer>( "Empty Blocks",
                     Integer.valueOf(this.dataFile.getEmptyBlocks()) ) );
+            elems.addAll(bufferPool.getStatistics().getStatElements());
         }
 
         // get the stats from the super too
@@ -47,6 +47,12 @@ public class BlockDiskCacheAttributes
     /** The keys will be persisted at this interval.  -1 mean never. */
     private long keyPersistenceIntervalSeconds = DEFAULT_KEY_PERSISTENCE_INTERVAL_SECONDS;
 
+    /** By default a new key snapshot is written when the journal holds as many records as there are keys. */
+    private static final int DEFAULT_KEY_JOURNAL_MAX_PERCENT = 100;
+
+    /** The journal size, in percent of the key count, at which a new key snapshot is written. */
+    private int keyJournalMaxPercent = DEFAULT_KEY_JOURNAL_MAX_PERCENT;
+
     /**
      * The size of the blocks. All blocks are the same size.
      * <p>
@@ -97,6 +103,25 @@ public class BlockDiskCacheAttributes
         return keyPersistenceIntervalSeconds;
     }
 
+    /**
+     * The keys are saved by flushing a journal of the changes. When the journal holds more records
+     * than this percentage of the key count, a new snapshot of all keys is written instead.
+     * <p>
+     * @param keyJournalMaxPercent The keyJournalMaxPercent to set.
+     */
+    public void setKeyJournalMaxPercent( int keyJournalMaxPercent )
+    {
+        this.keyJournalMaxPercent = keyJournalMaxPercent;
+    }
+
+    /**
+     * @return Returns the keyJournalMaxPercent.
+     */
+    public int getKeyJournalMaxPercent()
+    {
+        return keyJournalMaxPercent;
+    }
+
     /**
      * Write out the values for debugging purposes.
      * <p>
@@ -112,6 +137,7 @@ public class BlockDiskCacheAttributes
         str.append( "\n MaxPurgatorySize [" + this.getMaxPurgatorySize() + "]" );
         str.append( "\n BlockSizeBytes [" + this.getBlockSizeBytes() + "]" );
         str.append( "\n KeyPersistenceIntervalSeconds [" + this.getKeyPersistenceIntervalSeconds() + "]" );
+        str.append( "\n KeyJournalMaxPercent [" + this.getKeyJournalMaxPercent() + "]" );
         str.append( "\n DiskLimitType [" + this.getDiskLimitType() + "]" );
         return str.toString();
     }
@@ -21,23 +21,27 @@ package org.apache.commons.jcs.auxiliary.disk.block;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs.io.ObjectInputStreamClassLoaderAware;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
 import org.apache.commons.jcs.utils.struct.AbstractLRUMap;
 import org.apache.commons.jcs.utils.struct.LRUMap;
 import org.apache.commons.jcs.utils.timing.ElapsedTimer;
@@ -47,6 +51,17 @@ import org.apache.commons.logging.LogFactory;
 /**
  * This is responsible for storing the keys.
  * <p>
+ * The keys are persisted as a snapshot in the .key file plus a journal of the puts and removes
+ * since then. The journal is split into numbered segment files named .keylog.n. Saving the keys
+ * only flushes the journal. When the journal holds more records than a percentage of the key
+ * count, the current segment is closed and a new snapshot is written, after which the older
+ * segments are deleted. Loading reads the snapshot and replays the segments it does not cover.
+ * <p>
+ * Replaying a journal over a snapshot that was taken while the journal was written gives the
+ * right result, since the last record of a key always wins. So a crash during a snapshot only
+ * means that more segments are replayed.
+ * <p>
+ * Key files of older versions, written with Java serialization, are still read.
  *
  * @author Aaron Smuts
  */
@@ -55,6 +70,21 @@ public class BlockDiskKeyStore<K>
     /** The logger */
     private static final Log log = LogFactory.getLog(BlockDiskKeyStore.class);
 
+    /** Marks a binary snapshot, a serialized key file starts with 0xACED */
+    private static final int SNAPSHOT_MAGIC = 0x4A43534B;
+
+    /** The version of the snapshot format */
+    private static final byte SNAPSHOT_VERSION = 1;
+
+    /** A journal record for a put */
+    private static final byte JOURNAL_PUT = 1;
+
+    /** A journal record for a remove */
+    private static final byte JOURNAL_REMOVE = 2;
+
+    /** The journal is never compacted below this number of records */
+    private static final int MIN_COMPACTION_RECORDS = 1000;
+
     /** Attributes governing the behavior of the block disk cache. */
     private final BlockDiskCacheAttributes blockDiskCacheAttributes;
 
@@ -83,6 +113,24 @@ public class BlockDiskKeyStore<K>
 
     private int blockSize;
 
+    /** Turns the keys into bytes for the snapshot and the journal */
+    private final IElementSerializer keySerializer;
+
+    /** Guards the key map together with the journal, so both see the same order of changes */
+    private final Object journalLock = new Object();
+
+    /** The number of the journal segment written to */
+    private long journalSegment;
+
+    /** The open journal segment, null until the first record */
+    private DataOutputStream journalOut;
+
+    /** The number of journal records since the last snapshot */
+    private int journalRecords;
+
+    /** Set if a journal record could not be written, the next save writes a snapshot */
+    private boolean journalFailed;
+
     /**
      * Set the configuration options.
      * <p>
@@ -100,6 +148,7 @@ public class BlockDiskKeyStore<K>
         this.blockDiskCache = blockDiskCache;
         this.diskLimitType = cacheAttributes.getDiskLimitType();
         this.blockSize = cacheAttributes.getBlockSizeBytes();
+        this.keySerializer = blockDiskCache != null ? blockDiskCache.getElementSerializer() : new StandardSerializer();
 
         File rootDirectory = cacheAttributes.getDiskPath();
 
@@ -115,10 +164,14 @@ public class BlockDiskKeyStore<K>
             log.info(logCacheName + "Key File [" + this.keyFile.getAbsolutePath() + "]");
         }
 
-        if (keyFile.length() > 0)
+        // new records go to a new segment, the existing ones are only read
+        TreeSet<Long> segments = listJournalSegments();
+        this.journalSegment = segments.isEmpty() ? 1 : segments.last().longValue() + 1;
+
+        if (keyFile.length() > 0 || !segments.isEmpty())
         {
             loadKeys();
-            if (!verify())
+            if (!verify(keyHash))
             {
                 log.warn(logCacheName + "Key File is invalid. Resetting file.");
                 initKeyMap();
@@ -132,46 +185,124 @@ public class BlockDiskKeyStore<K>
     }
 
     /**
-     * Saves key file to disk. This gets the LRUMap entry set and write the
-     * entries out one by one after putting them in a wrapper.
+     * Saves the keys to disk. This flushes the journal. If the journal has grown too large
+     * compared to the number of keys, a new snapshot is written and the journal segments it
+     * covers are deleted.
      */
     protected void saveKeys()
+    {
+        synchronized (keyFile)
+        {
+            Map<K, int[]> snapshot = null;
+            long firstSegment = 0;
+
+            synchronized (journalLock)
+            {
+                try
+                {
+                    if (journalOut != null)
+                    {
+                        journalOut.flush();
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.error(logCacheName + "Problem flushing the key journal.", e);
+                    journalFailed = true;
+                }
+
+                if (journalFailed || journalRecords > getCompactionThreshold())
+                {
+                    // don't need to synchronize the copy, since the underlying
+                    // collection makes a copy
+                    snapshot = new HashMap<K, int[]>(keyHash);
+                    closeJournal();
+                    firstSegment = ++journalSegment;
+                    journalRecords = 0;
+                    journalFailed = false;
+                }
+            }
+
+            if (snapshot != null)
+            {
+                writeSnapshot(snapshot, firstSegment);
+            }
+            else if (log.isDebugEnabled())
+            {
+                log.debug(logCacheName + "Flushed key journal, records since the last snapshot [" + journalRecords + "]");
+            }
+        }
+    }
+
+    /**
+     * @return the number of journal records that triggers a new snapshot
+     */
+    private int getCompactionThreshold()
+    {
+        long threshold = (long) keyHash.size() * blockDiskCacheAttributes.getKeyJournalMaxPercent() / 100;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_COMPACTION_RECORDS, threshold));
+    }
+
+    /**
+     * Writes a snapshot of the keys to a temporary file and moves it over the key file. The
+     * journal segments older than the first segment are deleted afterwards.
+     * <p>
+     *
+     * @param keys
+     *            the keys to write
+     * @param firstSegment
+     *            the first journal segment that is not covered by the snapshot
+     */
+    private void writeSnapshot(Map<K, int[]> keys, long firstSegment)
     {
         try
         {
             ElapsedTimer timer = new ElapsedTimer();
-            int numKeys = keyHash.size();
+            int numKeys = keys.size();
             if (log.isInfoEnabled())
             {
                 log.info(logCacheName + "Saving keys to [" + this.keyFile.getAbsolutePath() + "], key count [" + numKeys + "]");
             }
 
-            synchronized (keyFile)
+            if (!verify(keys))
             {
-                FileOutputStream fos = new FileOutputStream(keyFile);
-                BufferedOutputStream bos = new BufferedOutputStream(fos, 65536);
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try
+                throw new IOException("Inconsistent key file");
+            }
+
+            File tempFile = new File(keyFile.getParentFile(), keyFile.getName() + ".tmp");
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+            try
+            {
+                dos.writeInt(SNAPSHOT_MAGIC);
+                dos.writeByte(SNAPSHOT_VERSION);
+                dos.writeLong(firstSegment);
+                dos.writeInt(numKeys);
+                for (Map.Entry<K, int[]> entry : keys.entrySet())
                 {
-                    if (!verify())
-                    {
-                        throw new IOException("Inconsistent key file");
-                    }
-                    // don't need to synchronize, since the underlying
-                    // collection makes a copy
-                    for (Map.Entry<K, int[]> entry : keyHash.entrySet())
-                    {
-                        BlockDiskElementDescriptor<K> descriptor = new BlockDiskElementDescriptor<K>();
-                        descriptor.setKey(entry.getKey());
-                        descriptor.setBlocks(entry.getValue());
-                        // stream these out in the loop.
-                        oos.writeUnshared(descriptor);
-                    }
+                    writeKey(dos, entry.getKey());
+                    writeBlocks(dos, entry.getValue());
+                }
+            }
+            finally
+            {
+                dos.close();
+            }
+
+            if (!tempFile.renameTo(keyFile))
+            {
+                // some platforms don't replace an existing file
+                keyFile.delete();
+                if (!tempFile.renameTo(keyFile))
+                {
+                    throw new IOException("Could not rename " + tempFile + " to " + keyFile);
                 }
-                finally
+            }
+
+            for (Long segment : listJournalSegments())
+            {
+                if (segment.longValue() < firstSegment)
                 {
-                    oos.flush();
-                    oos.close();
+                    getJournalFile(segment.longValue()).delete();
                 }
             }
 
@@ -187,6 +318,37 @@ public class BlockDiskKeyStore<K>
         }
     }
 
+    /**
+     * Flushes and closes the journal. It is opened again by the next change.
+     */
+    protected void close()
+    {
+        synchronized (journalLock)
+        {
+            closeJournal();
+        }
+    }
+
+    /**
+     * Closes the journal segment, must be called holding the journal lock.
+     */
+    private void closeJournal()
+    {
+        if (journalOut != null)
+        {
+            try
+            {
+                journalOut.close();
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Problem closing the key journal.", e);
+                journalFailed = true;
+            }
+            journalOut = null;
+        }
+    }
+
     /**
      * Resets the file and creates a new key map.
      */
@@ -194,8 +356,16 @@ public class BlockDiskKeyStore<K>
     {
         synchronized (keyFile)
         {
-            clearMemoryMap();
-            saveKeys();
+            long firstSegment;
+            synchronized (journalLock)
+            {
+                clearMemoryMap();
+                closeJournal();
+                firstSegment = ++journalSegment;
+                journalRecords = 0;
+                journalFailed = false;
+            }
+            writeSnapshot(new HashMap<K, int[]>(), firstSegment);
         }
     }
 
@@ -243,8 +413,8 @@ public class BlockDiskKeyStore<K>
     }
 
     /**
-     * Loads the keys from the .key file. The keys are stored individually on
-     * disk. They are added one by one to an LRUMap..
+     * Loads the keys from the .key file and replays the journal segments written since. They are
+     * added one by one to an LRUMap..
      */
     protected void loadKeys()
     {
@@ -253,60 +423,349 @@ public class BlockDiskKeyStore<K>
             log.info(logCacheName + "Loading keys for " + keyFile.toString());
         }
 
-        try
+        synchronized (keyFile)
         {
-            // create a key map to use.
-            initKeyMap();
-
-            HashMap<K, int[]> keys = new HashMap<K, int[]>();
-
-            synchronized (keyFile)
+            synchronized (journalLock)
             {
-                FileInputStream fis = new FileInputStream(keyFile);
-                BufferedInputStream bis = new BufferedInputStream(fis, 65536);
-                ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(bis, null);
                 try
                 {
-                    while (true)
+                    // create a key map to use.
+                    initKeyMap();
+
+                    if (journalOut != null)
+                    {
+                        journalOut.flush();
+                    }
+
+                    HashMap<K, int[]> keys = new HashMap<K, int[]>();
+                    long firstSegment = 0;
+                    if (keyFile.length() > 0)
+                    {
+                        firstSegment = readSnapshot(keys);
+                    }
+
+                    journalRecords = 0;
+                    for (Long segment : listJournalSegments())
+                    {
+                        if (segment.longValue() >= firstSegment)
+                        {
+                            journalRecords += replayJournal(getJournalFile(segment.longValue()), keys);
+                        }
+                    }
+
+                    if (!keys.isEmpty())
                     {
-                        @SuppressWarnings("unchecked")
-                        // Need to cast from Object
-                        BlockDiskElementDescriptor<K> descriptor = (BlockDiskElementDescriptor<K>) ois.readObject();
-                        if (descriptor != null)
+                        // keys that fall off the LRU here are journaled as removes
+                        keyHash.putAll(keys);
+
+                        if (log.isDebugEnabled())
+                        {
+                            log.debug(logCacheName + "Found " + keys.size() + " in keys file.");
+                        }
+
+                        if (log.isInfoEnabled())
                         {
-                            keys.put(descriptor.getKey(), descriptor.getBlocks());
+                            log.info(logCacheName + "Loaded keys from [" + fileName + "], key count: " + keyHash.size() + "; up to "
+                                    + maxKeySize + " will be available.");
                         }
                     }
                 }
-                catch (EOFException eof)
+                catch (Exception e)
                 {
-                    // nothing
+                    log.error(logCacheName + "Problem loading keys for file " + fileName, e);
                 }
-                finally
+            }
+        }
+    }
+
+    /**
+     * Reads the key file, a binary snapshot or a file of serialized descriptors.
+     * <p>
+     *
+     * @param keys
+     *            the map to fill
+     * @return the first journal segment that is not covered by the snapshot
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private long readSnapshot(Map<K, int[]> keys)
+        throws IOException, ClassNotFoundException
+    {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(keyFile), 65536));
+        try
+        {
+            if (dis.readInt() != SNAPSHOT_MAGIC)
+            {
+                dis.close();
+                readSerializedKeys(keys);
+                return 0;
+            }
+
+            byte version = dis.readByte();
+            if (version != SNAPSHOT_VERSION)
+            {
+                throw new IOException("Unknown key file version " + version);
+            }
+
+            long firstSegment = dis.readLong();
+            int numKeys = dis.readInt();
+            for (int i = 0; i < numKeys; i++)
+            {
+                K key = readKey(dis);
+                keys.put(key, readBlocks(dis));
+            }
+            return firstSegment;
+        }
+        finally
+        {
+            dis.close();
+        }
+    }
+
+    /**
+     * Reads a key file written with Java serialization by older versions.
+     * <p>
+     *
+     * @param keys
+     *            the map to fill
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readSerializedKeys(Map<K, int[]> keys)
+        throws IOException, ClassNotFoundException
+    {
+        FileInputStream fis = new FileInputStream(keyFile);
+        BufferedInputStream bis = new BufferedInputStream(fis, 65536);
+        ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(bis, null);
+        try
+        {
+            while (true)
+            {
+                @SuppressWarnings("unchecked")
+                // Need to cast from Object
+                BlockDiskElementDescriptor<K> descriptor = (BlockDiskElementDescriptor<K>) ois.readObject();
+                if (descriptor != null)
                 {
-                    ois.close();
+                    keys.put(descriptor.getKey(), descriptor.getBlocks());
                 }
             }
+        }
+        catch (EOFException eof)
+        {
+            // nothing
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
 
-            if (!keys.isEmpty())
+    /**
+     * Applies the records of a journal segment. A record cut off by a crash ends the segment.
+     * <p>
+     *
+     * @param file
+     *            the segment
+     * @param keys
+     *            the map to change
+     * @return the number of records
+     * @throws IOException
+     */
+    private int replayJournal(File file, Map<K, int[]> keys)
+        throws IOException
+    {
+        int records = 0;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try
+        {
+            while (true)
             {
-                keyHash.putAll(keys);
+                int op = dis.read();
+                if (op == -1)
+                {
+                    break;
+                }
 
-                if (log.isDebugEnabled())
+                K key = readKey(dis);
+                if (op == JOURNAL_PUT)
+                {
+                    keys.put(key, readBlocks(dis));
+                }
+                else if (op == JOURNAL_REMOVE)
                 {
-                    log.debug(logCacheName + "Found " + keys.size() + " in keys file.");
+                    keys.remove(key);
                 }
+                else
+                {
+                    throw new IOException("Unknown record type " + op + " in " + file);
+                }
+                records++;
+            }
+        }
+        catch (EOFException e)
+        {
+            log.warn(logCacheName + "Key journal [" + file + "] ends with an incomplete record, it is ignored.");
+        }
+        finally
+        {
+            dis.close();
+        }
+        return records;
+    }
 
-                if (log.isInfoEnabled())
+    /**
+     * @return the numbers of the journal segments on disk, in ascending order
+     */
+    private TreeSet<Long> listJournalSegments()
+    {
+        TreeSet<Long> segments = new TreeSet<Long>();
+        String prefix = fileName + ".keylog.";
+        String[] names = keyFile.getParentFile() != null ? keyFile.getParentFile().list() : null;
+        if (names != null)
+        {
+            for (String name : names)
+            {
+                if (name.startsWith(prefix))
                 {
-                    log.info(logCacheName + "Loaded keys from [" + fileName + "], key count: " + keyHash.size() + "; up to "
-                            + maxKeySize + " will be available.");
+                    try
+                    {
+                        segments.add(Long.valueOf(name.substring(prefix.length())));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        // not a segment
+                    }
                 }
             }
         }
-        catch (Exception e)
+        return segments;
+    }
+
+    /**
+     * @param segment
+     *            the number of the segment
+     * @return the file of the journal segment
+     */
+    private File getJournalFile(long segment)
+    {
+        return new File(keyFile.getParentFile(), fileName + ".keylog." + segment);
+    }
+
+    /**
+     * Appends a record to the journal, must be called holding the journal lock. A failure is
+     * logged and makes the next save write a snapshot.
+     * <p>
+     *
+     * @param op
+     *            the record type
+     * @param key
+     *            the key
+     * @param blocks
+     *            the blocks of a put
+     */
+    private void journal(byte op, K key, int[] blocks)
+    {
+        try
+        {
+            if (journalOut == null)
+            {
+                journalOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(getJournalFile(journalSegment), true), 65536));
+            }
+
+            journalOut.writeByte(op);
+            writeKey(journalOut, key);
+            if (op == JOURNAL_PUT)
+            {
+                writeBlocks(journalOut, blocks);
+            }
+            journalRecords++;
+        }
+        catch (IOException e)
         {
-            log.error(logCacheName + "Problem loading keys for file " + fileName, e);
+            log.error(logCacheName + "Problem writing to the key journal.", e);
+            journalFailed = true;
+        }
+    }
+
+    /**
+     * @param out
+     *            the stream
+     * @param key
+     *            the key to write with its length
+     * @throws IOException
+     */
+    private void writeKey(DataOutputStream out, K key)
+        throws IOException
+    {
+        byte[] bytes = keySerializer.serialize(key);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param in
+     *            the stream
+     * @return the key
+     * @throws IOException
+     */
+    private K readKey(DataInputStream in)
+        throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        try
+        {
+            return keySerializer.deSerialize(bytes, null);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Could not read key: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param out
+     *            the stream
+     * @param blocks
+     *            the blocks to write with their number
+     * @throws IOException
+     */
+    private static void writeBlocks(DataOutputStream out, int[] blocks)
+        throws IOException
+    {
+        out.writeInt(blocks.length);
+        for (int block : blocks)
+        {
+            out.writeInt(block);
+        }
+    }
+
+    /**
+     * @param in
+     *            the stream
+     * @return the blocks
+     * @throws IOException
+     */
+    private static int[] readBlocks(DataInputStream in)
+        throws IOException
+    {
+        int[] blocks = new int[in.readInt()];
+        for (int i = 0; i < blocks.length; i++)
+        {
+            blocks[i] = in.readInt();
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the number of journal records since the last snapshot
+     */
+    public int getJournalRecordCount()
+    {
+        synchronized (journalLock)
+        {
+            return journalRecords;
         }
     }
 
@@ -364,7 +823,11 @@ public class BlockDiskKeyStore<K>
      */
     public void put(K key, int[] value)
     {
-        this.keyHash.put(key, value);
+        synchronized (journalLock)
+        {
+            this.keyHash.put(key, value);
+            journal(JOURNAL_PUT, key, value);
+        }
     }
 
     /**
@@ -376,18 +839,28 @@ public class BlockDiskKeyStore<K>
      */
     public int[] remove(K key)
     {
-        return this.keyHash.remove(key);
+        synchronized (journalLock)
+        {
+            int[] removed = this.keyHash.remove(key);
+            if (removed != null)
+            {
+                journal(JOURNAL_REMOVE, key, null);
+            }
+            return removed;
+        }
     }
 
+
     /**
      * Verify key store integrity
      *
+     * @param keyMap the keys to check
      * @return true if key store is valid
      */
-    private boolean verify()
+    private boolean verify(Map<K, int[]> keyMap)
     {
         Map<Integer, Set<K>> blockAllocationMap = new TreeMap<Integer, Set<K>>();
-        for (Entry<K, int[]> e : keyHash.entrySet())
+        for (Entry<K, int[]> e : keyMap.entrySet())
         {
             for (int block : e.getValue())
             {
@@ -526,6 +999,7 @@ public class BlockDiskKeyStore<K>
         protected void processRemovedLRU(K key, int[] value)
         {
             blockDiskCache.freeBlocks(value);
+            journal(JOURNAL_REMOVE, key, null);
             if (log.isDebugEnabled())
             {
                 log.debug(logCacheName + "Removing key: [" + key + "] from key store.");
@@ -574,6 +1048,7 @@ public class BlockDiskKeyStore<K>
         protected void processRemovedLRU(K key, int[] value)
         {
             blockDiskCache.freeBlocks(value);
+            journal(JOURNAL_REMOVE, key, null);
             if (log.isDebugEnabled())
             {
                 log.debug(logCacheName + "Removing key: [" + key + "] from key store.");
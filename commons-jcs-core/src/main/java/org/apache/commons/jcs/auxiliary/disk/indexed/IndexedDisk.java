@@ -25,8 +25,12 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
 
+import org.apache.commons.jcs.auxiliary.disk.DiskBufferPool;
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -49,6 +53,15 @@ class IndexedDisk
     /** The data file. */
     private final FileChannel fc;
 
+    /** The size of the mapped segments in bytes. 0 if reads are not served from mapped memory. */
+    private final int mappedSegmentSize;
+
+    /** The read only mappings of the file, one per segment. The last one may be partial. */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /** The buffers for reads, writes and moves. */
+    private final DiskBufferPool bufferPool;
+
     /**
      * Constructor for the Disk object
      * <p>
@@ -58,9 +71,28 @@ class IndexedDisk
      */
     public IndexedDisk( File file, IElementSerializer elementSerializer )
         throws FileNotFoundException
+    {
+        this( file, elementSerializer, 0, new DiskBufferPool() );
+    }
+
+    /**
+     * Constructor for the Disk object. If a segment size is given, the file is mapped into memory
+     * in segments of that size and reads are served from the mappings.
+     * <p>
+     * @param file
+     * @param elementSerializer
+     * @param mappedSegmentSize the size of the mapped segments, 0 to read through the channel
+     * @param bufferPool the buffers for reads, writes and moves, usually shared by the cache's files
+     * @throws FileNotFoundException
+     */
+    public IndexedDisk( File file, IElementSerializer elementSerializer, int mappedSegmentSize,
+                        DiskBufferPool bufferPool )
+        throws FileNotFoundException
     {
         this.filepath = file.getAbsolutePath();
         this.elementSerializer = elementSerializer;
+        this.mappedSegmentSize = Math.max( 0, mappedSegmentSize );
+        this.bufferPool = bufferPool;
         RandomAccessFile raf = new RandomAccessFile( filepath, "rw" );
         this.fc = raf.getChannel();
     }
@@ -89,10 +121,7 @@ class IndexedDisk
         }
         else
         {
-            ByteBuffer datalength = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-            fc.read(datalength, ded.pos);
-            datalength.flip();
-            int datalen = datalength.getInt();
+            int datalen = readInt( ded.pos );
             if ( ded.len != datalen )
             {
                 corrupted = true;
@@ -111,11 +140,146 @@ class IndexedDisk
             throw new IOException( "The File Is Corrupt, need to reset" );
         }
 
-        ByteBuffer data = ByteBuffer.allocate(ded.len);
-        fc.read(data, ded.pos + HEADER_SIZE_BYTES);
-        data.flip();
+        ByteBuffer data = read( ded.pos + HEADER_SIZE_BYTES, ded.len );
+        byte[] bytes;
+        if ( data.hasArray() && data.arrayOffset() == 0 && data.array().length == ded.len )
+        {
+            bytes = data.array();
+        }
+        else
+        {
+            bytes = new byte[ded.len];
+            data.get( bytes );
+        }
+
+        return elementSerializer.deSerialize( bytes, null );
+    }
+
+    /**
+     * Reads the given range of the file. If the file is mapped and the range lies within one
+     * segment, the result is a view of the mapping. Otherwise the range is read through a pooled
+     * buffer.
+     * <p>
+     * @param pos the position in the file
+     * @param length the number of bytes
+     * @return a buffer positioned at the first byte of the range
+     * @throws IOException
+     */
+    private ByteBuffer read( long pos, int length )
+        throws IOException
+    {
+        ByteBuffer view = mappedView( pos, length );
+        if ( view != null )
+        {
+            return view;
+        }
+        return ByteBuffer.wrap( bufferPool.read( fc, pos, length ) );
+    }
+
+    /**
+     * Reads a length header, from the mapping if the file is mapped.
+     * <p>
+     * @param pos the position of the header
+     * @return the value of the header
+     * @throws IOException
+     */
+    private int readInt( long pos )
+        throws IOException
+    {
+        ByteBuffer view = mappedView( pos, HEADER_SIZE_BYTES );
+        if ( view != null )
+        {
+            return view.getInt();
+        }
+        return bufferPool.readInt( fc, pos );
+    }
+
+    /**
+     * @param pos the position in the file
+     * @param length the number of bytes
+     * @return a view of the mapping positioned at the first byte of the range, or null if the
+     *         range is not mapped
+     * @throws IOException
+     */
+    private ByteBuffer mappedView( long pos, int length )
+        throws IOException
+    {
+        if ( mappedSegmentSize > 0 )
+        {
+            int index = (int) ( pos / mappedSegmentSize );
+            int offset = (int) ( pos % mappedSegmentSize );
+
+            if ( offset + length <= mappedSegmentSize )
+            {
+                MappedByteBuffer[] mapped = segments;
+                if ( index >= mapped.length || mapped[index].capacity() < offset + length )
+                {
+                    mapped = remap( pos + length );
+                }
+
+                if ( index < mapped.length && mapped[index].capacity() >= offset + length )
+                {
+                    ByteBuffer view = mapped[index].duplicate();
+                    view.limit( offset + length );
+                    view.position( offset );
+                    return view;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Maps the file up to its current length. Complete segments are kept, the partial last
+     * segment and any new segments are mapped again. Nothing is mapped beyond the end of the
+     * file.
+     * <p>
+     * @param required the file length the caller needs mapped
+     * @return the current mappings
+     * @throws IOException
+     */
+    private synchronized MappedByteBuffer[] remap( long required )
+        throws IOException
+    {
+        MappedByteBuffer[] mapped = segments;
+        long fileLength = fc.size();
+        long mappedLength = mapped.length == 0 ? 0
+            : (long) ( mapped.length - 1 ) * mappedSegmentSize + mapped[mapped.length - 1].capacity();
+
+        if ( mappedLength >= required || fileLength <= mappedLength )
+        {
+            // another thread was faster or the file did not grow
+            return mapped;
+        }
+
+        int count = (int) ( ( fileLength + mappedSegmentSize - 1 ) / mappedSegmentSize );
+        MappedByteBuffer[] remapped = new MappedByteBuffer[count];
+        int complete = (int) ( mappedLength / mappedSegmentSize );
+        System.arraycopy( mapped, 0, remapped, 0, complete );
 
-        return elementSerializer.deSerialize( data.array(), null );
+        for ( int i = complete; i < count; i++ )
+        {
+            long start = (long) i * mappedSegmentSize;
+            long size = Math.min( mappedSegmentSize, fileLength - start );
+            remapped[i] = fc.map( MapMode.READ_ONLY, start, size );
+        }
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Mapped " + fileLength + " bytes of [" + filepath + "] in " + count + " segments" );
+        }
+
+        segments = remapped;
+        return remapped;
+    }
+
+    /**
+     * Drops the mappings. They must not be used after the file has shrunk.
+     */
+    private synchronized void unmap()
+    {
+        segments = new MappedByteBuffer[0];
     }
 
     /**
@@ -128,41 +292,86 @@ class IndexedDisk
     protected void move( final IndexedDiskElementDescriptor ded, final long newPosition )
         throws IOException
     {
-        ByteBuffer datalength = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-        fc.read(datalength, ded.pos);
-        datalength.flip();
-        int length = datalength.getInt();
-
-        if ( length != ded.len )
-        {
-            throw new IOException( "Mismatched memory and disk length (" + length + ") for " + ded );
-        }
+        transfer( ded, fc, newPosition );
+        ded.pos = newPosition;
+    }
 
-        // TODO: more checks?
+    /**
+     * Copies the record to the given position of another file. The descriptor is not changed.
+     * <p>
+     * @param ded the record in this file
+     * @param target the file to copy to
+     * @param newPosition the position in the target file
+     * @throws IOException
+     */
+    protected void copyTo( final IndexedDiskElementDescriptor ded, final IndexedDisk target, final long newPosition )
+        throws IOException
+    {
+        transfer( ded, target.fc, newPosition );
+    }
 
+    /**
+     * Copies the header and the data of a record to the given position of a channel.
+     * <p>
+     * @param ded the record in this file
+     * @param target the channel to copy to
+     * @param newPosition the position in the target channel
+     * @throws IOException
+     */
+    private void transfer( final IndexedDiskElementDescriptor ded, final FileChannel target, final long newPosition )
+        throws IOException
+    {
         long readPos = ded.pos;
         long writePos = newPosition;
 
         // header len + data len
-        int remaining = HEADER_SIZE_BYTES + length;
-        ByteBuffer buffer = ByteBuffer.allocate(16384);
+        int remaining = HEADER_SIZE_BYTES + ded.len;
+        ByteBuffer buffer = bufferPool.acquire( remaining );
 
-        while ( remaining > 0 )
+        try
         {
-            // chunk it
-            int chunkSize = Math.min( remaining, buffer.capacity() );
-            buffer.limit(chunkSize);
-            fc.read(buffer, readPos);
-            buffer.flip();
-            fc.write(buffer, writePos);
-            buffer.clear();
-
-            writePos += chunkSize;
-            readPos += chunkSize;
-            remaining -= chunkSize;
-        }
+            boolean first = true;
+            while ( remaining > 0 )
+            {
+                // chunk it
+                int chunkSize = Math.min( remaining, buffer.capacity() );
+                buffer.clear();
+                buffer.limit( chunkSize );
+                while ( buffer.hasRemaining() )
+                {
+                    if ( fc.read( buffer, readPos + buffer.position() ) < 0 )
+                    {
+                        throw new IOException( "Unexpected end of file while moving " + ded );
+                    }
+                }
 
-        ded.pos = newPosition;
+                if ( first )
+                {
+                    int length = buffer.getInt( 0 );
+                    if ( length != ded.len )
+                    {
+                        throw new IOException( "Mismatched memory and disk length (" + length + ") for " + ded );
+                    }
+                    first = false;
+                }
+
+                // TODO: more checks?
+
+                buffer.flip();
+                while ( buffer.hasRemaining() )
+                {
+                    target.write( buffer, writePos + buffer.position() );
+                }
+
+                writePos += chunkSize;
+                readPos += chunkSize;
+                remaining -= chunkSize;
+            }
+        }
+        finally
+        {
+            bufferPool.release( buffer );
+        }
     }
 
     /**
@@ -188,14 +397,44 @@ class IndexedDisk
             throw new IOException( "Mismatched descriptor and data lengths" );
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE_BYTES + data.length);
-        buffer.putInt(data.length);
-        buffer.put(data);
-        buffer.flip();
-        int written = fc.write(buffer, pos);
+        long written = bufferPool.writeRecord( fc, pos, data, 0, data.length );
         //fc.force(true);
 
-        return written == data.length;
+        return written == HEADER_SIZE_BYTES + data.length;
+    }
+
+    /**
+     * Writes records that follow each other in the file with as few writes as possible.
+     * <p>
+     * @param deds the descriptors, each starting where the previous record ends
+     * @param datas the data of the records
+     * @throws IOException if the descriptors do not fit the data
+     */
+    protected void write( List<IndexedDiskElementDescriptor> deds, List<byte[]> datas )
+        throws IOException
+    {
+        if ( deds.isEmpty() )
+        {
+            return;
+        }
+
+        long expected = deds.get( 0 ).pos;
+        for ( int i = 0; i < deds.size(); i++ )
+        {
+            IndexedDiskElementDescriptor ded = deds.get( i );
+            if ( ded.pos != expected || ded.len != datas.get( i ).length )
+            {
+                throw new IOException( "Descriptor " + ded + " does not follow the previous record" );
+            }
+            expected += HEADER_SIZE_BYTES + ded.len;
+        }
+
+        if ( log.isTraceEnabled() )
+        {
+            log.trace( "write> " + deds.size() + " records from pos=" + deds.get( 0 ).pos );
+        }
+
+        bufferPool.writeRecords( fc, deds.get( 0 ).pos, datas );
     }
 
     /**
@@ -235,6 +474,7 @@ class IndexedDisk
     protected void close()
         throws IOException
     {
+        unmap();
         fc.close();
     }
 
@@ -250,6 +490,7 @@ class IndexedDisk
         {
             log.debug( "Resetting Indexed File [" + filepath + "]" );
         }
+        unmap();
         fc.truncate(0);
         fc.force(true);
     }
@@ -267,9 +508,18 @@ class IndexedDisk
         {
             log.info( "Truncating file [" + filepath + "] to " + length );
         }
+        unmap();
         fc.truncate( length );
     }
 
+    /**
+     * @return true if reads are served from mapped memory
+     */
+    protected boolean isMemoryMapped()
+    {
+        return mappedSegmentSize > 0;
+    }
+
     /**
      * This is used for debugging.
      * <p>
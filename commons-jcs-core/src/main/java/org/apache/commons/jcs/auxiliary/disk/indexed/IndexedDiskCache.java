@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -39,6 +40,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
 import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.DiskBufferPool;
 import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
 import org.apache.commons.jcs.engine.CacheConstants;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
@@ -112,10 +114,19 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** Should we queue puts. True when optimizing. We write the queue post optimization. */
     private boolean queueInput = false;
 
+    /** True while the concurrent optimization copies records. Descriptors must not be reused then. */
+    private boolean copyForward = false;
+
     /** list where puts made during optimization are made */
     private final ConcurrentSkipListSet<IndexedDiskElementDescriptor> queuedPutList =
             new ConcurrentSkipListSet<IndexedDiskElementDescriptor>(new PositionComparator());
 
+    /** The concurrent optimization copies the remaining queued puts under the write-lock if no more than this are left. */
+    private static final int CATCH_UP_THRESHOLD = 100;
+
+    /** The number of attempts the concurrent optimization makes to copy queued puts without the write-lock. */
+    private static final int MAX_CATCH_UP_PASSES = 10;
+
     /** RECYLCE BIN -- array of empty spots */
     private ConcurrentSkipListSet<IndexedDiskElementDescriptor> recycle;
 
@@ -137,6 +148,9 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** simple stat */
     private AtomicInteger hitCount = new AtomicInteger(0);
 
+    /** Direct buffers for writing and moving records, shared by the key and the data file. */
+    private final DiskBufferPool bufferPool = new DiskBufferPool();
+
     /**
      * Use this lock to synchronize reads and writes to the underlying storage mechanism.
      */
@@ -221,6 +235,14 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * @return the segment size to map the data file with, 0 if it should not be mapped
+     */
+    private int getMappedSegmentSize()
+    {
+        return cattr.isMemoryMapped() ? cattr.getMappedSegmentSize() : 0;
+    }
+
     /**
      * Creates the key and data disk caches.
      * <p>
@@ -232,8 +254,9 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
      */
     private void initializeKeysAndData(IndexedDiskCacheAttributes cattr) throws IOException
     {
-        this.dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer());
-        this.keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer());
+        this.dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer(),
+            getMappedSegmentSize(), bufferPool);
+        this.keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer(), 0, bufferPool);
 
         if (cattr.isClearDiskOnStartup())
         {
@@ -521,75 +544,175 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             try
             {
                 old = keyHash.get(ce.getKey());
+                ded = allocateDescriptor(ce.getKey(), old, data.length, dataFile.length());
+
+                dataFile.write(ded, data);
+            }
+            finally
+            {
+                storageLock.writeLock().unlock();
+            }
+
+            if (log.isDebugEnabled())
+            {
+                log.debug(logCacheName + "Put to file: " + fileName + ", key: " + ce.getKey() + ", position: " + ded.pos
+                    + ", size: " + ded.len);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Failure updating element, key: " + ce.getKey() + " old: " + old, e);
+        }
+    }
+
+    /**
+     * Finds the place for a record: the slot of the old record with the same key if the data
+     * fits, a recycled slot, or the given append position. Registers the descriptor for the key.
+     * Must be called with the write lock held.
+     * <p>
+     *
+     * @param key the key
+     * @param old the descriptor of the old record with the same key, may be null
+     * @param length the length of the data
+     * @param appendPos the position for a record at the end of the file
+     * @return the descriptor to write the data to
+     */
+    private IndexedDiskElementDescriptor allocateDescriptor(K key, IndexedDiskElementDescriptor old, int length,
+        long appendPos)
+    {
+        IndexedDiskElementDescriptor ded;
 
-                // Item with the same key already exists in file.
-                // Try to reuse the location if possible.
-                if (old != null && data.length <= old.len)
+        // Item with the same key already exists in file.
+        // Try to reuse the location if possible.
+        if (old != null && length <= old.len && !copyForward)
+        {
+            // Reuse the old ded. The defrag relies on ded updates by reference, not
+            // replacement.
+            ded = old;
+            ded.len = length;
+        }
+        else
+        {
+            // we need this to compare in the recycle bin
+            ded = new IndexedDiskElementDescriptor(appendPos, length);
+
+            if (doRecycle)
+            {
+                IndexedDiskElementDescriptor rep = recycle.ceiling(ded);
+                if (rep != null)
                 {
-                    // Reuse the old ded. The defrag relies on ded updates by reference, not
-                    // replacement.
-                    ded = old;
-                    ded.len = data.length;
+                    // remove element from recycle bin
+                    recycle.remove(rep);
+                    ded = rep;
+                    ded.len = length;
+                    recycleCnt++;
+                    this.adjustBytesFree(ded, false);
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug(logCacheName + "using recycled ded " + ded.pos + " rep.len = " + rep.len + " ded.len = "
+                            + ded.len);
+                    }
                 }
-                else
+            }
+
+            // Put it in the map
+            keyHash.put(key, ded);
+
+            if (queueInput)
+            {
+                queuedPutList.add(ded);
+                if (log.isDebugEnabled())
                 {
-                    // we need this to compare in the recycle bin
-                    ded = new IndexedDiskElementDescriptor(dataFile.length(), data.length);
+                    log.debug(logCacheName + "added to queued put list." + queuedPutList.size());
+                }
+            }
 
-                    if (doRecycle)
-                    {
-                        IndexedDiskElementDescriptor rep = recycle.ceiling(ded);
-                        if (rep != null)
-                        {
-                            // remove element from recycle bin
-                            recycle.remove(rep);
-                            ded = rep;
-                            ded.len = data.length;
-                            recycleCnt++;
-                            this.adjustBytesFree(ded, false);
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug(logCacheName + "using recycled ded " + ded.pos + " rep.len = " + rep.len + " ded.len = "
-                                    + ded.len);
-                            }
-                        }
-                    }
+            // add the old slot to the recycle bin
+            if (old != null)
+            {
+                addToRecycleBin(old);
+            }
+        }
 
-                    // Put it in the map
-                    keyHash.put(ce.getKey(), ded);
+        return ded;
+    }
 
-                    if (queueInput)
+    /**
+     * Writes several elements with one lock acquisition. Records that are appended to the file are
+     * gathered and written together; reused and recycled slots are written one by one.
+     * <p>
+     *
+     * @param elements the elements, at most one per key
+     */
+    @Override
+    protected void processUpdateBatch(List<ICacheElement<K, V>> elements)
+    {
+        if (!isAlive())
+        {
+            log.error(logCacheName + "No longer alive; aborting put of " + elements.size() + " elements");
+            return;
+        }
+
+        // serialize outside of the lock
+        List<ICacheElement<K, V>> serialized = new ArrayList<ICacheElement<K, V>>(elements.size());
+        List<byte[]> datas = new ArrayList<byte[]>(elements.size());
+        for (ICacheElement<K, V> ce : elements)
+        {
+            try
+            {
+                datas.add(getElementSerializer().serialize(ce));
+                serialized.add(ce);
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Failure serializing element, key: " + ce.getKey(), e);
+            }
+        }
+
+        List<IndexedDiskElementDescriptor> appended = new ArrayList<IndexedDiskElementDescriptor>();
+        List<byte[]> appendedData = new ArrayList<byte[]>();
+
+        try
+        {
+            storageLock.writeLock().lock();
+            try
+            {
+                long appendPos = dataFile.length();
+
+                for (int i = 0; i < serialized.size(); i++)
+                {
+                    K key = serialized.get(i).getKey();
+                    byte[] data = datas.get(i);
+                    IndexedDiskElementDescriptor ded = allocateDescriptor(key, keyHash.get(key), data.length, appendPos);
+
+                    if (ded.pos == appendPos)
                     {
-                        queuedPutList.add(ded);
-                        if (log.isDebugEnabled())
-                        {
-                            log.debug(logCacheName + "added to queued put list." + queuedPutList.size());
-                        }
+                        appended.add(ded);
+                        appendedData.add(data);
+                        appendPos += IndexedDisk.HEADER_SIZE_BYTES + data.length;
                     }
-
-                    // add the old slot to the recycle bin
-                    if (old != null)
+                    else
                     {
-                        addToRecycleBin(old);
+                        dataFile.write(ded, data);
                     }
                 }
 
-                dataFile.write(ded, data);
+                dataFile.write(appended, appendedData);
             }
             finally
             {
                 storageLock.writeLock().unlock();
             }
-
-            if (log.isDebugEnabled())
-            {
-                log.debug(logCacheName + "Put to file: " + fileName + ", key: " + ce.getKey() + ", position: " + ded.pos
-                    + ", size: " + ded.len);
-            }
         }
         catch (IOException e)
         {
-            log.error(logCacheName + "Failure updating element, key: " + ce.getKey() + " old: " + old, e);
+            log.error(logCacheName + "Failure updating " + serialized.size() + " elements", e);
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug(logCacheName + "Put batch to file: " + fileName + ", elements: " + serialized.size()
+                + ", appended: " + appended.size());
         }
     }
 
@@ -960,8 +1083,9 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 log.debug("Could not delete file " + keyFileTemp);
             }
 
-            dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer());
-            keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer());
+            dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer(),
+                getMappedSegmentSize(), bufferPool);
+            keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer(), 0, bufferPool);
 
             initializeRecycleBin();
 
@@ -1234,6 +1358,17 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             log.info(logCacheName + "Beginning Optimization #" + timesOptimized);
         }
 
+        if (cattr.isConcurrentOptimization())
+        {
+            compactFile();
+
+            if (log.isInfoEnabled())
+            {
+                log.info(logCacheName + "Finished #" + timesOptimized + " Optimization took " + timer.getElapsedTimeString());
+            }
+            return;
+        }
+
         // CREATE SNAPSHOT
         IndexedDiskElementDescriptor[] defragList = null;
 
@@ -1299,6 +1434,293 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * Optimizes the file by copying the live records to a new file, which then replaces the data
+     * file. It works as follows:
+     * <ol>
+     * <li>Obtain the write-lock. Shutdown recycling and the reuse of descriptors, turn on queuing
+     * of puts and take a snapshot of the current descriptors. Release the write-lock.</li>
+     * <li>Copy the snapshot to the new file, one record at a time under the read-lock. Reads and
+     * writes continue on the old file, writes are appended to it.</li>
+     * <li>Copy the queued puts the same way until only a few are left.</li>
+     * <li>Obtain the write-lock. Copy the remaining queued puts, point the descriptors to the new
+     * file and replace the data file. Records that were removed during the copy go to the
+     * recycle bin. Release the write-lock.</li>
+     * </ol>
+     * The copy is throttled to the configured bytes per second while the cache is alive. If the
+     * cache is reset in the meantime, the optimization is abandoned.
+     */
+    private void compactFile()
+    {
+        File compactedFile = new File(rafDir, fileName + ".data.optimize");
+        Map<IndexedDiskElementDescriptor, Long> newPositions = new IdentityHashMap<IndexedDiskElementDescriptor, Long>();
+        IndexedDiskElementDescriptor[] copyList;
+        IndexedDisk source;
+        IndexedDisk target = null;
+        boolean switched = false;
+
+        storageLock.writeLock().lock();
+
+        try
+        {
+            source = dataFile;
+            queueInput = true;
+            doRecycle = false;
+            copyForward = true;
+            copyList = createPositionSortedDescriptorList();
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
+        try
+        {
+            if (compactedFile.exists() && !compactedFile.delete())
+            {
+                throw new IOException("Could not delete file " + compactedFile);
+            }
+            target = new IndexedDisk(compactedFile, getElementSerializer(), 0, bufferPool);
+
+            long startTime = System.currentTimeMillis();
+            long nextPos = copyRecords(source, target, copyList, newPositions, 0, startTime);
+
+            // copy the puts made in the meantime until only a few are left
+            for (int pass = 0; nextPos >= 0 && pass < MAX_CATCH_UP_PASSES; pass++)
+            {
+                int copied = newPositions.size();
+                copyList = queuedPutList.toArray(new IndexedDiskElementDescriptor[queuedPutList.size()]);
+                nextPos = copyRecords(source, target, copyList, newPositions, nextPos, startTime);
+                if (newPositions.size() - copied <= CATCH_UP_THRESHOLD)
+                {
+                    break;
+                }
+            }
+
+            storageLock.writeLock().lock();
+
+            try
+            {
+                if (nextPos >= 0 && dataFile == source)
+                {
+                    copyList = queuedPutList.toArray(new IndexedDiskElementDescriptor[queuedPutList.size()]);
+                    copyRecords(source, target, copyList, newPositions, nextPos, -1);
+                    switched = switchDataFile(source, target, compactedFile, newPositions);
+                }
+            }
+            finally
+            {
+                storageLock.writeLock().unlock();
+            }
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Error during concurrent optimization, keeping the old data file.", e);
+        }
+        catch (InterruptedException e)
+        {
+            log.warn(logCacheName + "Concurrent optimization interrupted.");
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if (!switched)
+            {
+                abandonCompaction(target, compactedFile);
+            }
+        }
+    }
+
+    /**
+     * Copies the records that were not copied yet to the end of the new file. Each record is
+     * copied under the read-lock.
+     * <p>
+     *
+     * @param source
+     *            the data file the optimization started with
+     * @param target
+     *            the new file
+     * @param copyList
+     *            descriptors in the source file
+     * @param newPositions
+     *            the positions of the copied records in the new file
+     * @param startPos
+     *            the position in the new file to copy to
+     * @param startTime
+     *            the start of the copy for throttling, or -1 not to throttle
+     * @return the position after the last copied record, or -1 if the data file was replaced
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private long copyRecords(IndexedDisk source, IndexedDisk target, IndexedDiskElementDescriptor[] copyList,
+        Map<IndexedDiskElementDescriptor, Long> newPositions, long startPos, long startTime)
+        throws IOException, InterruptedException
+    {
+        long nextPos = startPos;
+        long bytesPerSecond = cattr.getOptimizationBytesPerSecond();
+
+        for (IndexedDiskElementDescriptor ded : copyList)
+        {
+            if (newPositions.containsKey(ded))
+            {
+                continue;
+            }
+
+            storageLock.readLock().lock();
+            try
+            {
+                if (dataFile != source)
+                {
+                    // the cache was reset
+                    return -1;
+                }
+                source.copyTo(ded, target, nextPos);
+            }
+            finally
+            {
+                storageLock.readLock().unlock();
+            }
+
+            newPositions.put(ded, Long.valueOf(nextPos));
+            nextPos += IndexedDisk.HEADER_SIZE_BYTES + ded.len;
+
+            if (startTime >= 0 && bytesPerSecond > 0 && isAlive())
+            {
+                long wait = nextPos * 1000 / bytesPerSecond - (System.currentTimeMillis() - startTime);
+                if (wait > 0)
+                {
+                    Thread.sleep(wait);
+                }
+            }
+        }
+
+        return nextPos;
+    }
+
+    /**
+     * Replaces the data file with the new file. The caller must hold the write-lock. If the files
+     * cannot be replaced, the cache is reset.
+     * <p>
+     *
+     * @param source
+     *            the current data file
+     * @param target
+     *            the new file
+     * @param compactedFile
+     *            the location of the new file
+     * @param newPositions
+     *            the positions of all copied records in the new file
+     * @return true if the data file was replaced
+     * @throws IOException
+     *             if a live record was not copied, the old data file is still in use then
+     */
+    private boolean switchDataFile(IndexedDisk source, IndexedDisk target, File compactedFile,
+        Map<IndexedDiskElementDescriptor, Long> newPositions)
+        throws IOException
+    {
+        Map<IndexedDiskElementDescriptor, Boolean> live = new IdentityHashMap<IndexedDiskElementDescriptor, Boolean>();
+        for (Map.Entry<K, IndexedDiskElementDescriptor> entry : keyHash.entrySet())
+        {
+            IndexedDiskElementDescriptor ded = entry.getValue();
+            if (!newPositions.containsKey(ded))
+            {
+                throw new IOException("Record was not copied: " + ded);
+            }
+            live.put(ded, Boolean.TRUE);
+        }
+
+        target.close();
+        source.close();
+
+        File data = new File(rafDir, fileName + ".data");
+        try
+        {
+            if (!data.delete() || !compactedFile.renameTo(data))
+            {
+                throw new IOException("Could not replace " + data + " with " + compactedFile);
+            }
+            dataFile = new IndexedDisk(data, getElementSerializer(), getMappedSegmentSize(), bufferPool);
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Error replacing the data file, resetting.", e);
+            reset();
+            return false;
+        }
+
+        // RESTORE NORMAL OPERATION
+        removeCount = 0;
+        resetBytesFree();
+        initializeRecycleBin();
+        queuedPutList.clear();
+        queueInput = false;
+        copyForward = false;
+        doRecycle = true;
+
+        for (Map.Entry<IndexedDiskElementDescriptor, Long> entry : newPositions.entrySet())
+        {
+            IndexedDiskElementDescriptor ded = entry.getKey();
+            if (live.containsKey(ded))
+            {
+                ded.pos = entry.getValue().longValue();
+            }
+            else
+            {
+                // removed or replaced during the copy
+                addToRecycleBin(new IndexedDiskElementDescriptor(entry.getValue().longValue(), ded.len));
+            }
+        }
+
+        isOptimizing = false;
+
+        if (log.isInfoEnabled())
+        {
+            log.info(logCacheName + "Replaced data file, " + live.size() + " live records, " + getBytesFree()
+                + " bytes free.");
+        }
+
+        return true;
+    }
+
+    /**
+     * Restores normal operation after a failed concurrent optimization and deletes the new file.
+     * <p>
+     *
+     * @param target
+     *            the new file, may be null
+     * @param compactedFile
+     *            the location of the new file
+     */
+    private void abandonCompaction(IndexedDisk target, File compactedFile)
+    {
+        storageLock.writeLock().lock();
+
+        try
+        {
+            if (target != null)
+            {
+                target.close();
+            }
+            if (compactedFile.exists() && !compactedFile.delete())
+            {
+                log.warn(logCacheName + "Could not delete file " + compactedFile);
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn(logCacheName + "Could not close file " + compactedFile, e);
+        }
+        finally
+        {
+            queuedPutList.clear();
+            queueInput = false;
+            copyForward = false;
+            doRecycle = true;
+            isOptimizing = false;
+            storageLock.writeLock().unlock();
+        }
+    }
+
     /**
      * Defragments the file in place by compacting out the free space (i.e., moving records
      * forward). If there were no gaps the resulting file would be the same size as the previous
@@ -1556,6 +1978,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         {
             log.error(e);
         }
+        elems.add(new StatElement<Boolean>("Memory Mapped", Boolean.valueOf(this.dataFile != null && this.dataFile.isMemoryMapped())));
         elems.add(new StatElement<Integer>("Max Key Size", this.maxKeySize));
         elems.add(new StatElement<AtomicInteger>("Hit Count", this.hitCount));
         elems.add(new StatElement<AtomicLong>("Bytes Free", this.bytesFree));
@@ -1564,6 +1987,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         elems.add(new StatElement<Integer>("Recycle Count", Integer.valueOf(this.recycleCnt)));
         elems.add(new StatElement<Integer>("Recycle Bin Size", Integer.valueOf(this.recycle.size())));
         elems.add(new StatElement<Integer>("Startup Size", Integer.valueOf(this.startupSize)));
+        elems.addAll(bufferPool.getStatistics().getStatElements());
 
         // get the stats from the super too
         IStats sStats = super.getStatistics();
@@ -51,6 +51,30 @@ public class IndexedDiskCacheAttributes
     /** Should we clear the disk on startup. If true the contents of disk are cleared. */
     private boolean clearDiskOnStartup = DEFAULT_CLEAR_DISK_ON_STARTUP;
 
+    /** Should reads be served from a memory mapping of the data file. */
+    public static final boolean DEFAULT_MEMORY_MAPPED = false;
+
+    /** Should reads be served from a memory mapping of the data file. */
+    private boolean memoryMapped = DEFAULT_MEMORY_MAPPED;
+
+    /** The default size of a mapped segment of the data file, 256 MB. */
+    public static final int DEFAULT_MAPPED_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    /** The size of a mapped segment of the data file in bytes. */
+    private int mappedSegmentSize = DEFAULT_MAPPED_SEGMENT_SIZE;
+
+    /** Should the optimization copy the live records to a new file instead of moving them. */
+    public static final boolean DEFAULT_CONCURRENT_OPTIMIZATION = false;
+
+    /** Should the optimization copy the live records to a new file instead of moving them. */
+    private boolean concurrentOptimization = DEFAULT_CONCURRENT_OPTIMIZATION;
+
+    /** The default copy rate of the concurrent optimization, 0 means no limit. */
+    public static final long DEFAULT_OPTIMIZATION_BYTES_PER_SECOND = 0;
+
+    /** The maximum number of bytes per second the concurrent optimization copies. */
+    private long optimizationBytesPerSecond = DEFAULT_OPTIMIZATION_BYTES_PER_SECOND;
+
     /**
      * Constructor for the DiskCacheAttributes object
      */
@@ -132,6 +156,83 @@ public class IndexedDiskCacheAttributes
         return clearDiskOnStartup;
     }
 
+    /**
+     * If true, the data file is mapped into memory in segments of mappedSegmentSize bytes and
+     * reads are served from the mappings. The mappings grow with the file.
+     * <p>
+     * @param memoryMapped the memoryMapped to set
+     */
+    public void setMemoryMapped( boolean memoryMapped )
+    {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return the memoryMapped
+     */
+    public boolean isMemoryMapped()
+    {
+        return memoryMapped;
+    }
+
+    /**
+     * Records that span two segments are read through the file channel, so the segment size
+     * should be much larger than the largest element.
+     * <p>
+     * @param mappedSegmentSize the mappedSegmentSize to set
+     */
+    public void setMappedSegmentSize( int mappedSegmentSize )
+    {
+        this.mappedSegmentSize = mappedSegmentSize;
+    }
+
+    /**
+     * @return the mappedSegmentSize
+     */
+    public int getMappedSegmentSize()
+    {
+        return mappedSegmentSize;
+    }
+
+    /**
+     * If true, the optimization copies the live records to a new data file while the old one is
+     * still used for reads and writes, and then switches to the new file. Otherwise the records
+     * are moved within the data file, under the write lock.
+     * <p>
+     * @param concurrentOptimization the concurrentOptimization to set
+     */
+    public void setConcurrentOptimization( boolean concurrentOptimization )
+    {
+        this.concurrentOptimization = concurrentOptimization;
+    }
+
+    /**
+     * @return the concurrentOptimization
+     */
+    public boolean isConcurrentOptimization()
+    {
+        return concurrentOptimization;
+    }
+
+    /**
+     * Limits the rate at which the concurrent optimization copies records. The limit is not
+     * applied while the cache shuts down.
+     * <p>
+     * @param optimizationBytesPerSecond the bytes per second, 0 or less for no limit
+     */
+    public void setOptimizationBytesPerSecond( long optimizationBytesPerSecond )
+    {
+        this.optimizationBytesPerSecond = optimizationBytesPerSecond;
+    }
+
+    /**
+     * @return the optimizationBytesPerSecond
+     */
+    public long getOptimizationBytesPerSecond()
+    {
+        return optimizationBytesPerSecond;
+    }
+
     /**
      * Write out the values for debugging purposes.
      * <p>
@@ -149,6 +250,10 @@ public class IndexedDiskCacheAttributes
         str.append( "\n shutdownSpoolTimeLimit  = " + super.getShutdownSpoolTimeLimit() );
         str.append( "\n optimizeOnShutdown  = " + optimizeOnShutdown );
         str.append( "\n clearDiskOnStartup  = " + clearDiskOnStartup );
+        str.append( "\n memoryMapped  = " + memoryMapped );
+        str.append( "\n mappedSegmentSize  = " + mappedSegmentSize );
+        str.append( "\n concurrentOptimization  = " + concurrentOptimization );
+        str.append( "\n optimizationBytesPerSecond  = " + optimizationBytesPerSecond );
         return str.toString();
     }
 }
@@ -43,5 +43,8 @@ public enum LateralCommand
     GET_MATCHING,
 
     /** Command to get all keys */
-    GET_KEYSET
+    GET_KEYSET,
+
+    /** Several updates and removes, the value of the element is the list of their descriptors */
+    BATCH
 }
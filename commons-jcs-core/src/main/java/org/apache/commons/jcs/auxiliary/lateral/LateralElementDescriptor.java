@@ -51,6 +51,13 @@ public class LateralElementDescriptor<K, V>
      */
     public int valHashCode = -1;
 
+    /**
+     * The version of the element that was put, see
+     * {@link org.apache.commons.jcs.engine.ElementVersionClock#getVersion}. The receiver
+     * ignores the update or remove if it has the same or a newer version. Zero if unversioned.
+     */
+    public long version = 0;
+
     /** Constructor for the LateralElementDescriptor object */
     public LateralElementDescriptor()
     {
@@ -77,6 +84,7 @@ public class LateralElementDescriptor<K, V>
         buf.append( "\n LateralElementDescriptor " );
         buf.append( "\n command = [" + this.command + "]" );
         buf.append( "\n valHashCode = [" + this.valHashCode + "]" );
+        buf.append( "\n version = [" + this.version + "]" );
         buf.append( "\n ICacheElement = [" + this.ce + "]" );
         return buf.toString();
     }
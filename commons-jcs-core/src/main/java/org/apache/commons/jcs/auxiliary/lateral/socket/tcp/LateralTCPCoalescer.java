@@ -0,0 +1,351 @@
+package org.apache.commons.jcs.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.auxiliary.lateral.LateralCommand;
+import org.apache.commons.jcs.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Collects the updates and removes of a {@link LateralTCPService} for a short window and sends them
+ * as one batch. Only the last command for a key is kept, so keys that are written many times per
+ * window are sent once.
+ * <p>
+ * The window starts with the first command and is flushed by a background thread, or at once if
+ * the maximum number of keys is reached. If sending fails in the background, the next command
+ * throws the exception, so the caller notices the broken connection.
+ * <p>
+ * A batch only holds commands of one requester, because the receiver drops a whole frame that
+ * came from itself. A command of another requester sends the collected commands first.
+ */
+class LateralTCPCoalescer<K, V>
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( LateralTCPCoalescer.class );
+
+    /** Sends the batches */
+    private final LateralTCPSender sender;
+
+    /** How long commands are collected */
+    private final int windowMillis;
+
+    /** The number of keys that sends a batch before the window ends */
+    private final int maxKeys;
+
+    /** The last command per key, in the order of the last change */
+    private Map<CoalesceKey, LateralElementDescriptor<K, V>> buffer =
+        new LinkedHashMap<CoalesceKey, LateralElementDescriptor<K, V>>();
+
+    /** Keeps the batches in order if two flushes overlap */
+    private final Object flushLock = new Object();
+
+    /** Flushes the windows */
+    private final ScheduledExecutorService flusher;
+
+    /** Set if a background flush failed, thrown by the next command */
+    private IOException failure;
+
+    /** The requester of the collected commands */
+    private long bufferRequesterId;
+
+    /** Set by dispose, later commands are sent at once */
+    private boolean disposed;
+
+    /** The commands that were added */
+    private final AtomicLong addCount = new AtomicLong();
+
+    /** The commands that were sent */
+    private final AtomicLong sendCount = new AtomicLong();
+
+    /** The frames that were sent */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /** Runs the scheduled flush */
+    private final Runnable flushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not send coalesced lateral commands", e );
+                synchronized ( LateralTCPCoalescer.this )
+                {
+                    failure = e;
+                }
+            }
+        }
+    };
+
+    /**
+     * @param sender sends the batches
+     * @param windowMillis how long commands are collected
+     * @param maxKeys the number of keys that sends a batch before the window ends
+     */
+    LateralTCPCoalescer( LateralTCPSender sender, int windowMillis, int maxKeys )
+    {
+        this.sender = sender;
+        this.windowMillis = windowMillis;
+        this.maxKeys = Math.max( 1, maxKeys );
+        this.flusher = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory( "JCS-LateralTCPCoalescer-" ) );
+    }
+
+    /**
+     * Adds an update or remove. It replaces an earlier command for the same key. After
+     * {@link #dispose()} the command is sent at once.
+     * <p>
+     * @param led the command
+     * @throws IOException if an earlier background flush failed
+     */
+    void add( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        addCount.incrementAndGet();
+
+        boolean added = false;
+        while ( !added )
+        {
+            boolean direct = false;
+            boolean full;
+            synchronized ( this )
+            {
+                if ( failure != null )
+                {
+                    IOException e = failure;
+                    failure = null;
+                    throw e;
+                }
+
+                if ( disposed )
+                {
+                    direct = true;
+                    full = false;
+                }
+                else if ( !buffer.isEmpty() && bufferRequesterId != led.requesterId )
+                {
+                    // send the commands of the other requester first, then try again
+                    full = true;
+                }
+                else
+                {
+                    CoalesceKey key = new CoalesceKey( led.ce.getCacheName(), led.ce.getKey() );
+                    // move the key to the end, so the batch keeps the order of the last changes
+                    buffer.remove( key );
+                    buffer.put( key, led );
+                    bufferRequesterId = led.requesterId;
+                    added = true;
+
+                    if ( buffer.size() == 1 )
+                    {
+                        flusher.schedule( flushTask, windowMillis, TimeUnit.MILLISECONDS );
+                    }
+                    full = buffer.size() >= maxKeys;
+                }
+            }
+
+            if ( direct )
+            {
+                sendDirect( led );
+                return;
+            }
+            if ( full )
+            {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Sends a command after the coalescer was disposed, behind anything still collected.
+     * <p>
+     * @param led the command
+     * @throws IOException
+     */
+    private void sendDirect( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        synchronized ( flushLock )
+        {
+            flush();
+            sendCount.incrementAndGet();
+            batchCount.incrementAndGet();
+            sender.send( led );
+        }
+    }
+
+    /**
+     * Sends the collected commands. A single command is sent as it is. All commands share the
+     * requester id the batch carries.
+     * <p>
+     * @throws IOException
+     */
+    void flush()
+        throws IOException
+    {
+        synchronized ( flushLock )
+        {
+            Map<CoalesceKey, LateralElementDescriptor<K, V>> batch;
+            synchronized ( this )
+            {
+                if ( buffer.isEmpty() )
+                {
+                    return;
+                }
+                batch = buffer;
+                buffer = new LinkedHashMap<CoalesceKey, LateralElementDescriptor<K, V>>();
+            }
+            send( batch );
+        }
+    }
+
+    /**
+     * @param batch the commands to send
+     * @throws IOException
+     */
+    private void send( Map<CoalesceKey, LateralElementDescriptor<K, V>> batch )
+        throws IOException
+    {
+        sendCount.addAndGet( batch.size() );
+        batchCount.incrementAndGet();
+
+        if ( batch.size() == 1 )
+        {
+            sender.send( batch.values().iterator().next() );
+            return;
+        }
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Sending " + batch.size() + " coalesced lateral commands" );
+        }
+
+        ArrayList<LateralElementDescriptor<K, V>> commands =
+            new ArrayList<LateralElementDescriptor<K, V>>( batch.values() );
+        CacheElement<String, ArrayList<LateralElementDescriptor<K, V>>> ce =
+            new CacheElement<String, ArrayList<LateralElementDescriptor<K, V>>>( "", "BATCH", commands );
+        LateralElementDescriptor<String, ArrayList<LateralElementDescriptor<K, V>>> led =
+            new LateralElementDescriptor<String, ArrayList<LateralElementDescriptor<K, V>>>( ce );
+        led.requesterId = commands.get( 0 ).requesterId;
+        led.command = LateralCommand.BATCH;
+        sender.send( led );
+    }
+
+    /**
+     * Sends the collected commands and stops the background thread. Later commands are sent
+     * without coalescing.
+     * <p>
+     * @throws IOException
+     */
+    void dispose()
+        throws IOException
+    {
+        synchronized ( this )
+        {
+            disposed = true;
+        }
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            flusher.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of commands that were added
+     */
+    long getAddCount()
+    {
+        return addCount.get();
+    }
+
+    /**
+     * @return the number of commands that were sent
+     */
+    long getSendCount()
+    {
+        return sendCount.get();
+    }
+
+    /**
+     * @return the number of frames that were sent
+     */
+    long getBatchCount()
+    {
+        return batchCount.get();
+    }
+
+    /**
+     * Identifies a key of a region.
+     */
+    private static final class CoalesceKey
+    {
+        /** The region */
+        private final String cacheName;
+
+        /** The key */
+        private final Object key;
+
+        /**
+         * @param cacheName the region
+         * @param key the key
+         */
+        CoalesceKey( String cacheName, Object key )
+        {
+            this.cacheName = cacheName;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof CoalesceKey ) )
+            {
+                return false;
+            }
+            CoalesceKey other = (CoalesceKey) obj;
+            return cacheName.equals( other.cacheName ) && key.equals( other.key );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return cacheName.hashCode() * 31 + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.apache.commons.jcs.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+
+/**
+ * The framed protocol of the TCP laterals. A connection starts with a preamble of a magic number
+ * and a version. After that every message is a frame:
+ * <pre>
+ * int length of the rest of the frame
+ * byte type
+ * long request id, 0 if no reply is expected
+ * byte[] the serialized body
+ * </pre>
+ * Since the length is known up front, a receiver can read frames without blocking on a stream.
+ */
+final class LateralTCPFrame
+{
+    /** The start of the preamble, "JCSL" */
+    static final int MAGIC = 0x4A43534C;
+
+    /** The version of the protocol */
+    static final byte VERSION = 1;
+
+    /** The length of the preamble */
+    static final int PREAMBLE_LENGTH = 5;
+
+    /** The length of the type and the request id */
+    static final int HEADER_LENGTH = 9;
+
+    /** Larger frames are taken as a corrupt stream */
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    /** A command without a reply */
+    static final byte COMMAND = 1;
+
+    /** A command that is answered with a reply of the same request id */
+    static final byte REQUEST = 2;
+
+    /** The reply to a request */
+    static final byte REPLY = 3;
+
+    /** Serializes the bodies */
+    private static final IElementSerializer serializer = new StandardSerializer();
+
+    /** The type */
+    private final byte type;
+
+    /** The request id */
+    private final long requestId;
+
+    /** The serialized body */
+    private final byte[] body;
+
+    /**
+     * @param type the type
+     * @param requestId the request id
+     * @param body the serialized body
+     */
+    LateralTCPFrame( byte type, long requestId, byte[] body )
+    {
+        this.type = type;
+        this.requestId = requestId;
+        this.body = body;
+    }
+
+    /**
+     * @return the type
+     */
+    byte getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return the request id
+     */
+    long getRequestId()
+    {
+        return requestId;
+    }
+
+    /**
+     * @return the deserialized body
+     * @throws IOException
+     */
+    Object getBody()
+        throws IOException
+    {
+        try
+        {
+            return serializer.deSerialize( body, null );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            throw new IOException( "Could not read frame body", e );
+        }
+    }
+
+    /**
+     * @return the preamble that starts a connection
+     */
+    static ByteBuffer preamble()
+    {
+        ByteBuffer buf = ByteBuffer.allocate( PREAMBLE_LENGTH );
+        buf.putInt( MAGIC );
+        buf.put( VERSION );
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Checks the preamble at the position of the buffer and skips it.
+     * <p>
+     * @param buf the received bytes, at least PREAMBLE_LENGTH
+     * @throws StreamCorruptedException if the peer does not use this protocol
+     */
+    static void checkPreamble( ByteBuffer buf )
+        throws StreamCorruptedException
+    {
+        int magic = buf.getInt();
+        byte version = buf.get();
+        if ( magic != MAGIC || version != VERSION )
+        {
+            throw new StreamCorruptedException( "Peer does not use version " + VERSION
+                + " of the framed lateral protocol, is NioEnabled set on all nodes?" );
+        }
+    }
+
+    /**
+     * Reads the preamble from a stream.
+     * <p>
+     * @param in the stream
+     * @throws IOException
+     */
+    static void readPreamble( DataInputStream in )
+        throws IOException
+    {
+        byte[] bytes = new byte[PREAMBLE_LENGTH];
+        in.readFully( bytes );
+        checkPreamble( ByteBuffer.wrap( bytes ) );
+    }
+
+    /**
+     * Serializes a frame.
+     * <p>
+     * @param type the type
+     * @param requestId the request id
+     * @param body the body, may be null
+     * @return the frame with its length prefix, ready to be written
+     * @throws IOException
+     */
+    static ByteBuffer encode( byte type, long requestId, Object body )
+        throws IOException
+    {
+        byte[] bytes = serializer.serialize( body );
+        ByteBuffer buf = ByteBuffer.allocate( 4 + HEADER_LENGTH + bytes.length );
+        buf.putInt( HEADER_LENGTH + bytes.length );
+        buf.put( type );
+        buf.putLong( requestId );
+        buf.put( bytes );
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Takes a frame from the buffer if it holds a complete one.
+     * <p>
+     * @param buf the received bytes, positioned at the start of a frame
+     * @return the frame, or null if more bytes are needed. The position is not changed then.
+     * @throws StreamCorruptedException if the length is not valid
+     */
+    static LateralTCPFrame decode( ByteBuffer buf )
+        throws StreamCorruptedException
+    {
+        if ( buf.remaining() < 4 )
+        {
+            return null;
+        }
+
+        int length = checkLength( buf.getInt( buf.position() ) );
+        if ( buf.remaining() < 4 + length )
+        {
+            return null;
+        }
+
+        buf.getInt();
+        byte type = buf.get();
+        long requestId = buf.getLong();
+        byte[] body = new byte[length - HEADER_LENGTH];
+        buf.get( body );
+        return new LateralTCPFrame( type, requestId, body );
+    }
+
+    /**
+     * Reads a frame from a stream.
+     * <p>
+     * @param in the stream
+     * @return the frame
+     * @throws IOException
+     */
+    static LateralTCPFrame read( DataInputStream in )
+        throws IOException
+    {
+        int length = checkLength( in.readInt() );
+        byte type = in.readByte();
+        long requestId = in.readLong();
+        byte[] body = new byte[length - HEADER_LENGTH];
+        in.readFully( body );
+        return new LateralTCPFrame( type, requestId, body );
+    }
+
+    /**
+     * @param length the length of a frame
+     * @return the length
+     * @throws StreamCorruptedException if it is out of range
+     */
+    static int checkLength( int length )
+        throws StreamCorruptedException
+    {
+        if ( length < HEADER_LENGTH || length > MAX_FRAME_LENGTH )
+        {
+            throw new StreamCorruptedException( "Invalid frame length " + length );
+        }
+        return length;
+    }
+}
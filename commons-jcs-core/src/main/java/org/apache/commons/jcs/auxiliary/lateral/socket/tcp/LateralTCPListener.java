@@ -30,17 +30,21 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.jcs.access.exception.CacheException;
+import org.apache.commons.jcs.auxiliary.lateral.LateralCommand;
 import org.apache.commons.jcs.auxiliary.lateral.LateralElementDescriptor;
 import org.apache.commons.jcs.auxiliary.lateral.behavior.ILateralCacheListener;
 import org.apache.commons.jcs.auxiliary.lateral.socket.tcp.behavior.ITCPLateralCacheAttributes;
 import org.apache.commons.jcs.engine.CacheInfo;
+import org.apache.commons.jcs.engine.ElementVersionClock;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheManager;
 import org.apache.commons.jcs.engine.behavior.IShutdownObserver;
@@ -55,6 +59,9 @@ import org.apache.commons.logging.LogFactory;
  * Listens for connections from other TCP lateral caches and handles them. The initialization method
  * starts a listening thread, which creates a socket server. When messages are received they are
  * passed to a pooled executor which then calls the appropriate handle method.
+ * <p>
+ * If NioEnabled is set, a {@link LateralTCPNioReceiver} serves all connections with a few selector
+ * threads instead, and the commands are processed by a bounded pool of workers.
  */
 public class LateralTCPListener<K, V>
     implements ILateralCacheListener<K, V>, IShutdownObserver
@@ -75,6 +82,9 @@ public class LateralTCPListener<K, V>
     /** The socket listener */
     private ListenerThread receiver;
 
+    /** The socket listener if the framed protocol is used */
+    private LateralTCPNioReceiver<K, V> nioReceiver;
+
     /** Configuration attributes */
     private ITCPLateralCacheAttributes tcpLateralCacheAttributes;
 
@@ -93,6 +103,9 @@ public class LateralTCPListener<K, V>
     /** get count */
     private int getCnt = 0;
 
+    /** count of ignored stale updates and removes */
+    private int staleCnt = 0;
+
     /**
      * Use the vmid by default. This can be set for testing. If we ever need to run more than one
      * per vm, then we need a new technique.
@@ -156,13 +169,21 @@ public class LateralTCPListener<K, V>
         {
             this.port = getTcpLateralCacheAttributes().getTcpListenerPort();
 
-            pooledExecutor = Executors.newCachedThreadPool(
-                    new DaemonThreadFactory("JCS-LateralTCPListener-"));
             terminated = new AtomicBoolean(false);
             shutdown = new AtomicBoolean(false);
 
             log.info( "Listening on port " + port );
 
+            if ( getTcpLateralCacheAttributes().isNioEnabled() )
+            {
+                nioReceiver = new LateralTCPNioReceiver<K, V>( this, port, getTcpLateralCacheAttributes() );
+                nioReceiver.start();
+                return;
+            }
+
+            pooledExecutor = Executors.newCachedThreadPool(
+                    new DaemonThreadFactory("JCS-LateralTCPListener-"));
+
             ServerSocket serverSocket = new ServerSocket( port );
             serverSocket.setSoTimeout( acceptTimeOut );
 
@@ -382,7 +403,205 @@ public class LateralTCPListener<K, V>
         terminated.set(true);
         notify();
 
-        pooledExecutor.shutdownNow();
+        if ( nioReceiver != null )
+        {
+            nioReceiver.shutdown();
+        }
+        else
+        {
+            pooledExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * This calls the appropriate method, based on the command sent in the Lateral element
+     * descriptor.
+     * <p>
+     * @param led
+     * @return the result of a get, or null
+     * @throws IOException
+     */
+    protected Serializable processCommand( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        String cacheName = led.ce.getCacheName();
+        K key = led.ce.getKey();
+        Serializable obj = null;
+
+        switch (led.command)
+        {
+            case UPDATE:
+            case REMOVE:
+                if ( led.version == 0 )
+                {
+                    processChange( led );
+                }
+                else
+                {
+                    processVersionedChange( led );
+                }
+                break;
+
+            case REMOVEALL:
+                handleRemoveAll( cacheName );
+                break;
+
+            case GET:
+                obj = handleGet( cacheName, key );
+                break;
+
+            case GET_MATCHING:
+                obj = (Serializable) handleGetMatching( cacheName, (String) key );
+                break;
+
+            case GET_KEYSET:
+            	obj = (Serializable) handleGetKeySet(cacheName);
+                break;
+
+            case BATCH:
+                handleBatch( led );
+                break;
+
+            default: break;
+        }
+
+        return obj;
+    }
+
+    /**
+     * Applies a versioned update or remove unless the local element is as new. Every received
+     * version moves the clock forward, so later local changes get a larger version.
+     * <p>
+     * @param led the update or remove
+     * @throws IOException
+     */
+    private void processVersionedChange( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        String cacheName = led.ce.getCacheName();
+        K key = led.ce.getKey();
+        ElementVersionClock.observe( led.version );
+
+        // the check of the local version and the change must not interleave with other changes
+        Lock keyLock = getCache( cacheName ).getKeyLock( key );
+        keyLock.lock();
+        try
+        {
+            if ( !isStale( cacheName, key, led.version ) )
+            {
+                processChange( led );
+            }
+        }
+        finally
+        {
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * Applies an update or remove. A remove that carries the hash code of the value is skipped if
+     * filtering is on and the local value has the same hash code.
+     * <p>
+     * @param led the update or remove
+     * @throws IOException
+     */
+    private void processChange( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        String cacheName = led.ce.getCacheName();
+        K key = led.ce.getKey();
+
+        if ( led.command == LateralCommand.UPDATE )
+        {
+            handlePut( led.ce );
+            return;
+        }
+
+        // if a hashcode was given and filtering is on
+        // check to see if they are the same
+        // if so, then don't remove, otherwise issue a remove
+        if ( led.valHashCode != -1 )
+        {
+            if ( getTcpLateralCacheAttributes().isFilterRemoveByHashCode() )
+            {
+                ICacheElement<K, V> test = getCache( cacheName ).localGet( key );
+                if ( test != null )
+                {
+                    if ( test.getVal().hashCode() == led.valHashCode )
+                    {
+                        if ( log.isDebugEnabled() )
+                        {
+                            log.debug( "Filtering detected identical hashCode [" + led.valHashCode
+                                + "], not issuing a remove for led " + led );
+                        }
+                        return;
+                    }
+                    else
+                    {
+                        if ( log.isDebugEnabled() )
+                        {
+                            log.debug( "Different hashcodes, in cache [" + test.getVal().hashCode()
+                                + "] sent [" + led.valHashCode + "]" );
+                        }
+                    }
+                }
+            }
+        }
+        handleRemove( cacheName, key );
+    }
+
+    /**
+     * Checks whether the local element is as new as the element of an update or remove. The caller
+     * holds the lock of the key.
+     * <p>
+     * @param cacheName the region
+     * @param key the key
+     * @param version the version of the message, zero if unversioned
+     * @return true if the message should be ignored
+     * @throws IOException
+     */
+    private boolean isStale( String cacheName, K key, long version )
+        throws IOException
+    {
+        ICacheElement<K, V> local = getCache( cacheName ).localGet( key );
+        long localVersion = local != null ? ElementVersionClock.getVersion( local.getElementAttributes() ) : 0;
+        if ( localVersion >= version )
+        {
+            staleCnt++;
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Ignoring stale message for key [" + key + "], version [" + version
+                    + "], local version [" + localVersion + "]" );
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Processes the updates and removes of a batch in order. Commands that came from this listener
+     * are skipped.
+     * <p>
+     * @param led the batch, the value of the element is the list of commands
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked") // Need to cast from Object
+    private void handleBatch( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        List<LateralElementDescriptor<K, V>> commands = (List<LateralElementDescriptor<K, V>>) led.ce.getVal();
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Processing a batch of " + commands.size() + " commands" );
+        }
+
+        for ( LateralElementDescriptor<K, V> command : commands )
+        {
+            if ( command.requesterId != getListenerId() )
+            {
+                processCommand( command );
+            }
+        }
     }
 
     /**
@@ -443,6 +662,14 @@ public class LateralTCPListener<K, V>
         return removeCnt;
     }
 
+    /**
+     * @return Returns the staleCnt.
+     */
+    public int getStaleCnt()
+    {
+        return staleCnt;
+    }
+
     /**
      * @param cacheMgr The cacheMgr to set.
      */
@@ -663,7 +890,7 @@ public class LateralTCPListener<K, V>
 
         /**
          * This calls the appropriate method, based on the command sent in the Lateral element
-         * descriptor.
+         * descriptor, and writes the result back if there is one.
          * <p>
          * @param led
          * @throws IOException
@@ -672,68 +899,7 @@ public class LateralTCPListener<K, V>
         private void handle( LateralElementDescriptor<K, V> led )
             throws IOException
         {
-            String cacheName = led.ce.getCacheName();
-            K key = led.ce.getKey();
-            Serializable obj = null;
-
-            switch (led.command)
-            {
-                case UPDATE:
-                    handlePut( led.ce );
-                    break;
-
-                case REMOVE:
-                    // if a hashcode was given and filtering is on
-                    // check to see if they are the same
-                    // if so, then don't remove, otherwise issue a remove
-                    if ( led.valHashCode != -1 )
-                    {
-                        if ( getTcpLateralCacheAttributes().isFilterRemoveByHashCode() )
-                        {
-                            ICacheElement<K, V> test = getCache( cacheName ).localGet( key );
-                            if ( test != null )
-                            {
-                                if ( test.getVal().hashCode() == led.valHashCode )
-                                {
-                                    if ( log.isDebugEnabled() )
-                                    {
-                                        log.debug( "Filtering detected identical hashCode [" + led.valHashCode
-                                            + "], not issuing a remove for led " + led );
-                                    }
-                                    return;
-                                }
-                                else
-                                {
-                                    if ( log.isDebugEnabled() )
-                                    {
-                                        log.debug( "Different hashcodes, in cache [" + test.getVal().hashCode()
-                                            + "] sent [" + led.valHashCode + "]" );
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    handleRemove( cacheName, key );
-                    break;
-
-                case REMOVEALL:
-                    handleRemoveAll( cacheName );
-                    break;
-
-                case GET:
-                    obj = handleGet( cacheName, key );
-                    break;
-
-                case GET_MATCHING:
-                    obj = (Serializable) handleGetMatching( cacheName, (String) key );
-                    break;
-
-                case GET_KEYSET:
-                	obj = (Serializable) handleGetKeySet(cacheName);
-                    break;
-
-                default: break;
-            }
+            Object obj = processCommand( led );
 
             if (obj != null)
             {
@@ -757,7 +923,14 @@ public class LateralTCPListener<K, V>
                 log.info( "Shutting down TCP Lateral receiver." );
             }
 
-            receiver.interrupt();
+            if ( nioReceiver != null )
+            {
+                nioReceiver.shutdown();
+            }
+            else
+            {
+                receiver.interrupt();
+            }
         }
         else
         {
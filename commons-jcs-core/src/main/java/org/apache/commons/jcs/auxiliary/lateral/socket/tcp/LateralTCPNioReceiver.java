@@ -0,0 +1,712 @@
+package org.apache.commons.jcs.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.jcs.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs.auxiliary.lateral.socket.tcp.behavior.ITCPLateralCacheAttributes;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Receives the framed protocol for a {@link LateralTCPListener} with non blocking sockets. A few
+ * selector threads read and write all connections, the first one also accepts them. Complete
+ * frames are handed to a bounded pool of workers which call the listener.
+ * <p>
+ * The commands of one connection are processed one after the other, in the order they were sent,
+ * but connections don't wait for each other. Requests only read the cache and carry an id, so they
+ * don't wait for the commands and are answered as soon as a worker is free, possibly out of order.
+ * If too many commands and requests of a connection are waiting for a worker, the connection is
+ * not read until the workers catch up, which slows down the sender. That pause is the only
+ * backpressure: the queue of the workers is not bounded, so a selector thread never blocks on it
+ * or runs a command itself.
+ */
+class LateralTCPNioReceiver<K, V>
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( LateralTCPNioReceiver.class );
+
+    /** The initial size of the read buffer of a connection */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The listener that handles the commands */
+    private final LateralTCPListener<K, V> listener;
+
+    /** The server socket */
+    private final ServerSocketChannel serverChannel;
+
+    /** The threads that do the socket work */
+    private final List<SelectorThread> selectorThreads;
+
+    /** The threads that process the commands */
+    private final ThreadPoolExecutor workers;
+
+    /** The commands and requests of a connection that may wait for a worker */
+    private final int maxPendingCommands;
+
+    /** Cleared by shutdown */
+    private final AtomicBoolean running = new AtomicBoolean( true );
+
+    /** The selector thread for the next connection, only used by the accepting thread */
+    private int nextSelector = 0;
+
+    /**
+     * Opens the server socket.
+     * <p>
+     * @param listener the listener that handles the commands
+     * @param port the port to listen to
+     * @param attributes the configuration
+     * @throws IOException
+     */
+    LateralTCPNioReceiver( LateralTCPListener<K, V> listener, int port, ITCPLateralCacheAttributes attributes )
+        throws IOException
+    {
+        this.listener = listener;
+        this.maxPendingCommands = Math.max( 1, attributes.getNioMaxPendingCommands() );
+
+        int workerThreads = Math.max( 1, attributes.getNioWorkerThreads() );
+        // each connection bounds what it queues by pausing its reads
+        this.workers = new ThreadPoolExecutor( workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory( "JCS-LateralTCPWorker-" ) );
+
+        this.serverChannel = ServerSocketChannel.open();
+        try
+        {
+            serverChannel.socket().bind( new InetSocketAddress( port ) );
+            serverChannel.configureBlocking( false );
+
+            int selectors = Math.max( 1, attributes.getNioSelectorThreads() );
+            this.selectorThreads = new ArrayList<SelectorThread>( selectors );
+            for ( int i = 0; i < selectors; i++ )
+            {
+                selectorThreads.add( new SelectorThread( Selector.open(), "JCS-LateralTCPSelector-" + port + "-" + i ) );
+            }
+            serverChannel.register( selectorThreads.get( 0 ).selector, SelectionKey.OP_ACCEPT );
+        }
+        catch ( IOException e )
+        {
+            serverChannel.close();
+            workers.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the selector threads.
+     */
+    void start()
+    {
+        for ( SelectorThread thread : selectorThreads )
+        {
+            thread.start();
+        }
+    }
+
+    /**
+     * Closes the server socket and all connections and stops the threads.
+     */
+    void shutdown()
+    {
+        if ( running.compareAndSet( true, false ) )
+        {
+            try
+            {
+                serverChannel.close();
+            }
+            catch ( IOException e )
+            {
+                log.error( "Exception caught closing server socket", e );
+            }
+
+            for ( SelectorThread thread : selectorThreads )
+            {
+                thread.selector.wakeup();
+            }
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Accepts the waiting connections and passes each to a selector thread.
+     * <p>
+     * @throws IOException
+     */
+    private void accept()
+        throws IOException
+    {
+        SocketChannel channel;
+        while ( ( channel = serverChannel.accept() ) != null )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Connected to client at " + channel.socket().getInetAddress() );
+            }
+
+            channel.configureBlocking( false );
+            SelectorThread owner = selectorThreads.get( nextSelector );
+            nextSelector = ( nextSelector + 1 ) % selectorThreads.size();
+
+            final Connection connection = new Connection( channel, owner );
+            owner.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    connection.register();
+                }
+            } );
+        }
+    }
+
+    /**
+     * Waits for socket events of the connections registered with its selector. Other threads
+     * hand it tasks, since only this thread may change the registrations.
+     */
+    private class SelectorThread
+        extends Thread
+    {
+        /** The selector */
+        final Selector selector;
+
+        /** Tasks to run in this thread */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        /**
+         * @param selector the selector
+         * @param name the thread name
+         */
+        SelectorThread( Selector selector, String name )
+        {
+            super( name );
+            this.selector = selector;
+            setDaemon( true );
+        }
+
+        /**
+         * Runs the task in this thread.
+         * <p>
+         * @param task the task
+         */
+        void execute( Runnable task )
+        {
+            tasks.add( task );
+            selector.wakeup();
+        }
+
+        /** Main processing method for the SelectorThread object */
+        @Override
+        public void run()
+        {
+            try
+            {
+                while ( running.get() )
+                {
+                    selector.select();
+
+                    Runnable task;
+                    while ( ( task = tasks.poll() ) != null )
+                    {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while ( keys.hasNext() )
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle( key );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                log.error( "Exception caught in TCP listener", e );
+            }
+            finally
+            {
+                for ( SelectionKey key : selector.keys() )
+                {
+                    if ( key.attachment() instanceof LateralTCPNioReceiver.Connection )
+                    {
+                        ( (LateralTCPNioReceiver<?, ?>.Connection) key.attachment() ).close( null );
+                    }
+                }
+
+                try
+                {
+                    selector.close();
+                }
+                catch ( IOException e )
+                {
+                    log.error( "Exception caught closing selector", e );
+                }
+            }
+        }
+
+        /**
+         * @param key a selected key
+         * @throws IOException if accepting fails
+         */
+        private void handle( SelectionKey key )
+            throws IOException
+        {
+            if ( !key.isValid() )
+            {
+                return;
+            }
+
+            if ( key.isAcceptable() )
+            {
+                accept();
+                return;
+            }
+
+            LateralTCPNioReceiver<?, ?>.Connection connection = (LateralTCPNioReceiver<?, ?>.Connection) key.attachment();
+            try
+            {
+                if ( key.isReadable() )
+                {
+                    connection.read();
+                }
+                if ( key.isValid() && key.isWritable() )
+                {
+                    connection.flush();
+                }
+            }
+            catch ( CancelledKeyException e )
+            {
+                connection.close( null );
+            }
+            catch ( IOException e )
+            {
+                connection.close( e );
+            }
+        }
+    }
+
+    /**
+     * The state of a connection. Reading and registration are done by the selector thread,
+     * processing by the workers. Replies are written by the worker if the socket takes them,
+     * otherwise by the selector thread once the socket is writable.
+     */
+    private class Connection
+        implements Runnable
+    {
+        /** The socket */
+        private final SocketChannel channel;
+
+        /** The thread that reads the socket */
+        private final SelectorThread owner;
+
+        /** The registration, set by the owner */
+        private SelectionKey key;
+
+        /** Received bytes that don't make a complete frame yet */
+        private ByteBuffer readBuffer = ByteBuffer.allocate( BUFFER_SIZE );
+
+        /** Whether the preamble has been checked */
+        private boolean preambleRead = false;
+
+        /** Replies the socket did not take yet */
+        private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+        /** Commands waiting for a worker */
+        private final Queue<LateralTCPFrame> pending = new ConcurrentLinkedQueue<LateralTCPFrame>();
+
+        /** The number of commands and requests waiting for a worker */
+        private final AtomicInteger pendingCount = new AtomicInteger();
+
+        /** Set while a worker processes the frames */
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        /** Set while the socket is not read because too many commands and requests are waiting */
+        private volatile boolean readSuspended = false;
+
+        /** Set once the connection is closed */
+        private volatile boolean closed = false;
+
+        /** Updates the registration in the owner thread */
+        private final Runnable interestUpdater = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( readSuspended && pendingCount.get() <= maxPendingCommands / 2 )
+                {
+                    readSuspended = false;
+                }
+                updateInterest();
+            }
+        };
+
+        /**
+         * @param channel the socket
+         * @param owner the thread that reads the socket
+         */
+        Connection( SocketChannel channel, SelectorThread owner )
+        {
+            this.channel = channel;
+            this.owner = owner;
+        }
+
+        /**
+         * Registers the socket with the selector of the owner, called by the owner.
+         */
+        void register()
+        {
+            try
+            {
+                key = channel.register( owner.selector, SelectionKey.OP_READ, this );
+            }
+            catch ( IOException e )
+            {
+                close( e );
+            }
+        }
+
+        /**
+         * Reads what the socket has and hands the complete frames to the workers.
+         * <p>
+         * @throws IOException
+         */
+        void read()
+            throws IOException
+        {
+            if ( channel.read( readBuffer ) < 0 )
+            {
+                log.info( "Connection closed by " + channel.socket().getInetAddress() );
+                close( null );
+                return;
+            }
+
+            readBuffer.flip();
+            if ( !preambleRead )
+            {
+                if ( readBuffer.remaining() < LateralTCPFrame.PREAMBLE_LENGTH )
+                {
+                    readBuffer.compact();
+                    return;
+                }
+                LateralTCPFrame.checkPreamble( readBuffer );
+                preambleRead = true;
+            }
+
+            LateralTCPFrame frame;
+            while ( ( frame = LateralTCPFrame.decode( readBuffer ) ) != null )
+            {
+                submit( frame );
+            }
+
+            int needed = 0;
+            if ( readBuffer.remaining() >= 4 )
+            {
+                needed = 4 + LateralTCPFrame.checkLength( readBuffer.getInt( readBuffer.position() ) );
+            }
+
+            if ( needed > readBuffer.capacity() )
+            {
+                // make room for a large frame
+                ByteBuffer larger = ByteBuffer.allocate( needed );
+                larger.put( readBuffer );
+                readBuffer = larger;
+            }
+            else if ( !readBuffer.hasRemaining() && readBuffer.capacity() > BUFFER_SIZE )
+            {
+                readBuffer = ByteBuffer.allocate( BUFFER_SIZE );
+            }
+            else
+            {
+                readBuffer.compact();
+            }
+        }
+
+        /**
+         * Queues a frame and makes sure a worker processes it. Stops reading the socket if too
+         * many frames are waiting. Called by the owner.
+         * <p>
+         * @param frame the frame
+         */
+        private void submit( final LateralTCPFrame frame )
+        {
+            if ( pendingCount.incrementAndGet() >= maxPendingCommands && !readSuspended )
+            {
+                readSuspended = true;
+                updateInterest();
+            }
+
+            try
+            {
+                if ( frame.getType() == LateralTCPFrame.REQUEST )
+                {
+                    workers.execute( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            process( frame );
+                            processed();
+                        }
+                    } );
+                    return;
+                }
+
+                pending.add( frame );
+                if ( draining.compareAndSet( false, true ) )
+                {
+                    workers.execute( this );
+                }
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // the receiver is shutting down
+                close( null );
+            }
+        }
+
+        /**
+         * Resumes reading once enough of the waiting frames are processed. Called by a worker
+         * after each frame.
+         */
+        private void processed()
+        {
+            if ( pendingCount.decrementAndGet() <= maxPendingCommands / 2 && readSuspended )
+            {
+                owner.execute( interestUpdater );
+            }
+        }
+
+        /**
+         * Processes the waiting frames in order, run by a worker.
+         */
+        @Override
+        public void run()
+        {
+            do
+            {
+                LateralTCPFrame frame;
+                while ( ( frame = pending.poll() ) != null )
+                {
+                    process( frame );
+                    processed();
+                }
+                draining.set( false );
+            }
+            while ( !pending.isEmpty() && draining.compareAndSet( false, true ) );
+        }
+
+        /**
+         * Passes the command to the listener and answers a request.
+         * <p>
+         * @param frame the frame
+         */
+        @SuppressWarnings("unchecked") // Need to cast from Object
+        private void process( LateralTCPFrame frame )
+        {
+            Object reply = null;
+            try
+            {
+                LateralElementDescriptor<K, V> led = (LateralElementDescriptor<K, V>) frame.getBody();
+                if ( led == null )
+                {
+                    log.debug( "LateralElementDescriptor is null" );
+                }
+                else if ( led.requesterId == listener.getListenerId() )
+                {
+                    log.debug( "from self" );
+                }
+                else
+                {
+                    if ( log.isDebugEnabled() )
+                    {
+                        log.debug( "receiving LateralElementDescriptor from another" + "led = " + led
+                            + ", led.command = " + led.command + ", led.ce = " + led.ce );
+                    }
+
+                    reply = listener.processCommand( led );
+                }
+            }
+            catch ( IOException e )
+            {
+                log.error( "Problem processing lateral command from " + channel.socket().getInetAddress(), e );
+            }
+            catch ( RuntimeException e )
+            {
+                log.error( "Unexpected exception.", e );
+            }
+
+            if ( frame.getType() == LateralTCPFrame.REQUEST )
+            {
+                // always answer, so the requester doesn't wait for a time out
+                try
+                {
+                    send( LateralTCPFrame.encode( LateralTCPFrame.REPLY, frame.getRequestId(), reply ) );
+                }
+                catch ( IOException e )
+                {
+                    close( e );
+                }
+            }
+        }
+
+        /**
+         * Writes a frame, or queues it if the socket does not take all of it.
+         * <p>
+         * @param buf the frame
+         * @throws IOException
+         */
+        void send( ByteBuffer buf )
+            throws IOException
+        {
+            synchronized ( writeQueue )
+            {
+                if ( closed )
+                {
+                    return;
+                }
+
+                if ( writeQueue.isEmpty() )
+                {
+                    channel.write( buf );
+                    if ( !buf.hasRemaining() )
+                    {
+                        return;
+                    }
+                }
+
+                writeQueue.add( buf );
+                if ( writeQueue.size() == 1 )
+                {
+                    owner.execute( interestUpdater );
+                }
+            }
+        }
+
+        /**
+         * Writes the queued frames, called by the owner when the socket is writable.
+         * <p>
+         * @throws IOException
+         */
+        void flush()
+            throws IOException
+        {
+            synchronized ( writeQueue )
+            {
+                while ( !writeQueue.isEmpty() )
+                {
+                    ByteBuffer buf = writeQueue.getFirst();
+                    channel.write( buf );
+                    if ( buf.hasRemaining() )
+                    {
+                        return;
+                    }
+                    writeQueue.removeFirst();
+                }
+            }
+            updateInterest();
+        }
+
+        /**
+         * Sets the events of interest, called by the owner.
+         */
+        private void updateInterest()
+        {
+            if ( key == null || !key.isValid() )
+            {
+                return;
+            }
+
+            int ops = readSuspended ? 0 : SelectionKey.OP_READ;
+            synchronized ( writeQueue )
+            {
+                if ( !writeQueue.isEmpty() )
+                {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+            }
+
+            try
+            {
+                key.interestOps( ops );
+            }
+            catch ( CancelledKeyException e )
+            {
+                // closed meanwhile
+            }
+        }
+
+        /**
+         * Closes the socket and drops the waiting frames.
+         * <p>
+         * @param cause the problem, or null if the connection ended normally
+         */
+        void close( IOException cause )
+        {
+            synchronized ( writeQueue )
+            {
+                if ( closed )
+                {
+                    return;
+                }
+                closed = true;
+                writeQueue.clear();
+            }
+
+            if ( cause != null )
+            {
+                log.info( "Closing connection to " + channel.socket().getInetAddress() + ": " + cause.getMessage() );
+            }
+
+            if ( key != null )
+            {
+                key.cancel();
+            }
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not close connection.", e );
+            }
+            pending.clear();
+        }
+    }
+}
@@ -19,21 +19,40 @@ package org.apache.commons.jcs.auxiliary.lateral.socket.tcp;
  * under the License.
  */
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.jcs.auxiliary.lateral.LateralElementDescriptor;
 import org.apache.commons.jcs.auxiliary.lateral.socket.tcp.behavior.ITCPLateralCacheAttributes;
 import org.apache.commons.jcs.io.ObjectInputStreamClassLoaderAware;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * This class is based on the log4j SocketAppender class. I'm using a different repair structure, so
  * it is significantly different.
+ * <p>
+ * If NioEnabled is set, the commands are sent as length prefixed frames, see
+ * {@link LateralTCPFrame}, and every request is answered, even if the result is null. Requests
+ * carry an id and don't hold the connection while they wait: a reader thread hands each reply to
+ * the request with the same id, so many gets can be in flight at once. MaxInFlightRequests limits
+ * how many, RequestTimeOut how long they wait.
  */
 public class LateralTCPSender
 {
@@ -47,6 +66,36 @@ public class LateralTCPSender
     /** The stream from the server connection. */
     private ObjectOutputStream oos;
 
+    /** Whether the framed protocol is used */
+    private final boolean framed;
+
+    /** The stream to the server connection if the framed protocol is used. */
+    private OutputStream out;
+
+    /** The stream from the server connection if the framed protocol is used. */
+    private DataInputStream in;
+
+    /** The id of the last request */
+    private final AtomicLong requestId = new AtomicLong();
+
+    /** The requests waiting for their reply, by request id */
+    private final ConcurrentMap<Long, PendingReply> pendingReplies = new ConcurrentHashMap<Long, PendingReply>();
+
+    /** Limits the requests waiting for their reply */
+    private Semaphore inFlight;
+
+    /** How long a request waits for a free slot and for its reply, without limit if 0 or less */
+    private int requestTimeOut;
+
+    /** Set if the reader thread stopped, fails all further requests */
+    private volatile IOException readFailure;
+
+    /** Reads the replies if the framed protocol is used */
+    private Thread reader;
+
+    /** Set by dispose */
+    private volatile boolean disposed = false;
+
     /** The socket connection with the server. */
     private Socket socket;
 
@@ -67,6 +116,9 @@ public class LateralTCPSender
     {
         this.socketOpenTimeOut = lca.getOpenTimeOut();
         this.socketSoTimeOut = lca.getSocketTimeOut();
+        this.framed = lca.isNioEnabled();
+        this.requestTimeOut = lca.getRequestTimeOut() > 0 ? lca.getRequestTimeOut() : lca.getSocketTimeOut();
+        this.inFlight = new Semaphore( Math.max( 1, lca.getMaxInFlightRequests() ) );
 
         String p1 = lca.getTcpServer();
         if ( p1 == null )
@@ -123,10 +175,32 @@ public class LateralTCPSender
                 throw new IOException( "Cannot connect to " + host + ":" + port, ioe );
             }
 
-            socket.setSoTimeout( socketSoTimeOut );
             synchronized ( this )
             {
-                oos = new ObjectOutputStream( socket.getOutputStream() );
+                if ( framed )
+                {
+                    // the reader waits for replies as long as the connection lives,
+                    // the requests time out on their own
+                    socket.setSoTimeout( 0 );
+                    out = socket.getOutputStream();
+                    in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+                    write( LateralTCPFrame.preamble() );
+
+                    reader = new DaemonThreadFactory( "JCS-LateralTCPSender-" ).newThread( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            readReplies();
+                        }
+                    } );
+                    reader.start();
+                }
+                else
+                {
+                    socket.setSoTimeout( socketSoTimeOut );
+                    oos = new ObjectOutputStream( socket.getOutputStream() );
+                }
             }
         }
         catch ( java.net.ConnectException e )
@@ -166,6 +240,16 @@ public class LateralTCPSender
             return;
         }
 
+        if ( framed )
+        {
+            ByteBuffer frame = LateralTCPFrame.encode( LateralTCPFrame.COMMAND, 0, led );
+            synchronized ( this.getLock )
+            {
+                write( frame );
+            }
+            return;
+        }
+
         if ( oos == null )
         {
             throw new IOException( "No remote connection is available for LateralTCPSender." );
@@ -178,6 +262,131 @@ public class LateralTCPSender
         }
     }
 
+    /**
+     * Writes a frame to the socket.
+     * <p>
+     * @param frame the frame
+     * @throws IOException
+     */
+    private void write( ByteBuffer frame )
+        throws IOException
+    {
+        if ( out == null )
+        {
+            throw new IOException( "No remote connection is available for LateralTCPSender." );
+        }
+
+        out.write( frame.array(), frame.arrayOffset() + frame.position(), frame.remaining() );
+        out.flush();
+    }
+
+    /**
+     * Sends a request frame and waits for the reply with the same id. The connection is only held
+     * while the frame is written, so other requests can be sent in the mean time.
+     * <p>
+     * @param led
+     * @return the reply
+     * @throws IOException
+     */
+    private <K, V> Object sendAndReceiveFramed( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        try
+        {
+            if ( requestTimeOut <= 0 )
+            {
+                inFlight.acquire();
+            }
+            else if ( !inFlight.tryAcquire( requestTimeOut, TimeUnit.MILLISECONDS ) )
+            {
+                throw new SocketTimeoutException( "Too many requests in flight to " + socket
+                    + ", waited [" + requestTimeOut + "] ms" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting to send a request to " + socket );
+        }
+
+        Long id = Long.valueOf( requestId.incrementAndGet() );
+        PendingReply reply = new PendingReply();
+        pendingReplies.put( id, reply );
+        try
+        {
+            checkReader();
+
+            ByteBuffer frame = LateralTCPFrame.encode( LateralTCPFrame.REQUEST, id.longValue(), led );
+            synchronized ( this.getLock )
+            {
+                write( frame );
+            }
+
+            return reply.await( requestTimeOut ).getBody();
+        }
+        finally
+        {
+            pendingReplies.remove( id );
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Fails if the reader thread stopped.
+     * <p>
+     * @throws IOException
+     */
+    private void checkReader()
+        throws IOException
+    {
+        IOException failure = readFailure;
+        if ( failure != null )
+        {
+            throw new IOException( "The connection to " + socket + " failed", failure );
+        }
+    }
+
+    /**
+     * Run by the reader thread. Hands the replies to the waiting requests. Replies to requests that
+     * timed out are dropped. If the connection fails, all waiting requests fail.
+     */
+    private void readReplies()
+    {
+        try
+        {
+            while ( !disposed )
+            {
+                LateralTCPFrame frame = LateralTCPFrame.read( in );
+                if ( frame.getType() != LateralTCPFrame.REPLY )
+                {
+                    continue;
+                }
+
+                PendingReply reply = pendingReplies.get( Long.valueOf( frame.getRequestId() ) );
+                if ( reply != null )
+                {
+                    reply.complete( frame, null );
+                }
+                else if ( log.isDebugEnabled() )
+                {
+                    log.debug( "Dropping reply to request " + frame.getRequestId() + ", it timed out." );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            if ( !disposed )
+            {
+                log.warn( "Stopped reading replies from " + socket, e );
+            }
+            readFailure = e;
+            for ( PendingReply reply : pendingReplies.values() )
+            {
+                reply.complete( null, e );
+            }
+        }
+    }
+
     /**
      * Sends commands to the lateral cache listener and gets a response. I'm afraid that we could
      * get into a pretty bad blocking situation here. This needs work. I just wanted to get some
@@ -196,6 +405,11 @@ public class LateralTCPSender
             return null;
         }
 
+        if ( framed )
+        {
+            return sendAndReceiveFramed( led );
+        }
+
         if ( oos == null )
         {
             throw new IOException( "No remote connection is available for LateralTCPSender." );
@@ -274,8 +488,70 @@ public class LateralTCPSender
         {
             log.info( "Dispose called" );
         }
+        disposed = true;
         // WILL CLOSE CONNECTION USED BY ALL
-        oos.close();
+        if ( oos != null )
+        {
+            oos.close();
+        }
         socket.close();
     }
+
+    /**
+     * A request waiting for its reply.
+     */
+    private static class PendingReply
+    {
+        /** Released when the reply arrives or the connection fails */
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+        /** The reply */
+        private volatile LateralTCPFrame frame;
+
+        /** The reason the connection failed */
+        private volatile IOException failure;
+
+        /**
+         * @param frame the reply, null if the connection failed
+         * @param failure the reason the connection failed
+         */
+        void complete( LateralTCPFrame frame, IOException failure )
+        {
+            this.frame = frame;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        /**
+         * @param timeOut milliseconds to wait, without limit if 0 or less
+         * @return the reply
+         * @throws IOException if the reply did not arrive in time or the connection failed
+         */
+        LateralTCPFrame await( int timeOut )
+            throws IOException
+        {
+            try
+            {
+                if ( timeOut <= 0 )
+                {
+                    done.await();
+                }
+                else if ( !done.await( timeOut, TimeUnit.MILLISECONDS ) )
+                {
+                    throw new SocketTimeoutException( "No reply within [" + timeOut + "] ms" );
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while waiting for a reply" );
+            }
+
+            if ( failure != null )
+            {
+                throw new IOException( "The connection failed while waiting for a reply", failure );
+            }
+            return frame;
+        }
+    }
 }
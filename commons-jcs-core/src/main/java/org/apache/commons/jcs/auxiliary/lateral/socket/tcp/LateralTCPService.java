@@ -32,6 +32,7 @@ import org.apache.commons.jcs.auxiliary.lateral.LateralElementDescriptor;
 import org.apache.commons.jcs.auxiliary.lateral.socket.tcp.behavior.ITCPLateralCacheAttributes;
 import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.CacheInfo;
+import org.apache.commons.jcs.engine.ElementVersionClock;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal;
 import org.apache.commons.logging.Log;
@@ -55,6 +56,9 @@ public class LateralTCPService<K, V>
     /** Sends to another lateral. */
     private LateralTCPSender sender;
 
+    /** Collects updates and removes, null if they are sent at once */
+    private LateralTCPCoalescer<K, V> coalescer;
+
     /** use the vmid by default */
     private long listenerId = CacheInfo.listenerId;
 
@@ -74,6 +78,10 @@ public class LateralTCPService<K, V>
         try
         {
             sender = new LateralTCPSender( lca );
+            if ( lca.getCoalesceWindowMillis() > 0 )
+            {
+                coalescer = new LateralTCPCoalescer<K, V>( sender, lca.getCoalesceWindowMillis(), lca.getCoalesceMaxKeys() );
+            }
 
             if ( log.isInfoEnabled() )
             {
@@ -128,9 +136,10 @@ public class LateralTCPService<K, V>
             LateralElementDescriptor<K, V> led = new LateralElementDescriptor<K, V>( item );
             led.requesterId = requesterId;
             led.command = LateralCommand.UPDATE;
-            sender.send( led );
+            led.version = ElementVersionClock.getVersion( item.getElementAttributes() );
+            send( led );
         }
-        // else issue a remove with the hashcode for remove check on
+        // else issue a remove with the hashcode and the version for remove check on
         // on the other end, this will be a server config option
         else
         {
@@ -144,7 +153,8 @@ public class LateralTCPService<K, V>
             led.requesterId = requesterId;
             led.command = LateralCommand.REMOVE;
             led.valHashCode = item.getVal().hashCode();
-            sender.send( led );
+            led.version = ElementVersionClock.getVersion( item.getElementAttributes() );
+            send( led );
         }
     }
 
@@ -161,7 +171,8 @@ public class LateralTCPService<K, V>
     }
 
     /**
-     * Wraps the key in a LateralElementDescriptor.
+     * Wraps the key in a LateralElementDescriptor. The remove gets a new version, so the receiver
+     * ignores it if it arrives after a newer put.
      * <p>
      * @see org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal#remove(String, Object, long)
      */
@@ -173,7 +184,41 @@ public class LateralTCPService<K, V>
         LateralElementDescriptor<K, V> led = new LateralElementDescriptor<K, V>( ce );
         led.requesterId = requesterId;
         led.command = LateralCommand.REMOVE;
-        sender.send( led );
+        led.version = ElementVersionClock.next();
+        send( led );
+    }
+
+    /**
+     * Sends an update or remove, or hands it to the coalescer if there is one.
+     * <p>
+     * @param led the command
+     * @throws IOException
+     */
+    private void send( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        if ( coalescer != null )
+        {
+            coalescer.add( led );
+        }
+        else
+        {
+            sender.send( led );
+        }
+    }
+
+    /**
+     * Sends the collected updates and removes, so they don't overtake other commands.
+     * <p>
+     * @throws IOException
+     */
+    private void flush()
+        throws IOException
+    {
+        if ( coalescer != null )
+        {
+            coalescer.flush();
+        }
     }
 
     /**
@@ -198,7 +243,17 @@ public class LateralTCPService<K, V>
     public void dispose( String cacheName )
         throws IOException
     {
-        sender.dispose();
+        try
+        {
+            if ( coalescer != null )
+            {
+                coalescer.dispose();
+            }
+        }
+        finally
+        {
+            sender.dispose();
+        }
     }
 
     /**
@@ -398,6 +453,7 @@ public class LateralTCPService<K, V>
         LateralElementDescriptor<String, String> led = new LateralElementDescriptor<String, String>( ce );
         led.requesterId = requesterId;
         led.command = LateralCommand.REMOVEALL;
+        flush();
         sender.send( led );
     }
 
@@ -438,6 +494,14 @@ public class LateralTCPService<K, V>
         }
     }
 
+    /**
+     * @return the coalescer, null if commands are sent at once
+     */
+    protected LateralTCPCoalescer<K, V> getCoalescer()
+    {
+        return coalescer;
+    }
+
     /**
      * @param listernId The listernId to set.
      */
@@ -60,6 +60,30 @@ public class TCPLateralCacheAttributes
     /** default - Only block for 2 seconds before timing out on startup.*/
     private static final int DEFAULT_OPEN_TIMEOUT = 2000;
 
+    /** default */
+    private static final boolean DEFAULT_NIO_ENABLED = false;
+
+    /** default */
+    private static final int DEFAULT_NIO_SELECTOR_THREADS = 2;
+
+    /** default */
+    private static final int DEFAULT_NIO_WORKER_THREADS = 4;
+
+    /** default */
+    private static final int DEFAULT_NIO_MAX_PENDING_COMMANDS = 1000;
+
+    /** default */
+    private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 100;
+
+    /** default - use the socket time out */
+    private static final int DEFAULT_REQUEST_TIMEOUT = 0;
+
+    /** default - don't coalesce */
+    private static final int DEFAULT_COALESCE_WINDOW_MILLIS = 0;
+
+    /** default */
+    private static final int DEFAULT_COALESCE_MAX_KEYS = 1000;
+
     /** TCP -------------------------------------------- */
     private String tcpServers = "";
 
@@ -96,6 +120,30 @@ public class TCPLateralCacheAttributes
     /** Only block for openTimeOut seconds before timing out on startup. */
     private int openTimeOut = DEFAULT_OPEN_TIMEOUT;
 
+    /** use the framed protocol and the selector based listener */
+    private boolean nioEnabled = DEFAULT_NIO_ENABLED;
+
+    /** threads that read and write the connections */
+    private int nioSelectorThreads = DEFAULT_NIO_SELECTOR_THREADS;
+
+    /** threads that process the received commands */
+    private int nioWorkerThreads = DEFAULT_NIO_WORKER_THREADS;
+
+    /** received commands and requests of one connection that may wait for a worker */
+    private int nioMaxPendingCommands = DEFAULT_NIO_MAX_PENDING_COMMANDS;
+
+    /** requests to one peer that may wait for their reply */
+    private int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+
+    /** how long a request waits for its reply */
+    private int requestTimeOut = DEFAULT_REQUEST_TIMEOUT;
+
+    /** how long updates and removes are collected before they are sent */
+    private int coalesceWindowMillis = DEFAULT_COALESCE_WINDOW_MILLIS;
+
+    /** collected keys that send a batch before the window ends */
+    private int coalesceMaxKeys = DEFAULT_COALESCE_MAX_KEYS;
+
     /**
      * Sets the tcpServer attribute of the ILateralCacheAttributes object
      * <p>
@@ -367,6 +415,150 @@ public class TCPLateralCacheAttributes
         return openTimeOut;
     }
 
+    /**
+     * @param nioEnabled the nioEnabled to set
+     */
+    @Override
+    public void setNioEnabled( boolean nioEnabled )
+    {
+        this.nioEnabled = nioEnabled;
+    }
+
+    /**
+     * @return the nioEnabled
+     */
+    @Override
+    public boolean isNioEnabled()
+    {
+        return nioEnabled;
+    }
+
+    /**
+     * @param nioSelectorThreads the nioSelectorThreads to set
+     */
+    @Override
+    public void setNioSelectorThreads( int nioSelectorThreads )
+    {
+        this.nioSelectorThreads = nioSelectorThreads;
+    }
+
+    /**
+     * @return the nioSelectorThreads
+     */
+    @Override
+    public int getNioSelectorThreads()
+    {
+        return nioSelectorThreads;
+    }
+
+    /**
+     * @param nioWorkerThreads the nioWorkerThreads to set
+     */
+    @Override
+    public void setNioWorkerThreads( int nioWorkerThreads )
+    {
+        this.nioWorkerThreads = nioWorkerThreads;
+    }
+
+    /**
+     * @return the nioWorkerThreads
+     */
+    @Override
+    public int getNioWorkerThreads()
+    {
+        return nioWorkerThreads;
+    }
+
+    /**
+     * @param nioMaxPendingCommands the nioMaxPendingCommands to set
+     */
+    @Override
+    public void setNioMaxPendingCommands( int nioMaxPendingCommands )
+    {
+        this.nioMaxPendingCommands = nioMaxPendingCommands;
+    }
+
+    /**
+     * @return the nioMaxPendingCommands
+     */
+    @Override
+    public int getNioMaxPendingCommands()
+    {
+        return nioMaxPendingCommands;
+    }
+
+    /**
+     * @param maxInFlightRequests the maxInFlightRequests to set
+     */
+    @Override
+    public void setMaxInFlightRequests( int maxInFlightRequests )
+    {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    /**
+     * @return the maxInFlightRequests
+     */
+    @Override
+    public int getMaxInFlightRequests()
+    {
+        return maxInFlightRequests;
+    }
+
+    /**
+     * @param requestTimeOut the requestTimeOut to set
+     */
+    @Override
+    public void setRequestTimeOut( int requestTimeOut )
+    {
+        this.requestTimeOut = requestTimeOut;
+    }
+
+    /**
+     * @return the requestTimeOut
+     */
+    @Override
+    public int getRequestTimeOut()
+    {
+        return requestTimeOut;
+    }
+
+    /**
+     * @param coalesceWindowMillis the coalesceWindowMillis to set
+     */
+    @Override
+    public void setCoalesceWindowMillis( int coalesceWindowMillis )
+    {
+        this.coalesceWindowMillis = coalesceWindowMillis;
+    }
+
+    /**
+     * @return the coalesceWindowMillis
+     */
+    @Override
+    public int getCoalesceWindowMillis()
+    {
+        return coalesceWindowMillis;
+    }
+
+    /**
+     * @param coalesceMaxKeys the coalesceMaxKeys to set
+     */
+    @Override
+    public void setCoalesceMaxKeys( int coalesceMaxKeys )
+    {
+        this.coalesceMaxKeys = coalesceMaxKeys;
+    }
+
+    /**
+     * @return the coalesceMaxKeys
+     */
+    @Override
+    public int getCoalesceMaxKeys()
+    {
+        return coalesceMaxKeys;
+    }
+
     /**
      * Used to key the instance TODO create another method for this and use toString for debugging
      * only.
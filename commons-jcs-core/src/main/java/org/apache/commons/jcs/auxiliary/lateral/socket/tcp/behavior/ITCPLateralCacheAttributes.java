@@ -215,4 +215,103 @@ public interface ITCPLateralCacheAttributes
      * @return the openTimeOut
      */
     int getOpenTimeOut();
+
+    /**
+     * Sets whether the framed protocol is used. The listener then serves all connections with a
+     * few selector threads and the sender writes length prefixed frames. All nodes that talk to
+     * each other must use the same setting.
+     * <p>
+     * @param nioEnabled
+     */
+    void setNioEnabled( boolean nioEnabled );
+
+    /**
+     * @return true if the framed protocol and the selector based listener are used
+     */
+    boolean isNioEnabled();
+
+    /**
+     * @param nioSelectorThreads the number of threads that read and write the connections
+     */
+    void setNioSelectorThreads( int nioSelectorThreads );
+
+    /**
+     * @return the number of threads that read and write the connections
+     */
+    int getNioSelectorThreads();
+
+    /**
+     * @param nioWorkerThreads the number of threads that process the received commands
+     */
+    void setNioWorkerThreads( int nioWorkerThreads );
+
+    /**
+     * @return the number of threads that process the received commands
+     */
+    int getNioWorkerThreads();
+
+    /**
+     * Sets how many received commands and requests of one connection may wait for a worker. When
+     * the limit is reached the connection is not read until the workers catch up.
+     * <p>
+     * @param nioMaxPendingCommands
+     */
+    void setNioMaxPendingCommands( int nioMaxPendingCommands );
+
+    /**
+     * @return how many received commands and requests of one connection may wait for a worker
+     */
+    int getNioMaxPendingCommands();
+
+    /**
+     * Sets how many requests, gets for instance, may wait for their reply on the connection to
+     * one peer at the same time. Further requests wait until one of them is answered or times out.
+     * Only used with the framed protocol.
+     * <p>
+     * @param maxInFlightRequests
+     */
+    void setMaxInFlightRequests( int maxInFlightRequests );
+
+    /**
+     * @return how many requests may wait for their reply on the connection to one peer
+     */
+    int getMaxInFlightRequests();
+
+    /**
+     * Sets how many milliseconds a request waits for a free slot and then for its reply. Values
+     * less than or equal to zero use the socket time out. If that is 0 as well, requests wait
+     * until they are answered or the connection fails. Only used with the framed protocol.
+     * <p>
+     * @param requestTimeOut
+     */
+    void setRequestTimeOut( int requestTimeOut );
+
+    /**
+     * @return how many milliseconds a request waits for its reply
+     */
+    int getRequestTimeOut();
+
+    /**
+     * Sets for how many milliseconds updates and removes are collected before they are sent as one
+     * batch. Only the last command for a key is sent. Zero, the default, sends every command at
+     * once. All receivers must understand batches.
+     * <p>
+     * @param coalesceWindowMillis
+     */
+    void setCoalesceWindowMillis( int coalesceWindowMillis );
+
+    /**
+     * @return for how many milliseconds updates and removes are collected
+     */
+    int getCoalesceWindowMillis();
+
+    /**
+     * @param coalesceMaxKeys the number of collected keys that sends a batch before the window ends
+     */
+    void setCoalesceMaxKeys( int coalesceMaxKeys );
+
+    /**
+     * @return the number of collected keys that sends a batch before the window ends
+     */
+    int getCoalesceMaxKeys();
 }
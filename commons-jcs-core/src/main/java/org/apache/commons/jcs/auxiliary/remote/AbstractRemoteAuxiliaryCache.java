@@ -19,13 +19,16 @@ package org.apache.commons.jcs.auxiliary.remote;
  * under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -43,6 +46,7 @@ import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheElementSerialized;
 import org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal;
 import org.apache.commons.jcs.engine.behavior.IZombie;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEvent;
 import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
 import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.Stats;
@@ -82,6 +86,12 @@ public abstract class AbstractRemoteAuxiliaryCache<K, V>
     /** Should we get asynchronously using a pool. */
     private boolean usePoolForGet = false;
 
+    /** The pool for getAsync and friends, created on first use. */
+    private ExecutorService asyncPool = null;
+
+    /** When the connection was lost, 0 if it never was connected. */
+    private volatile long disconnectTime = 0;
+
     /**
      * Creates the base.
      * <p>
@@ -181,18 +191,7 @@ public abstract class AbstractRemoteAuxiliaryCache<K, V>
                 retVal = getRemoteCacheService().get( cacheName, key, getListenerId() );
             }
 
-            // Eventually the instance of will not be necessary.
-            if ( retVal instanceof ICacheElementSerialized )
-            {
-                // Never try to deserialize if you are a cluster client. Cluster
-                // clients are merely intra-remote cache communicators. Remote caches are assumed
-                // to have no ability to deserialize the objects.
-                if ( this.getRemoteCacheAttributes().getRemoteType() != RemoteType.CLUSTER )
-                {
-                    retVal = SerializationConversionUtil.getDeSerializedCacheElement( (ICacheElementSerialized<K, V>) retVal,
-                            super.getElementSerializer() );
-                }
-            }
+            retVal = deserialize( retVal );
         }
         catch ( Exception ex )
         {
@@ -201,6 +200,30 @@ public abstract class AbstractRemoteAuxiliaryCache<K, V>
         return retVal;
     }
 
+    /**
+     * Deserializes an element that the server sent in serialized form.
+     * <p>
+     * Never try to deserialize if you are a cluster client. Cluster clients are merely intra-remote
+     * cache communicators. Remote caches are assumed to have no ability to deserialize the objects.
+     * <p>
+     * @param element the element from the server, may be null
+     * @return the element to hand out
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private ICacheElement<K, V> deserialize( ICacheElement<K, V> element )
+        throws IOException, ClassNotFoundException
+    {
+        // Eventually the instance of will not be necessary.
+        if ( element instanceof ICacheElementSerialized
+            && this.getRemoteCacheAttributes().getRemoteType() != RemoteType.CLUSTER )
+        {
+            return SerializationConversionUtil.getDeSerializedCacheElement( (ICacheElementSerialized<K, V>) element,
+                    super.getElementSerializer() );
+        }
+        return element;
+    }
+
     /**
      * This allows gets to timeout in case of remote server machine shutdown.
      * <p>
@@ -262,6 +285,132 @@ public abstract class AbstractRemoteAuxiliaryCache<K, V>
         }
     }
 
+    /**
+     * Gets the item on a thread of the client pool. The caller can wait with a timeout on the
+     * future; the get timeout of the configuration is not applied, since the request already runs
+     * in the background.
+     * <p>
+     * @param key
+     * @return a future for the element, null if the server does not have it
+     */
+    @Override
+    public Future<ICacheElement<K, V>> getAsync( final K key )
+    {
+        return getAsyncPool().submit( new Callable<ICacheElement<K, V>>()
+        {
+            @Override
+            public ICacheElement<K, V> call()
+                throws IOException
+            {
+                ICacheEvent<K> cacheEvent = createICacheEvent( cacheName, key, ICacheEventLogger.GET_EVENT );
+                try
+                {
+                    return deserialize( getRemoteCacheService().get( cacheName, key, getListenerId() ) );
+                }
+                catch ( Exception ex )
+                {
+                    handleException( ex, "Failed to get [" + key + "] from [" + cacheName + "]",
+                                     ICacheEventLogger.GET_EVENT );
+                    return null;
+                }
+                finally
+                {
+                    logICacheEvent( cacheEvent );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Gets the items with one call to the server on a thread of the client pool.
+     * <p>
+     * @param keys
+     * @return a future for the map of key to element, empty if the server has none of them
+     */
+    @Override
+    public Future<Map<K, ICacheElement<K, V>>> getMultipleAsync( final Set<K> keys )
+    {
+        return getAsyncPool().submit( new Callable<Map<K, ICacheElement<K, V>>>()
+        {
+            @Override
+            public Map<K, ICacheElement<K, V>> call()
+                throws IOException
+            {
+                Map<K, ICacheElement<K, V>> results = new HashMap<K, ICacheElement<K, V>>();
+                if ( keys == null || keys.isEmpty() )
+                {
+                    return results;
+                }
+
+                ICacheEvent<Serializable> cacheEvent =
+                    createICacheEvent( cacheName, (Serializable) keys, ICacheEventLogger.GETMULTIPLE_EVENT );
+                try
+                {
+                    Map<K, ICacheElement<K, V>> rawResults =
+                        getRemoteCacheService().getMultiple( cacheName, keys, getListenerId() );
+                    if ( rawResults != null )
+                    {
+                        for ( Map.Entry<K, ICacheElement<K, V>> entry : rawResults.entrySet() )
+                        {
+                            if ( entry.getValue() != null )
+                            {
+                                results.put( entry.getKey(), deserialize( entry.getValue() ) );
+                            }
+                        }
+                    }
+                }
+                catch ( Exception ex )
+                {
+                    handleException( ex, "Failed to getMultiple [" + keys + "] from [" + cacheName + "]",
+                                     ICacheEventLogger.GETMULTIPLE_EVENT );
+                }
+                finally
+                {
+                    logICacheEvent( cacheEvent );
+                }
+                return results;
+            }
+        } );
+    }
+
+    /**
+     * Puts the item on a thread of the client pool. Unlike the event queue of the no wait facade,
+     * the future tells the caller when the server has the item, or why it failed.
+     * <p>
+     * @param ce
+     * @return a future that is done when the server has the item
+     */
+    @Override
+    public Future<Void> updateAsync( final ICacheElement<K, V> ce )
+    {
+        return getAsyncPool().submit( new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws IOException
+            {
+                update( ce );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * The pool for the asynchronous calls. It is the pool for gets with a timeout if there is one,
+     * otherwise the pool of the configured name is created on first use.
+     * <p>
+     * @return the pool
+     */
+    private synchronized ExecutorService getAsyncPool()
+    {
+        if ( asyncPool == null )
+        {
+            asyncPool = pool != null ? pool
+                : ThreadPoolManager.getInstance().getPool( getRemoteCacheAttributes().getThreadPoolName() );
+        }
+        return asyncPool;
+    }
+
     /**
      * Calls get matching on the server. Each entry in the result is unwrapped.
      * <p>
@@ -284,21 +433,10 @@ public abstract class AbstractRemoteAuxiliaryCache<K, V>
                 for (Map.Entry<K, ICacheElement<K, V>> entry : rawResults.entrySet())
                 {
                     ICacheElement<K, V> unwrappedResult = null;
-                    if ( entry.getValue() instanceof ICacheElementSerialized )
-                    {
-                        // Never try to deserialize if you are a cluster client. Cluster
-                        // clients are merely intra-remote cache communicators. Remote caches are assumed
-                        // to have no ability to deserialize the objects.
-                        if ( this.getRemoteCacheAttributes().getRemoteType() != RemoteType.CLUSTER )
-                        {
-                            unwrappedResult = SerializationConversionUtil
-                                .getDeSerializedCacheElement( (ICacheElementSerialized<K, V>) entry.getValue(),
-                                        super.getElementSerializer() );
-                        }
-                    }
-                    else
+                    if ( !( entry.getValue() instanceof ICacheElementSerialized )
+                        || this.getRemoteCacheAttributes().getRemoteType() != RemoteType.CLUSTER )
                     {
-                        unwrappedResult = entry.getValue();
+                        unwrappedResult = deserialize( entry.getValue() );
                     }
                     results.put( entry.getKey(), unwrappedResult );
                 }
@@ -579,8 +717,11 @@ public abstract class AbstractRemoteAuxiliaryCache<K, V>
 
         if ( getRemoteCacheService() instanceof ZombieCacheServiceNonLocal )
         {
-            elems.add(new StatElement<Integer>( "Zombie Queue Size",
-                    Integer.valueOf(( (ZombieCacheServiceNonLocal<K, V>) getRemoteCacheService() ).getQueueSize()) ) );
+            ZombieCacheServiceNonLocal<K, V> zombie = (ZombieCacheServiceNonLocal<K, V>) getRemoteCacheService();
+            elems.add(new StatElement<Integer>( "Zombie Queue Size", Integer.valueOf(zombie.getQueueSize()) ) );
+            elems.add(new StatElement<Long>( "Zombie Coalesced", Long.valueOf(zombie.getCoalesceCount()) ) );
+            elems.add(new StatElement<Long>( "Zombie Journaled", Long.valueOf(zombie.getJournalCount()) ) );
+            elems.add(new StatElement<Long>( "Zombie Dropped", Long.valueOf(zombie.getDropCount()) ) );
         }
 
         stats.setStatElements( elems );
@@ -660,14 +801,46 @@ public abstract class AbstractRemoteAuxiliaryCache<K, V>
         return cacheName;
     }
 
+    /**
+     * Creates the zombie that queues the events while the server is not reachable, configured
+     * from the attributes.
+     * <p>
+     * @return the zombie
+     */
+    protected ZombieCacheServiceNonLocal<K, V> createZombie()
+    {
+        IRemoteCacheAttributes rca = getRemoteCacheAttributes();
+        ZombieCacheServiceNonLocal<K, V> zombie = new ZombieCacheServiceNonLocal<K, V>( rca.getZombieQueueMaxSize() );
+        if ( rca.getZombieJournalPath() != null && rca.getZombieJournalPath().length() > 0 )
+        {
+            zombie.setJournal( new File( rca.getZombieJournalPath() ), rca.getZombieJournalMaxSize() );
+        }
+        zombie.setReplayRate( rca.getZombieReplayEventsPerSecond(), rca.getZombieReplayBatchSize() );
+        return zombie;
+    }
+
     /**
      * @param remote the remote to set
      */
     protected void setRemoteCacheService( ICacheServiceNonLocal<K, V> remote )
     {
+        if ( remote instanceof IZombie && remoteCacheService != null && !( remoteCacheService instanceof IZombie ) )
+        {
+            disconnectTime = System.currentTimeMillis();
+        }
         this.remoteCacheService = remote;
     }
 
+    /**
+     * @return the time in milliseconds at which the connection was lost, 0 if it was never
+     *         connected
+     */
+    @Override
+    public long getDisconnectTime()
+    {
+        return disconnectTime;
+    }
+
     /**
      * @return the remote
      */
@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.apache.commons.jcs.auxiliary.AbstractAuxiliaryCache;
 import org.apache.commons.jcs.auxiliary.remote.behavior.IRemoteCacheAttributes;
@@ -162,6 +163,22 @@ public abstract class AbstractRemoteCacheNoWaitFacade<K, V>
         return null;
     }
 
+    /**
+     * Reads from the first remote cache without blocking the caller. Unlike {@link #get(Object)}
+     * the other servers of a cluster are not asked.
+     * <p>
+     * @param key
+     * @return a future for the element, or null if there is no remote cache
+     */
+    public Future<ICacheElement<K, V>> getAsync( K key )
+    {
+        if ( noWaits.isEmpty() )
+        {
+            return null;
+        }
+        return noWaits.get( 0 ).getAsync( key );
+    }
+
     /**
      * Synchronously read from the remote cache.
      * <p>
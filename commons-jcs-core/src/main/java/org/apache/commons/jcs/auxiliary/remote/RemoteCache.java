@@ -133,8 +133,7 @@ public class RemoteCache<K, V>
         // we should not switch if the existing is a zombie.
         if ( getRemoteCacheService() == null || !( getRemoteCacheService() instanceof ZombieCacheServiceNonLocal ) )
         {
-            // TODO make configurable
-            setRemoteCacheService( new ZombieCacheServiceNonLocal<K, V>( getRemoteCacheAttributes().getZombieQueueMaxSize() ) );
+            setRemoteCacheService( createZombie() );
         }
         // may want to flush if region specifies
         // Notify the cache monitor about the error, and kick off the recovery
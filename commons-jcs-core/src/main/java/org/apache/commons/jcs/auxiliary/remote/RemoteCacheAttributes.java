@@ -64,6 +64,27 @@ public class RemoteCacheAttributes
     /** If the primary fails, we will queue items before reconnect.  This limits the number of items that can be queued. */
     private int zombieQueueMaxSize = DEFAULT_ZOMBIE_QUEUE_MAX_SIZE;
 
+    /** The servers that share the keys, empty for no sharding */
+    private String shardServers = "";
+
+    /** The number of points per shard on the hash ring */
+    private int shardVirtualNodes = DEFAULT_SHARD_VIRTUAL_NODES;
+
+    /** The number of keys per request when the region is synced */
+    private int syncChunkSize = DEFAULT_SYNC_CHUNK_SIZE;
+
+    /** The directory of the zombie journal, null for none */
+    private String zombieJournalPath;
+
+    /** The number of events the zombie journal holds */
+    private int zombieJournalMaxSize = DEFAULT_ZOMBIE_JOURNAL_MAX_SIZE;
+
+    /** The number of zombie events replayed per second, 0 for no limit */
+    private int zombieReplayEventsPerSecond = 0;
+
+    /** The number of zombie events replayed before the rate is checked */
+    private int zombieReplayBatchSize = DEFAULT_ZOMBIE_REPLAY_BATCH_SIZE;
+
     /** Default constructor for the RemoteCacheAttributes object */
     public RemoteCacheAttributes()
     {
@@ -246,6 +267,132 @@ public class RemoteCacheAttributes
         return zombieQueueMaxSize;
     }
 
+    /**
+     * @param shardServers the servers that share the keys, empty for no sharding
+     */
+    @Override
+    public void setShardServers( String shardServers )
+    {
+        this.shardServers = shardServers;
+    }
+
+    /**
+     * @return the servers that share the keys
+     */
+    @Override
+    public String getShardServers()
+    {
+        return shardServers;
+    }
+
+    /**
+     * @param shardVirtualNodes the number of points per shard on the hash ring
+     */
+    @Override
+    public void setShardVirtualNodes( int shardVirtualNodes )
+    {
+        this.shardVirtualNodes = shardVirtualNodes;
+    }
+
+    /**
+     * @return the number of points per shard on the hash ring
+     */
+    @Override
+    public int getShardVirtualNodes()
+    {
+        return shardVirtualNodes;
+    }
+
+    /**
+     * @param syncChunkSize the number of keys per request when the region is synced, 0 for no sync
+     */
+    @Override
+    public void setSyncChunkSize( int syncChunkSize )
+    {
+        this.syncChunkSize = syncChunkSize;
+    }
+
+    /**
+     * @return the number of keys per request when the region is synced
+     */
+    @Override
+    public int getSyncChunkSize()
+    {
+        return syncChunkSize;
+    }
+
+    /**
+     * @param zombieJournalPath the directory of the zombie journal, null for none
+     */
+    @Override
+    public void setZombieJournalPath( String zombieJournalPath )
+    {
+        this.zombieJournalPath = zombieJournalPath;
+    }
+
+    /**
+     * @return the directory of the zombie journal
+     */
+    @Override
+    public String getZombieJournalPath()
+    {
+        return zombieJournalPath;
+    }
+
+    /**
+     * @param zombieJournalMaxSize the number of events the zombie journal holds
+     */
+    @Override
+    public void setZombieJournalMaxSize( int zombieJournalMaxSize )
+    {
+        this.zombieJournalMaxSize = zombieJournalMaxSize;
+    }
+
+    /**
+     * @return the number of events the zombie journal holds
+     */
+    @Override
+    public int getZombieJournalMaxSize()
+    {
+        return zombieJournalMaxSize;
+    }
+
+    /**
+     * @param zombieReplayEventsPerSecond the number of zombie events replayed per second, 0 for no limit
+     */
+    @Override
+    public void setZombieReplayEventsPerSecond( int zombieReplayEventsPerSecond )
+    {
+        this.zombieReplayEventsPerSecond = zombieReplayEventsPerSecond;
+    }
+
+    /**
+     * @return the number of zombie events replayed per second
+     */
+    @Override
+    public int getZombieReplayEventsPerSecond()
+    {
+        return zombieReplayEventsPerSecond;
+    }
+
+    /**
+     * @param zombieReplayBatchSize the number of zombie events replayed before the rate is checked
+     */
+    @Override
+    public void setZombieReplayBatchSize( int zombieReplayBatchSize )
+    {
+        this.zombieReplayBatchSize = zombieReplayBatchSize;
+    }
+
+    /**
+     * @return the number of zombie events replayed before the rate is checked
+     */
+    @Override
+    public int getZombieReplayBatchSize()
+    {
+        return zombieReplayBatchSize;
+    }
+
     /**
      * @return String, all the important values that can be configured
      */
@@ -258,6 +405,13 @@ public class RemoteCacheAttributes
         buf.append( "\n threadPoolName = [" + getThreadPoolName() + "]" );
         buf.append( "\n localClusterConsistency = [" + isLocalClusterConsistency() + "]" );
         buf.append( "\n zombieQueueMaxSize = [" + getZombieQueueMaxSize() + "]" );
+        buf.append( "\n shardServers = [" + getShardServers() + "]" );
+        buf.append( "\n shardVirtualNodes = [" + getShardVirtualNodes() + "]" );
+        buf.append( "\n syncChunkSize = [" + getSyncChunkSize() + "]" );
+        buf.append( "\n zombieJournalPath = [" + getZombieJournalPath() + "]" );
+        buf.append( "\n zombieJournalMaxSize = [" + getZombieJournalMaxSize() + "]" );
+        buf.append( "\n zombieReplayEventsPerSecond = [" + getZombieReplayEventsPerSecond() + "]" );
+        buf.append( "\n zombieReplayBatchSize = [" + getZombieReplayBatchSize() + "]" );
         return buf.toString();
     }
 }
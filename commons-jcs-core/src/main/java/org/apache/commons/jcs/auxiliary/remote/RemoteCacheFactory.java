@@ -42,6 +42,9 @@ import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
  * is a wrapper around a no wait. The no wait object is either an active connection to a remote
  * cache or a balking zombie if the remote cache is not accessible. It should be transparent to the
  * clients.
+ * <p>
+ * If shard servers are configured, it returns a sharded facade instead, which spreads the keys over
+ * the servers.
  */
 public class RemoteCacheFactory
     extends AbstractAuxiliaryCacheFactory
@@ -75,6 +78,11 @@ public class RemoteCacheFactory
     {
         RemoteCacheAttributes rca = (RemoteCacheAttributes) iaca;
 
+        if ( rca.getShardServers() != null && rca.getShardServers().trim().length() > 0 )
+        {
+            return createShardedCache( rca, cacheMgr, cacheEventLogger, elementSerializer );
+        }
+
         ArrayList<ICache<K, V>> noWaits = new ArrayList<ICache<K, V>>();
 
         switch (rca.getRemoteType())
@@ -160,6 +168,42 @@ public class RemoteCacheFactory
 
     // end createCache
 
+    /**
+     * Connects to each of the shard servers and spreads the keys over them. Each shard gets its own
+     * copy of the attributes, with its location.
+     * <p>
+     * @param rca
+     * @param cacheMgr
+     * @param cacheEventLogger
+     * @param elementSerializer
+     * @return a sharded facade
+     */
+    protected <K, V> AuxiliaryCache<K, V> createShardedCache( RemoteCacheAttributes rca, ICompositeCacheManager cacheMgr,
+            ICacheEventLogger cacheEventLogger, IElementSerializer elementSerializer )
+    {
+        ArrayList<ICache<K, V>> noWaits = new ArrayList<ICache<K, V>>();
+        ArrayList<RemoteLocation> locations = new ArrayList<RemoteLocation>();
+
+        StringTokenizer it = new StringTokenizer( rca.getShardServers(), "," );
+        while ( it.hasMoreTokens() )
+        {
+            RemoteLocation location = RemoteLocation.parseServerAndPort( it.nextToken() );
+
+            if ( location != null )
+            {
+                RemoteCacheAttributes shardRca = (RemoteCacheAttributes) rca.clone();
+                shardRca.setRemoteLocation( location );
+                shardRca.setRemoteType( RemoteType.LOCAL );
+                RemoteCacheManager rcm = getManager( shardRca, cacheMgr, cacheEventLogger, elementSerializer );
+                ICache<K, V> ic = rcm.getCache( shardRca );
+                noWaits.add( ic );
+                locations.add( location );
+            }
+        }
+
+        return new RemoteCacheShardedFacade<K, V>( noWaits, locations, rca, cacheMgr, cacheEventLogger, elementSerializer );
+    }
+
     /**
      * Returns an instance of RemoteCacheManager for the given connection parameters.
      * <p>
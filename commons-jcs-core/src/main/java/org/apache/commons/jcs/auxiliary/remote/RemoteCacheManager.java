@@ -23,11 +23,14 @@ import java.io.IOException;
 import java.rmi.Naming;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.jcs.auxiliary.remote.behavior.IRemoteCacheAttributes;
 import org.apache.commons.jcs.auxiliary.remote.behavior.IRemoteCacheClient;
 import org.apache.commons.jcs.auxiliary.remote.behavior.IRemoteCacheListener;
+import org.apache.commons.jcs.auxiliary.remote.server.behavior.IRemoteCacheServer;
 import org.apache.commons.jcs.engine.CacheStatus;
 import org.apache.commons.jcs.engine.CacheWatchRepairable;
 import org.apache.commons.jcs.engine.ZombieCacheServiceNonLocal;
@@ -36,7 +39,9 @@ import org.apache.commons.jcs.engine.behavior.ICacheObserver;
 import org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheManager;
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.behavior.IZombie;
 import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -87,6 +92,12 @@ public class RemoteCacheManager
     /** can it be restored */
     private boolean canFix = true;
 
+    /** Versions of other nodes may come from clocks that are a bit behind ours */
+    private static final long SYNC_CLOCK_TOLERANCE_MILLIS = 5000;
+
+    /** Runs the region syncs, created on first use */
+    private ExecutorService syncExecutor;
+
     /**
      * Constructs an instance to with the given remote connection parameters. If the connection
      * cannot be made, "zombie" services will be temporarily used until a successful re-connection
@@ -313,6 +324,11 @@ public class RemoteCacheManager
         remoteCacheNoWait.setCacheEventLogger( cacheEventLogger );
         remoteCacheNoWait.setElementSerializer( elementSerializer );
 
+        if ( !( remoteService instanceof IZombie ) )
+        {
+            scheduleSync( remoteCacheNoWait, 0 );
+        }
+
         return remoteCacheNoWait;
     }
 
@@ -342,6 +358,15 @@ public class RemoteCacheManager
             }
 
             caches.clear();
+
+            synchronized ( this )
+            {
+                if ( syncExecutor != null )
+                {
+                    syncExecutor.shutdownNow();
+                    syncExecutor = null;
+                }
+            }
         }
         finally
         {
@@ -368,7 +393,9 @@ public class RemoteCacheManager
         {
             if (c.getStatus() == CacheStatus.ERROR)
             {
+                long disconnectTime = c.getRemoteCache().getDisconnectTime();
                 c.fixCache( remoteService );
+                scheduleSync( c, disconnectTime > 0 ? disconnectTime - SYNC_CLOCK_TOLERANCE_MILLIS : 0 );
             }
         }
 
@@ -383,6 +410,79 @@ public class RemoteCacheManager
         }
     }
 
+    /**
+     * Loads the region from the server in the background if the region is configured for it. The
+     * caller may be creating the region, so the sync waits for the region in another thread.
+     * <p>
+     * @param cache the client of the region
+     * @param changedSince the time in milliseconds, 0 for all elements
+     */
+    private synchronized <K, V> void scheduleSync( final RemoteCacheNoWait<K, V> cache, final long changedSince )
+    {
+        if ( ( (IRemoteCacheAttributes) cache.getAuxiliaryCacheAttributes() ).getSyncChunkSize() <= 0 )
+        {
+            return;
+        }
+
+        if ( syncExecutor == null )
+        {
+            syncExecutor = Executors.newSingleThreadExecutor( new DaemonThreadFactory( "JCS-RemoteCacheSync-" ) );
+        }
+
+        syncExecutor.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    syncRegion( cache, changedSince );
+                }
+                catch ( IOException e )
+                {
+                    log.error( "Could not sync region [" + cache.getCacheName() + "] from " + registry, e );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Loads the elements of the region that were changed at or after the given time from the
+     * server, in chunks of the configured size. Only servers that support it are synced, RMI
+     * servers do, HTTP servers don't.
+     * <p>
+     * @param cache the client of the region
+     * @param changedSince the time in milliseconds, 0 for all elements
+     * @return the number of elements loaded
+     * @throws IOException if the server fails
+     */
+    public <K, V> int syncRegion( RemoteCacheNoWait<K, V> cache, long changedSince )
+        throws IOException
+    {
+        if ( !( remoteService instanceof IRemoteCacheServer ) )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Server " + remoteService + " can not sync region [" + cache.getCacheName() + "]" );
+            }
+            return 0;
+        }
+
+        @SuppressWarnings("unchecked") // The server holds the region with the types of the client
+        IRemoteCacheServer<K, V> server = (IRemoteCacheServer<K, V>) remoteService;
+        int chunkSize = ( (IRemoteCacheAttributes) cache.getAuxiliaryCacheAttributes() ).getSyncChunkSize();
+        RemoteCacheRegionSync<K, V> sync = new RemoteCacheRegionSync<K, V>( server, elementSerializer );
+        int loaded = sync.sync( cacheMgr.<K, V>getCache( cache.getCacheName() ), changedSince, chunkSize,
+                                cache.getRemoteCache().getListenerId() );
+
+        if ( cacheEventLogger != null )
+        {
+            cacheEventLogger.logApplicationEvent( "RemoteCacheManager", "sync", "Loaded " + loaded
+                + " elements of [" + cache.getCacheName() + "] from " + registry );
+        }
+        return loaded;
+    }
+
     /**
      * Returns true if the connection to the remote host can be
      * successfully re-established.
@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.apache.commons.jcs.auxiliary.AbstractAuxiliaryCache;
 import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
@@ -192,6 +193,19 @@ public class RemoteCacheNoWait<K, V>
         return null;
     }
 
+    /**
+     * Reads from the remote cache without blocking the caller, see
+     * {@link IRemoteCacheClient#getAsync(Object)}.
+     * <p>
+     * @param key
+     * @return a future for the element, null if the remote cache does not have it
+     */
+    public Future<ICacheElement<K, V>> getAsync( K key )
+    {
+        getCount++;
+        return remoteCacheClient.getAsync( key );
+    }
+
     /**
      * @param pattern
      * @return Map
@@ -0,0 +1,146 @@
+package org.apache.commons.jcs.auxiliary.remote;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jcs.auxiliary.remote.server.behavior.IRemoteCacheServer;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElementSerialized;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.utils.serialization.SerializationConversionUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Loads a region from a remote cache server into the local cache. The keys are fetched once and
+ * the elements are then fetched in chunks, so neither side has to hold the whole region in one
+ * message. The elements are loaded with {@link CompositeCache#localLoad}, which skips the event
+ * path of the listener and does not send them back to any remote or lateral.
+ */
+class RemoteCacheRegionSync<K, V>
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( RemoteCacheRegionSync.class );
+
+    /** The server to load from */
+    private final IRemoteCacheServer<K, V> server;
+
+    /** Deserializes the values */
+    private final IElementSerializer elementSerializer;
+
+    /**
+     * @param server the server to load from
+     * @param elementSerializer deserializes the values
+     */
+    RemoteCacheRegionSync( IRemoteCacheServer<K, V> server, IElementSerializer elementSerializer )
+    {
+        this.server = server;
+        this.elementSerializer = elementSerializer;
+    }
+
+    /**
+     * Loads the elements of the region that were changed at or after the given time.
+     * <p>
+     * @param target the local region
+     * @param changedSince the time in milliseconds, 0 for all elements
+     * @param chunkSize the number of keys per request
+     * @param requesterId the listener id of the client
+     * @return the number of elements loaded
+     * @throws IOException if the server fails
+     */
+    int sync( CompositeCache<K, V> target, long changedSince, int chunkSize, long requesterId )
+        throws IOException
+    {
+        String cacheName = target.getCacheName();
+        long start = System.currentTimeMillis();
+
+        Set<K> keys = server.getKeySet( cacheName );
+        int size = Math.max( 1, chunkSize );
+        int loaded = 0;
+        Set<K> chunk = new HashSet<K>();
+        for ( K key : keys )
+        {
+            chunk.add( key );
+            if ( chunk.size() >= size )
+            {
+                loaded += loadChunk( target, chunk, changedSince, requesterId );
+                chunk = new HashSet<K>();
+            }
+        }
+        if ( !chunk.isEmpty() )
+        {
+            loaded += loadChunk( target, chunk, changedSince, requesterId );
+        }
+
+        if ( log.isInfoEnabled() )
+        {
+            log.info( "Synced [" + cacheName + "], loaded " + loaded + " of " + keys.size()
+                + " elements changed since [" + changedSince + "] in " + ( System.currentTimeMillis() - start )
+                + " ms" );
+        }
+        return loaded;
+    }
+
+    /**
+     * @param target the local region
+     * @param chunk the keys
+     * @param changedSince the time in milliseconds
+     * @param requesterId the listener id of the client
+     * @return the number of elements loaded
+     * @throws IOException
+     */
+    private int loadChunk( CompositeCache<K, V> target, Set<K> chunk, long changedSince, long requesterId )
+        throws IOException
+    {
+        Map<K, ICacheElement<K, V>> elements =
+            server.getMultipleChangedSince( target.getCacheName(), chunk, changedSince, requesterId );
+        if ( elements == null || elements.isEmpty() )
+        {
+            return 0;
+        }
+
+        List<ICacheElement<K, V>> values = new ArrayList<ICacheElement<K, V>>( elements.size() );
+        for ( ICacheElement<K, V> element : elements.values() )
+        {
+            if ( element instanceof ICacheElementSerialized )
+            {
+                try
+                {
+                    element = SerializationConversionUtil.getDeSerializedCacheElement(
+                        (ICacheElementSerialized<K, V>) element, elementSerializer );
+                }
+                catch ( ClassNotFoundException e )
+                {
+                    log.error( "Received a serialized version of a class that we don't know about.", e );
+                    continue;
+                }
+            }
+            values.add( element );
+        }
+        return target.localLoad( values );
+    }
+}
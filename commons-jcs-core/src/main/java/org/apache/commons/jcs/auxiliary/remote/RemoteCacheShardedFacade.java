@@ -0,0 +1,633 @@
+package org.apache.commons.jcs.auxiliary.remote;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.CacheStatus;
+import org.apache.commons.jcs.engine.behavior.ICache;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheManager;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Spreads the keys of a region over several remote servers. Each server owns the keys that fall on
+ * its points of a consistent hash ring, so adding a server only moves a small part of the keys. A
+ * server gets several points on the ring, so the keys are spread evenly.
+ * <p>
+ * If the owner of a key is in error, the key is routed to the next server on the ring that is
+ * alive. Updates and removes of such keys are sent to the owner as well, where the zombie queues
+ * them until the monitor restores the connection, so the owner is current when it takes the keys
+ * back. The copies written to the other server are removed there once the owner is alive again, so
+ * a later outage of the owner does not bring them back.
+ * <p>
+ * A get multiple asks all servers involved at the same time. A remove of a hierarchical key, a
+ * string ending with the name component delimiter or a group without an attribute name, is sent to
+ * all servers, because the keys it addresses are spread over all of them.
+ * <p>
+ * The position of a key on the ring is derived from its hash code, so the keys need a hash code
+ * that is the same in every JVM, like strings and numbers have.
+ */
+public class RemoteCacheShardedFacade<K, V>
+    extends AbstractRemoteCacheNoWaitFacade<K, V>
+{
+    /** log instance */
+    private static final Log log = LogFactory.getLog( RemoteCacheShardedFacade.class );
+
+    /** The ring, position to the index of the shard in noWaits */
+    private final TreeMap<Long, Integer> ring = new TreeMap<Long, Integer>();
+
+    /** Owner to the keys written to another shard while the owner was in error, and that shard */
+    private final ConcurrentMap<Integer, ConcurrentMap<K, Integer>> fallbackCopies =
+        new ConcurrentHashMap<Integer, ConcurrentMap<K, Integer>>();
+
+    /**
+     * Constructs the facade.
+     * <p>
+     * @param noWaits the connections to the shards
+     * @param locations the locations of the shards, in the same order, they place the shards on the ring
+     * @param rca
+     * @param cacheMgr
+     * @param cacheEventLogger
+     * @param elementSerializer
+     */
+    public RemoteCacheShardedFacade( List<ICache<K, V>> noWaits, List<RemoteLocation> locations,
+                                     RemoteCacheAttributes rca, ICompositeCacheManager cacheMgr,
+                                     ICacheEventLogger cacheEventLogger, IElementSerializer elementSerializer )
+    {
+        super( noWaits, rca, cacheMgr, cacheEventLogger, elementSerializer );
+
+        int virtualNodes = Math.max( 1, rca.getShardVirtualNodes() );
+        for ( int i = 0; i < locations.size(); i++ )
+        {
+            for ( int v = 0; v < virtualNodes; v++ )
+            {
+                ring.put( Long.valueOf( hash( locations.get( i ) + "#" + v ) ), Integer.valueOf( i ) );
+            }
+        }
+    }
+
+    /**
+     * Puts the element on the shard of its key.
+     * <p>
+     * @param ce
+     * @throws IOException
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        removeRecoveredFallbackCopies();
+        int owner = route( ce.getKey(), false );
+        int target = route( ce.getKey(), true );
+
+        update( noWaits.get( target ), ce );
+        if ( target != owner )
+        {
+            // queued by the zombie of the owner
+            update( noWaits.get( owner ), ce );
+            recordFallbackCopy( owner, target, ce.getKey() );
+        }
+        else
+        {
+            removeFallbackCopy( owner, ce.getKey() );
+        }
+    }
+
+    /**
+     * @param nw the shard
+     * @param ce the element
+     */
+    private void update( RemoteCacheNoWait<K, V> nw, ICacheElement<K, V> ce )
+    {
+        try
+        {
+            nw.update( ce );
+        }
+        catch ( IOException ex )
+        {
+            log.error( "Problem updating shard " + nw, ex );
+            failover( nw );
+        }
+    }
+
+    /**
+     * Gets the element from the shard of its key. If the shard fails, the key is routed to the
+     * next shard.
+     * <p>
+     * @param key
+     * @return the element or null
+     */
+    @Override
+    public ICacheElement<K, V> get( K key )
+    {
+        removeRecoveredFallbackCopies();
+        for ( int attempt = 0; attempt < noWaits.size(); attempt++ )
+        {
+            RemoteCacheNoWait<K, V> nw = noWaits.get( route( key, true ) );
+            try
+            {
+                return nw.get( key );
+            }
+            catch ( IOException ex )
+            {
+                if ( log.isDebugEnabled() )
+                {
+                    log.debug( "Failed to get from shard " + nw + ", rerouting." );
+                }
+                failover( nw );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the element from the shard of its key without blocking the caller. A shard in error
+     * is skipped, but a failure of the request is not rerouted.
+     * <p>
+     * @param key
+     * @return a future for the element
+     */
+    @Override
+    public Future<ICacheElement<K, V>> getAsync( K key )
+    {
+        removeRecoveredFallbackCopies();
+        return noWaits.get( route( key, true ) ).getAsync( key );
+    }
+
+    /**
+     * Splits the keys by shard and asks the shards at the same time. The keys of a shard that fails
+     * are fetched one by one from the shards they are routed to next.
+     * <p>
+     * @param keys
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element, or an empty map if there is no
+     *         data in cache for any of these keys
+     */
+    @Override
+    public Map<K, ICacheElement<K, V>> getMultiple( Set<K> keys )
+    {
+        if ( keys == null || keys.isEmpty() )
+        {
+            return Collections.emptyMap();
+        }
+
+        removeRecoveredFallbackCopies();
+        Map<Integer, Set<K>> keysByShard = new HashMap<Integer, Set<K>>();
+        for ( K key : keys )
+        {
+            Integer shard = Integer.valueOf( route( key, true ) );
+            Set<K> shardKeys = keysByShard.get( shard );
+            if ( shardKeys == null )
+            {
+                shardKeys = new HashSet<K>();
+                keysByShard.put( shard, shardKeys );
+            }
+            shardKeys.add( key );
+        }
+
+        Map<Integer, Future<Map<K, ICacheElement<K, V>>>> futures =
+            new HashMap<Integer, Future<Map<K, ICacheElement<K, V>>>>();
+        for ( Map.Entry<Integer, Set<K>> entry : keysByShard.entrySet() )
+        {
+            RemoteCacheNoWait<K, V> nw = noWaits.get( entry.getKey().intValue() );
+            futures.put( entry.getKey(), nw.getRemoteCache().getMultipleAsync( entry.getValue() ) );
+        }
+
+        Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
+        for ( Map.Entry<Integer, Future<Map<K, ICacheElement<K, V>>>> entry : futures.entrySet() )
+        {
+            RemoteCacheNoWait<K, V> nw = noWaits.get( entry.getKey().intValue() );
+            try
+            {
+                Map<K, ICacheElement<K, V>> shardElements = await( entry.getValue() );
+                if ( shardElements != null )
+                {
+                    elements.putAll( shardElements );
+                }
+            }
+            catch ( IOException ex )
+            {
+                if ( log.isDebugEnabled() )
+                {
+                    log.debug( "Failed to getMultiple from shard " + nw + ", rerouting." );
+                }
+                failover( nw );
+                for ( K key : keysByShard.get( entry.getKey() ) )
+                {
+                    ICacheElement<K, V> element = get( key );
+                    if ( element != null )
+                    {
+                        elements.put( key, element );
+                    }
+                }
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Waits for the result of a shard, as long as the get timeout if one is configured.
+     * <p>
+     * @param future the result
+     * @return the elements
+     * @throws IOException if the shard failed
+     */
+    private Map<K, ICacheElement<K, V>> await( Future<Map<K, ICacheElement<K, V>>> future )
+        throws IOException
+    {
+        int timeout = getAuxiliaryCacheAttributes().getGetTimeoutMillis();
+        try
+        {
+            return timeout > 0 ? future.get( timeout, TimeUnit.MILLISECONDS ) : future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            future.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted waiting for shard" );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new IOException( e.getCause() );
+        }
+        catch ( TimeoutException e )
+        {
+            future.cancel( true );
+            throw new IOException( "Shard did not answer within " + timeout + " ms" );
+        }
+    }
+
+    /**
+     * Asks all shards that are alive, the keys may live on any of them.
+     * <p>
+     * @param pattern
+     * @return the matching elements of all shards
+     * @throws IOException
+     */
+    @Override
+    public Map<K, ICacheElement<K, V>> getMatching( String pattern )
+        throws IOException
+    {
+        Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
+        for ( RemoteCacheNoWait<K, V> nw : noWaits )
+        {
+            if ( nw.getStatus() == CacheStatus.ALIVE )
+            {
+                try
+                {
+                    elements.putAll( nw.getMatching( pattern ) );
+                }
+                catch ( IOException ex )
+                {
+                    log.debug( "Failed to getMatching from shard " + nw );
+                    failover( nw );
+                }
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Removes the key from the shard it is routed to, and from its owner if that is in error. A
+     * hierarchical key is removed from all shards.
+     * <p>
+     * @param key
+     * @return false, the remove is asynchronous
+     */
+    @Override
+    public boolean remove( K key )
+    {
+        removeRecoveredFallbackCopies();
+        if ( isHierarchicalKey( key ) )
+        {
+            forgetMatchingFallbackCopies( key );
+            for ( RemoteCacheNoWait<K, V> nw : noWaits )
+            {
+                try
+                {
+                    nw.remove( key );
+                }
+                catch ( IOException ex )
+                {
+                    log.error( "Problem removing from shard " + nw, ex );
+                    failover( nw );
+                }
+            }
+            return false;
+        }
+
+        int owner = route( key, false );
+        int target = route( key, true );
+        if ( target == owner )
+        {
+            removeFallbackCopy( owner, key );
+        }
+        else
+        {
+            forgetFallbackCopy( owner, key );
+        }
+
+        List<RemoteCacheNoWait<K, V>> shards = new ArrayList<RemoteCacheNoWait<K, V>>( 2 );
+        shards.add( noWaits.get( target ) );
+        if ( target != owner )
+        {
+            shards.add( noWaits.get( owner ) );
+        }
+
+        for ( RemoteCacheNoWait<K, V> nw : shards )
+        {
+            try
+            {
+                nw.remove( key );
+            }
+            catch ( IOException ex )
+            {
+                log.error( "Problem removing from shard " + nw, ex );
+                failover( nw );
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers that a key was written to another shard while its owner was in error.
+     * <p>
+     * @param owner the owner of the key
+     * @param target the shard that got the copy
+     * @param key the key
+     */
+    private void recordFallbackCopy( int owner, int target, K key )
+    {
+        ConcurrentMap<K, Integer> copies = fallbackCopies.get( Integer.valueOf( owner ) );
+        if ( copies == null )
+        {
+            ConcurrentMap<K, Integer> created = new ConcurrentHashMap<K, Integer>();
+            copies = fallbackCopies.putIfAbsent( Integer.valueOf( owner ), created );
+            if ( copies == null )
+            {
+                copies = created;
+            }
+        }
+        copies.put( key, Integer.valueOf( target ) );
+    }
+
+    /**
+     * Forgets the copy of a key on another shard, when the key is removed there anyway.
+     * <p>
+     * @param owner the owner of the key
+     * @param key the key
+     * @return the shard that had the copy, null if there is none
+     */
+    private Integer forgetFallbackCopy( int owner, K key )
+    {
+        ConcurrentMap<K, Integer> copies = fallbackCopies.get( Integer.valueOf( owner ) );
+        return copies == null ? null : copies.remove( key );
+    }
+
+    /**
+     * Forgets the copies of the keys a hierarchical key addresses, the remove reaches all shards.
+     * <p>
+     * @param key the hierarchical key
+     */
+    private void forgetMatchingFallbackCopies( K key )
+    {
+        for ( ConcurrentMap<K, Integer> copies : fallbackCopies.values() )
+        {
+            for ( Iterator<K> it = copies.keySet().iterator(); it.hasNext(); )
+            {
+                K k = it.next();
+                boolean matches = key instanceof String
+                    ? k instanceof String && ( (String) k ).startsWith( (String) key )
+                    : k instanceof GroupAttrName && ( (GroupAttrName<?>) k ).groupId.equals( ( (GroupAttrName<?>) key ).groupId );
+                if ( matches )
+                {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * A hierarchical key (a String ending with the name component delimiter or a group name
+     * without attribute) addresses keys on all shards.
+     * <p>
+     * @param key
+     * @return true if the key addresses more than one element
+     */
+    private boolean isHierarchicalKey( K key )
+    {
+        return ( key instanceof String && ( (String) key ).endsWith( CacheConstants.NAME_COMPONENT_DELIMITER ) )
+            || ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null );
+    }
+
+    /**
+     * Removes the copy of a key on another shard, after the owner got the key again.
+     * <p>
+     * @param owner the owner of the key
+     * @param key the key
+     */
+    private void removeFallbackCopy( int owner, K key )
+    {
+        Integer target = forgetFallbackCopy( owner, key );
+        if ( target != null && target.intValue() != owner )
+        {
+            RemoteCacheNoWait<K, V> nw = noWaits.get( target.intValue() );
+            try
+            {
+                nw.remove( key );
+            }
+            catch ( IOException ex )
+            {
+                log.error( "Problem removing the copy of [" + key + "] from shard " + nw, ex );
+                failover( nw );
+            }
+        }
+    }
+
+    /**
+     * Removes the copies on other shards of the keys of owners that are alive again. Otherwise a
+     * later outage of the owner would route the keys to the old copies.
+     */
+    private void removeRecoveredFallbackCopies()
+    {
+        if ( fallbackCopies.isEmpty() )
+        {
+            return;
+        }
+
+        for ( Map.Entry<Integer, ConcurrentMap<K, Integer>> entry : fallbackCopies.entrySet() )
+        {
+            int owner = entry.getKey().intValue();
+            if ( noWaits.get( owner ).getStatus() == CacheStatus.ALIVE )
+            {
+                if ( log.isDebugEnabled() )
+                {
+                    log.debug( "Shard " + noWaits.get( owner ) + " is alive again, removing "
+                        + entry.getValue().size() + " copies of its keys from other shards." );
+                }
+                for ( K key : entry.getValue().keySet() )
+                {
+                    removeFallbackCopy( owner, key );
+                }
+            }
+        }
+    }
+
+    /**
+     * The shards reconnect by themselves, the monitor repairs the zombie of a failed shard. Until
+     * then its keys are routed to the next shard on the ring.
+     * <p>
+     * @param rcnw the shard in error
+     */
+    @Override
+    protected void failover( RemoteCacheNoWait<K, V> rcnw )
+    {
+        if ( rcnw.getStatus() == CacheStatus.ERROR && getCacheEventLogger() != null )
+        {
+            getCacheEventLogger().logApplicationEvent( "RemoteCacheShardedFacade", "ShardInError",
+                                                       rcnw + " was in error, rerouting its keys." );
+        }
+    }
+
+    /**
+     * Finds the shard of a key: the shard of the first point on the ring at or after the position
+     * of the key.
+     * <p>
+     * @param key the key
+     * @param aliveOnly true to skip shards that are not alive
+     * @return the index of the shard in noWaits; the owner if no shard is alive
+     */
+    protected int route( K key, boolean aliveOnly )
+    {
+        long position = mix( key.hashCode() );
+        int owner = -1;
+        boolean[] seen = new boolean[noWaits.size()];
+        int seenCount = 0;
+
+        // walk the ring from the position of the key, wrapping around once
+        List<SortedMap<Long, Integer>> halves = new ArrayList<SortedMap<Long, Integer>>( 2 );
+        halves.add( ring.tailMap( Long.valueOf( position ) ) );
+        halves.add( ring.headMap( Long.valueOf( position ) ) );
+        for ( SortedMap<Long, Integer> half : halves )
+        {
+            for ( Integer shard : half.values() )
+            {
+                int index = shard.intValue();
+                if ( owner < 0 )
+                {
+                    owner = index;
+                    if ( !aliveOnly )
+                    {
+                        return owner;
+                    }
+                }
+                if ( !seen[index] )
+                {
+                    if ( noWaits.get( index ).getStatus() == CacheStatus.ALIVE )
+                    {
+                        return index;
+                    }
+                    seen[index] = true;
+                    if ( ++seenCount == seen.length )
+                    {
+                        return owner;
+                    }
+                }
+            }
+        }
+        return Math.max( owner, 0 );
+    }
+
+    /**
+     * Spreads a hash code over the ring.
+     * <p>
+     * @param h the hash code
+     * @return the position
+     */
+    private static long mix( long h )
+    {
+        // finalizer of MurmurHash3
+        long z = h;
+        z = ( z ^ ( z >>> 33 ) ) * 0xff51afd7ed558ccdL;
+        z = ( z ^ ( z >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+        return z ^ ( z >>> 33 );
+    }
+
+    /**
+     * Places a point of a shard on the ring. Uses MD5, so all clients agree on the ring.
+     * <p>
+     * @param name the name of the point
+     * @return the position
+     */
+    private static long hash( String name )
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance( "MD5" ).digest( name.getBytes( "UTF-8" ) );
+            long h = 0;
+            for ( int i = 0; i < 8; i++ )
+            {
+                h = ( h << 8 ) | ( digest[i] & 0xff );
+            }
+            return h;
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "MD5 is not available", e );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not available", e );
+        }
+    }
+
+    /**
+     * @return the facade and its shards
+     */
+    @Override
+    public String toString()
+    {
+        return "RemoteCacheShardedFacade: " + getCacheName() + ", shards = " + noWaits.size();
+    }
+}
@@ -45,6 +45,18 @@ public interface IRemoteCacheAttributes
      */
     int DEFAULT_ZOMBIE_QUEUE_MAX_SIZE = 1000;
 
+    /** The default number of points per shard on the hash ring */
+    int DEFAULT_SHARD_VIRTUAL_NODES = 100;
+
+    /** The default number of keys per chunk when a region is synced, 0 is no sync */
+    int DEFAULT_SYNC_CHUNK_SIZE = 0;
+
+    /** The default number of events the zombie journal holds */
+    int DEFAULT_ZOMBIE_JOURNAL_MAX_SIZE = 100000;
+
+    /** The default number of zombie events replayed before the rate is checked */
+    int DEFAULT_ZOMBIE_REPLAY_BATCH_SIZE = 100;
+
     /**
      * Gets the failoverIndex attribute of the IRemoteCacheAttributes object.
      * <p>
@@ -179,4 +191,91 @@ public interface IRemoteCacheAttributes
      * @return Returns the zombieQueueMaxSize.
      */
     int getZombieQueueMaxSize();
+
+    /**
+     * A comma separated list of host:port of remote servers that share the keys of the region.
+     * If it is set, each key lives on one of the servers, chosen by consistent hashing, instead of
+     * all keys living on a primary with failovers.
+     * <p>
+     * @param shardServers the servers, null or empty for no sharding
+     */
+    void setShardServers( String shardServers );
+
+    /**
+     * @return the servers that share the keys, null or empty for no sharding
+     */
+    String getShardServers();
+
+    /**
+     * The number of points each shard gets on the hash ring. More points spread the keys more
+     * evenly, and spread the keys of a failed shard over more of the others.
+     * <p>
+     * @param shardVirtualNodes the number of points per shard
+     */
+    void setShardVirtualNodes( int shardVirtualNodes );
+
+    /**
+     * @return the number of points per shard
+     */
+    int getShardVirtualNodes();
+
+    /**
+     * If larger than zero, the region is loaded from the server in chunks of this many keys when
+     * the client connects, and the elements changed while it was disconnected are loaded when it
+     * reconnects. The elements go straight into the local cache, so a client with a disk cache is
+     * warm at once.
+     * <p>
+     * @param syncChunkSize the number of keys per request, 0 for no sync
+     */
+    void setSyncChunkSize( int syncChunkSize );
+
+    /**
+     * @return the number of keys per request when the region is synced, 0 for no sync
+     */
+    int getSyncChunkSize();
+
+    /**
+     * If set, the zombie events that do not fit in the zombie queue are written to a file in this
+     * directory instead of being dropped.
+     * <p>
+     * @param zombieJournalPath the directory, null or empty for no journal
+     */
+    void setZombieJournalPath( String zombieJournalPath );
+
+    /**
+     * @return the directory of the zombie journal, null or empty for no journal
+     */
+    String getZombieJournalPath();
+
+    /**
+     * @param zombieJournalMaxSize the number of events the zombie journal holds
+     */
+    void setZombieJournalMaxSize( int zombieJournalMaxSize );
+
+    /**
+     * @return the number of events the zombie journal holds
+     */
+    int getZombieJournalMaxSize();
+
+    /**
+     * Limits the rate at which the queued events are sent to a server that is back.
+     * <p>
+     * @param zombieReplayEventsPerSecond the number of events per second, 0 for no limit
+     */
+    void setZombieReplayEventsPerSecond( int zombieReplayEventsPerSecond );
+
+    /**
+     * @return the number of events per second sent to a server that is back, 0 for no limit
+     */
+    int getZombieReplayEventsPerSecond();
+
+    /**
+     * @param zombieReplayBatchSize the number of queued events sent before the rate is checked
+     */
+    void setZombieReplayBatchSize( int zombieReplayBatchSize );
+
+    /**
+     * @return the number of queued events sent before the rate is checked
+     */
+    int getZombieReplayBatchSize();
 }
@@ -19,7 +19,12 @@ package org.apache.commons.jcs.auxiliary.remote.behavior;
  * under the License.
  */
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
 import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal;
 
 /**
@@ -58,4 +63,35 @@ public interface IRemoteCacheClient<K, V>
      * @return IRemoteCacheListener
      */
     IRemoteCacheListener<K, V> getListener();
+
+    /**
+     * Gets an item without blocking the caller for the round trip to the server. A failure of the
+     * server completes the future with an exception.
+     * <p>
+     * @param key
+     * @return a future for the element, null if the server does not have it
+     */
+    Future<ICacheElement<K, V>> getAsync( K key );
+
+    /**
+     * Gets several items with one request without blocking the caller.
+     * <p>
+     * @param keys
+     * @return a future for the map of key to element, empty if the server has none of them
+     */
+    Future<Map<K, ICacheElement<K, V>>> getMultipleAsync( Set<K> keys );
+
+    /**
+     * Puts an item without blocking the caller. The future is done when the server has the item.
+     * <p>
+     * @param ce
+     * @return a future that is done when the update was sent
+     */
+    Future<Void> updateAsync( ICacheElement<K, V> ce );
+
+    /**
+     * @return the time in milliseconds at which the client lost the connection to the server, 0 if
+     *         it was never connected
+     */
+    long getDisconnectTime();
 }
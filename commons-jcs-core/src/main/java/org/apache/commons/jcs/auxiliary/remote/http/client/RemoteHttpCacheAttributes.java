@@ -52,6 +52,15 @@ public class RemoteHttpCacheAttributes
     /** keys and patterns will be included in the parameters */
     private boolean includeRequestTypeasAsParameter = true;
 
+    /** Use the binary protocol and batch concurrent requests */
+    private boolean binaryProtocol = false;
+
+    /** The most requests sent in one batch */
+    private int batchMaxSize = 100;
+
+    /** The most batches in flight at the same time */
+    private int batchMaxInFlight = 2;
+
     /** The complete URL to the service. */
     private String url;
 
@@ -205,6 +214,60 @@ public class RemoteHttpCacheAttributes
         return remoteHttpClientClassName;
     }
 
+    /**
+     * Sets whether the requests are sent in the compact binary form. Requests of concurrent callers
+     * are then combined into one HTTP exchange. The servlet understands both forms.
+     * <p>
+     * @param binaryProtocol the binaryProtocol to set
+     */
+    public void setBinaryProtocol( boolean binaryProtocol )
+    {
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    /**
+     * @return the binaryProtocol
+     */
+    public boolean isBinaryProtocol()
+    {
+        return binaryProtocol;
+    }
+
+    /**
+     * @param batchMaxSize the most requests sent in one batch
+     */
+    public void setBatchMaxSize( int batchMaxSize )
+    {
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    /**
+     * @return the batchMaxSize
+     */
+    public int getBatchMaxSize()
+    {
+        return batchMaxSize;
+    }
+
+    /**
+     * Sets how many batches may be in flight at the same time. Requests that arrive while all are
+     * in flight wait and go out together in the next batch.
+     * <p>
+     * @param batchMaxInFlight the batchMaxInFlight to set
+     */
+    public void setBatchMaxInFlight( int batchMaxInFlight )
+    {
+        this.batchMaxInFlight = batchMaxInFlight;
+    }
+
+    /**
+     * @return the batchMaxInFlight
+     */
+    public int getBatchMaxInFlight()
+    {
+        return batchMaxInFlight;
+    }
+
     /**
      * @return String details
      */
@@ -220,6 +283,9 @@ public class RemoteHttpCacheAttributes
         buf.append( "\n includeCacheNameAsParameter = [" + isIncludeCacheNameAsParameter() + "]" );
         buf.append( "\n includeKeysAndPatternsAsParameter = [" + isIncludeKeysAndPatternsAsParameter() + "]" );
         buf.append( "\n includeRequestTypeasAsParameter = [" + isIncludeRequestTypeasAsParameter() + "]" );
+        buf.append( "\n binaryProtocol = [" + isBinaryProtocol() + "]" );
+        buf.append( "\n batchMaxSize = [" + getBatchMaxSize() + "]" );
+        buf.append( "\n batchMaxInFlight = [" + getBatchMaxInFlight() + "]" );
         buf.append( "\n url = [" + getUrl() + "]" );
         buf.append( "\n remoteHttpClientClassName = [" + getRemoteHttpClientClassName() + "]" );
         buf.append( super.toString() );
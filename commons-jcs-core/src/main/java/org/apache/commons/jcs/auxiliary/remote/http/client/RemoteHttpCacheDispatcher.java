@@ -20,8 +20,12 @@ package org.apache.commons.jcs.auxiliary.remote.http.client;
  */
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
@@ -30,13 +34,21 @@ import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.jcs.auxiliary.remote.behavior.IRemoteCacheDispatcher;
+import org.apache.commons.jcs.auxiliary.remote.util.RemoteCacheBatchCodec;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheRequest;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheResponse;
 import org.apache.commons.jcs.utils.serialization.StandardSerializer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-/** Calls the service. */
+/**
+ * Calls the service.
+ * <p>
+ * If BinaryProtocol is set, the requests are sent in the form of {@link RemoteCacheBatchCodec}.
+ * A caller sends its request at once if fewer than BatchMaxInFlight batches are in flight.
+ * Otherwise it waits, and the requests that piled up meanwhile go out together in one exchange,
+ * so concurrent callers share the HTTP and serialization overhead without a fixed delay.
+ */
 public class RemoteHttpCacheDispatcher
     extends AbstractHttpClient
     implements IRemoteCacheDispatcher
@@ -59,6 +71,18 @@ public class RemoteHttpCacheDispatcher
     /** This needs to be standard, since the other side is standard */
     private StandardSerializer serializer = new StandardSerializer();
 
+    /** Guards the queue and the in flight count, notified when a batch completes */
+    private final Object batchLock = new Object();
+
+    /** The requests waiting for a batch */
+    private final LinkedList<PendingRequest> queue = new LinkedList<PendingRequest>();
+
+    /** The batches in flight */
+    private int batchesInFlight = 0;
+
+    /** The number of batches sent */
+    private long batchCount = 0;
+
     /**
      * @param remoteHttpCacheAttributes
      */
@@ -81,6 +105,11 @@ public class RemoteHttpCacheDispatcher
         RemoteCacheResponse<T> dispatchRequest( RemoteCacheRequest<K, V> remoteCacheRequest )
         throws IOException
     {
+        if ( getRemoteHttpCacheAttributes().isBinaryProtocol() )
+        {
+            return dispatchBatched( remoteCacheRequest );
+        }
+
         try
         {
             byte[] requestAsByteArray = serializer.serialize( remoteCacheRequest );
@@ -106,6 +135,155 @@ public class RemoteHttpCacheDispatcher
         }
     }
 
+    /**
+     * Queues the request and waits for its response. The caller sends the waiting requests itself
+     * if a batch slot is free.
+     * <p>
+     * @param remoteCacheRequest
+     * @return RemoteCacheResponse
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked") // The payload is whatever the service returned
+    private <K, V, T> RemoteCacheResponse<T> dispatchBatched( RemoteCacheRequest<K, V> remoteCacheRequest )
+        throws IOException
+    {
+        PendingRequest pending = new PendingRequest( remoteCacheRequest );
+        int maxInFlight = Math.max( 1, getRemoteHttpCacheAttributes().getBatchMaxInFlight() );
+        int maxSize = Math.max( 1, getRemoteHttpCacheAttributes().getBatchMaxSize() );
+
+        synchronized ( batchLock )
+        {
+            queue.add( pending );
+        }
+
+        while ( true )
+        {
+            List<PendingRequest> batch = null;
+            synchronized ( batchLock )
+            {
+                if ( pending.done )
+                {
+                    break;
+                }
+
+                if ( batchesInFlight < maxInFlight && !queue.isEmpty() )
+                {
+                    batchesInFlight++;
+                    batchCount++;
+                    batch = new ArrayList<PendingRequest>();
+                    while ( batch.size() < maxSize && !queue.isEmpty() )
+                    {
+                        batch.add( queue.removeFirst() );
+                    }
+                }
+                else
+                {
+                    try
+                    {
+                        batchLock.wait();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        queue.remove( pending );
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException( "Interrupted while waiting for " + remoteCacheRequest );
+                    }
+                }
+            }
+
+            if ( batch != null )
+            {
+                sendBatch( batch );
+            }
+        }
+
+        if ( pending.failure != null )
+        {
+            throw new IOException( "Problem dispatching request.", pending.failure );
+        }
+        return (RemoteCacheResponse<T>) pending.response;
+    }
+
+    /**
+     * Sends a batch and hands the responses to the waiting callers.
+     * <p>
+     * @param batch the requests
+     */
+    private void sendBatch( List<PendingRequest> batch )
+    {
+        List<RemoteCacheResponse<Object>> responses = null;
+        Exception failure = null;
+        try
+        {
+            List<RemoteCacheRequest<?, ?>> requests = new ArrayList<RemoteCacheRequest<?, ?>>( batch.size() );
+            for ( PendingRequest pending : batch )
+            {
+                requests.add( pending.request );
+            }
+
+            // the parameters only describe a single request
+            String url = requests.size() == 1 ? addParameters( requests.get( 0 ), getRemoteHttpCacheAttributes().getUrl() )
+                : getRemoteHttpCacheAttributes().getUrl();
+
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Sending a batch of " + requests.size() + " requests" );
+            }
+
+            byte[] responseAsByteArray = processBatch( RemoteCacheBatchCodec.encodeRequests( requests ), url );
+            responses = RemoteCacheBatchCodec.decodeResponses( responseAsByteArray );
+            if ( responses.size() != batch.size() )
+            {
+                throw new IOException( "Got " + responses.size() + " responses for " + batch.size() + " requests" );
+            }
+        }
+        catch ( Exception e )
+        {
+            failure = e;
+        }
+
+        synchronized ( batchLock )
+        {
+            for ( int i = 0; i < batch.size(); i++ )
+            {
+                PendingRequest pending = batch.get( i );
+                pending.response = responses == null ? null : responses.get( i );
+                pending.failure = failure;
+                pending.done = true;
+            }
+            batchesInFlight--;
+            batchLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of batches sent
+     */
+    public long getBatchCount()
+    {
+        synchronized ( batchLock )
+        {
+            return batchCount;
+        }
+    }
+
+    /**
+     * Posts a binary batch.
+     * <p>
+     * @param batchAsByteArray the encoded requests
+     * @param url
+     * @return byte[] - the encoded responses
+     * @throws IOException
+     */
+    protected byte[] processBatch( byte[] batchAsByteArray, String url )
+        throws IOException
+    {
+        PostMethod post = new PostMethod( url );
+        post.setRequestEntity( new ByteArrayRequestEntity( batchAsByteArray, RemoteCacheBatchCodec.CONTENT_TYPE ) );
+        doWebserviceCall( post );
+        return post.getResponseBody();
+    }
+
     /**
      * @param requestAsByteArray
      * @param url
@@ -226,4 +404,30 @@ public class RemoteHttpCacheDispatcher
     {
         // do nothing. Child can override.
     }
+
+    /**
+     * A request waiting for its batch. The fields are guarded by the batch lock.
+     */
+    private static class PendingRequest
+    {
+        /** The request */
+        final RemoteCacheRequest<?, ?> request;
+
+        /** The response */
+        RemoteCacheResponse<Object> response;
+
+        /** Why the batch failed */
+        Exception failure;
+
+        /** Set when the batch completed */
+        boolean done = false;
+
+        /**
+         * @param request the request
+         */
+        PendingRequest( RemoteCacheRequest<?, ?> request )
+        {
+            this.request = request;
+        }
+    }
 }
@@ -19,12 +19,15 @@ package org.apache.commons.jcs.auxiliary.remote.http.server;
  * under the License.
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -38,6 +41,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.jcs.access.exception.CacheException;
 import org.apache.commons.jcs.auxiliary.AuxiliaryCacheConfigurator;
 import org.apache.commons.jcs.auxiliary.remote.http.behavior.IRemoteHttpCacheConstants;
+import org.apache.commons.jcs.auxiliary.remote.util.RemoteCacheBatchCodec;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheRequest;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheResponse;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
@@ -54,6 +58,9 @@ import org.apache.commons.logging.LogFactory;
 /**
  * This servlet simply reads and writes objects. The requests are packaged in a general wrapper. The
  * processor works on the wrapper object and returns a response wrapper.
+ * <p>
+ * Requests with the content type {@link RemoteCacheBatchCodec#CONTENT_TYPE} carry a binary batch.
+ * Its requests are processed in order and answered with a batch of responses.
  */
 public class RemoteHttpCacheServlet
     extends HttpServlet
@@ -123,12 +130,105 @@ public class RemoteHttpCacheServlet
             log.debug( "Servicing a request. " + request );
         }
 
+        if ( RemoteCacheBatchCodec.CONTENT_TYPE.equals( request.getContentType() ) )
+        {
+            serviceBatch( request, response );
+            return;
+        }
+
         RemoteCacheRequest<Serializable, Serializable> remoteRequest = readRequest( request );
         RemoteCacheResponse<Object> cacheResponse = processRequest( remoteRequest );
 
         writeResponse( response, cacheResponse );
     }
 
+    /**
+     * Reads a binary batch, processes its requests in order and writes the batch of responses.
+     * <p>
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    protected void serviceBatch( HttpServletRequest request, HttpServletResponse response )
+        throws IOException
+    {
+        byte[] batch;
+        try
+        {
+            batch = readFully( request.getInputStream(), request.getContentLength() );
+        }
+        catch ( IOException e )
+        {
+            log.error( "Could not read a batch from the input stream.", e );
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+            return;
+        }
+
+        byte[] responseAsByteArray = processBatch( batch );
+        if ( responseAsByteArray == null )
+        {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+            return;
+        }
+
+        response.setContentType( RemoteCacheBatchCodec.CONTENT_TYPE );
+        response.setContentLength( responseAsByteArray.length );
+        OutputStream outputStream = response.getOutputStream();
+        outputStream.write( responseAsByteArray );
+        outputStream.flush();
+        outputStream.close();
+    }
+
+    /**
+     * Processes the requests of a binary batch in order.
+     * <p>
+     * @param batch the encoded requests
+     * @return the encoded responses, null if the batch could not be read
+     */
+    protected byte[] processBatch( byte[] batch )
+    {
+        try
+        {
+            List<RemoteCacheRequest<Serializable, Serializable>> requests = RemoteCacheBatchCodec.decodeRequests( batch );
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Processing a batch of " + requests.size() + " requests" );
+            }
+
+            List<RemoteCacheResponse<Object>> responses = new ArrayList<RemoteCacheResponse<Object>>( requests.size() );
+            for ( RemoteCacheRequest<Serializable, Serializable> remoteRequest : requests )
+            {
+                responses.add( processRequest( remoteRequest ) );
+            }
+            return RemoteCacheBatchCodec.encodeResponses( responses );
+        }
+        catch ( Exception e )
+        {
+            log.error( "Could not process a batch.", e );
+            return null;
+        }
+    }
+
+    /**
+     * @param inputStream the stream
+     * @param length the length, -1 if unknown
+     * @return the bytes
+     * @throws IOException
+     */
+    private byte[] readFully( InputStream inputStream, int length )
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( length > 0 ? length : 1024 );
+        byte[] buf = new byte[4096];
+        int read;
+        while ( ( read = inputStream.read( buf ) ) != -1 )
+        {
+            bytes.write( buf, 0, read );
+        }
+        inputStream.close();
+        return bytes.toByteArray();
+    }
+
     /**
      * Read the request from the input stream.
      * <p>
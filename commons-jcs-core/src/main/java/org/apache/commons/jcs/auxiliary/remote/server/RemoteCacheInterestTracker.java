@@ -0,0 +1,235 @@
+package org.apache.commons.jcs.auxiliary.remote.server;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+
+/**
+ * Remembers which keys each client of a region has fetched recently. The remote cache server uses
+ * it to send small invalidations only to the clients that may hold a key, instead of sending every
+ * value to every client.
+ * <p>
+ * The keys of a client are bounded. When a key falls out, it is returned to the caller, which must
+ * invalidate it at the client. Otherwise the client could keep a value the server no longer tracks.
+ */
+class RemoteCacheInterestTracker<K>
+{
+    /** The maximum number of keys per client and region */
+    private final int maxKeys;
+
+    /** Region name to listener id to the keys, in access order */
+    private final ConcurrentMap<String, ConcurrentMap<Long, Map<K, Boolean>>> interests =
+        new ConcurrentHashMap<String, ConcurrentMap<Long, Map<K, Boolean>>>();
+
+    /**
+     * @param maxKeys the maximum number of keys per client and region
+     */
+    RemoteCacheInterestTracker( int maxKeys )
+    {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Records that the client fetched the keys.
+     * <p>
+     * @param cacheName the region
+     * @param listenerId the client
+     * @param keys the keys
+     * @return the keys that fell out of the bounded set, they must be invalidated at the client
+     */
+    List<K> record( String cacheName, long listenerId, Collection<K> keys )
+    {
+        Map<K, Boolean> interest = getInterest( cacheName, listenerId );
+        List<K> evicted = null;
+        synchronized ( interest )
+        {
+            for ( K key : keys )
+            {
+                interest.put( key, Boolean.TRUE );
+            }
+            if ( interest.size() > maxKeys )
+            {
+                evicted = new ArrayList<K>( interest.size() - maxKeys );
+                for ( Iterator<K> it = interest.keySet().iterator(); interest.size() > maxKeys; )
+                {
+                    evicted.add( it.next() );
+                    it.remove();
+                }
+            }
+        }
+        return evicted == null ? Collections.<K>emptyList() : evicted;
+    }
+
+    /**
+     * Forgets a key of a client. Called when the client is sent an invalidation; it has to fetch the
+     * key again before it is interested again.
+     * <p>
+     * @param cacheName the region
+     * @param listenerId the client
+     * @param key the key
+     * @return true if the client was interested in the key
+     */
+    boolean forget( String cacheName, long listenerId, K key )
+    {
+        ConcurrentMap<Long, Map<K, Boolean>> listeners = interests.get( cacheName );
+        Map<K, Boolean> interest = listeners == null ? null : listeners.get( Long.valueOf( listenerId ) );
+        if ( interest == null )
+        {
+            return false;
+        }
+        synchronized ( interest )
+        {
+            return interest.remove( key ) != null;
+        }
+    }
+
+    /**
+     * Forgets the keys of a client that a remove addresses. A key that ends with the name
+     * component delimiter addresses all string keys that start with it, a group without an
+     * attribute name addresses all attributes of the group, like the removes of the memory caches.
+     * <p>
+     * @param cacheName the region
+     * @param listenerId the client
+     * @param key the key of the remove
+     * @return true if the client was interested in any of the keys
+     */
+    boolean forgetMatching( String cacheName, long listenerId, K key )
+    {
+        boolean hierarchical = key instanceof String
+            && ( (String) key ).endsWith( CacheConstants.NAME_COMPONENT_DELIMITER );
+        boolean group = key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null;
+        if ( !hierarchical && !group )
+        {
+            return forget( cacheName, listenerId, key );
+        }
+
+        ConcurrentMap<Long, Map<K, Boolean>> listeners = interests.get( cacheName );
+        Map<K, Boolean> interest = listeners == null ? null : listeners.get( Long.valueOf( listenerId ) );
+        if ( interest == null )
+        {
+            return false;
+        }
+
+        boolean found = false;
+        synchronized ( interest )
+        {
+            for ( Iterator<K> it = interest.keySet().iterator(); it.hasNext(); )
+            {
+                K k = it.next();
+                boolean matches = hierarchical
+                    ? k instanceof String && ( (String) k ).startsWith( (String) key )
+                    : k instanceof GroupAttrName && ( (GroupAttrName<?>) k ).groupId.equals( ( (GroupAttrName<?>) key ).groupId );
+                if ( matches )
+                {
+                    it.remove();
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Forgets all keys of the region, after a remove all.
+     * <p>
+     * @param cacheName the region
+     */
+    void clear( String cacheName )
+    {
+        interests.remove( cacheName );
+    }
+
+    /**
+     * Forgets a client that is no longer registered.
+     * <p>
+     * @param cacheName the region
+     * @param listenerId the client
+     */
+    void remove( String cacheName, long listenerId )
+    {
+        ConcurrentMap<Long, Map<K, Boolean>> listeners = interests.get( cacheName );
+        if ( listeners != null )
+        {
+            listeners.remove( Long.valueOf( listenerId ) );
+        }
+    }
+
+    /**
+     * @param cacheName the region
+     * @param listenerId the client
+     * @return the number of keys the client is interested in
+     */
+    int size( String cacheName, long listenerId )
+    {
+        ConcurrentMap<Long, Map<K, Boolean>> listeners = interests.get( cacheName );
+        Map<K, Boolean> interest = listeners == null ? null : listeners.get( Long.valueOf( listenerId ) );
+        if ( interest == null )
+        {
+            return 0;
+        }
+        synchronized ( interest )
+        {
+            return interest.size();
+        }
+    }
+
+    /**
+     * @param cacheName the region
+     * @param listenerId the client
+     * @return the keys of the client, created if needed
+     */
+    private Map<K, Boolean> getInterest( String cacheName, long listenerId )
+    {
+        ConcurrentMap<Long, Map<K, Boolean>> listeners = interests.get( cacheName );
+        if ( listeners == null )
+        {
+            ConcurrentMap<Long, Map<K, Boolean>> created = new ConcurrentHashMap<Long, Map<K, Boolean>>();
+            listeners = interests.putIfAbsent( cacheName, created );
+            if ( listeners == null )
+            {
+                listeners = created;
+            }
+        }
+
+        Map<K, Boolean> interest = listeners.get( Long.valueOf( listenerId ) );
+        if ( interest == null )
+        {
+            // access order, so the keys that were not fetched for the longest time fall out first
+            Map<K, Boolean> created = new LinkedHashMap<K, Boolean>( 16, 0.75f, true );
+            interest = listeners.putIfAbsent( Long.valueOf( listenerId ), created );
+            if ( interest == null )
+            {
+                interest = created;
+            }
+        }
+        return interest;
+    }
+}
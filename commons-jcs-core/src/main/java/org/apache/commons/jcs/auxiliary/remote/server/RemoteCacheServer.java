@@ -26,6 +26,7 @@ import java.rmi.registry.Registry;
 import java.rmi.server.RMISocketFactory;
 import java.rmi.server.UnicastRemoteObject;
 import java.rmi.server.Unreferenced;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
@@ -41,9 +42,11 @@ import org.apache.commons.jcs.auxiliary.remote.server.behavior.IRemoteCacheServe
 import org.apache.commons.jcs.auxiliary.remote.server.behavior.RemoteType;
 import org.apache.commons.jcs.engine.CacheEventQueueFactory;
 import org.apache.commons.jcs.engine.CacheListeners;
+import org.apache.commons.jcs.engine.ElementVersionClock;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.ICacheListener;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.apache.commons.jcs.engine.control.CompositeCacheManager;
 import org.apache.commons.jcs.engine.logging.CacheEvent;
@@ -119,6 +122,9 @@ public class RemoteCacheServer<K, V>
     /** Lock for Cluster listener initialization */
     private ReentrantLock clusterListenersLock = new ReentrantLock();
 
+    /** The keys each client fetched, null unless interest based invalidation is configured */
+    private transient RemoteCacheInterestTracker<K> interestTracker;
+
     /**
      * Constructor for the RemoteCacheServer object. This initializes the server with the values
      * from the config file.
@@ -167,6 +173,11 @@ public class RemoteCacheServer<K, V>
             throw new RemoteException(e.getMessage(), e);
         }
 
+        if ( remoteCacheServerAttributes.getInterestMaxKeys() > 0 )
+        {
+            interestTracker = new RemoteCacheInterestTracker<K>( remoteCacheServerAttributes.getInterestMaxKeys() );
+        }
+
         // cacheManager would have created a number of ICache objects.
         // Use these objects to set up the cacheListenersMap.
         String[] list = cacheManager.getCacheNames();
@@ -356,9 +367,19 @@ public class RemoteCacheServer<K, V>
                     }
                     for ( int i = 0; i < qlist.length; i++ )
                     {
-                        qlist[i].addPutEvent( item );
+                        if ( interestTracker == null )
+                        {
+                            qlist[i].addPutEvent( item );
+                        }
+                        else if ( interestTracker.forget( item.getCacheName(), qlist[i].getListenerId(), item.getKey() ) )
+                        {
+                            qlist[i].addRemoveEvent( item.getKey() );
+                        }
                     }
                 }
+
+                // the requester holds the value it just put
+                recordInterest( cacheDesc, item.getCacheName(), requesterId, Collections.singleton( item.getKey() ) );
             }
         }
         catch ( IOException e )
@@ -489,7 +510,11 @@ public class RemoteCacheServer<K, V>
             }
         }
 
+        // record before the read, so an update that races with the get invalidates the client, and
+        // again after it, since that update forgets the key while the client may get the new value
+        recordInterest( cacheDesc, cacheName, requesterId, Collections.singleton( key ) );
         ICacheElement<K, V> element = getFromCacheListeners( key, fromCluster, cacheDesc, null );
+        recordInterest( cacheDesc, cacheName, requesterId, Collections.singleton( key ) );
         return element;
     }
 
@@ -626,7 +651,13 @@ public class RemoteCacheServer<K, V>
             }
         }
 
-        return getMatchingFromCacheListeners( pattern, fromCluster, cacheDesc );
+        Map<K, ICacheElement<K, V>> elements = getMatchingFromCacheListeners( pattern, fromCluster, cacheDesc );
+        if ( elements != null )
+        {
+            // the keys are only known after the read
+            recordInterest( cacheDesc, cacheName, requesterId, elements.keySet() );
+        }
+        return elements;
     }
 
     /**
@@ -737,11 +768,129 @@ public class RemoteCacheServer<K, V>
                 + "] fromCluster = " + fromCluster );
         }
 
+        // before and after the read, like a single get
         CacheListeners<K, V> cacheDesc = getCacheListeners( cacheName );
+        recordInterest( cacheDesc, cacheName, requesterId, keys );
         Map<K, ICacheElement<K, V>> elements = getMultipleFromCacheListeners( keys, null, fromCluster, cacheDesc );
+        recordInterest( cacheDesc, cacheName, requesterId, keys );
         return elements;
     }
 
+    /**
+     * Gets the elements of the given keys that were changed at or after the given time. Clients
+     * call this chunk by chunk to load a region when they connect.
+     * <p>
+     * The internal processing is wrapped in event logging calls.
+     * <p>
+     * @param cacheName
+     * @param keys
+     * @param changedSince the time in milliseconds, 0 for all elements
+     * @param requesterId
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element, or an empty map if none was
+     *         changed
+     * @throws IOException
+     */
+    @Override
+    public Map<K, ICacheElement<K, V>> getMultipleChangedSince( String cacheName, Set<K> keys, long changedSince,
+                                                                long requesterId )
+        throws IOException
+    {
+        ICacheEvent<Serializable> cacheEvent = createICacheEvent( cacheName, (Serializable) keys, requesterId,
+                                                    ICacheEventLogger.GETMULTIPLE_EVENT );
+        try
+        {
+            return processGetMultipleChangedSince( cacheName, keys, changedSince, requesterId );
+        }
+        finally
+        {
+            logICacheEvent( cacheEvent );
+        }
+    }
+
+    /**
+     * Gets the local elements of the keys and drops the ones that were not changed since the given
+     * time. An element counts as changed at the time of its version, or at its create time if it
+     * has no version.
+     * <p>
+     * @param cacheName
+     * @param keys
+     * @param changedSince
+     * @param requesterId
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element
+     */
+    private Map<K, ICacheElement<K, V>> processGetMultipleChangedSince( String cacheName, Set<K> keys,
+                                                                        long changedSince, long requesterId )
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "getMultipleChangedSince [" + changedSince + "] " + keys.size() + " keys from cache ["
+                + cacheName + "] requesterId = [" + requesterId + "]" );
+        }
+
+        CacheListeners<K, V> cacheDesc = getCacheListeners( cacheName );
+        if ( cacheDesc == null )
+        {
+            return Collections.emptyMap();
+        }
+
+        CompositeCache<K, V> c = (CompositeCache<K, V>) cacheDesc.cache;
+        Map<K, ICacheElement<K, V>> elements = c.localGetMultiple( keys );
+        if ( changedSince > 0 )
+        {
+            for ( Iterator<ICacheElement<K, V>> it = elements.values().iterator(); it.hasNext(); )
+            {
+                IElementAttributes attr = it.next().getElementAttributes();
+                long version = ElementVersionClock.getVersion( attr );
+                long changed = version != 0 ? ElementVersionClock.getTime( version ) : attr.getCreateTime();
+                if ( changed < changedSince )
+                {
+                    it.remove();
+                }
+            }
+        }
+
+        // the client keeps what it loads, so it has to hear about later changes
+        recordInterest( cacheDesc, cacheName, requesterId, elements.keySet() );
+        return elements;
+    }
+
+    /**
+     * Records that a client fetched keys, if interest based invalidation is configured and the
+     * client is registered for the region. Keys that fall out of the bounded set of the client are
+     * invalidated at the client at once.
+     * <p>
+     * @param cacheDesc the listeners of the region, may be null
+     * @param cacheName the region
+     * @param requesterId the client
+     * @param keys the keys
+     */
+    private void recordInterest( CacheListeners<K, V> cacheDesc, String cacheName, long requesterId, Collection<K> keys )
+    {
+        if ( interestTracker == null || cacheDesc == null || keys == null || keys.isEmpty() )
+        {
+            return;
+        }
+
+        ICacheEventQueue<K, V> q = cacheDesc.eventQMap.get( Long.valueOf( requesterId ) );
+        if ( q == null )
+        {
+            // not registered, it cannot be sent invalidations
+            return;
+        }
+
+        for ( K evicted : interestTracker.record( cacheName, requesterId, keys ) )
+        {
+            try
+            {
+                q.addRemoveEvent( evicted );
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not invalidate [" + evicted + "] at listener [" + requesterId + "]", e );
+            }
+        }
+    }
+
     /**
      * Since a non-receiving remote cache client will not register a listener, it will not have a
      * listener id assigned from the server. As such the remote server cannot determine if it is a
@@ -956,7 +1105,11 @@ public class RemoteCacheServer<K, V>
 
                     for ( int i = 0; i < qlist.length; i++ )
                     {
-                        qlist[i].addRemoveEvent( key );
+                        if ( interestTracker == null
+                            || interestTracker.forgetMatching( cacheName, qlist[i].getListenerId(), key ) )
+                        {
+                            qlist[i].addRemoveEvent( key );
+                        }
                     }
                 }
             }
@@ -1040,6 +1193,11 @@ public class RemoteCacheServer<K, V>
                     c.removeAll();
                 }
 
+                if ( interestTracker != null )
+                {
+                    interestTracker.clear( cacheName );
+                }
+
                 // update registered listeners
                 if ( !fromCluster || ( fromCluster && remoteCacheServerAttributes.isLocalClusterConsistency() ) )
                 {
@@ -1498,6 +1656,10 @@ public class RemoteCacheServer<K, V>
         }
 
         // cleanup
+        if ( interestTracker != null )
+        {
+            interestTracker.remove( cacheName, listenerId );
+        }
         idTypeMap.remove( Long.valueOf( listenerId ) );
         idIPMap.remove( Long.valueOf( listenerId ) );
 
@@ -56,6 +56,12 @@ public class RemoteCacheServerAttributes
     /** The delay between runs */
     private long registryKeepAliveDelayMillis = 15 * 1000;
 
+    /** Interest based invalidation is off by default */
+    private static final int DEFAULT_INTEREST_MAX_KEYS = 0;
+
+    /** The maximum number of keys per client and region for interest based invalidation */
+    private int interestMaxKeys = DEFAULT_INTEREST_MAX_KEYS;
+
     /** Default constructor for the RemoteCacheAttributes object */
     public RemoteCacheServerAttributes()
     {
@@ -190,6 +196,24 @@ public class RemoteCacheServerAttributes
         return registryKeepAliveDelayMillis;
     }
 
+    /**
+     * @param interestMaxKeys the maximum number of keys per client and region
+     */
+    @Override
+    public void setInterestMaxKeys( int interestMaxKeys )
+    {
+        this.interestMaxKeys = interestMaxKeys;
+    }
+
+    /**
+     * @return the maximum number of keys per client and region, 0 if off
+     */
+    @Override
+    public int getInterestMaxKeys()
+    {
+        return interestMaxKeys;
+    }
+
     /**
      * @return String details
      */
@@ -204,6 +228,7 @@ public class RemoteCacheServerAttributes
         buf.append( "\n startRegistry = [" + this.isStartRegistry() + "]" );
         buf.append( "\n useRegistryKeepAlive = [" + this.isUseRegistryKeepAlive() + "]" );
         buf.append( "\n registryKeepAliveDelayMillis = [" + this.getRegistryKeepAliveDelayMillis() + "]" );
+        buf.append( "\n interestMaxKeys = [" + this.getInterestMaxKeys() + "]" );
         buf.append( "\n eventQueueType = [" + this.getEventQueueType() + "]" );
         buf.append( "\n eventQueuePoolName = [" + this.getEventQueuePoolName() + "]" );
         return buf.toString();
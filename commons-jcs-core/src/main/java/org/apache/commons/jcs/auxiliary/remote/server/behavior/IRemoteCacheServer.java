@@ -1,6 +1,11 @@
 package org.apache.commons.jcs.auxiliary.remote.server.behavior;
 
+import java.io.IOException;
 import java.rmi.Remote;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheObserver;
 import org.apache.commons.jcs.engine.behavior.ICacheServiceAdmin;
 import org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal;
@@ -33,5 +38,18 @@ import org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal;
 public interface IRemoteCacheServer<K, V>
     extends ICacheServiceNonLocal<K, V>, ICacheObserver, ICacheServiceAdmin, Remote
 {
-    // empty
+    /**
+     * Gets the elements of the given keys that were changed at or after the given time. Only the
+     * local stores of the server are searched. A client loads a region in chunks with this, using
+     * the keys from {@link #getKeySet(String)}.
+     * <p>
+     * @param cacheName the region
+     * @param keys the keys of the chunk
+     * @param changedSince the time in milliseconds, 0 for all elements
+     * @param requesterId the listener id of the client
+     * @return a map of key to element, empty if none was changed
+     * @throws IOException
+     */
+    Map<K, ICacheElement<K, V>> getMultipleChangedSince( String cacheName, Set<K> keys, long changedSince, long requesterId )
+        throws IOException;
 }
@@ -115,4 +115,20 @@ public interface IRemoteCacheServerAttributes
      * @return the registryKeepAliveDelayMillis
      */
     long getRegistryKeepAliveDelayMillis();
+
+    /**
+     * The maximum number of keys the server remembers per client and region for interest based
+     * invalidation. If it is greater than 0, normal clients are no longer sent every put. They are
+     * sent removes for the keys they fetched or put, which turns their memory cache into a near
+     * cache. 0 sends every put to every client.
+     * <p>
+     * @param interestMaxKeys the maximum number of keys per client and region
+     */
+    void setInterestMaxKeys( int interestMaxKeys );
+
+    /**
+     * @return the maximum number of keys per client and region, 0 if interest based invalidation
+     *         is off
+     */
+    int getInterestMaxKeys();
 }
@@ -0,0 +1,400 @@
+package org.apache.commons.jcs.auxiliary.remote.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheRequest;
+import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheResponse;
+import org.apache.commons.jcs.auxiliary.remote.value.RemoteRequestType;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.utils.serialization.BinarySerializer;
+
+/**
+ * Encodes batches of remote cache requests and their responses in a compact binary form. A batch
+ * starts with a magic number, a version and the number of entries. A request is written as its
+ * type, the requester id, the cache name and only the fields its type needs. Keys, patterns,
+ * elements and payloads are written with a {@link BinarySerializer}. Maps and sets of payloads are
+ * written entry by entry, so their elements get the compact form as well. The responses are
+ * written in the order of the requests.
+ */
+public final class RemoteCacheBatchCodec
+{
+    /** The content type of a binary batch */
+    public static final String CONTENT_TYPE = "application/x-jcs-batch";
+
+    /** Starts a batch of requests, "JCSQ" */
+    private static final int REQUEST_MAGIC = 0x4A435351;
+
+    /** Starts a batch of responses, "JCSP" */
+    private static final int RESPONSE_MAGIC = 0x4A435350;
+
+    /** Kinds of payloads */
+    private static final byte PAYLOAD_OBJECT = 0;
+    private static final byte PAYLOAD_MAP = 1;
+    private static final byte PAYLOAD_SET = 2;
+
+    /** The format version */
+    private static final byte VERSION = 1;
+
+    /** The request types by ordinal */
+    private static final RemoteRequestType[] TYPES = RemoteRequestType.values();
+
+    /** Writes the objects */
+    private static final IElementSerializer serializer = new BinarySerializer();
+
+    /** shouldn't be instantiated */
+    private RemoteCacheBatchCodec()
+    {
+        super();
+    }
+
+    /**
+     * @param requests the requests
+     * @return the encoded batch
+     * @throws IOException
+     */
+    public static byte[] encodeRequests( List<? extends RemoteCacheRequest<?, ?>> requests )
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( REQUEST_MAGIC );
+        out.writeByte( VERSION );
+        out.writeInt( requests.size() );
+
+        for ( RemoteCacheRequest<?, ?> request : requests )
+        {
+            RemoteRequestType type = request.getRequestType();
+            out.writeByte( type.ordinal() );
+            out.writeLong( request.getRequesterId() );
+            writeObject( out, request.getCacheName() );
+
+            switch ( type )
+            {
+                case GET:
+                case REMOVE:
+                    writeObject( out, request.getKey() );
+                    break;
+                case GET_MULTIPLE:
+                    writeCollection( out, request.getKeySet() );
+                    break;
+                case GET_MATCHING:
+                    writeObject( out, request.getPattern() );
+                    break;
+                case UPDATE:
+                    writeObject( out, request.getCacheElement() );
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param data the encoded batch
+     * @return the requests
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @SuppressWarnings("unchecked") // The keys and elements are whatever the client sent
+    public static <K, V> List<RemoteCacheRequest<K, V>> decodeRequests( byte[] data )
+        throws IOException, ClassNotFoundException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+        int count = readHeader( in, REQUEST_MAGIC );
+
+        List<RemoteCacheRequest<K, V>> requests = new ArrayList<RemoteCacheRequest<K, V>>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            int ordinal = in.readUnsignedByte();
+            if ( ordinal >= TYPES.length )
+            {
+                throw new StreamCorruptedException( "Unknown request type " + ordinal );
+            }
+
+            RemoteCacheRequest<K, V> request = new RemoteCacheRequest<K, V>();
+            request.setRequestType( TYPES[ordinal] );
+            request.setRequesterId( in.readLong() );
+            request.setCacheName( (String) readObject( in ) );
+
+            switch ( request.getRequestType() )
+            {
+                case GET:
+                case REMOVE:
+                    request.setKey( (K) readObject( in ) );
+                    break;
+                case GET_MULTIPLE:
+                    request.setKeySet( (Set<K>) readSet( in ) );
+                    break;
+                case GET_MATCHING:
+                    request.setPattern( (String) readObject( in ) );
+                    break;
+                case UPDATE:
+                    request.setCacheElement( (ICacheElement<K, V>) readObject( in ) );
+                    break;
+                default:
+                    break;
+            }
+            requests.add( request );
+        }
+        return requests;
+    }
+
+    /**
+     * @param responses the responses, in the order of the requests
+     * @return the encoded batch
+     * @throws IOException
+     */
+    public static byte[] encodeResponses( List<? extends RemoteCacheResponse<?>> responses )
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( RESPONSE_MAGIC );
+        out.writeByte( VERSION );
+        out.writeInt( responses.size() );
+
+        for ( RemoteCacheResponse<?> response : responses )
+        {
+            out.writeBoolean( response.isSuccess() );
+            writeObject( out, response.getErrorMessage() );
+            writePayload( out, response.getPayload() );
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param data the encoded batch
+     * @return the responses, in the order of the requests
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static List<RemoteCacheResponse<Object>> decodeResponses( byte[] data )
+        throws IOException, ClassNotFoundException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+        int count = readHeader( in, RESPONSE_MAGIC );
+
+        List<RemoteCacheResponse<Object>> responses = new ArrayList<RemoteCacheResponse<Object>>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            RemoteCacheResponse<Object> response = new RemoteCacheResponse<Object>();
+            response.setSuccess( in.readBoolean() );
+            response.setErrorMessage( (String) readObject( in ) );
+            response.setPayload( readPayload( in ) );
+            responses.add( response );
+        }
+        return responses;
+    }
+
+    /**
+     * Checks the magic number and the version.
+     * <p>
+     * @param in the stream
+     * @param magic the expected magic number
+     * @return the number of entries
+     * @throws IOException
+     */
+    private static int readHeader( DataInputStream in, int magic )
+        throws IOException
+    {
+        int actual = in.readInt();
+        if ( actual != magic )
+        {
+            throw new StreamCorruptedException( "Not a JCS batch, magic " + Integer.toHexString( actual ) );
+        }
+        byte version = in.readByte();
+        if ( version != VERSION )
+        {
+            throw new StreamCorruptedException( "Unsupported batch version " + version );
+        }
+        return readSize( in );
+    }
+
+    /**
+     * @param out the stream
+     * @param payload the payload, may be null
+     * @throws IOException
+     */
+    private static void writePayload( DataOutputStream out, Object payload )
+        throws IOException
+    {
+        if ( payload instanceof Map )
+        {
+            Map<?, ?> map = (Map<?, ?>) payload;
+            out.writeByte( PAYLOAD_MAP );
+            out.writeInt( map.size() );
+            for ( Map.Entry<?, ?> entry : map.entrySet() )
+            {
+                writeObject( out, entry.getKey() );
+                writeObject( out, entry.getValue() );
+            }
+        }
+        else if ( payload instanceof Set )
+        {
+            out.writeByte( PAYLOAD_SET );
+            writeCollection( out, (Set<?>) payload );
+        }
+        else
+        {
+            out.writeByte( PAYLOAD_OBJECT );
+            writeObject( out, payload );
+        }
+    }
+
+    /**
+     * @param in the stream
+     * @return the payload, maps as HashMap and sets as HashSet
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Object readPayload( DataInputStream in )
+        throws IOException, ClassNotFoundException
+    {
+        byte kind = in.readByte();
+        switch ( kind )
+        {
+            case PAYLOAD_MAP:
+                int size = readSize( in );
+                Map<Object, Object> map = new HashMap<Object, Object>();
+                for ( int i = 0; i < size; i++ )
+                {
+                    Object key = readObject( in );
+                    map.put( key, readObject( in ) );
+                }
+                return map;
+            case PAYLOAD_SET:
+                return readSet( in );
+            case PAYLOAD_OBJECT:
+                return readObject( in );
+            default:
+                throw new StreamCorruptedException( "Unknown payload kind " + kind );
+        }
+    }
+
+    /**
+     * @param out the stream
+     * @param values the values, may be null
+     * @throws IOException
+     */
+    private static void writeCollection( DataOutputStream out, Collection<?> values )
+        throws IOException
+    {
+        out.writeInt( values == null ? -1 : values.size() );
+        if ( values != null )
+        {
+            for ( Object value : values )
+            {
+                writeObject( out, value );
+            }
+        }
+    }
+
+    /**
+     * @param in the stream
+     * @return the set, null if null was written
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Set<Object> readSet( DataInputStream in )
+        throws IOException, ClassNotFoundException
+    {
+        in.mark( 4 );
+        if ( in.readInt() < 0 )
+        {
+            return null;
+        }
+        in.reset();
+        int size = readSize( in );
+        Set<Object> values = new HashSet<Object>();
+        for ( int i = 0; i < size; i++ )
+        {
+            values.add( readObject( in ) );
+        }
+        return values;
+    }
+
+    /**
+     * @param in the stream
+     * @return a size that the rest of the data can hold
+     * @throws IOException
+     */
+    private static int readSize( DataInputStream in )
+        throws IOException
+    {
+        int size = in.readInt();
+        if ( size < 0 || size > in.available() )
+        {
+            throw new StreamCorruptedException( "Invalid size " + size );
+        }
+        return size;
+    }
+
+    /**
+     * @param out the stream
+     * @param obj the object, may be null
+     * @throws IOException
+     */
+    private static void writeObject( DataOutputStream out, Object obj )
+        throws IOException
+    {
+        byte[] data = serializer.serialize( obj );
+        out.writeInt( data.length );
+        out.write( data );
+    }
+
+    /**
+     * @param in the stream
+     * @return the object, may be null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Object readObject( DataInputStream in )
+        throws IOException, ClassNotFoundException
+    {
+        int length = in.readInt();
+        if ( length < 0 || length > in.available() )
+        {
+            throw new StreamCorruptedException( "Invalid object length " + length );
+        }
+        byte[] data = new byte[length];
+        in.readFully( data );
+        return serializer.deSerialize( data, null );
+    }
+}
@@ -1,6 +1,7 @@
 package org.apache.commons.jcs.engine;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /*
@@ -22,6 +23,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * under the License.
  */
 
+import org.apache.commons.jcs.engine.behavior.ICacheBatchListener;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.ICacheListener;
@@ -257,6 +259,14 @@ public abstract class AbstractCacheEventQueue<K, V>
      */
     protected abstract void put( AbstractCacheEvent event );
 
+    /**
+     * @return whether the listener can handle several puts at once
+     */
+    protected boolean isBatchListener()
+    {
+        return listener instanceof ICacheBatchListener;
+    }
+
 
     // /////////////////////////// Inner classes /////////////////////////////
     /**
@@ -362,6 +372,14 @@ public abstract class AbstractCacheEventQueue<K, V>
             listener.handlePut( ice );
         }
 
+        /**
+         * @return the element to put
+         */
+        protected ICacheElement<K, V> getCacheElement()
+        {
+            return ice;
+        }
+
         /**
          * For debugging.
          * <p>
@@ -376,6 +394,49 @@ public abstract class AbstractCacheEventQueue<K, V>
 
     }
 
+    /**
+     * Several elements should be put in the cache at once. Only used if the listener is an
+     * {@link ICacheBatchListener}.
+     */
+    protected class PutBatchEvent
+        extends AbstractCacheEvent
+    {
+        /** The elements to put to the listener, in queue order */
+        private final List<ICacheElement<K, V>> elements;
+
+        /**
+         * @param elements the elements, in queue order
+         */
+        PutBatchEvent( List<ICacheElement<K, V>> elements )
+        {
+            this.elements = elements;
+        }
+
+        /**
+         * Call put batch on the listener.
+         * <p>
+         * @throws IOException
+         */
+        @Override
+        protected void doRun()
+            throws IOException
+        {
+            ( (ICacheBatchListener<K, V>) listener ).handlePutBatch( elements );
+        }
+
+        /**
+         * For debugging.
+         * <p>
+         * @return the number of elements.
+         */
+        @Override
+        public String toString()
+        {
+            return new StringBuilder( "PutBatchEvent for " ).append( elements.size() ).append( " elements" )
+                .toString();
+        }
+    }
+
     /**
      * An element should be removed from the cache.
      * <p>
@@ -1,8 +1,10 @@
 package org.apache.commons.jcs.engine;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one
@@ -23,6 +25,7 @@ import java.util.concurrent.TimeUnit;
  * under the License.
  */
 
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheListener;
 import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.Stats;
@@ -53,6 +56,18 @@ public class CacheEventQueue<K, V>
     /** Queue implementation */
     private LinkedBlockingQueue<AbstractCacheEvent> queue = new LinkedBlockingQueue<AbstractCacheEvent>();
 
+    /** The most put events handed to a batch listener at once. 1 disables batching. */
+    private volatile int maxBatchSize = 1;
+
+    /** How long to wait for more put events once a batch has been started */
+    private volatile int maxBatchWaitMillis = 0;
+
+    /** Number of batches handed to the listener */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /** Number of put events handed to the listener in batches */
+    private final AtomicLong batchedEventCount = new AtomicLong();
+
     /**
      * Constructs with the specified listener and the cache name.
      * <p>
@@ -91,6 +106,41 @@ public class CacheEventQueue<K, V>
         return queueType;
     }
 
+    /**
+     * Enables batching of consecutive put events if the listener is an
+     * {@link org.apache.commons.jcs.engine.behavior.ICacheBatchListener}. Other events are never
+     * batched and keep their order relative to the puts.
+     * <p>
+     * @param maxBatchSize the most puts in one batch, 1 to disable batching
+     * @param maxBatchWaitMillis how long to wait for more puts before handing a batch over
+     */
+    public void setBatching( int maxBatchSize, int maxBatchWaitMillis )
+    {
+        if ( maxBatchSize > 1 && !isBatchListener() )
+        {
+            log.warn( "Listener of " + this + " cannot handle batches, not batching." );
+            return;
+        }
+        this.maxBatchSize = Math.max( 1, maxBatchSize );
+        this.maxBatchWaitMillis = Math.max( 0, maxBatchWaitMillis );
+    }
+
+    /**
+     * @return the most puts in one batch
+     */
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return how long to wait for more puts before handing a batch over
+     */
+    public int getMaxBatchWaitMillis()
+    {
+        return maxBatchWaitMillis;
+    }
+
     /**
      * Kill the processor thread and indicate that the queue is destroyed and no longer alive, but it
      * can still be working.
@@ -199,18 +249,24 @@ public class CacheEventQueue<K, V>
         @Override
         public void run()
         {
+            // an event taken from the queue while collecting a batch, that does not belong to it
+            AbstractCacheEvent next = null;
 
             while ( isAlive() )
             {
-                AbstractCacheEvent event = null;
+                AbstractCacheEvent event = next;
+                next = null;
 
-                try
-                {
-                    event = queue.poll(getWaitToDieMillis(), TimeUnit.MILLISECONDS);
-                }
-                catch (InterruptedException e)
+                if ( event == null )
                 {
-                    // is ok
+                    try
+                    {
+                        event = queue.poll(getWaitToDieMillis(), TimeUnit.MILLISECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // is ok
+                    }
                 }
 
                 if ( log.isDebugEnabled() )
@@ -225,6 +281,20 @@ public class CacheEventQueue<K, V>
 
                 if ( event != null && isWorking() && isAlive() )
                 {
+                    if ( event instanceof AbstractCacheEventQueue.PutEvent && maxBatchSize > 1 )
+                    {
+                        List<ICacheElement<K, V>> batch = new ArrayList<ICacheElement<K, V>>( maxBatchSize );
+                        batch.add( ( (PutEvent) event ).getCacheElement() );
+                        next = collectBatch( batch );
+
+                        if ( batch.size() > 1 )
+                        {
+                            batchCount.incrementAndGet();
+                            batchedEventCount.addAndGet( batch.size() );
+                            event = new PutBatchEvent( batch );
+                        }
+                    }
+
                     event.run();
                 }
             }
@@ -233,6 +303,51 @@ public class CacheEventQueue<K, V>
                 log.debug( "QProcessor exiting for " + getCacheName() );
             }
         }
+
+        /**
+         * Adds the put events that follow in the queue to the batch, until the batch is full, the
+         * wait time is over or another type of event comes up.
+         * <p>
+         * @param batch the batch, holding the first element
+         * @return the event that ended the batch, or null
+         */
+        private AbstractCacheEvent collectBatch( List<ICacheElement<K, V>> batch )
+        {
+            long deadline = System.currentTimeMillis() + maxBatchWaitMillis;
+
+            while ( batch.size() < maxBatchSize )
+            {
+                AbstractCacheEvent event = queue.poll();
+                if ( event == null )
+                {
+                    long wait = deadline - System.currentTimeMillis();
+                    if ( wait <= 0 )
+                    {
+                        break;
+                    }
+                    try
+                    {
+                        event = queue.poll( wait, TimeUnit.MILLISECONDS );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        break;
+                    }
+                    if ( event == null )
+                    {
+                        break;
+                    }
+                }
+
+                if ( !( event instanceof AbstractCacheEventQueue.PutEvent ) )
+                {
+                    return event;
+                }
+                batch.add( ( (PutEvent) event ).getCacheElement() );
+            }
+
+            return null;
+        }
     }
 
     /**
@@ -253,6 +368,11 @@ public class CacheEventQueue<K, V>
         elems.add(new StatElement<Boolean>( "Alive", Boolean.valueOf(this.isAlive()) ) );
         elems.add(new StatElement<Boolean>( "Empty", Boolean.valueOf(this.isEmpty()) ) );
         elems.add(new StatElement<Integer>( "Size", Integer.valueOf(this.size()) ) );
+        if ( maxBatchSize > 1 )
+        {
+            elems.add(new StatElement<Long>( "Batches", Long.valueOf(batchCount.get()) ) );
+            elems.add(new StatElement<Long>( "Batched Puts", Long.valueOf(batchedEventCount.get()) ) );
+        }
 
         stats.setStatElements( elems );
 
@@ -64,6 +64,19 @@ public class CompositeCacheAttributes
     /** Default number to send to disk at a time when memory fills. */
     private static final int DEFAULT_CHUNK_SIZE = 2;
 
+    /** By default puts spool on their own thread */
+    private static final boolean DEFAULT_USE_BACKGROUND_EVICTION = false;
+
+    /** How many elements above MaxObjects puts leave to the background thread by default */
+    private static final int DEFAULT_MAX_EVICTION_OVERFLOW = 1000;
+
+    /** By default the memory cache is not bounded in bytes */
+    private static final long DEFAULT_MAX_MEMORY_BYTES = -1;
+
+    /** Estimates the size of the elements by default */
+    private static final String DEFAULT_ELEMENT_WEIGHER_NAME =
+        "org.apache.commons.jcs.engine.memory.util.EstimatingElementWeigher";
+
     /** allow lateral caches */
     private boolean useLateral = DEFAULT_USE_LATERAL;
 
@@ -100,6 +113,18 @@ public class CompositeCacheAttributes
     /** How many to spool to disk at a time. */
     private int spoolChunkSize = DEFAULT_CHUNK_SIZE;
 
+    /** Whether the memory cache spools in a background thread */
+    private boolean useBackgroundEviction = DEFAULT_USE_BACKGROUND_EVICTION;
+
+    /** How many elements above MaxObjects puts leave to the background thread */
+    private int maxEvictionOverflow = DEFAULT_MAX_EVICTION_OVERFLOW;
+
+    /** The maximum number of bytes in the memory cache */
+    private long maxMemoryBytes = DEFAULT_MAX_MEMORY_BYTES;
+
+    /** The class name of the weigher */
+    private String elementWeigherName = DEFAULT_ELEMENT_WEIGHER_NAME;
+
     /**
      * Constructor for the CompositeCacheAttributes object
      */
@@ -393,6 +418,89 @@ public class CompositeCacheAttributes
         this.spoolChunkSize = spoolChunkSize;
     }
 
+    /**
+     * If true, a put that takes the memory cache over MaxObjects leaves the spooling to a
+     * background thread, so the memory cache may briefly hold more than MaxObjects elements.
+     * <p>
+     * @param useBackgroundEviction
+     */
+    @Override
+    public void setUseBackgroundEviction( boolean useBackgroundEviction )
+    {
+        this.useBackgroundEviction = useBackgroundEviction;
+    }
+
+    /**
+     * @return whether the memory cache spools in a background thread
+     */
+    @Override
+    public boolean isUseBackgroundEviction()
+    {
+        return useBackgroundEviction;
+    }
+
+    /**
+     * The number of elements above MaxObjects that puts leave to the background thread. A put
+     * that takes the memory cache further over spools on its own thread.
+     * <p>
+     * @param maxEvictionOverflow
+     */
+    @Override
+    public void setMaxEvictionOverflow( int maxEvictionOverflow )
+    {
+        this.maxEvictionOverflow = maxEvictionOverflow;
+    }
+
+    /**
+     * @return the number of elements above MaxObjects that puts leave to the background thread
+     */
+    @Override
+    public int getMaxEvictionOverflow()
+    {
+        return maxEvictionOverflow;
+    }
+
+    /**
+     * The maximum number of bytes the elements in the memory cache may take, as weighed by the
+     * ElementWeigherName. A value of zero or less means no limit.
+     * <p>
+     * @param maxMemoryBytes
+     */
+    @Override
+    public void setMaxMemoryBytes( long maxMemoryBytes )
+    {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * @return the maximum number of bytes in the memory cache, zero or less for no limit
+     */
+    @Override
+    public long getMaxMemoryBytes()
+    {
+        return maxMemoryBytes;
+    }
+
+    /**
+     * The class name of the weigher of the elements if MaxMemoryBytes is set.
+     * <p>
+     * @param elementWeigherName
+     */
+    @Override
+    public void setElementWeigherName( String elementWeigherName )
+    {
+        this.elementWeigherName = elementWeigherName;
+    }
+
+    /**
+     * @return the class name of the weigher
+     */
+    @Override
+    public String getElementWeigherName()
+    {
+        return elementWeigherName;
+    }
+
     /**
      * @return Returns the diskUsagePattern.
      */
@@ -420,6 +528,10 @@ public class CompositeCacheAttributes
         dump.append( ", maxSpoolPerRun = " ).append( maxSpoolPerRun );
         dump.append( ", diskUsagePattern = " ).append( diskUsagePattern );
         dump.append( ", spoolChunkSize = " ).append( spoolChunkSize );
+        dump.append( ", useBackgroundEviction = " ).append( useBackgroundEviction );
+        dump.append( ", maxEvictionOverflow = " ).append( maxEvictionOverflow );
+        dump.append( ", maxMemoryBytes = " ).append( maxMemoryBytes );
+        dump.append( ", elementWeigherName = " ).append( elementWeigherName );
         dump.append( " ]" );
 
         return dump.toString();
@@ -87,6 +87,9 @@ public class ElementAttributes
 
     private long timeFactor = 1000;
 
+    /** The version, set when the element is put. Zero if unversioned. */
+    private long version = 0;
+
     /**
      * Constructor for the IElementAttributes object
      */
@@ -204,6 +207,17 @@ public class ElementAttributes
         createTime = System.currentTimeMillis();
     }
 
+    /**
+     * Sets the createTime attribute of the IElementAttributes object. This is used to restore
+     * attributes that were written by a serializer.
+     * <p>
+     * @param time the create time in milliseconds
+     */
+    public void setCreateTime(long time)
+    {
+        createTime = time;
+    }
+
     /**
      * Gets the idleTime attribute of the IAttributes object.
      * <p>
@@ -403,6 +417,27 @@ public class ElementAttributes
         this.timeFactor = factor;
     }
 
+    /**
+     * Gets the version of the element. It is set when the element is put into the cache, see
+     * {@link ElementVersionClock}, and lets the receivers of lateral updates and removes skip
+     * stale ones. It is not part of {@link IElementAttributes}, so other implementations stay
+     * unversioned.
+     * <p>
+     * @return the version, zero if the element is not versioned
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @param version the version, zero if the element is not versioned
+     */
+    public void setVersion( long version )
+    {
+        this.version = version;
+    }
+
     /**
      * Gets the elementEventHandlers. Returns null if none exist. Makes checking easy.
      * <p>
@@ -432,6 +467,7 @@ public class ElementAttributes
         dump.append( ", IdleTime = " ).append( this.getIdleTime() );
         dump.append( ", CreateTime = " ).append( this.getCreateTime() );
         dump.append( ", LastAccessTime = " ).append( this.getLastAccessTime() );
+        dump.append( ", Version = " ).append( this.getVersion() );
         dump.append( ", getTimeToLiveSeconds() = " ).append( String.valueOf( getTimeToLiveSeconds() ) );
         dump.append( ", createTime = " ).append( String.valueOf( createTime ) ).append( " ]" );
 
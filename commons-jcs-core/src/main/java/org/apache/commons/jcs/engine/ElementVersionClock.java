@@ -0,0 +1,115 @@
+package org.apache.commons.jcs.engine;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+
+/**
+ * Hands out the version stamps of the elements. This is a hybrid logical clock: a version is the
+ * current time in milliseconds shifted left by {@link #COUNTER_BITS} bits plus a counter, and it is
+ * never smaller than the last version handed out or observed plus one. Every versioned message
+ * received from another node must be passed to {@link #observe(long)}, so a change that follows a
+ * received one always gets a larger version, even if the clock of the sender is ahead. Clock skew
+ * only decides the order of changes that did not see each other.
+ * <p>
+ * Only {@link ElementAttributes} carries a version. Zero means unversioned.
+ */
+public final class ElementVersionClock
+{
+    /** The bits for the counter within a millisecond */
+    public static final int COUNTER_BITS = 12;
+
+    /** The last version handed out or observed */
+    private static final AtomicLong last = new AtomicLong();
+
+    /** shouldn't be instantiated */
+    private ElementVersionClock()
+    {
+        super();
+    }
+
+    /**
+     * @return a version larger than all versions handed out or observed before
+     */
+    public static long next()
+    {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        while ( true )
+        {
+            long current = last.get();
+            long next = Math.max( now, current + 1 );
+            if ( last.compareAndSet( current, next ) )
+            {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Makes sure later versions are larger than a version received from another node.
+     * <p>
+     * @param version the received version, zero is ignored
+     */
+    public static void observe( long version )
+    {
+        while ( true )
+        {
+            long current = last.get();
+            if ( version <= current || last.compareAndSet( current, version ) )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param attr the attributes of an element
+     * @return the version, zero if the attributes are not versioned
+     */
+    public static long getVersion( IElementAttributes attr )
+    {
+        return attr instanceof ElementAttributes ? ( (ElementAttributes) attr ).getVersion() : 0;
+    }
+
+    /**
+     * Sets the version if the attributes can carry one.
+     * <p>
+     * @param attr the attributes of an element
+     * @param version the version
+     */
+    public static void setVersion( IElementAttributes attr, long version )
+    {
+        if ( attr instanceof ElementAttributes )
+        {
+            ( (ElementAttributes) attr ).setVersion( version );
+        }
+    }
+
+    /**
+     * @param version a version
+     * @return the time in milliseconds at which the version was handed out
+     */
+    public static long getTime( long version )
+    {
+        return version >>> COUNTER_BITS;
+    }
+}
@@ -19,12 +19,18 @@ package org.apache.commons.jcs.engine;
  * under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheServiceNonLocal;
@@ -39,6 +45,11 @@ import org.apache.commons.logging.LogFactory;
  * operation is restored, the non local cache will walk the queue. The queue must be bounded so it
  * does not eat memory.
  * <p>
+ * Only the last event for a key is kept, and a removeAll drops the earlier events of its region.
+ * If a journal directory is set, the oldest events go to a file when the queue is full instead of
+ * being dropped. The journal is bounded as well. The events can be replayed in batches at a
+ * limited rate, so a server that comes back is not flooded.
+ * <p>
  * This originated in the remote cache.
  */
 public class ZombieCacheServiceNonLocal<K, V>
@@ -48,18 +59,54 @@ public class ZombieCacheServiceNonLocal<K, V>
     /** The logger */
     private static final Log log = LogFactory.getLog( ZombieCacheServiceNonLocal.class );
 
+    /** The default number of events replayed before the rate is checked */
+    public static final int DEFAULT_REPLAY_BATCH_SIZE = 100;
+
+    /** The default number of events the journal holds */
+    public static final int DEFAULT_JOURNAL_MAX_SIZE = 100000;
+
     /** How big can the queue grow. */
     private int maxQueueSize = 0;
 
-    /** The queue */
-    private final ConcurrentLinkedQueue<ZombieEvent> queue;
+    /** The last event per key, oldest first. Also the lock for the journal. */
+    private final LinkedHashMap<EventKey, ZombieEvent> queue;
+
+    /** Where the journal goes, null for no journal */
+    private File journalDirectory;
+
+    /** The number of events the journal holds */
+    private int journalMaxSize = DEFAULT_JOURNAL_MAX_SIZE;
+
+    /** The overflow of the queue, created on first use */
+    private ZombieEventJournal journal;
+
+    /** The number of events replayed per second, 0 for no limit */
+    private int replayEventsPerSecond = 0;
+
+    /** The number of events replayed before the rate is checked */
+    private int replayBatchSize = DEFAULT_REPLAY_BATCH_SIZE;
+
+    /** The events that were added */
+    private final AtomicLong addCount = new AtomicLong();
+
+    /** The events that were replaced by a later event */
+    private final AtomicLong coalesceCount = new AtomicLong();
+
+    /** The events that were written to the journal */
+    private final AtomicLong journalCount = new AtomicLong();
+
+    /** The events that were lost because there was no room */
+    private final AtomicLong dropCount = new AtomicLong();
+
+    /** The events that were replayed */
+    private final AtomicLong replayCount = new AtomicLong();
 
     /**
      * Default.
      */
     public ZombieCacheServiceNonLocal()
     {
-        queue = new ConcurrentLinkedQueue<ZombieEvent>();
+        queue = new LinkedHashMap<EventKey, ZombieEvent>();
     }
 
     /**
@@ -70,25 +117,179 @@ public class ZombieCacheServiceNonLocal<K, V>
     public ZombieCacheServiceNonLocal( int maxQueueSize )
     {
         this.maxQueueSize = maxQueueSize;
-        queue = new ConcurrentLinkedQueue<ZombieEvent>();
+        queue = new LinkedHashMap<EventKey, ZombieEvent>();
     }
 
     /**
-     * Gets the number of items on the queue.
+     * Gets the number of items on the queue, including the journal.
      * <p>
      * @return size of the queue.
      */
     public int getQueueSize()
     {
-        return queue.size();
+        synchronized ( queue )
+        {
+            return queue.size() + ( journal == null ? 0 : journal.size() );
+        }
+    }
+
+    /**
+     * Events that do not fit in the queue are written to a file in this directory.
+     * <p>
+     * @param journalDirectory the directory, null for no journal
+     * @param journalMaxSize the number of events the journal holds
+     */
+    public void setJournal( File journalDirectory, int journalMaxSize )
+    {
+        this.journalDirectory = journalDirectory;
+        this.journalMaxSize = journalMaxSize;
+    }
+
+    /**
+     * Limits the rate at which the events are replayed.
+     * <p>
+     * @param replayEventsPerSecond the number of events per second, 0 for no limit
+     * @param replayBatchSize the number of events sent before the rate is checked
+     */
+    public void setReplayRate( int replayEventsPerSecond, int replayBatchSize )
+    {
+        this.replayEventsPerSecond = replayEventsPerSecond;
+        this.replayBatchSize = Math.max( 1, replayBatchSize );
+    }
+
+    /**
+     * @return the number of events that were added
+     */
+    public long getAddCount()
+    {
+        return addCount.get();
+    }
+
+    /**
+     * @return the number of events that were replaced by a later event for the same key
+     */
+    public long getCoalesceCount()
+    {
+        return coalesceCount.get();
+    }
+
+    /**
+     * @return the number of events that were written to the journal
+     */
+    public long getJournalCount()
+    {
+        return journalCount.get();
+    }
+
+    /**
+     * @return the number of events that were lost because the queue and the journal were full
+     */
+    public long getDropCount()
+    {
+        return dropCount.get();
+    }
+
+    /**
+     * @return the number of events that were replayed so far
+     */
+    public long getReplayCount()
+    {
+        return replayCount.get();
     }
 
-    private void addQueue(ZombieEvent event)
+    /**
+     * Queues the event. It replaces the earlier event for its key. If the queue is full, the oldest
+     * event goes to the journal, or is dropped if there is none.
+     * <p>
+     * @param key what the event changes
+     * @param event the event
+     */
+    private void addQueue( EventKey key, ZombieEvent event )
     {
-        queue.add(event);
-        if (queue.size() > maxQueueSize)
+        addCount.incrementAndGet();
+        synchronized ( queue )
         {
-            queue.poll(); // drop oldest entry
+            if ( event instanceof RemoveAllEvent )
+            {
+                removeRegion( event.cacheName );
+            }
+
+            if ( queue.remove( key ) != null || ( journal != null && journal.remove( key ) ) )
+            {
+                coalesceCount.incrementAndGet();
+            }
+            queue.put( key, event );
+
+            if ( queue.size() > maxQueueSize )
+            {
+                Iterator<Map.Entry<EventKey, ZombieEvent>> it = queue.entrySet().iterator();
+                Map.Entry<EventKey, ZombieEvent> eldest = it.next();
+                it.remove();
+                spill( eldest.getKey(), eldest.getValue() );
+            }
+        }
+    }
+
+    /**
+     * Drops the queued events of a region, they are superseded by a removeAll.
+     * <p>
+     * @param cacheName the region
+     */
+    private void removeRegion( String cacheName )
+    {
+        for ( Iterator<EventKey> it = queue.keySet().iterator(); it.hasNext(); )
+        {
+            if ( it.next().cacheName.equals( cacheName ) )
+            {
+                it.remove();
+                coalesceCount.incrementAndGet();
+            }
+        }
+
+        if ( journal != null )
+        {
+            List<Object> regionKeys = new ArrayList<Object>();
+            for ( Object key : journal.keys() )
+            {
+                if ( ( (EventKey) key ).cacheName.equals( cacheName ) )
+                {
+                    regionKeys.add( key );
+                }
+            }
+            coalesceCount.addAndGet( journal.removeAll( regionKeys ) );
+        }
+    }
+
+    /**
+     * Writes an event that does not fit in the queue to the journal.
+     * <p>
+     * @param key what the event changes
+     * @param event the event
+     */
+    private void spill( EventKey key, ZombieEvent event )
+    {
+        if ( journalDirectory == null )
+        {
+            dropCount.incrementAndGet();
+            return;
+        }
+
+        try
+        {
+            if ( journal == null )
+            {
+                journal = new ZombieEventJournal( journalDirectory, journalMaxSize );
+            }
+            if ( journal.append( key, event ) )
+            {
+                dropCount.incrementAndGet();
+            }
+            journalCount.incrementAndGet();
+        }
+        catch ( IOException e )
+        {
+            log.error( "Could not write event for [" + key.key + "] of [" + key.cacheName + "] to the journal", e );
+            dropCount.incrementAndGet();
         }
     }
 
@@ -104,7 +305,7 @@ public class ZombieCacheServiceNonLocal<K, V>
         if ( maxQueueSize > 0 )
         {
             PutEvent<K, V> event = new PutEvent<K, V>( item, listenerId );
-            addQueue( event );
+            addQueue( new EventKey( item.getCacheName(), item.getKey() ), event );
         }
         // Zombies have no inner life
     }
@@ -122,7 +323,7 @@ public class ZombieCacheServiceNonLocal<K, V>
         if ( maxQueueSize > 0 )
         {
             RemoveEvent<K> event = new RemoveEvent<K>( cacheName, key, listenerId );
-            addQueue( event );
+            addQueue( new EventKey( cacheName, key ), event );
         }
         // Zombies have no inner life
     }
@@ -139,7 +340,7 @@ public class ZombieCacheServiceNonLocal<K, V>
         if ( maxQueueSize > 0 )
         {
             RemoveAllEvent event = new RemoveAllEvent( cacheName, listenerId );
-            addQueue( event );
+            addQueue( new EventKey( cacheName, null ), event );
         }
         // Zombies have no inner life
     }
@@ -202,7 +403,9 @@ public class ZombieCacheServiceNonLocal<K, V>
     }
 
     /**
-     * Walk the queue, calling the service for each queue operation.
+     * Walk the queue, calling the service for each queue operation. The journal holds the older
+     * events, so it is walked first. The events are sent in batches, and if a rate is set the walk
+     * pauses after a batch until it is back at that rate. The journal is deleted at the end.
      * <p>
      * @param service
      * @throws Exception
@@ -211,33 +414,48 @@ public class ZombieCacheServiceNonLocal<K, V>
         throws Exception
     {
         int cnt = 0;
+        int total = getQueueSize();
         if ( log.isInfoEnabled() )
         {
-            log.info( "Propagating events to the new ICacheServiceNonLocal." );
+            log.info( "Propagating " + total + " events to the new ICacheServiceNonLocal." );
         }
         ElapsedTimer timer = new ElapsedTimer();
-        while ( !queue.isEmpty() )
+        long start = System.currentTimeMillis();
+        try
         {
-            cnt++;
+            for ( List<ZombieEvent> batch = nextBatch(); !batch.isEmpty(); batch = nextBatch() )
+            {
+                for ( ZombieEvent event : batch )
+                {
+                    propagate( service, event );
+                    cnt++;
+                    replayCount.incrementAndGet();
+                }
 
-            // for each item, call the appropriate service method
-            ZombieEvent event = queue.poll();
+                if ( log.isDebugEnabled() )
+                {
+                    log.debug( "Propagated " + cnt + " of " + total + " events" );
+                }
 
-            if ( event instanceof PutEvent )
-            {
-                @SuppressWarnings("unchecked") // Type checked by instanceof
-                PutEvent<K, V> putEvent = (PutEvent<K, V>) event;
-                service.update( putEvent.element, event.requesterId );
+                if ( replayEventsPerSecond > 0 )
+                {
+                    long wait = start + cnt * 1000L / replayEventsPerSecond - System.currentTimeMillis();
+                    if ( wait > 0 )
+                    {
+                        Thread.sleep( wait );
+                    }
+                }
             }
-            else if ( event instanceof RemoveEvent )
-            {
-                @SuppressWarnings("unchecked") // Type checked by instanceof
-                RemoveEvent<K> removeEvent = (RemoveEvent<K>) event;
-                service.remove( event.cacheName, removeEvent.key, event.requesterId );
-            }
-            else if ( event instanceof RemoveAllEvent )
+        }
+        finally
+        {
+            synchronized ( queue )
             {
-                service.removeAll( event.cacheName, event.requesterId );
+                if ( journal != null )
+                {
+                    journal.close();
+                    journal = null;
+                }
             }
         }
         if ( log.isInfoEnabled() )
@@ -247,11 +465,115 @@ public class ZombieCacheServiceNonLocal<K, V>
         }
     }
 
+    /**
+     * Takes the next events to replay, from the journal while it has any, then from the queue.
+     * <p>
+     * @return the events, empty if there are none left
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private List<ZombieEvent> nextBatch()
+        throws IOException, ClassNotFoundException
+    {
+        List<ZombieEvent> batch = new ArrayList<ZombieEvent>( replayBatchSize );
+        synchronized ( queue )
+        {
+            if ( journal != null && journal.size() > 0 )
+            {
+                for ( Object event : journal.take( replayBatchSize ) )
+                {
+                    batch.add( (ZombieEvent) event );
+                }
+                return batch;
+            }
+
+            Iterator<ZombieEvent> it = queue.values().iterator();
+            while ( it.hasNext() && batch.size() < replayBatchSize )
+            {
+                batch.add( it.next() );
+                it.remove();
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Calls the service method of the event.
+     * <p>
+     * @param service
+     * @param event
+     * @throws IOException
+     */
+    private void propagate( ICacheServiceNonLocal<K, V> service, ZombieEvent event )
+        throws IOException
+    {
+        if ( event instanceof PutEvent )
+        {
+            @SuppressWarnings("unchecked") // Type checked by instanceof
+            PutEvent<K, V> putEvent = (PutEvent<K, V>) event;
+            service.update( putEvent.element, event.requesterId );
+        }
+        else if ( event instanceof RemoveEvent )
+        {
+            @SuppressWarnings("unchecked") // Type checked by instanceof
+            RemoveEvent<K> removeEvent = (RemoveEvent<K>) event;
+            service.remove( event.cacheName, removeEvent.key, event.requesterId );
+        }
+        else if ( event instanceof RemoveAllEvent )
+        {
+            service.removeAll( event.cacheName, event.requesterId );
+        }
+    }
+
+    /**
+     * Identifies what an event changes, a key of a region or, with a null key, the whole region.
+     */
+    private static final class EventKey
+    {
+        /** The region */
+        final String cacheName;
+
+        /** The key, null for the whole region */
+        final Object key;
+
+        /**
+         * @param cacheName the region
+         * @param key the key, null for the whole region
+         */
+        EventKey( String cacheName, Object key )
+        {
+            this.cacheName = cacheName;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof EventKey ) )
+            {
+                return false;
+            }
+            EventKey other = (EventKey) obj;
+            return cacheName.equals( other.cacheName )
+                && ( key == null ? other.key == null : key.equals( other.key ) );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return cacheName.hashCode() * 31 + ( key == null ? 0 : key.hashCode() );
+        }
+    }
+
     /**
      * Base of the other events.
      */
     protected static abstract class ZombieEvent
+        implements Serializable
     {
+        /** Don't change */
+        private static final long serialVersionUID = 1L;
+
         /** The name of the region. */
         String cacheName;
 
@@ -265,6 +587,9 @@ public class ZombieCacheServiceNonLocal<K, V>
     private static class PutEvent<K, V>
         extends ZombieEvent
     {
+        /** Don't change */
+        private static final long serialVersionUID = 1L;
+
         /** The element to put */
         ICacheElement<K, V> element;
 
@@ -275,6 +600,7 @@ public class ZombieCacheServiceNonLocal<K, V>
          */
         public PutEvent( ICacheElement<K, V> element, long requesterId )
         {
+            this.cacheName = element.getCacheName();
             this.requesterId = requesterId;
             this.element = element;
         }
@@ -286,6 +612,9 @@ public class ZombieCacheServiceNonLocal<K, V>
     private static class RemoveEvent<K>
         extends ZombieEvent
     {
+        /** Don't change */
+        private static final long serialVersionUID = 1L;
+
         /** The key to remove */
         K key;
 
@@ -309,6 +638,9 @@ public class ZombieCacheServiceNonLocal<K, V>
     private static class RemoveAllEvent
         extends ZombieEvent
     {
+        /** Don't change */
+        private static final long serialVersionUID = 1L;
+
         /**
          * @param cacheName
          * @param requesterId
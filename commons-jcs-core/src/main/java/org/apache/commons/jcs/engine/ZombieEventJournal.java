@@ -0,0 +1,321 @@
+package org.apache.commons.jcs.engine;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An append only file that holds the zombie events that do not fit in memory. Only the last record
+ * of a key is live, the index maps each key to the offset of that record, in the order in which
+ * the records were written. The number of live records is bounded, the oldest one is dropped if a
+ * new one does not fit. The file is compacted when most of it is dead and deleted when it is
+ * closed. Compaction writes a sibling file and renames it over the journal, so the journal keeps
+ * its name for its whole life.
+ * <p>
+ * Each record is the length of the serialized event followed by the serialized event.
+ */
+class ZombieEventJournal
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( ZombieEventJournal.class );
+
+    /** Compaction is not worth it below this number of dead records */
+    private static final int MIN_DEAD_TO_COMPACT = 1000;
+
+    /** Writes the events */
+    private static final IElementSerializer serializer = new StandardSerializer();
+
+    /** The directory of the file */
+    private final File directory;
+
+    /** The maximum number of live records */
+    private final int maxSize;
+
+    /** The file, it keeps its name across compactions */
+    private File file;
+
+    /** The open file */
+    private RandomAccessFile raf;
+
+    /** The offset of the live record per key, in the order they were written */
+    private LinkedHashMap<Object, Long> index = new LinkedHashMap<Object, Long>();
+
+    /** The number of records that were replaced, removed or taken */
+    private int deadCount = 0;
+
+    /**
+     * Creates the file in the directory.
+     * <p>
+     * @param directory the directory, created if it does not exist
+     * @param maxSize the maximum number of live records
+     * @throws IOException
+     */
+    ZombieEventJournal( File directory, int maxSize )
+        throws IOException
+    {
+        this.directory = directory;
+        this.maxSize = Math.max( 1, maxSize );
+        this.file = createFile();
+        this.raf = new RandomAccessFile( file, "rw" );
+    }
+
+    /**
+     * @return a new empty file in the directory
+     * @throws IOException
+     */
+    private File createFile()
+        throws IOException
+    {
+        if ( !directory.exists() && !directory.mkdirs() && !directory.isDirectory() )
+        {
+            throw new IOException( "Could not create journal directory " + directory );
+        }
+        File created = File.createTempFile( "zombie", ".journal", directory );
+        created.deleteOnExit();
+        return created;
+    }
+
+    /**
+     * Writes an event. An earlier record of the key is dead afterwards.
+     * <p>
+     * @param key identifies what the event changes
+     * @param event the event
+     * @return true if the oldest record had to be dropped to make room
+     * @throws IOException
+     */
+    synchronized boolean append( Object key, Serializable event )
+        throws IOException
+    {
+        byte[] data = serializer.serialize( event );
+        long offset = raf.length();
+        raf.seek( offset );
+        raf.writeInt( data.length );
+        raf.write( data );
+
+        if ( index.remove( key ) != null )
+        {
+            deadCount++;
+        }
+        index.put( key, Long.valueOf( offset ) );
+
+        boolean dropped = false;
+        if ( index.size() > maxSize )
+        {
+            Iterator<Long> it = index.values().iterator();
+            it.next();
+            it.remove();
+            deadCount++;
+            dropped = true;
+        }
+
+        compactIfWorthIt();
+        return dropped;
+    }
+
+    /**
+     * Makes the record of the key dead.
+     * <p>
+     * @param key the key
+     * @return true if the key had a live record
+     */
+    synchronized boolean remove( Object key )
+    {
+        if ( index.remove( key ) != null )
+        {
+            deadCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the records of the keys dead.
+     * <p>
+     * @param keys the keys
+     * @return the number of live records removed
+     */
+    synchronized int removeAll( Collection<?> keys )
+    {
+        int removed = 0;
+        for ( Object key : keys )
+        {
+            if ( index.remove( key ) != null )
+            {
+                removed++;
+            }
+        }
+        deadCount += removed;
+        return removed;
+    }
+
+    /**
+     * @return a copy of the keys with live records, oldest first
+     */
+    synchronized List<Object> keys()
+    {
+        return new ArrayList<Object>( index.keySet() );
+    }
+
+    /**
+     * Reads and removes the oldest live records.
+     * <p>
+     * @param max the maximum number of records
+     * @return the events, oldest first
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    synchronized List<Object> take( int max )
+        throws IOException, ClassNotFoundException
+    {
+        List<Object> events = new ArrayList<Object>( Math.min( max, index.size() ) );
+        Iterator<Long> it = index.values().iterator();
+        while ( it.hasNext() && events.size() < max )
+        {
+            events.add( read( raf, it.next().longValue() ) );
+            it.remove();
+            deadCount++;
+        }
+        return events;
+    }
+
+    /**
+     * @return the number of live records
+     */
+    synchronized int size()
+    {
+        return index.size();
+    }
+
+    /**
+     * @return the length of the file
+     * @throws IOException
+     */
+    synchronized long length()
+        throws IOException
+    {
+        return raf.length();
+    }
+
+    /**
+     * Closes and deletes the file.
+     */
+    synchronized void close()
+    {
+        try
+        {
+            raf.close();
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Could not close journal " + file, e );
+        }
+        if ( !file.delete() && file.exists() )
+        {
+            log.warn( "Could not delete journal " + file );
+        }
+        index.clear();
+    }
+
+    /**
+     * Copies the live records to a sibling file if most of the file is dead, and puts that file in
+     * place of the journal.
+     * <p>
+     * @throws IOException
+     */
+    private void compactIfWorthIt()
+        throws IOException
+    {
+        if ( deadCount < MIN_DEAD_TO_COMPACT || deadCount < index.size() )
+        {
+            return;
+        }
+
+        File compacted = new File( directory, file.getName() + ".compact" );
+        RandomAccessFile out = new RandomAccessFile( compacted, "rw" );
+        LinkedHashMap<Object, Long> compactedIndex = new LinkedHashMap<Object, Long>();
+        try
+        {
+            for ( Map.Entry<Object, Long> entry : index.entrySet() )
+            {
+                raf.seek( entry.getValue().longValue() );
+                byte[] data = new byte[raf.readInt()];
+                raf.readFully( data );
+                compactedIndex.put( entry.getKey(), Long.valueOf( out.getFilePointer() ) );
+                out.writeInt( data.length );
+                out.write( data );
+            }
+        }
+        catch ( IOException e )
+        {
+            out.close();
+            compacted.delete();
+            throw e;
+        }
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Compacted journal " + file + " from " + raf.length() + " to " + out.length() + " bytes" );
+        }
+
+        raf.close();
+        out.close();
+        if ( !compacted.renameTo( file ) && !( file.delete() && compacted.renameTo( file ) ) )
+        {
+            // carry on with the compacted file, it is deleted on close like the journal
+            log.warn( "Could not rename " + compacted + " to " + file );
+            file.delete();
+            file = compacted;
+            file.deleteOnExit();
+        }
+        raf = new RandomAccessFile( file, "rw" );
+        index = compactedIndex;
+        deadCount = 0;
+    }
+
+    /**
+     * @param in the file
+     * @param offset the offset of the record
+     * @return the event
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Object read( RandomAccessFile in, long offset )
+        throws IOException, ClassNotFoundException
+    {
+        in.seek( offset );
+        byte[] data = new byte[in.readInt()];
+        in.readFully( data );
+        return serializer.deSerialize( data, null );
+    }
+}
@@ -0,0 +1,41 @@
+package org.apache.commons.jcs.engine.behavior;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A listener that can take several puts at once. A single threaded event queue hands consecutive
+ * put events to {@link #handlePutBatch(List)} instead of calling {@link #handlePut(ICacheElement)}
+ * for each, if batching is enabled on the queue.
+ */
+public interface ICacheBatchListener<K, V>
+    extends ICacheListener<K, V>
+{
+    /**
+     * Notifies the subscribers of several cache entry updates, in the order they were made.
+     * <p>
+     * @param items the elements
+     * @throws IOException
+     */
+    void handlePutBatch( List<ICacheElement<K, V>> items )
+        throws IOException;
+}
@@ -237,6 +237,59 @@ public interface ICompositeCacheAttributes
      */
     void setSpoolChunkSize( int spoolChunkSize );
 
+    /**
+     * If true, a put that takes the memory cache over MaxObjects leaves the spooling to a
+     * background thread, so the memory cache may briefly hold more than MaxObjects elements.
+     * <p>
+     * @param useBackgroundEviction
+     */
+    void setUseBackgroundEviction( boolean useBackgroundEviction );
+
+    /**
+     * @return whether the memory cache spools in a background thread
+     */
+    boolean isUseBackgroundEviction();
+
+    /**
+     * The number of elements above MaxObjects that puts leave to the background thread. A put
+     * that takes the memory cache further over spools on its own thread.
+     * <p>
+     * @param maxEvictionOverflow
+     */
+    void setMaxEvictionOverflow( int maxEvictionOverflow );
+
+    /**
+     * @return the number of elements above MaxObjects that puts leave to the background thread
+     */
+    int getMaxEvictionOverflow();
+
+    /**
+     * The maximum number of bytes the elements in the memory cache may take, as weighed by the
+     * ElementWeigherName. A value of zero or less means no limit. Only the linked list memory
+     * caches (LRU, MRU and FIFO) honor it.
+     * <p>
+     * @param maxMemoryBytes
+     */
+    void setMaxMemoryBytes( long maxMemoryBytes );
+
+    /**
+     * @return the maximum number of bytes in the memory cache, zero or less for no limit
+     */
+    long getMaxMemoryBytes();
+
+    /**
+     * The class name of the {@link org.apache.commons.jcs.engine.memory.behavior.IElementWeigher}
+     * that weighs the elements if MaxMemoryBytes is set.
+     * <p>
+     * @param elementWeigherName
+     */
+    void setElementWeigherName( String elementWeigherName );
+
+    /**
+     * @return the class name of the weigher
+     */
+    String getElementWeigherName();
+
     /**
      * Clone object
      */
@@ -21,6 +21,7 @@ package org.apache.commons.jcs.engine.control;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -31,12 +32,15 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.jcs.access.exception.CacheException;
 import org.apache.commons.jcs.access.exception.ObjectNotFoundException;
 import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
 import org.apache.commons.jcs.engine.CacheConstants;
 import org.apache.commons.jcs.engine.CacheStatus;
+import org.apache.commons.jcs.engine.ElementVersionClock;
 import org.apache.commons.jcs.engine.behavior.ICache;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
@@ -48,6 +52,7 @@ import org.apache.commons.jcs.engine.control.event.behavior.ElementEventType;
 import org.apache.commons.jcs.engine.control.event.behavior.IElementEvent;
 import org.apache.commons.jcs.engine.control.event.behavior.IElementEventHandler;
 import org.apache.commons.jcs.engine.control.event.behavior.IElementEventQueue;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
 import org.apache.commons.jcs.engine.control.group.GroupId;
 import org.apache.commons.jcs.engine.match.KeyMatcherPatternImpl;
 import org.apache.commons.jcs.engine.match.behavior.IKeyMatcher;
@@ -122,6 +127,20 @@ public class CompositeCache<K, V>
 
     private ScheduledFuture<?> future;
 
+    /**
+     * Number of lock stripes guarding per-key operations. Must be a power of two. Operations on
+     * keys that map to different stripes never block each other.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Striped locks replacing the region wide monitor. A put, remove or aux lookup takes the stripe
+     * of its key, so the memory cache and the auxiliaries see the operations on any single key in
+     * the same order. Region wide operations (removeAll, dispose, save, hierarchical remove) take
+     * all stripes.
+     */
+    private final Lock[] keyLocks;
+
     /**
      * Constructor for the Cache object
      * <p>
@@ -139,6 +158,11 @@ public class CompositeCache<K, V>
         this.hitCountAux = new AtomicInteger(0);
         this.missCountNotFound = new AtomicInteger(0);
         this.missCountExpired = new AtomicInteger(0);
+        this.keyLocks = new Lock[LOCK_STRIPES];
+        for ( int i = 0; i < LOCK_STRIPES; i++ )
+        {
+            this.keyLocks[i] = new ReentrantLock();
+        }
 
         createMemoryCache( cattr );
 
@@ -217,6 +241,59 @@ public class CompositeCache<K, V>
         update( ce, true );
     }
 
+    /**
+     * Loads elements that came from another node, for example a region snapshot from a remote
+     * server. They go straight to memory and the local auxiliaries, like {@link #localUpdate}, but
+     * without the per element checks and logging. An element is skipped if memory already holds a
+     * version that is as new.
+     * <p>
+     * @param elements the elements
+     * @return the number of elements loaded
+     * @throws IOException
+     */
+    public int localLoad( Collection<ICacheElement<K, V>> elements )
+        throws IOException
+    {
+        int loaded = 0;
+        long maxVersion = 0;
+        for ( ICacheElement<K, V> cacheElement : elements )
+        {
+            long version = ElementVersionClock.getVersion( cacheElement.getElementAttributes() );
+            Lock keyLock = lockFor( cacheElement.getKey() );
+            keyLock.lock();
+            try
+            {
+                if ( version != 0 )
+                {
+                    ICacheElement<K, V> local = memCache.getQuiet( cacheElement.getKey() );
+                    if ( local != null && ElementVersionClock.getVersion( local.getElementAttributes() ) >= version )
+                    {
+                        continue;
+                    }
+                }
+                memCache.update( cacheElement );
+                updateAuxiliaries( cacheElement, true );
+            }
+            finally
+            {
+                keyLock.unlock();
+            }
+
+            maxVersion = Math.max( maxVersion, version );
+            loaded++;
+        }
+
+        // later local puts must get a larger version
+        ElementVersionClock.observe( maxVersion );
+        updateCount.addAndGet( loaded );
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( cacheAttr.getCacheName() + " - Loaded " + loaded + " of " + elements.size() + " elements" );
+        }
+        return loaded;
+    }
+
     /**
      * Put an item into the cache. If it is localOnly, then do no notify remote or lateral
      * auxiliaries.
@@ -247,11 +324,28 @@ public class CompositeCache<K, V>
 
         updateCount.incrementAndGet();
 
-        synchronized ( this )
+        IElementAttributes attr = cacheElement.getElementAttributes();
+        if ( localOnly )
+        {
+            // came from another node, later local puts must get a larger version
+            ElementVersionClock.observe( ElementVersionClock.getVersion( attr ) );
+        }
+        else
+        {
+            ElementVersionClock.setVersion( attr, ElementVersionClock.next() );
+        }
+
+        Lock keyLock = lockFor( cacheElement.getKey() );
+        keyLock.lock();
+        try
         {
             memCache.update( cacheElement );
             updateAuxiliaries( cacheElement, localOnly );
         }
+        finally
+        {
+            keyLock.unlock();
+        }
 
         cacheElement.getElementAttributes().setLastAccessTimeNow();
     }
@@ -474,6 +568,64 @@ public class CompositeCache<K, V>
         return get( key, true );
     }
 
+    /**
+     * Looks in memory and in all auxiliaries except the remote ones. This is the first step of an
+     * asynchronous get, the remote step is finished by {@link #completeRemoteGet}. A miss is not
+     * counted here.
+     * <p>
+     * @param key
+     * @return ICacheElement or null if only a remote auxiliary may have it
+     */
+    public ICacheElement<K, V> getExceptRemote( K key )
+    {
+        return get( key, false, false );
+    }
+
+    /**
+     * Finishes an asynchronous get with the element a remote auxiliary returned: it counts the hit
+     * or miss and copies the element to memory, like {@link #get(Object)} does for an auxiliary
+     * hit. The element is not copied if memory got the key in the meantime, since that is a newer
+     * update.
+     * <p>
+     * @param key
+     * @param element the element the remote auxiliary returned, may be null
+     * @return the element, or null if it was not found or has expired
+     * @throws IOException
+     */
+    public ICacheElement<K, V> completeRemoteGet( K key, ICacheElement<K, V> element )
+        throws IOException
+    {
+        if ( element == null )
+        {
+            missCountNotFound.incrementAndGet();
+            return null;
+        }
+
+        if ( isExpired( element ) )
+        {
+            missCountExpired.incrementAndGet();
+            remove( key );
+            return null;
+        }
+
+        hitCountAux.incrementAndGet();
+        Lock keyLock = lockFor( key );
+        keyLock.lock();
+        try
+        {
+            if ( memCache.getQuiet( key ) == null )
+            {
+                copyAuxiliaryRetrievedItemToMemory( element );
+            }
+        }
+        finally
+        {
+            keyLock.unlock();
+        }
+        element.getElementAttributes().setLastAccessTimeNow();
+        return element;
+    }
+
     /**
      * Look in memory, then disk, remote, or laterally for this item. The order is dependent on the
      * order in the cache.ccf file.
@@ -486,6 +638,17 @@ public class CompositeCache<K, V>
      * @return ICacheElement
      */
     protected ICacheElement<K, V> get( K key, boolean localOnly )
+    {
+        return get( key, localOnly, true );
+    }
+
+    /**
+     * @param key
+     * @param localOnly true to look in memory and on disk only
+     * @param remote false to skip the remote auxiliaries, a miss is not counted then
+     * @return ICacheElement
+     */
+    private ICacheElement<K, V> get( K key, boolean localOnly, boolean remote )
     {
         ICacheElement<K, V> element = null;
 
@@ -496,51 +659,58 @@ public class CompositeCache<K, V>
             log.debug( "get: key = " + key + ", localOnly = " + localOnly );
         }
 
-        synchronized (this)
+        try
         {
-            try
-            {
-                // First look in memory cache
-                element = memCache.get( key );
+            // First look in memory cache. The memory cache is thread safe, so a
+            // hit does not need any region level lock.
+            element = memCache.get( key );
 
-                if ( element != null )
+            if ( element != null )
+            {
+                // Found in memory cache
+                if ( isExpired( element ) )
                 {
-                    // Found in memory cache
-                    if ( isExpired( element ) )
+                    if ( log.isDebugEnabled() )
                     {
-                        if ( log.isDebugEnabled() )
-                        {
-                            log.debug( cacheAttr.getCacheName() + " - Memory cache hit, but element expired" );
-                        }
-
-                        missCountExpired.incrementAndGet();
-                        remove( key );
-                        element = null;
+                        log.debug( cacheAttr.getCacheName() + " - Memory cache hit, but element expired" );
                     }
-                    else
-                    {
-                        if ( log.isDebugEnabled() )
-                        {
-                            log.debug( cacheAttr.getCacheName() + " - Memory cache hit" );
-                        }
 
-                        // Update counters
-                        hitCountRam.incrementAndGet();
+                    missCountExpired.incrementAndGet();
+                    remove( key );
+                    element = null;
+                }
+                else
+                {
+                    if ( log.isDebugEnabled() )
+                    {
+                        log.debug( cacheAttr.getCacheName() + " - Memory cache hit" );
                     }
 
-                    found = true;
+                    // Update counters
+                    hitCountRam.incrementAndGet();
                 }
-                else
+
+                found = true;
+            }
+            else
+            {
+                // Item not found in memory. If local invocation look in aux
+                // caches, even if not local look in disk auxiliaries.
+                // Hold the stripe of the key so that the copy back to memory
+                // cannot overwrite a concurrent update of the same key.
+                boolean expiredInAux = false;
+                Lock keyLock = lockFor( key );
+                keyLock.lock();
+                try
                 {
-                    // Item not found in memory. If local invocation look in aux
-                    // caches, even if not local look in disk auxiliaries
                     for (AuxiliaryCache<K, V> aux : auxCaches)
                     {
                         if ( aux != null )
                         {
                             CacheType cacheType = aux.getCacheType();
 
-                            if ( !localOnly || cacheType == CacheType.DISK_CACHE )
+                            if ( ( !localOnly || cacheType == CacheType.DISK_CACHE )
+                                && ( remote || cacheType != CacheType.REMOTE_CACHE ) )
                             {
                                 if ( log.isDebugEnabled() )
                                 {
@@ -575,11 +745,9 @@ public class CompositeCache<K, V>
 
                                     missCountExpired.incrementAndGet();
 
-                                    // This will tell the remotes to remove the item
-                                    // based on the element's expiration policy. The elements attributes
-                                    // associated with the item when it created govern its behavior
-                                    // everywhere.
-                                    remove( key );
+                                    // The remove is done once the stripe is released, a
+                                    // hierarchical remove takes all stripes in order.
+                                    expiredInAux = true;
                                     element = null;
                                 }
                                 else
@@ -601,14 +769,27 @@ public class CompositeCache<K, V>
                         }
                     }
                 }
-            }
-            catch ( IOException e )
-            {
-                log.error( "Problem encountered getting element.", e );
+                finally
+                {
+                    keyLock.unlock();
+                }
+
+                if ( expiredInAux )
+                {
+                    // This will tell the remotes to remove the item
+                    // based on the element's expiration policy. The elements attributes
+                    // associated with the item when it created govern its behavior
+                    // everywhere.
+                    remove( key );
+                }
             }
         }
+        catch ( IOException e )
+        {
+            log.error( "Problem encountered getting element.", e );
+        }
 
-        if ( !found )
+        if ( !found && remote )
         {
             missCountNotFound.incrementAndGet();
 
@@ -1143,7 +1324,8 @@ public class CompositeCache<K, V>
 
         boolean removed = false;
 
-        synchronized (this)
+        lockKey( key );
+        try
         {
             try
             {
@@ -1191,6 +1373,10 @@ public class CompositeCache<K, V>
                 }
             }
         }
+        finally
+        {
+            unlockKey( key );
+        }
 
         return removed;
     }
@@ -1229,7 +1415,8 @@ public class CompositeCache<K, V>
     protected void removeAll( boolean localOnly )
         throws IOException
     {
-        synchronized (this)
+        lockAll();
+        try
         {
             try
             {
@@ -1266,6 +1453,10 @@ public class CompositeCache<K, V>
                 }
             }
         }
+        finally
+        {
+            unlockAll();
+        }
     }
 
     /**
@@ -1297,7 +1488,8 @@ public class CompositeCache<K, V>
             return;
         }
 
-        synchronized (this)
+        lockAll();
+        try
         {
             // Try to stop shrinker thread
             if (future != null)
@@ -1377,6 +1569,10 @@ public class CompositeCache<K, V>
                 log.error( "Failure disposing of memCache", ex );
             }
         }
+        finally
+        {
+            unlockAll();
+        }
     }
 
     /**
@@ -1391,7 +1587,8 @@ public class CompositeCache<K, V>
             return;
         }
 
-        synchronized ( this )
+        lockAll();
+        try
         {
             for ( ICache<K, V> aux : auxCaches )
             {
@@ -1416,6 +1613,10 @@ public class CompositeCache<K, V>
                 }
             }
         }
+        finally
+        {
+            unlockAll();
+        }
         if ( log.isDebugEnabled() )
         {
             log.debug( "Called save for [" + cacheAttr.getCacheName() + "]" );
@@ -1811,6 +2012,101 @@ public class CompositeCache<K, V>
         return this.keyMatcher;
     }
 
+    /**
+     * Returns the lock that guards a key against concurrent puts and removes. Holding it makes a
+     * check of the local element and a following local update or remove atomic. The lock is
+     * reentrant. Hierarchical keys are guarded by all locks and must not be passed here.
+     * <p>
+     * @param key a key that addresses one element
+     * @return the lock of the key
+     */
+    public Lock getKeyLock( K key )
+    {
+        return lockFor( key );
+    }
+
+    /**
+     * Returns the lock stripe guarding the given key.
+     * <p>
+     * @param key
+     * @return the lock for the stripe the key hashes to
+     */
+    private Lock lockFor( Object key )
+    {
+        int h = key.hashCode();
+        h ^= ( h >>> 16 );
+        return keyLocks[h & ( LOCK_STRIPES - 1 )];
+    }
+
+    /**
+     * Acquires all lock stripes, always in the same order to avoid deadlocks.
+     */
+    private void lockAll()
+    {
+        for ( Lock l : keyLocks )
+        {
+            l.lock();
+        }
+    }
+
+    /**
+     * Releases all lock stripes in reverse order.
+     */
+    private void unlockAll()
+    {
+        for ( int i = LOCK_STRIPES - 1; i >= 0; i-- )
+        {
+            keyLocks[i].unlock();
+        }
+    }
+
+    /**
+     * A hierarchical key (a String ending with the name component delimiter or a group name
+     * without attribute) addresses many keys, so it needs all stripes.
+     * <p>
+     * @param key
+     * @return true if the key addresses more than one element
+     */
+    private boolean isHierarchicalKey( K key )
+    {
+        return ( key instanceof String && ( (String) key ).endsWith( CacheConstants.NAME_COMPONENT_DELIMITER ) )
+            || ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null );
+    }
+
+    /**
+     * Locks the stripe of the key, or all stripes for a hierarchical key.
+     * <p>
+     * @param key
+     */
+    private void lockKey( K key )
+    {
+        if ( isHierarchicalKey( key ) )
+        {
+            lockAll();
+        }
+        else
+        {
+            lockFor( key ).lock();
+        }
+    }
+
+    /**
+     * Counterpart of {@link #lockKey(Object)}.
+     * <p>
+     * @param key
+     */
+    private void unlockKey( K key )
+    {
+        if ( isHierarchicalKey( key ) )
+        {
+            unlockAll();
+        }
+        else
+        {
+            lockFor( key ).unlock();
+        }
+    }
+
     /**
      * This returns the stats.
      * <p>
@@ -27,17 +27,25 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.jcs.engine.CacheConstants;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.memory.behavior.IElementWeigher;
 import org.apache.commons.jcs.engine.memory.util.DefaultMemoryElementDescriptor;
+import org.apache.commons.jcs.engine.memory.util.EstimatingElementWeigher;
 import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
 import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
 import org.apache.commons.jcs.utils.struct.DoubleLinkedList;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -48,6 +56,15 @@ import org.apache.commons.logging.LogFactory;
  * Children can control the expiration algorithm by controlling the update and get. The last item in the list will be the one
  * removed when the list fills. For instance LRU should more items to the front as they are used. FIFO should simply add new items
  * to the front of the list.
+ * <p>
+ * If UseBackgroundEviction is set, a put that takes the cache over MaxObjects does not spool. A
+ * background thread of the cache spools the overflow instead, a chunk at a time, so puts keep a
+ * flat latency. A put that takes the cache more than MaxEvictionOverflow elements over MaxObjects
+ * still spools on its own thread, which bounds the overflow if the background thread falls behind.
+ * <p>
+ * If MaxMemoryBytes is set, every element is weighed when it is put and the cache also spools
+ * while the total weight is over the budget. This is always done on the thread of the put. An
+ * element that alone is heavier than the budget is spooled right away.
  */
 public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends AbstractMemoryCache<K, V>
 {
@@ -57,6 +74,21 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     /** thread-safe double linked list for lru */
     protected DoubleLinkedList<MemoryElementDescriptor<K, V>> list; // TODO privatise
 
+    /** Spools the overflow if UseBackgroundEviction is set, else null */
+    private ExecutorService evictor;
+
+    /** Whether the evictor has a pending run */
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean(false);
+
+    /** The number of elements spooled by the evictor */
+    private final AtomicLong backgroundSpoolCnt = new AtomicLong(0);
+
+    /** Weighs the elements if MaxMemoryBytes is set, else null */
+    private IElementWeigher weigher;
+
+    /** The total weight of the elements in the cache */
+    private final AtomicLong memoryBytes = new AtomicLong(0);
+
     /**
      * For post reflection creation initialization.
      * <p>
@@ -68,6 +100,14 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     {
         super.initialize(hub);
         list = new DoubleLinkedList<MemoryElementDescriptor<K, V>>();
+        if (getCacheAttributes().isUseBackgroundEviction())
+        {
+            evictor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("JCS-MemoryEvictor-" + getCacheName() + "-"));
+        }
+        if (getCacheAttributes().getMaxMemoryBytes() > 0)
+        {
+            weigher = createWeigher(getCacheAttributes().getElementWeigherName());
+        }
         log.info("initialized MemoryCache for " + getCacheName());
     }
 
@@ -86,6 +126,23 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         return new ConcurrentHashMap<K, MemoryElementDescriptor<K, V>>();
     }
 
+    /**
+     * @param className the class of the weigher
+     * @return a new weigher, or the default one if the class cannot be created
+     */
+    private IElementWeigher createWeigher(String className)
+    {
+        try
+        {
+            return (IElementWeigher) Class.forName(className).newInstance();
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to create weigher " + className + ", using: EstimatingElementWeigher", e);
+            return new EstimatingElementWeigher();
+        }
+    }
+
     /**
      * Calls the abstract method updateList.
      * <p>
@@ -101,10 +158,20 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     {
         putCnt.incrementAndGet();
 
+        // weigh outside of the lock, a weigher may serialize the value
+        long weight = weigher != null ? weigher.weigh(ce) : 0;
+        if (weigher != null && weight > this.getCacheAttributes().getMaxMemoryBytes())
+        {
+            spoolOversized(ce, weight);
+            return;
+        }
+
         lock.lock();
         try
         {
             MemoryElementDescriptor<K, V> newNode = adjustListForUpdate(ce);
+            newNode.setWeight(weight);
+            memoryBytes.addAndGet(weight);
 
             // this should be synchronized if we were not using a ConcurrentHashMap
             final K key = newNode.getCacheElement().getKey();
@@ -114,6 +181,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
             if (oldNode != null && key.equals(oldNode.getCacheElement().getKey()))
             {
                 list.remove(oldNode);
+                memoryBytes.addAndGet(-oldNode.getWeight());
             }
         }
         finally
@@ -125,6 +193,47 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         spoolIfNeeded();
     }
 
+    /**
+     * Spools an element that does not fit in the byte budget, instead of flushing the whole cache
+     * for it. The old element of the key is removed.
+     * <p>
+     *
+     * @param ce the element
+     * @param weight its weight
+     */
+    private void spoolOversized(ICacheElement<K, V> ce, long weight)
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("Element of " + weight + " bytes does not fit in memory, spooling key " + ce.getKey());
+        }
+
+        lock.lock();
+        try
+        {
+            MemoryElementDescriptor<K, V> oldNode = map.remove(ce.getKey());
+            if (oldNode != null)
+            {
+                list.remove(oldNode);
+                memoryBytes.addAndGet(-oldNode.getWeight());
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        getCompositeCache().spoolToDisk(ce);
+    }
+
+    /**
+     * @return true if the elements are weighed and weigh more than MaxMemoryBytes
+     */
+    private boolean isOverByteBudget()
+    {
+        return weigher != null && memoryBytes.get() > this.getCacheAttributes().getMaxMemoryBytes();
+    }
+
     /**
      * Children implement this to control the cache expiration algorithm
      * <p>
@@ -144,9 +253,18 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     private void spoolIfNeeded() throws Error
     {
         int size = map.size();
-        // If the element limit is reached, we need to spool
+        // If the element or byte limit is reached, we need to spool
+        boolean overObjects = size > this.getCacheAttributes().getMaxObjects();
+        boolean overBytes = isOverByteBudget();
 
-        if (size <= this.getCacheAttributes().getMaxObjects())
+        if (!overObjects && !overBytes)
+        {
+            return;
+        }
+
+        // the evictor runs even if this put has to spool, so the overflow goes back to zero
+        if (evictor != null && !overBytes && scheduleEviction()
+            && size <= this.getCacheAttributes().getMaxObjects() + this.getCacheAttributes().getMaxEvictionOverflow())
         {
             return;
         }
@@ -157,7 +275,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         }
 
         // Write the last 'chunkSize' items to disk.
-        int chunkSizeCorrected = Math.min(size, chunkSize);
+        int chunkSizeCorrected = overObjects ? Math.min(size, chunkSize) : 0;
 
         if (log.isDebugEnabled())
         {
@@ -172,6 +290,12 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
 
         try
         {
+            if (evictor != null)
+            {
+                // the evictor may have spooled since the size was read
+                chunkSizeCorrected = Math.min(chunkSizeCorrected, map.size() - this.getCacheAttributes().getMaxObjects());
+            }
+
             for (int i = 0; i < chunkSizeCorrected; i++)
             {
                 ICacheElement<K, V> lastElement = spoolLastElement();
@@ -181,6 +305,15 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
                 }
             }
 
+            // then as many as it takes to get back into the byte budget
+            while (isOverByteBudget())
+            {
+                if (spoolLastElement() == null)
+                {
+                    break;
+                }
+            }
+
             // If this is out of the sync block it can detect a mismatch
             // where there is none.
             if (log.isDebugEnabled() && map.size() != list.size())
@@ -199,6 +332,93 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         }
     }
 
+    /**
+     * Makes sure that the evictor will run.
+     * <p>
+     *
+     * @return false if the evictor was shut down
+     */
+    private boolean scheduleEviction()
+    {
+        if (!evictionScheduled.compareAndSet(false, true))
+        {
+            return true;
+        }
+
+        try
+        {
+            evictor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // puts after this point schedule another run
+                    evictionScheduled.set(false);
+                    try
+                    {
+                        spoolOverflow();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        log.error("Background eviction failed for " + getCacheName(), e);
+                    }
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            evictionScheduled.set(false);
+            return false;
+        }
+    }
+
+    /**
+     * Spools the least recently used elements until the cache is back to MaxObjects. The lock is
+     * released after every chunk, so puts and gets are not held up for the whole run.
+     */
+    private void spoolOverflow()
+    {
+        int chunk = Math.max(1, chunkSize);
+
+        while (map.size() > this.getCacheAttributes().getMaxObjects())
+        {
+            lock.lock();
+            try
+            {
+                int count = Math.min(chunk, map.size() - this.getCacheAttributes().getMaxObjects());
+                for (int i = 0; i < count; i++)
+                {
+                    if (spoolLastElement() == null)
+                    {
+                        return;
+                    }
+                    backgroundSpoolCnt.incrementAndGet();
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops the evictor and removes all elements.
+     * <p>
+     *
+     * @throws IOException
+     */
+    @Override
+    public void dispose() throws IOException
+    {
+        if (evictor != null)
+        {
+            evictor.shutdownNow();
+        }
+        super.dispose();
+    }
+
     /**
      * Get an item from the cache If the item is found, it is removed from the list and added first.
      * <p>
@@ -338,6 +558,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
             }
 
             list.remove(last);
+            memoryBytes.addAndGet(-last.getWeight());
         }
 
         return toSpool;
@@ -378,6 +599,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
                     try
                     {
                         list.remove(entry.getValue());
+                        memoryBytes.addAndGet(-entry.getValue().getWeight());
                         itr.remove();
                         removed = true;
                     }
@@ -402,6 +624,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
                     try
                     {
                         list.remove(entry.getValue());
+                        memoryBytes.addAndGet(-entry.getValue().getWeight());
                         itr.remove();
                         removed = true;
                     }
@@ -422,6 +645,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
                 if (me != null)
                 {
                     list.remove(me);
+                    memoryBytes.addAndGet(-me.getWeight());
                     removed = true;
                 }
             }
@@ -449,6 +673,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         {
             list.removeAll();
             map.clear();
+            memoryBytes.set(0);
         }
         finally
         {
@@ -658,6 +883,15 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         List<IStatElement<?>> elems = stats.getStatElements();
 
         elems.add(new StatElement<Integer>("List Size", Integer.valueOf(list.size())));
+        if (evictor != null)
+        {
+            elems.add(new StatElement<AtomicLong>("Background Spool Count", backgroundSpoolCnt));
+        }
+        if (weigher != null)
+        {
+            elems.add(new StatElement<AtomicLong>("Memory Bytes", memoryBytes));
+            elems.add(new StatElement<Long>("Max Memory Bytes", Long.valueOf(this.getCacheAttributes().getMaxMemoryBytes())));
+        }
 
         return stats;
     }
@@ -0,0 +1,509 @@
+package org.apache.commons.jcs.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs.engine.memory.util.DefaultMemoryElementDescriptor;
+import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.struct.DoubleLinkedList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An LRU memory cache whose gets never wait for the lock of the list. A hit is looked up in the
+ * map and recorded in a ring buffer; the buffers are replayed to the list in batches by whichever
+ * thread gets the lock, a get only tries it once its buffer is half full. Puts, removals and
+ * spooling take the lock as in the {@link LRUMemoryCache} and replay the buffers first, so the
+ * least recently used element is evicted based on all recorded hits.
+ * <p>
+ * The buffers are striped by thread, so gets of different threads rarely write to the same one.
+ * If a buffer is full because the lock is held for long, the hit is not recorded. The element
+ * then only looks older than it is, which is an acceptable error for an LRU.
+ */
+public class BufferedLRUMemoryCache<K, V>
+    extends AbstractMemoryCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( BufferedLRUMemoryCache.class );
+
+    /** The number of hits a buffer can hold, a power of two */
+    static final int BUFFER_SIZE = 64;
+
+    /** A get replays the buffers if its buffer holds this many hits */
+    static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    /** The list of nodes, most recently used first, guarded by the lock */
+    private DoubleLinkedList<MemoryElementDescriptor<K, V>> list;
+
+    /** The recorded hits */
+    private List<ReadBuffer<K, V>> buffers;
+
+    /** The number of buffers minus one */
+    private int bufferMask;
+
+    /** The number of hits that were not recorded because a buffer was full */
+    private final AtomicLong droppedCnt = new AtomicLong( 0 );
+
+    /** The number of hits that were replayed to the list */
+    private final AtomicLong replayedCnt = new AtomicLong( 0 );
+
+    /**
+     * For post reflection creation initialization.
+     * <p>
+     * @param hub
+     */
+    @Override
+    public void initialize( CompositeCache<K, V> hub )
+    {
+        super.initialize( hub );
+        list = new DoubleLinkedList<MemoryElementDescriptor<K, V>>();
+
+        int stripes = 1;
+        while ( stripes < Runtime.getRuntime().availableProcessors() )
+        {
+            stripes <<= 1;
+        }
+        buffers = new ArrayList<ReadBuffer<K, V>>( stripes );
+        for ( int i = 0; i < stripes; i++ )
+        {
+            buffers.add( new ReadBuffer<K, V>() );
+        }
+        bufferMask = stripes - 1;
+
+        log.info( "initialized BufferedLRUMemoryCache for " + getCacheName() + " with " + stripes + " read buffers" );
+    }
+
+    /**
+     * @return new ConcurrentHashMap()
+     */
+    @Override
+    public ConcurrentMap<K, MemoryElementDescriptor<K, V>> createMap()
+    {
+        return new ConcurrentHashMap<K, MemoryElementDescriptor<K, V>>();
+    }
+
+    /**
+     * Puts an item to the cache. It becomes the most recently used element. If the max size is
+     * reached, the least recently used elements are spooled.
+     * <p>
+     * @param ce the cache element
+     * @throws IOException
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        putCnt.incrementAndGet();
+
+        lock.lock();
+        try
+        {
+            drainBuffers();
+
+            MemoryElementDescriptor<K, V> newNode = new DefaultMemoryElementDescriptor<K, V>( ce );
+            list.addFirst( newNode );
+            MemoryElementDescriptor<K, V> oldNode = map.put( ce.getKey(), newNode );
+            if ( oldNode != null )
+            {
+                list.remove( oldNode );
+            }
+
+            spoolIfNeeded();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets an item from the cache. A hit is recorded in the buffer of the thread, the list is
+     * only changed if the lock is free.
+     * <p>
+     * @param key identifies the item to find
+     * @return ICacheElement&lt;K, V&gt; if found, else null
+     * @throws IOException
+     */
+    @Override
+    public ICacheElement<K, V> get( K key )
+        throws IOException
+    {
+        MemoryElementDescriptor<K, V> me = map.get( key );
+
+        if ( me == null )
+        {
+            missCnt.incrementAndGet();
+
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( getCacheName() + ": BufferedLRUMemoryCache miss for " + key );
+            }
+            return null;
+        }
+
+        hitCnt.incrementAndGet();
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( getCacheName() + ": BufferedLRUMemoryCache hit for " + key );
+        }
+
+        ReadBuffer<K, V> buffer = buffers.get( stripe() );
+        int pending = buffer.offer( me );
+        if ( pending < 0 )
+        {
+            droppedCnt.incrementAndGet();
+        }
+        if ( ( pending < 0 || pending >= DRAIN_THRESHOLD ) && lock.tryLock() )
+        {
+            try
+            {
+                drainBuffers();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        return me.getCacheElement();
+    }
+
+    /**
+     * This instructs the memory cache to remove the <i>numberToFree</i> least recently used
+     * elements. These will be spooled to disk if a disk auxiliary is available.
+     * <p>
+     * @param numberToFree
+     * @return the number that were removed. if you ask to free 5, but there are only 3, you will
+     *         get 3.
+     * @throws IOException
+     */
+    @Override
+    public int freeElements( int numberToFree )
+        throws IOException
+    {
+        int freed = 0;
+
+        lock.lock();
+        try
+        {
+            drainBuffers();
+            for ( ; freed < numberToFree; freed++ )
+            {
+                if ( spoolLastElement() == null )
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return freed;
+    }
+
+    /**
+     * Removes an item from the cache. This method handles hierarchical removal. If the key is a
+     * String and ends with the CacheConstants.NAME_COMPONENT_DELIMITER, then all items with keys
+     * starting with the argument String will be removed.
+     * <p>
+     * @param key
+     * @return true if the removal was successful
+     * @throws IOException
+     */
+    @Override
+    public boolean remove( K key )
+        throws IOException
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "removing item for key: " + key );
+        }
+
+        boolean removed = false;
+
+        // handle partial removal
+        if ( key instanceof String && ( (String) key ).endsWith( CacheConstants.NAME_COMPONENT_DELIMITER ) )
+        {
+            // remove all keys of the same name hierarchy.
+            for ( Iterator<Map.Entry<K, MemoryElementDescriptor<K, V>>> itr = map.entrySet().iterator(); itr.hasNext(); )
+            {
+                K k = itr.next().getKey();
+
+                if ( k instanceof String && ( (String) k ).startsWith( key.toString() ) )
+                {
+                    removed |= removeNode( k );
+                }
+            }
+        }
+        else if ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null )
+        {
+            // remove all keys of the same name hierarchy.
+            for ( Iterator<Map.Entry<K, MemoryElementDescriptor<K, V>>> itr = map.entrySet().iterator(); itr.hasNext(); )
+            {
+                K k = itr.next().getKey();
+
+                if ( k instanceof GroupAttrName
+                    && ( (GroupAttrName<?>) k ).groupId.equals( ( (GroupAttrName<?>) key ).groupId ) )
+                {
+                    removed |= removeNode( k );
+                }
+            }
+        }
+        else
+        {
+            // remove single item.
+            removed = removeNode( key );
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes all of the elements from both the map and the list. Recorded hits of the old
+     * elements are ignored when the buffers are replayed.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public void removeAll()
+        throws IOException
+    {
+        lock.lock();
+        try
+        {
+            list.removeAll();
+            map.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a set of the keys for all elements in the memory cache
+     * <p>
+     * @return A set of the key type
+     */
+    @Override
+    public Set<K> getKeySet()
+    {
+        return new LinkedHashSet<K>( map.keySet() );
+    }
+
+    /**
+     * This returns semi-structured information on the memory cache, such as the size, put count,
+     * hit count, miss count and how the read buffers were used.
+     * <p>
+     * @return statistics about the cache
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = super.getStatistics();
+        stats.setTypeName( "Buffered LRU Memory Cache" );
+
+        List<IStatElement<?>> elems = stats.getStatElements();
+
+        elems.add( new StatElement<Integer>( "List Size", Integer.valueOf( list.size() ) ) );
+        elems.add( new StatElement<Integer>( "Read Buffers", Integer.valueOf( buffers.size() ) ) );
+        elems.add( new StatElement<AtomicLong>( "Replayed Reads", replayedCnt ) );
+        elems.add( new StatElement<AtomicLong>( "Dropped Reads", droppedCnt ) );
+
+        return stats;
+    }
+
+    /**
+     * Replays the recorded hits to the list. Hits of nodes that are no longer in the map are
+     * ignored. Called under the lock.
+     */
+    private void drainBuffers()
+    {
+        for ( ReadBuffer<K, V> buffer : buffers )
+        {
+            long head = buffer.reads;
+            long tail = buffer.writes.get();
+            for ( ; head < tail; head++ )
+            {
+                int index = (int) head & ( BUFFER_SIZE - 1 );
+                MemoryElementDescriptor<K, V> me = buffer.nodes.get( index );
+                if ( me == null )
+                {
+                    // the writer has claimed the slot but not filled it yet
+                    break;
+                }
+                buffer.nodes.lazySet( index, null );
+
+                if ( map.get( me.getCacheElement().getKey() ) == me )
+                {
+                    list.makeFirst( me );
+                }
+            }
+            replayedCnt.addAndGet( head - buffer.reads );
+            buffer.reads = head;
+        }
+    }
+
+    /**
+     * Spools the least recently used elements if the max size is exceeded. Called under the
+     * lock.
+     */
+    private void spoolIfNeeded()
+    {
+        int size = map.size();
+        int maxObjects = getCacheAttributes().getMaxObjects();
+        if ( size <= maxObjects )
+        {
+            return;
+        }
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "In memory limit reached, spooling" );
+        }
+
+        // Write the last 'chunkSize' items to disk.
+        int chunkSizeCorrected = Math.max( size - maxObjects, Math.min( size, chunkSize ) );
+        for ( int i = 0; i < chunkSizeCorrected; i++ )
+        {
+            if ( spoolLastElement() == null )
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Spools the last element in the list, if one exists. Called under the lock.
+     * <p>
+     * @return the element, or null if the list is empty
+     */
+    private ICacheElement<K, V> spoolLastElement()
+    {
+        MemoryElementDescriptor<K, V> last = list.getLast();
+        if ( last == null )
+        {
+            return null;
+        }
+
+        ICacheElement<K, V> toSpool = last.getCacheElement();
+        getCompositeCache().spoolToDisk( toSpool );
+        if ( map.remove( toSpool.getKey() ) == null )
+        {
+            log.warn( "update: remove failed for key: " + toSpool.getKey() );
+        }
+        list.remove( last );
+
+        return toSpool;
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key was in the cache
+     */
+    private boolean removeNode( K key )
+    {
+        lock.lock();
+        try
+        {
+            MemoryElementDescriptor<K, V> me = map.remove( key );
+            if ( me != null )
+            {
+                list.remove( me );
+                return true;
+            }
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the index of the buffer of the current thread
+     */
+    private int stripe()
+    {
+        long id = Thread.currentThread().getId();
+        int h = (int) ( id ^ ( id >>> 32 ) ) * 0x9e3779b9;
+        return ( h ^ ( h >>> 16 ) ) & bufferMask;
+    }
+
+    /**
+     * A bounded ring of recorded hits. Any thread may offer, only the holder of the lock drains.
+     */
+    private static class ReadBuffer<K, V>
+    {
+        /** The slots */
+        final AtomicReferenceArray<MemoryElementDescriptor<K, V>> nodes =
+            new AtomicReferenceArray<MemoryElementDescriptor<K, V>>( BUFFER_SIZE );
+
+        /** The number of slots claimed by writers */
+        final AtomicLong writes = new AtomicLong( 0 );
+
+        /** The number of slots drained, written under the lock */
+        volatile long reads;
+
+        /**
+         * @param me the node that was hit
+         * @return the number of pending hits, or -1 if the buffer was full
+         */
+        int offer( MemoryElementDescriptor<K, V> me )
+        {
+            while ( true )
+            {
+                long tail = writes.get();
+                long pending = tail - reads;
+                if ( pending >= BUFFER_SIZE )
+                {
+                    return -1;
+                }
+                if ( writes.compareAndSet( tail, tail + 1 ) )
+                {
+                    nodes.lazySet( (int) tail & ( BUFFER_SIZE - 1 ), me );
+                    return (int) pending + 1;
+                }
+            }
+        }
+    }
+}
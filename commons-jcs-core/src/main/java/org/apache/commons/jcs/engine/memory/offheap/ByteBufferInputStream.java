@@ -0,0 +1,94 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer, so a value can be deserialized straight from direct
+ * memory without copying it to the heap first.
+ */
+class ByteBufferInputStream
+    extends InputStream
+{
+    /** The data, from the position to the limit */
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer the data, from the position to the limit
+     */
+    ByteBufferInputStream( ByteBuffer buffer )
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the next byte, or -1 at the end
+     */
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    /**
+     * @param b receives the bytes
+     * @param off the first index to fill
+     * @param len the maximum number of bytes
+     * @return the number of bytes read, or -1 at the end
+     */
+    @Override
+    public int read( byte[] b, int off, int len )
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+        if ( !buffer.hasRemaining() )
+        {
+            return -1;
+        }
+        int count = Math.min( len, buffer.remaining() );
+        buffer.get( b, off, count );
+        return count;
+    }
+
+    /**
+     * @param n the number of bytes to skip
+     * @return the number of bytes skipped
+     */
+    @Override
+    public long skip( long n )
+    {
+        int count = (int) Math.max( 0, Math.min( n, buffer.remaining() ) );
+        buffer.position( buffer.position() + count );
+        return count;
+    }
+
+    /**
+     * @return the number of bytes left
+     */
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,67 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * The on-heap part of an element of the {@link OffHeapMemoryCache}: the key, where the record is
+ * and the time of the last access. The attributes are in the header of the record. A descriptor
+ * is not changed once it is in the map, except for the time of the last access and the
+ * referenced flag; moving a record creates a new descriptor.
+ */
+final class OffHeapElementDescriptor<K, V>
+{
+    /** The key */
+    final K key;
+
+    /** The slab of the record */
+    final Slab<K, V> slab;
+
+    /** The generation of the slab the record was written in */
+    final int generation;
+
+    /** The offset of the record in the slab */
+    final int offset;
+
+    /** The length of the record, with the header */
+    final int length;
+
+    /** The time of the last access, the only attribute that changes while the element is cached */
+    volatile long lastAccessTime;
+
+    /** Set by a hit, cleared when the record is moved */
+    volatile boolean referenced;
+
+    /**
+     * @param key the key
+     * @param slab the slab of the record
+     * @param offset the offset of the record
+     * @param length the length of the record, with the header
+     * @param lastAccessTime the time of the last access
+     */
+    OffHeapElementDescriptor( K key, Slab<K, V> slab, int offset, int length, long lastAccessTime )
+    {
+        this.key = key;
+        this.slab = slab;
+        this.generation = slab.getGeneration();
+        this.offset = offset;
+        this.length = length;
+        this.lastAccessTime = lastAccessTime;
+    }
+}
@@ -0,0 +1,867 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CacheElementSerialized;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.ElementVersionClock;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElementSerialized;
+import org.apache.commons.jcs.engine.behavior.ICacheType.CacheType;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.event.behavior.IElementEventHandler;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.io.ObjectInputStreamClassLoaderAware;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A memory cache that keeps the values outside of the Java heap, so a large cache does not add
+ * to the work of the garbage collector. The values are serialized into slabs of direct memory,
+ * behind a header with the attributes of the element. The heap holds a map from the keys to small
+ * descriptors with the slab, offset and length of the record and the time of the last access; the
+ * event handlers of the few elements that have them are kept in a second map. A hit deserializes
+ * the value straight out of direct memory and wraps it in a new element, so every hit returns a
+ * new copy of the value.
+ * <p>
+ * The size is limited in bytes by MaxMemoryBytes, 64 MB if it is not set. MaxObjects has to be
+ * greater than 0 for the region to use a memory cache at all, but does not limit this one. The
+ * direct memory is allocated one slab at a time, the VM has to allow enough of it
+ * (-XX:MaxDirectMemorySize).
+ * <p>
+ * Records are appended to the current slab. Once all slabs are allocated, the slab that was
+ * filled first is reset and filled again. Its records that were hit since they were written get a
+ * second chance and are copied to the start of the slab, the others are spooled to disk if the
+ * cache hub is configured to use a disk cache. Records that were replaced or removed leave a hole
+ * until their slab is reset. A value whose record does not fit in a slab is spooled right away.
+ */
+public class OffHeapMemoryCache<K, V>
+    extends AbstractMemoryCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( OffHeapMemoryCache.class );
+
+    /** The number of bytes if MaxMemoryBytes is not set */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** The largest slab */
+    public static final int MAX_SLAB_SIZE = 1024 * 1024;
+
+    /** The smallest slab */
+    public static final int MIN_SLAB_SIZE = 4 * 1024;
+
+    /** Small budgets are split into at least this many slabs, so a reset frees a part of the cache */
+    public static final int MIN_SLABS = 8;
+
+    /** The header of a record: create time, max life, idle time, time factor, version, size and flags */
+    static final int HEADER_SIZE = 5 * 8 + 4 + 1;
+
+    /** Flag of the header */
+    private static final byte FLAG_SPOOL = 1;
+
+    /** Flag of the header */
+    private static final byte FLAG_LATERAL = 2;
+
+    /** Flag of the header */
+    private static final byte FLAG_REMOTE = 4;
+
+    /** Flag of the header */
+    private static final byte FLAG_ETERNAL = 8;
+
+    /** Flag of the header, set if the record holds the bytes of an ICacheElementSerialized */
+    private static final byte FLAG_SERIALIZED = 16;
+
+    /** Flag of the header, set if the element has event handlers */
+    private static final byte FLAG_EVENT_HANDLERS = 32;
+
+    /** Serializes the values. They are read back with an ObjectInputStream over the slab. */
+    private final IElementSerializer serializer = new StandardSerializer();
+
+    /** The descriptors of the elements */
+    private final ConcurrentMap<K, OffHeapElementDescriptor<K, V>> index =
+        new ConcurrentHashMap<K, OffHeapElementDescriptor<K, V>>();
+
+    /** The event handlers of the elements that have them, they cannot be written to a slab */
+    private final ConcurrentMap<K, ArrayList<IElementEventHandler>> eventHandlers =
+        new ConcurrentHashMap<K, ArrayList<IElementEventHandler>>();
+
+    /** The size of a slab */
+    private int slabSize;
+
+    /** The number of slabs the budget allows */
+    private int maxSlabs;
+
+    /** All allocated slabs */
+    private List<Slab<K, V>> slabs;
+
+    /** Slabs without records */
+    private Deque<Slab<K, V>> freeSlabs;
+
+    /** Filled slabs, the first one is reset next */
+    private Deque<Slab<K, V>> filledSlabs;
+
+    /** The slab records are appended to, null before the first put */
+    private Slab<K, V> current;
+
+    /** The number of bytes of the live records, guarded by the lock */
+    private long liveBytes;
+
+    /** The number of elements evicted to make room */
+    private long evictedCnt;
+
+    /** The number of records copied because they were hit */
+    private long survivorCnt;
+
+    /** The number of records that were reset or moved between the lookup and the read */
+    private final AtomicLong staleReadCnt = new AtomicLong();
+
+    /**
+     * For post reflection creation initialization.
+     * <p>
+     * @param hub
+     */
+    @Override
+    public void initialize( CompositeCache<K, V> hub )
+    {
+        super.initialize( hub );
+
+        long maxBytes = getCacheAttributes().getMaxMemoryBytes();
+        if ( maxBytes <= 0 )
+        {
+            maxBytes = DEFAULT_MAX_BYTES;
+        }
+        slabSize = (int) Math.max( MIN_SLAB_SIZE, Math.min( MAX_SLAB_SIZE, maxBytes / MIN_SLABS ) );
+        maxSlabs = (int) Math.max( 2, Math.min( Integer.MAX_VALUE, maxBytes / slabSize ) );
+        slabs = new ArrayList<Slab<K, V>>();
+        freeSlabs = new ArrayDeque<Slab<K, V>>();
+        filledSlabs = new ArrayDeque<Slab<K, V>>();
+
+        log.info( "initialized OffHeapMemoryCache for " + getCacheName() + " with " + maxSlabs + " slabs of "
+            + slabSize + " bytes" );
+    }
+
+    /**
+     * The elements are not kept in this map, but in an index of descriptors that do not extend
+     * MemoryElementDescriptor.
+     * <p>
+     * @return an empty map
+     */
+    @Override
+    public Map<K, MemoryElementDescriptor<K, V>> createMap()
+    {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Puts an item to the cache. The value is serialized before the lock is taken. If the cache
+     * is full, the oldest slab is reset.
+     * <p>
+     * @param ce the cache element
+     * @throws IOException if the value cannot be serialized
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        boolean serialized = ce instanceof ICacheElementSerialized;
+        byte[] data = serialized ? ( (ICacheElementSerialized<K, V>) ce ).getSerializedValue()
+            : serializer.serialize( ce.getVal() );
+        if ( data == null )
+        {
+            data = new byte[0];
+        }
+        IElementAttributes attributes = ce.getElementAttributes();
+        ArrayList<IElementEventHandler> handlers = attributes.getElementEventHandlers();
+        boolean hasHandlers = handlers != null && !handlers.isEmpty();
+        byte[] header = writeHeader( attributes, serialized, hasHandlers );
+        int length = header.length + data.length;
+
+        putCnt.incrementAndGet();
+
+        K key = ce.getKey();
+        boolean stored = false;
+        lock.lock();
+        try
+        {
+            removeRecord( key );
+
+            Slab<K, V> slab = length <= slabSize ? allocate( length ) : null;
+            if ( slab != null )
+            {
+                int offset = slab.write( header, data );
+                OffHeapElementDescriptor<K, V> me = new OffHeapElementDescriptor<K, V>( key, slab, offset,
+                    length, attributes.getLastAccessTime() );
+                slab.records.add( me );
+                if ( hasHandlers )
+                {
+                    eventHandlers.put( key, handlers );
+                }
+                index.put( key, me );
+                liveBytes += length;
+                stored = true;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if ( !stored )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( getCacheName() + ": record of " + length + " bytes for " + key
+                    + " does not fit in a slab, spooling" );
+            }
+            waterfal( ce );
+        }
+    }
+
+    /**
+     * Gets an item from the cache and marks it, so it survives the next reset of its slab. The
+     * element carries the time of the previous access, so the hub can check the idle time.
+     * <p>
+     * @param key identifies the item to find
+     * @return a copy of the element if found, else null
+     * @throws IOException if the value cannot be deserialized
+     */
+    @Override
+    public ICacheElement<K, V> get( K key )
+        throws IOException
+    {
+        ICacheElement<K, V> ce = read( key, true );
+
+        if ( ce != null )
+        {
+            hitCnt.incrementAndGet();
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( getCacheName() + ": OffHeapMemoryCache hit for " + key );
+            }
+        }
+        else
+        {
+            missCnt.incrementAndGet();
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( getCacheName() + ": OffHeapMemoryCache miss for " + key );
+            }
+        }
+
+        return ce;
+    }
+
+    /**
+     * Gets an item from the cache without marking it.
+     * <p>
+     * @param key identifies the item to find
+     * @return a copy of the element if found, else null
+     * @throws IOException if the value cannot be deserialized
+     */
+    @Override
+    public ICacheElement<K, V> getQuiet( K key )
+        throws IOException
+    {
+        return read( key, false );
+    }
+
+    /**
+     * This instructs the memory cache to remove the <i>numberToFree</i> elements that were
+     * written first. These will be spooled to disk if a disk auxiliary is available. Their space
+     * is reused when their slab is reset.
+     * <p>
+     * @param numberToFree
+     * @return the number that were removed. if you ask to free 5, but there are only 3, you will
+     *         get 3.
+     * @throws IOException
+     */
+    @Override
+    public int freeElements( int numberToFree )
+        throws IOException
+    {
+        int freed = 0;
+        lock.lock();
+        try
+        {
+            List<Slab<K, V>> oldestFirst = new ArrayList<Slab<K, V>>( filledSlabs );
+            if ( current != null )
+            {
+                oldestFirst.add( current );
+            }
+            for ( Iterator<Slab<K, V>> itr = oldestFirst.iterator(); itr.hasNext() && freed < numberToFree; )
+            {
+                for ( OffHeapElementDescriptor<K, V> me : itr.next().records )
+                {
+                    if ( freed >= numberToFree )
+                    {
+                        break;
+                    }
+                    if ( isLive( me ) )
+                    {
+                        evict( me );
+                        freed++;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return freed;
+    }
+
+    /**
+     * Removes an item from the cache. This method handles hierarchical removal. If the key is a
+     * String and ends with the CacheConstants.NAME_COMPONENT_DELIMITER, then all items with keys
+     * starting with the argument String will be removed.
+     * <p>
+     * @param key
+     * @return true if the removal was successful
+     * @throws IOException
+     */
+    @Override
+    public boolean remove( K key )
+        throws IOException
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "removing item for key: " + key );
+        }
+
+        boolean removed = false;
+
+        // handle partial removal
+        if ( key instanceof String && ( (String) key ).endsWith( CacheConstants.NAME_COMPONENT_DELIMITER ) )
+        {
+            // remove all keys of the same name hierarchy.
+            for ( K k : index.keySet() )
+            {
+
+                if ( k instanceof String && ( (String) k ).startsWith( key.toString() ) )
+                {
+                    removed |= removeNode( k );
+                }
+            }
+        }
+        else if ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null )
+        {
+            // remove all keys of the same name hierarchy.
+            for ( K k : index.keySet() )
+            {
+
+                if ( k instanceof GroupAttrName
+                    && ( (GroupAttrName<?>) k ).groupId.equals( ( (GroupAttrName<?>) key ).groupId ) )
+                {
+                    removed |= removeNode( k );
+                }
+            }
+        }
+        else
+        {
+            // remove single item.
+            removed = removeNode( key );
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes all of the elements and resets all slabs. The direct memory stays allocated.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public void removeAll()
+        throws IOException
+    {
+        lock.lock();
+        try
+        {
+            index.clear();
+            eventHandlers.clear();
+            for ( Slab<K, V> slab : slabs )
+            {
+                slab.lockReset();
+                try
+                {
+                    slab.reset();
+                }
+                finally
+                {
+                    slab.unlockReset();
+                }
+            }
+            freeSlabs.clear();
+            freeSlabs.addAll( slabs );
+            filledSlabs.clear();
+            current = null;
+            liveBytes = 0;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all of the elements and drops the slabs, so the direct memory is released once
+     * they are collected.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public void dispose()
+        throws IOException
+    {
+        super.dispose();
+        lock.lock();
+        try
+        {
+            slabs.clear();
+            freeSlabs.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a set of the keys for all elements in the memory cache
+     * <p>
+     * @return A set of the key type
+     */
+    @Override
+    public Set<K> getKeySet()
+    {
+        return new LinkedHashSet<K>( index.keySet() );
+    }
+
+    /**
+     * @return the number of elements
+     */
+    @Override
+    public int getSize()
+    {
+        return index.size();
+    }
+
+    /**
+     * Dump the keys and the lengths of their records for debugging.
+     */
+    @Override
+    public void dumpMap()
+    {
+        log.debug( "dumpingMap" );
+        for ( OffHeapElementDescriptor<K, V> me : index.values() )
+        {
+            log.debug( "dumpMap> key=" + me.key + ", length=" + me.length );
+        }
+    }
+
+    /**
+     * This returns semi-structured information on the memory cache, such as the size, put count,
+     * hit count, miss count and the use of the direct memory.
+     * <p>
+     * @return statistics about the cache
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = super.getStatistics();
+        stats.setTypeName( "Off-Heap Memory Cache" );
+
+        List<IStatElement<?>> elems = stats.getStatElements();
+        lock.lock();
+        try
+        {
+            elems.add( new StatElement<Long>( "Memory Bytes", Long.valueOf( liveBytes ) ) );
+            elems.add( new StatElement<Long>( "Max Memory Bytes", Long.valueOf( (long) maxSlabs * slabSize ) ) );
+            elems.add( new StatElement<Long>( "Allocated Bytes", Long.valueOf( (long) slabs.size() * slabSize ) ) );
+            elems.add( new StatElement<Integer>( "Slab Size", Integer.valueOf( slabSize ) ) );
+            elems.add( new StatElement<Long>( "Evicted Count", Long.valueOf( evictedCnt ) ) );
+            elems.add( new StatElement<Long>( "Survivor Count", Long.valueOf( survivorCnt ) ) );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        elems.add( new StatElement<AtomicLong>( "Stale Reads", staleReadCnt ) );
+
+        return stats;
+    }
+
+    /**
+     * Looks up a key and reads its record. If the slab of the record was reset or compacted
+     * between the lookup and the read, the lookup is repeated: a record that survived is found at
+     * its new place.
+     * <p>
+     * @param key the key
+     * @param touch whether to mark the element and set the time of the last access
+     * @return the element, or null if the key is not in the cache
+     * @throws IOException if the value cannot be deserialized
+     */
+    private ICacheElement<K, V> read( K key, boolean touch )
+        throws IOException
+    {
+        OffHeapElementDescriptor<K, V> me = index.get( key );
+        while ( me != null )
+        {
+            ICacheElement<K, V> ce = readElement( me );
+            if ( ce != null )
+            {
+                if ( touch )
+                {
+                    me.referenced = true;
+                    me.lastAccessTime = System.currentTimeMillis();
+                }
+                return ce;
+            }
+
+            staleReadCnt.incrementAndGet();
+            OffHeapElementDescriptor<K, V> latest = index.get( key );
+            me = latest == me ? null : latest;
+        }
+        return null;
+    }
+
+    /**
+     * Turns the record of a descriptor into an element. The attributes are read from the header
+     * and the value is deserialized straight from direct memory, while the read lock of the slab
+     * keeps a reset out.
+     * <p>
+     * @param me the descriptor
+     * @return the element, or null if the slab of the record was reset in the meantime
+     * @throws IOException if the value cannot be deserialized
+     */
+    private ICacheElement<K, V> readElement( OffHeapElementDescriptor<K, V> me )
+        throws IOException
+    {
+        ByteBuffer record = me.slab.lockRecord( me.generation, me.offset, me.length );
+        if ( record == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            ElementAttributes attributes = new ElementAttributes();
+            attributes.setCreateTime( record.getLong() );
+            attributes.setMaxLife( record.getLong() );
+            attributes.setIdleTime( record.getLong() );
+            attributes.setTimeFactorForMilliseconds( record.getLong() );
+            attributes.setVersion( record.getLong() );
+            attributes.setSize( record.getInt() );
+            byte flags = record.get();
+            attributes.setIsSpool( ( flags & FLAG_SPOOL ) != 0 );
+            attributes.setIsLateral( ( flags & FLAG_LATERAL ) != 0 );
+            attributes.setIsRemote( ( flags & FLAG_REMOTE ) != 0 );
+            attributes.setIsEternal( ( flags & FLAG_ETERNAL ) != 0 );
+            attributes.setLastAccessTime( me.lastAccessTime );
+            if ( ( flags & FLAG_EVENT_HANDLERS ) != 0 )
+            {
+                attributes.addElementEventHandlers( eventHandlers.get( me.key ) );
+            }
+
+            if ( ( flags & FLAG_SERIALIZED ) != 0 )
+            {
+                byte[] data = new byte[record.remaining()];
+                record.get( data );
+                return new CacheElementSerialized<K, V>( getCacheName(), me.key, data, attributes );
+            }
+
+            ObjectInputStream ois = new ObjectInputStreamClassLoaderAware( new ByteBufferInputStream( record ), null );
+            try
+            {
+                @SuppressWarnings("unchecked") // Need to cast from Object
+                V value = (V) ois.readObject();
+                return new CacheElement<K, V>( getCacheName(), me.key, value, attributes );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                throw new IOException( "Could not deserialize the value for key " + me.key, e );
+            }
+            finally
+            {
+                ois.close();
+            }
+        }
+        finally
+        {
+            me.slab.unlockRecord();
+        }
+    }
+
+    /**
+     * @param attributes the attributes of an element
+     * @param serialized true if the record holds the bytes of an ICacheElementSerialized
+     * @param hasHandlers true if the element has event handlers
+     * @return the header of its record
+     */
+    private static byte[] writeHeader( IElementAttributes attributes, boolean serialized, boolean hasHandlers )
+    {
+        int flags = ( attributes.getIsSpool() ? FLAG_SPOOL : 0 ) | ( attributes.getIsLateral() ? FLAG_LATERAL : 0 )
+            | ( attributes.getIsRemote() ? FLAG_REMOTE : 0 ) | ( attributes.getIsEternal() ? FLAG_ETERNAL : 0 )
+            | ( serialized ? FLAG_SERIALIZED : 0 ) | ( hasHandlers ? FLAG_EVENT_HANDLERS : 0 );
+
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        header.putLong( attributes.getCreateTime() );
+        header.putLong( attributes.getMaxLife() );
+        header.putLong( attributes.getIdleTime() );
+        header.putLong( attributes.getTimeFactorForMilliseconds() );
+        header.putLong( ElementVersionClock.getVersion( attributes ) );
+        header.putInt( attributes.getSize() );
+        header.put( (byte) flags );
+        return header.array();
+    }
+
+    /**
+     * @param me a descriptor
+     * @return true if the descriptor is the one in the map. Called under the lock.
+     */
+    private boolean isLive( OffHeapElementDescriptor<K, V> me )
+    {
+        return index.get( me.key ) == me;
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key was in the cache
+     */
+    private boolean removeNode( K key )
+    {
+        lock.lock();
+        try
+        {
+            return removeRecord( key );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a key from the map. Its record stays in its slab until the slab is reset. Called
+     * under the lock.
+     * <p>
+     * @param key the key
+     * @return true if the key was in the cache
+     */
+    private boolean removeRecord( K key )
+    {
+        OffHeapElementDescriptor<K, V> old = index.remove( key );
+        eventHandlers.remove( key );
+        if ( old != null )
+        {
+            liveBytes -= old.length;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds a slab with room for a record, resetting the oldest slabs if all are allocated.
+     * Called under the lock.
+     * <p>
+     * @param length the length of the record, at most the slab size
+     * @return the slab, or null if no direct memory could be allocated
+     */
+    private Slab<K, V> allocate( int length )
+    {
+        int resets = 0;
+        while ( current == null || !current.fits( length ) )
+        {
+            if ( current != null )
+            {
+                filledSlabs.addLast( current );
+                current = null;
+            }
+
+            if ( !freeSlabs.isEmpty() )
+            {
+                current = freeSlabs.removeFirst();
+            }
+            else if ( slabs.size() < maxSlabs )
+            {
+                current = newSlab();
+            }
+            else if ( !filledSlabs.isEmpty() )
+            {
+                // after a full round the records that survived once have to go
+                current = reset( filledSlabs.removeFirst(), resets++ < maxSlabs );
+            }
+            else
+            {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return a new slab, or null if the direct memory is exhausted
+     */
+    private Slab<K, V> newSlab()
+    {
+        try
+        {
+            Slab<K, V> slab = new Slab<K, V>( slabSize );
+            slabs.add( slab );
+            return slab;
+        }
+        catch ( OutOfMemoryError e )
+        {
+            log.warn( getCacheName() + ": could not allocate a slab of " + slabSize + " bytes of direct memory, "
+                + "limiting the cache to " + slabs.size() + " slabs", e );
+            maxSlabs = slabs.size();
+            return null;
+        }
+    }
+
+    /**
+     * Resets a slab. Its live records that were hit are copied to the start of the slab if
+     * secondChance is set, the others are evicted. Readers of the slab wait until the map points
+     * to the new places of the survivors, so they find them when they look again. Called under
+     * the lock.
+     * <p>
+     * @param slab the oldest slab
+     * @param secondChance whether records that were hit are kept
+     * @return the slab
+     */
+    private Slab<K, V> reset( Slab<K, V> slab, boolean secondChance )
+    {
+        slab.lockReset();
+        try
+        {
+            List<OffHeapElementDescriptor<K, V>> survivors = new ArrayList<OffHeapElementDescriptor<K, V>>();
+            List<byte[]> survivorData = new ArrayList<byte[]>();
+
+            for ( OffHeapElementDescriptor<K, V> me : slab.records )
+            {
+                if ( !isLive( me ) )
+                {
+                    continue;
+                }
+
+                if ( secondChance && me.referenced )
+                {
+                    survivors.add( me );
+                    survivorData.add( slab.copy( me.offset, me.length ) );
+                }
+                else
+                {
+                    evict( me );
+                }
+            }
+
+            slab.reset();
+
+            for ( int i = 0; i < survivors.size(); i++ )
+            {
+                OffHeapElementDescriptor<K, V> old = survivors.get( i );
+                int offset = slab.write( survivorData.get( i ) );
+                OffHeapElementDescriptor<K, V> moved = new OffHeapElementDescriptor<K, V>( old.key, slab, offset,
+                    old.length, old.lastAccessTime );
+                slab.records.add( moved );
+                index.put( old.key, moved );
+                survivorCnt++;
+            }
+        }
+        finally
+        {
+            slab.unlockReset();
+        }
+
+        return slab;
+    }
+
+    /**
+     * Removes a live record from the map and spools its element. The element is only read back
+     * if something will receive it: a disk cache or the event handlers of the element. Called
+     * under the lock.
+     * <p>
+     * @param me the descriptor
+     */
+    private void evict( OffHeapElementDescriptor<K, V> me )
+    {
+        if ( hasDiskCache() || eventHandlers.containsKey( me.key ) )
+        {
+            try
+            {
+                ICacheElement<K, V> toSpool = readElement( me );
+                if ( toSpool != null )
+                {
+                    getCompositeCache().spoolToDisk( toSpool );
+                }
+            }
+            catch ( IOException e )
+            {
+                log.warn( "Could not read the element for key " + me.key, e );
+            }
+        }
+
+        removeRecord( me.key );
+        evictedCnt++;
+    }
+
+    /**
+     * @return true if the cache hub has a disk cache
+     */
+    private boolean hasDiskCache()
+    {
+        for ( AuxiliaryCache<K, V> aux : getCompositeCache().getAuxCaches() )
+        {
+            if ( aux != null && aux.getCacheType() == CacheType.DISK_CACHE )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
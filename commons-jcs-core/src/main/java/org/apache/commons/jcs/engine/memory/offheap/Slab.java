@@ -0,0 +1,186 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed size block of direct memory that records are appended to. A slab is never written in
+ * place; it is reset as a whole and filled again, and every reset starts a new generation, so a
+ * descriptor can tell whether its record is still there.
+ * <p>
+ * Appends, resets and the list of records are guarded by the lock of the memory cache. Readers
+ * do not take that lock. They hold the read lock of the slab while they deserialize straight
+ * from the direct memory, and a reset waits for them. Appends do not touch the bytes of earlier
+ * records, so readers and the appending thread each work on their own view of the buffer.
+ */
+class Slab<K, V>
+{
+    /** The direct memory, only positioned by the thread that holds the lock of the memory cache */
+    private final ByteBuffer buffer;
+
+    /** Readers of records share it, a reset takes it exclusively */
+    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+    /** The records written since the last reset, live or not */
+    final List<OffHeapElementDescriptor<K, V>> records = new ArrayList<OffHeapElementDescriptor<K, V>>();
+
+    /** Incremented by every reset, changed under the write lock */
+    private int generation;
+
+    /** The number of bytes written since the last reset */
+    private int used;
+
+    /**
+     * @param size the number of bytes of direct memory
+     */
+    Slab( int size )
+    {
+        this.buffer = ByteBuffer.allocateDirect( size );
+    }
+
+    /**
+     * @param length the length of a record
+     * @return true if the record fits in the space that is left
+     */
+    boolean fits( int length )
+    {
+        return buffer.capacity() - used >= length;
+    }
+
+    /**
+     * @return the current generation
+     */
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Appends a record. The caller checks that it fits.
+     * <p>
+     * @param header the header of the record
+     * @param value the serialized value
+     * @return the offset of the record
+     */
+    int write( byte[] header, byte[] value )
+    {
+        int offset = used;
+        buffer.position( offset );
+        buffer.put( header );
+        buffer.put( value );
+        used += header.length + value.length;
+        return offset;
+    }
+
+    /**
+     * Copies a whole record, to move it to the start of the slab after a reset. Called with the
+     * write lock held.
+     * <p>
+     * @param offset the offset of the record
+     * @param length the length of the record
+     * @return the record
+     */
+    byte[] copy( int offset, int length )
+    {
+        byte[] record = new byte[length];
+        buffer.position( offset );
+        buffer.get( record );
+        return record;
+    }
+
+    /**
+     * Appends a record that was copied out of a slab. The caller checks that it fits.
+     * <p>
+     * @param record the record
+     * @return the offset of the record
+     */
+    int write( byte[] record )
+    {
+        int offset = used;
+        buffer.position( offset );
+        buffer.put( record );
+        used += record.length;
+        return offset;
+    }
+
+    /**
+     * Takes the read lock and returns a view of a record, if the slab was not reset since the
+     * record was written. The caller has to call {@link #unlockRecord()} when it is done with
+     * the view, unless null was returned.
+     * <p>
+     * @param recordGeneration the generation the record was written in
+     * @param offset the offset of the record
+     * @param length the length of the record
+     * @return a view from the start to the end of the record, or null if the record is gone
+     */
+    ByteBuffer lockRecord( int recordGeneration, int offset, int length )
+    {
+        readWriteLock.readLock().lock();
+        if ( recordGeneration != generation )
+        {
+            readWriteLock.readLock().unlock();
+            return null;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit( offset + length );
+        view.position( offset );
+        return view;
+    }
+
+    /**
+     * Releases the read lock taken by {@link #lockRecord(int, int, int)}.
+     */
+    void unlockRecord()
+    {
+        readWriteLock.readLock().unlock();
+    }
+
+    /**
+     * Waits for the readers and keeps new ones out until {@link #unlockReset()}. Called under the
+     * lock of the memory cache, before the records of the slab are evicted or copied.
+     */
+    void lockReset()
+    {
+        readWriteLock.writeLock().lock();
+    }
+
+    /**
+     * Lets readers in again, after the map points to the new places of the records.
+     */
+    void unlockReset()
+    {
+        readWriteLock.writeLock().unlock();
+    }
+
+    /**
+     * Drops all records. Called between {@link #lockReset()} and {@link #unlockReset()}.
+     */
+    void reset()
+    {
+        generation++;
+        used = 0;
+        records.clear();
+    }
+}
@@ -0,0 +1,171 @@
+package org.apache.commons.jcs.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * A count-min sketch that estimates how often a key was seen, with 4 bit counters. A long holds
+ * sixteen counters in four groups of four. Each key has four counters: each of the four hash
+ * functions picks a long, and the key uses counter i of the same group in the long of hash
+ * function i. The estimate is the smallest of them, so it may be too high but never too low.
+ * Once the number of increments reaches ten times the size of the cache all counters are halved,
+ * so the estimates follow changes in the access pattern.
+ * <p>
+ * This class is not thread safe, the cache guards it with its lock.
+ */
+class FrequencySketch
+{
+    /** Seeds of the four hash functions */
+    private static final long[] SEED = new long[] { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** Keeps the upper three bits of every counter after a shift */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** The lowest bit of every counter */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** The largest value of a counter */
+    private static final int MAX_COUNT = 15;
+
+    /** The largest table */
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    /** Sixteen counters per long */
+    private final long[] table;
+
+    /** The table size minus one */
+    private final int tableMask;
+
+    /** The number of increments after which the counters are halved */
+    private final int sampleSize;
+
+    /** The number of increments since the last halving */
+    private int size;
+
+    /**
+     * @param maximumSize the maximum number of elements in the cache
+     */
+    FrequencySketch( int maximumSize )
+    {
+        int maximum = Math.max( 1, maximumSize );
+        int tableSize = 1;
+        while ( tableSize < maximum && tableSize < MAX_TABLE_SIZE )
+        {
+            tableSize <<= 1;
+        }
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = (int) Math.min( 10L * maximum, Integer.MAX_VALUE );
+    }
+
+    /**
+     * @param key the key
+     * @return the estimated number of times the key was seen, at most 15
+     */
+    int frequency( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+        int frequency = MAX_COUNT;
+        for ( int i = 0; i < 4; i++ )
+        {
+            int count = (int) ( ( table[indexOf( hash, i )] >>> ( ( start + i ) << 2 ) ) & 0xfL );
+            frequency = Math.min( frequency, count );
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one more occurrence of the key, unless its counters are already at the maximum.
+     * <p>
+     * @param key the key
+     */
+    void increment( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+        boolean added = false;
+        for ( int i = 0; i < 4; i++ )
+        {
+            added |= incrementAt( indexOf( hash, i ), start + i );
+        }
+
+        if ( added && ++size >= sampleSize )
+        {
+            reset();
+        }
+    }
+
+    /**
+     * @param i the index in the table
+     * @param j the counter in the long
+     * @return true if the counter was not at the maximum
+     */
+    private boolean incrementAt( int i, int j )
+    {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ( ( table[i] & mask ) != mask )
+        {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves every counter. The odd counters lose their remainder, which is taken off the size.
+     */
+    private void reset()
+    {
+        int odd = 0;
+        for ( int i = 0; i < table.length; i++ )
+        {
+            odd += Long.bitCount( table[i] & ONE_MASK );
+            table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+        }
+        size = ( size >>> 1 ) - ( odd >>> 2 );
+    }
+
+    /**
+     * @param hash the spread hash of the key
+     * @param i the hash function
+     * @return the index in the table
+     */
+    private int indexOf( int hash, int i )
+    {
+        long h = ( hash + SEED[i] ) * SEED[i];
+        h += h >>> 32;
+        return ( (int) h ) & tableMask;
+    }
+
+    /**
+     * Mixes the bits of a hash code, as many keys have poor ones.
+     * <p>
+     * @param x the hash code
+     * @return the mixed hash
+     */
+    private static int spread( int x )
+    {
+        int h = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+        h = ( ( h >>> 16 ) ^ h ) * 0x45d9f3b;
+        return ( h >>> 16 ) ^ h;
+    }
+}
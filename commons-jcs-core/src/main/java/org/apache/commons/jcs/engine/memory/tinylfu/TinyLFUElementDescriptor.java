@@ -0,0 +1,46 @@
+package org.apache.commons.jcs.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.memory.util.DefaultMemoryElementDescriptor;
+
+/**
+ * A descriptor that knows which segment of the cache holds it.
+ */
+class TinyLFUElementDescriptor<K, V>
+    extends DefaultMemoryElementDescriptor<K, V>
+{
+    /** Don't change */
+    private static final long serialVersionUID = 6180404155466211226L;
+
+    /** The segment of the cache */
+    int segment;
+
+    /**
+     * @param ce the element
+     * @param segment the segment of the cache
+     */
+    TinyLFUElementDescriptor( ICacheElement<K, V> ce, int segment )
+    {
+        super( ce );
+        this.segment = segment;
+    }
+}
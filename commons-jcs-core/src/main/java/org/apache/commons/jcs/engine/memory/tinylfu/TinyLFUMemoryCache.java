@@ -0,0 +1,575 @@
+package org.apache.commons.jcs.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.struct.DoubleLinkedList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A memory cache that keeps the elements that are used often rather than the ones that were used
+ * last, so a scan of keys that are used once does not flush the working set (W-TinyLFU).
+ * <p>
+ * New elements enter a small LRU window of 1% of MaxObjects. The element that falls out of the
+ * window is a candidate for the main space, a segmented LRU of a probation and a protected segment.
+ * It is admitted only if a {@link FrequencySketch} of the recent accesses estimates that it is
+ * used more often than the last element of probation, otherwise it is spooled. Elements that are
+ * hit in probation move to the protected segment, which holds up to 80% of the main space. The
+ * last element of a full protected segment goes back to probation.
+ * <p>
+ * The elements that lose are spooled to disk if the cache hub is configured to use a disk cache,
+ * like the elements that fall out of the LRU.
+ */
+public class TinyLFUMemoryCache<K, V>
+    extends AbstractMemoryCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( TinyLFUMemoryCache.class );
+
+    /** The share of MaxObjects in the window, in percent */
+    public static final int WINDOW_PERCENT = 1;
+
+    /** The share of the main space in the protected segment, in percent */
+    public static final int PROTECTED_PERCENT = 80;
+
+    /** The segments */
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+
+    /** New elements, most recently used first */
+    private DoubleLinkedList<TinyLFUElementDescriptor<K, V>> window;
+
+    /** Admitted elements that were not hit since, most recently used first */
+    private DoubleLinkedList<TinyLFUElementDescriptor<K, V>> probation;
+
+    /** Admitted elements that were hit, most recently used first */
+    private DoubleLinkedList<TinyLFUElementDescriptor<K, V>> protectedSegment;
+
+    /** The access frequencies, guarded by the lock */
+    private FrequencySketch sketch;
+
+    /** The number of candidates that were admitted to the main space */
+    private long admittedCnt;
+
+    /** The number of candidates that were rejected */
+    private long rejectedCnt;
+
+    /**
+     * For post reflection creation initialization.
+     * <p>
+     * @param hub
+     */
+    @Override
+    public void initialize( CompositeCache<K, V> hub )
+    {
+        super.initialize( hub );
+        window = new DoubleLinkedList<TinyLFUElementDescriptor<K, V>>();
+        probation = new DoubleLinkedList<TinyLFUElementDescriptor<K, V>>();
+        protectedSegment = new DoubleLinkedList<TinyLFUElementDescriptor<K, V>>();
+        sketch = new FrequencySketch( getCacheAttributes().getMaxObjects() );
+        log.info( "initialized TinyLFUMemoryCache for " + getCacheName() );
+    }
+
+    /**
+     * @return new ConcurrentHashMap()
+     */
+    @Override
+    public ConcurrentMap<K, MemoryElementDescriptor<K, V>> createMap()
+    {
+        return new ConcurrentHashMap<K, MemoryElementDescriptor<K, V>>();
+    }
+
+    /**
+     * Puts an item to the cache. A new element enters the window, an element that replaces
+     * another one takes its place and counts as a hit. If the cache is full, an element is
+     * spooled.
+     * <p>
+     * @param ce the cache element
+     * @throws IOException
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        putCnt.incrementAndGet();
+
+        lock.lock();
+        try
+        {
+            K key = ce.getKey();
+            sketch.increment( key );
+
+            TinyLFUElementDescriptor<K, V> oldNode = getNode( key );
+            if ( oldNode != null )
+            {
+                TinyLFUElementDescriptor<K, V> newNode = new TinyLFUElementDescriptor<K, V>( ce, oldNode.segment );
+                DoubleLinkedList<TinyLFUElementDescriptor<K, V>> segment = segmentOf( oldNode );
+                segment.remove( oldNode );
+                segment.addFirst( newNode );
+                map.put( key, newNode );
+                onHit( newNode );
+            }
+            else
+            {
+                TinyLFUElementDescriptor<K, V> newNode = new TinyLFUElementDescriptor<K, V>( ce, WINDOW );
+                window.addFirst( newNode );
+                map.put( key, newNode );
+                evictIfNeeded();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets an item from the cache. The access is counted in the sketch, even for a miss.
+     * <p>
+     * @param key identifies the item to find
+     * @return ICacheElement&lt;K, V&gt; if found, else null
+     * @throws IOException
+     */
+    @Override
+    public ICacheElement<K, V> get( K key )
+        throws IOException
+    {
+        ICacheElement<K, V> ce = null;
+
+        lock.lock();
+        try
+        {
+            sketch.increment( key );
+
+            TinyLFUElementDescriptor<K, V> node = getNode( key );
+            if ( node != null )
+            {
+                ce = node.getCacheElement();
+                onHit( node );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if ( ce != null )
+        {
+            hitCnt.incrementAndGet();
+
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( getCacheName() + ": TinyLFUMemoryCache hit for " + key );
+            }
+        }
+        else
+        {
+            missCnt.incrementAndGet();
+
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( getCacheName() + ": TinyLFUMemoryCache miss for " + key );
+            }
+        }
+
+        return ce;
+    }
+
+    /**
+     * This instructs the memory cache to remove the <i>numberToFree</i> elements that would be
+     * evicted next. These will be spooled to disk if a disk auxiliary is available.
+     * <p>
+     * @param numberToFree
+     * @return the number that were removed. if you ask to free 5, but there are only 3, you will
+     *         get 3.
+     * @throws IOException
+     */
+    @Override
+    public int freeElements( int numberToFree )
+        throws IOException
+    {
+        int freed = 0;
+
+        lock.lock();
+        try
+        {
+            for ( ; freed < numberToFree; freed++ )
+            {
+                TinyLFUElementDescriptor<K, V> victim = probation.getLast();
+                if ( victim == null )
+                {
+                    victim = protectedSegment.getLast();
+                }
+                if ( victim == null )
+                {
+                    victim = window.getLast();
+                }
+                if ( victim == null )
+                {
+                    break;
+                }
+                spool( victim );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return freed;
+    }
+
+    /**
+     * Removes an item from the cache. This method handles hierarchical removal. If the key is a
+     * String and ends with the CacheConstants.NAME_COMPONENT_DELIMITER, then all items with keys
+     * starting with the argument String will be removed.
+     * <p>
+     * @param key
+     * @return true if the removal was successful
+     * @throws IOException
+     */
+    @Override
+    public boolean remove( K key )
+        throws IOException
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "removing item for key: " + key );
+        }
+
+        boolean removed = false;
+
+        // handle partial removal
+        if ( key instanceof String && ( (String) key ).endsWith( CacheConstants.NAME_COMPONENT_DELIMITER ) )
+        {
+            // remove all keys of the same name hierarchy.
+            for ( Iterator<Map.Entry<K, MemoryElementDescriptor<K, V>>> itr = map.entrySet().iterator(); itr.hasNext(); )
+            {
+                Map.Entry<K, MemoryElementDescriptor<K, V>> entry = itr.next();
+                K k = entry.getKey();
+
+                if ( k instanceof String && ( (String) k ).startsWith( key.toString() ) )
+                {
+                    removed |= removeNode( k );
+                }
+            }
+        }
+        else if ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null )
+        {
+            // remove all keys of the same name hierarchy.
+            for ( Iterator<Map.Entry<K, MemoryElementDescriptor<K, V>>> itr = map.entrySet().iterator(); itr.hasNext(); )
+            {
+                Map.Entry<K, MemoryElementDescriptor<K, V>> entry = itr.next();
+                K k = entry.getKey();
+
+                if ( k instanceof GroupAttrName
+                    && ( (GroupAttrName<?>) k ).groupId.equals( ( (GroupAttrName<?>) key ).groupId ) )
+                {
+                    removed |= removeNode( k );
+                }
+            }
+        }
+        else
+        {
+            // remove single item.
+            removed = removeNode( key );
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes all of the elements from the map and the segments. The sketch keeps its counts.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public void removeAll()
+        throws IOException
+    {
+        lock.lock();
+        try
+        {
+            window.removeAll();
+            probation.removeAll();
+            protectedSegment.removeAll();
+            map.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a set of the keys for all elements in the memory cache
+     * <p>
+     * @return A set of the key type
+     */
+    @Override
+    public Set<K> getKeySet()
+    {
+        return new LinkedHashSet<K>( map.keySet() );
+    }
+
+    /**
+     * This returns semi-structured information on the memory cache, such as the size, put count,
+     * hit count, miss count and the sizes of the segments.
+     * <p>
+     * @return statistics about the cache
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = super.getStatistics();
+        stats.setTypeName( "TinyLFU Memory Cache" );
+
+        List<IStatElement<?>> elems = stats.getStatElements();
+
+        lock.lock();
+        try
+        {
+            elems.add( new StatElement<Integer>( "Window Size", Integer.valueOf( window.size() ) ) );
+            elems.add( new StatElement<Integer>( "Probation Size", Integer.valueOf( probation.size() ) ) );
+            elems.add( new StatElement<Integer>( "Protected Size", Integer.valueOf( protectedSegment.size() ) ) );
+            elems.add( new StatElement<Long>( "Admitted Count", Long.valueOf( admittedCnt ) ) );
+            elems.add( new StatElement<Long>( "Rejected Count", Long.valueOf( rejectedCnt ) ) );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return stats;
+    }
+
+    /**
+     * @param key the key
+     * @return the node of the key, or null
+     */
+    private TinyLFUElementDescriptor<K, V> getNode( K key )
+    {
+        return (TinyLFUElementDescriptor<K, V>) map.get( key );
+    }
+
+    /**
+     * @param node a node in the cache
+     * @return the list of its segment
+     */
+    private DoubleLinkedList<TinyLFUElementDescriptor<K, V>> segmentOf( TinyLFUElementDescriptor<K, V> node )
+    {
+        switch ( node.segment )
+        {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedSegment;
+        }
+    }
+
+    /**
+     * Moves a node that was used to the front of its segment. A node in probation moves to the
+     * protected segment, which may push its last node back to probation. Called under the lock.
+     * <p>
+     * @param node the node
+     */
+    private void onHit( TinyLFUElementDescriptor<K, V> node )
+    {
+        if ( node.segment != PROBATION )
+        {
+            segmentOf( node ).makeFirst( node );
+            return;
+        }
+
+        probation.remove( node );
+        node.segment = PROTECTED;
+        protectedSegment.addFirst( node );
+
+        int protectedMax = getMainMax() * PROTECTED_PERCENT / 100;
+        while ( protectedSegment.size() > protectedMax )
+        {
+            TinyLFUElementDescriptor<K, V> demoted = protectedSegment.getLast();
+            protectedSegment.remove( demoted );
+            demoted.segment = PROBATION;
+            probation.addFirst( demoted );
+        }
+    }
+
+    /**
+     * Moves the nodes that no longer fit in the window to the main space, if they win against its
+     * victim, and spools the losers. Called under the lock.
+     */
+    private void evictIfNeeded()
+    {
+        int maxObjects = getCacheAttributes().getMaxObjects();
+        int mainMax = getMainMax();
+
+        while ( window.size() > getWindowMax() )
+        {
+            TinyLFUElementDescriptor<K, V> candidate = window.getLast();
+            window.remove( candidate );
+            candidate.segment = PROBATION;
+
+            if ( probation.size() + protectedSegment.size() < mainMax )
+            {
+                probation.addFirst( candidate );
+                continue;
+            }
+
+            TinyLFUElementDescriptor<K, V> victim = probation.getLast();
+            if ( victim == null )
+            {
+                victim = protectedSegment.getLast();
+            }
+
+            if ( victim != null && admit( candidate, victim ) )
+            {
+                admittedCnt++;
+                probation.addFirst( candidate );
+                spool( victim );
+            }
+            else
+            {
+                rejectedCnt++;
+                spoolDetached( candidate );
+            }
+        }
+
+        // the limits may have changed since the elements were put
+        while ( map.size() > maxObjects )
+        {
+            TinyLFUElementDescriptor<K, V> victim = probation.getLast();
+            if ( victim == null )
+            {
+                victim = protectedSegment.getLast();
+            }
+            if ( victim == null )
+            {
+                victim = window.getLast();
+            }
+            if ( victim == null )
+            {
+                break;
+            }
+            spool( victim );
+        }
+    }
+
+    /**
+     * Ties go to the victim, a candidate has to be seen more often to take its place.
+     * <p>
+     * @param candidate the node that fell out of the window
+     * @param victim the node that the main space would evict
+     * @return true if the candidate should replace the victim
+     */
+    private boolean admit( TinyLFUElementDescriptor<K, V> candidate, TinyLFUElementDescriptor<K, V> victim )
+    {
+        int candidateFreq = sketch.frequency( candidate.getCacheElement().getKey() );
+        int victimFreq = sketch.frequency( victim.getCacheElement().getKey() );
+        return candidateFreq > victimFreq;
+    }
+
+    /**
+     * Removes a node from its segment and the map and spools its element. Called under the lock.
+     * <p>
+     * @param node the node
+     */
+    private void spool( TinyLFUElementDescriptor<K, V> node )
+    {
+        segmentOf( node ).remove( node );
+        spoolDetached( node );
+    }
+
+    /**
+     * Removes a node that is in no segment from the map and spools its element. Called under the
+     * lock.
+     * <p>
+     * @param node the node
+     */
+    private void spoolDetached( TinyLFUElementDescriptor<K, V> node )
+    {
+        ICacheElement<K, V> toSpool = node.getCacheElement();
+        getCompositeCache().spoolToDisk( toSpool );
+        if ( map.remove( toSpool.getKey() ) == null )
+        {
+            log.warn( "update: remove failed for key: " + toSpool.getKey() );
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key was in the cache
+     */
+    private boolean removeNode( K key )
+    {
+        lock.lock();
+        try
+        {
+            TinyLFUElementDescriptor<K, V> node = (TinyLFUElementDescriptor<K, V>) map.remove( key );
+            if ( node != null )
+            {
+                segmentOf( node ).remove( node );
+                return true;
+            }
+            return false;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the maximum number of elements in the window, at least one
+     */
+    private int getWindowMax()
+    {
+        return Math.max( 1, getCacheAttributes().getMaxObjects() * WINDOW_PERCENT / 100 );
+    }
+
+    /**
+     * @return the maximum number of elements in probation and the protected segment together
+     */
+    private int getMainMax()
+    {
+        return Math.max( 0, getCacheAttributes().getMaxObjects() - getWindowMax() );
+    }
+}
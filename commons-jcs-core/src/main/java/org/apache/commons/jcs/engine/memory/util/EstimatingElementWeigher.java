@@ -0,0 +1,167 @@
+package org.apache.commons.jcs.engine.memory.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElementSerialized;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs.engine.memory.behavior.IElementWeigher;
+
+/**
+ * The default weigher. If the element attributes carry a size, that is the weight. Otherwise the
+ * heap size of the key and the value is estimated for strings, boxed primitives and arrays, and
+ * a fixed overhead is added for the element, its attributes and the map and list nodes. A value
+ * of any other type is weighed by its serialized size, like the
+ * {@link SerializedSizeElementWeigher} does.
+ * <p>
+ * The estimates assume a 64 bit VM with compressed references.
+ */
+public class EstimatingElementWeigher
+    implements IElementWeigher
+{
+    /** The element, its attributes, the map entry and the list node */
+    static final long ELEMENT_OVERHEAD = 200;
+
+    /** The header of an object */
+    private static final long OBJECT_HEADER = 12;
+
+    /** The header of an array, including its length */
+    private static final long ARRAY_HEADER = 16;
+
+    /** A reference */
+    private static final long REFERENCE = 4;
+
+    /**
+     * @param ce the element
+     * @return the size from the attributes, or the estimated size of the element
+     */
+    @Override
+    public long weigh( ICacheElement<?, ?> ce )
+    {
+        IElementAttributes attr = ce.getElementAttributes();
+        if ( attr != null && attr.getSize() > 0 )
+        {
+            return attr.getSize();
+        }
+
+        long valueSize;
+        if ( ce instanceof ICacheElementSerialized )
+        {
+            valueSize = ARRAY_HEADER + SerializedSizeElementWeigher.valueSize( ce );
+        }
+        else
+        {
+            Object value = ce.getVal();
+            valueSize = isEstimated( value ) ? estimate( value ) : SerializedSizeElementWeigher.serializedSize( value );
+        }
+
+        return ELEMENT_OVERHEAD + estimate( ce.getKey() ) + valueSize;
+    }
+
+    /**
+     * @param obj the object
+     * @return true if the size of the object can be estimated without serializing it
+     */
+    private static boolean isEstimated( Object obj )
+    {
+        return obj == null || obj instanceof String || obj instanceof Number || obj instanceof Boolean
+            || obj instanceof Character || obj.getClass().isArray();
+    }
+
+    /**
+     * Estimates the heap size of an object. Objects of unknown types count as an object header.
+     * <p>
+     * @param obj the object
+     * @return the estimated number of bytes
+     */
+    static long estimate( Object obj )
+    {
+        if ( obj == null )
+        {
+            return 0;
+        }
+        if ( obj instanceof String )
+        {
+            // the string and its char array
+            return align( OBJECT_HEADER + 4 + 4 + REFERENCE ) + align( ARRAY_HEADER + 2L * ( (String) obj ).length() );
+        }
+        if ( obj instanceof Long || obj instanceof Double )
+        {
+            return align( OBJECT_HEADER + 8 );
+        }
+        if ( obj instanceof Number || obj instanceof Boolean || obj instanceof Character )
+        {
+            return align( OBJECT_HEADER + 4 );
+        }
+        if ( obj instanceof byte[] )
+        {
+            return align( ARRAY_HEADER + ( (byte[]) obj ).length );
+        }
+        if ( obj instanceof boolean[] )
+        {
+            return align( ARRAY_HEADER + ( (boolean[]) obj ).length );
+        }
+        if ( obj instanceof char[] )
+        {
+            return align( ARRAY_HEADER + 2L * ( (char[]) obj ).length );
+        }
+        if ( obj instanceof short[] )
+        {
+            return align( ARRAY_HEADER + 2L * ( (short[]) obj ).length );
+        }
+        if ( obj instanceof int[] )
+        {
+            return align( ARRAY_HEADER + 4L * ( (int[]) obj ).length );
+        }
+        if ( obj instanceof float[] )
+        {
+            return align( ARRAY_HEADER + 4L * ( (float[]) obj ).length );
+        }
+        if ( obj instanceof long[] )
+        {
+            return align( ARRAY_HEADER + 8L * ( (long[]) obj ).length );
+        }
+        if ( obj instanceof double[] )
+        {
+            return align( ARRAY_HEADER + 8L * ( (double[]) obj ).length );
+        }
+        if ( obj instanceof Object[] )
+        {
+            Object[] array = (Object[]) obj;
+            long size = align( ARRAY_HEADER + REFERENCE * array.length );
+            for ( Object element : array )
+            {
+                // one level deep, nested arrays count as an object
+                size += element != null && element.getClass().isArray() ? OBJECT_HEADER : estimate( element );
+            }
+            return size;
+        }
+        return align( OBJECT_HEADER );
+    }
+
+    /**
+     * @param size a size in bytes
+     * @return the size rounded up to the 8 byte alignment of objects
+     */
+    private static long align( long size )
+    {
+        return ( size + 7 ) & ~7L;
+    }
+}
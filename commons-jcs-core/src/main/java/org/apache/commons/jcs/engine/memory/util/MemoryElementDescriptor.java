@@ -31,6 +31,9 @@ public abstract class MemoryElementDescriptor<K, V>
     /** Don't change */
     private static final long serialVersionUID = -1905161209035522460L;
 
+    /** The number of bytes the element takes, if the memory cache weighs elements */
+    private long weight;
+
     /**
      * Constructs a usable MemoryElementDescriptor.
      * <p>
@@ -46,4 +49,20 @@ public abstract class MemoryElementDescriptor<K, V>
      * @return the cache element
      */
     public abstract ICacheElement<K, V> getCacheElement();
+
+    /**
+     * @return the number of bytes the element takes, 0 if the memory cache does not weigh elements
+     */
+    public long getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * @param weight the number of bytes the element takes
+     */
+    public void setWeight( long weight )
+    {
+        this.weight = weight;
+    }
 }
@@ -0,0 +1,100 @@
+package org.apache.commons.jcs.engine.memory.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import org.apache.commons.jcs.admin.CountingOnlyOutputStream;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElementSerialized;
+import org.apache.commons.jcs.engine.memory.behavior.IElementWeigher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Weighs an element by the serialized size of its value, measured the way the admin bean does,
+ * plus a fixed overhead for the element, its attributes and its key. This is accurate for values
+ * of any type, but every put pays for a serialization.
+ */
+public class SerializedSizeElementWeigher
+    implements IElementWeigher
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( SerializedSizeElementWeigher.class );
+
+    /**
+     * @param ce the element
+     * @return the serialized size of the value plus the overhead of the element
+     */
+    @Override
+    public long weigh( ICacheElement<?, ?> ce )
+    {
+        return EstimatingElementWeigher.ELEMENT_OVERHEAD + EstimatingElementWeigher.estimate( ce.getKey() )
+            + valueSize( ce );
+    }
+
+    /**
+     * @param ce the element
+     * @return the serialized size of the value
+     */
+    static long valueSize( ICacheElement<?, ?> ce )
+    {
+        if ( ce instanceof ICacheElementSerialized )
+        {
+            byte[] value = ( (ICacheElementSerialized<?, ?>) ce ).getSerializedValue();
+            return value == null ? 0 : value.length;
+        }
+        return serializedSize( ce.getVal() );
+    }
+
+    /**
+     * @param value the value
+     * @return the number of bytes an ObjectOutputStream writes for the value, without the stream
+     *         header, or 0 if it cannot be serialized
+     */
+    static long serializedSize( Object value )
+    {
+        CountingOnlyOutputStream counter = new CountingOnlyOutputStream();
+        try
+        {
+            ObjectOutputStream out = new ObjectOutputStream( counter );
+            try
+            {
+                out.writeObject( value );
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Could not measure the serialized size of " + value.getClass(), e );
+            }
+            return 0;
+        }
+
+        // 4 bytes lost for the serialization header
+        return counter.getCount() - 4;
+    }
+}
@@ -0,0 +1,356 @@
+package org.apache.commons.jcs.utils.serialization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+
+/**
+ * Reads the data written by a {@link BinaryOutputBuffer} from a byte array.
+ */
+class BinaryInputBuffer
+    extends InputStream
+    implements ObjectInput
+{
+    /** The serializer for nested objects */
+    private final BinarySerializer serializer;
+
+    /** The class loader for objects that fall back to standard serialization, may be null */
+    private final ClassLoader loader;
+
+    /** The data */
+    private final byte[] buf;
+
+    /** The read position */
+    private int pos;
+
+    /** The end of the data */
+    private final int end;
+
+    /**
+     * @param serializer the serializer for nested objects
+     * @param buf the data
+     * @param loader the class loader, may be null
+     */
+    BinaryInputBuffer( BinarySerializer serializer, byte[] buf, ClassLoader loader )
+    {
+        this.serializer = serializer;
+        this.buf = buf;
+        this.loader = loader;
+        this.pos = 0;
+        this.end = buf.length;
+    }
+
+    /**
+     * @return the class loader, may be null
+     */
+    ClassLoader getClassLoader()
+    {
+        return loader;
+    }
+
+    /**
+     * Checks that enough bytes are left.
+     * <p>
+     * @param needed the number of bytes to be read
+     * @throws EOFException
+     */
+    private void require( int needed )
+        throws EOFException
+    {
+        if ( needed < 0 || end - pos < needed )
+        {
+            throw new EOFException( "Need " + needed + " bytes at position " + pos + " of " + end );
+        }
+    }
+
+    /**
+     * Returns a stream over the next bytes and skips them.
+     * <p>
+     * @param length the number of bytes
+     * @return the stream
+     * @throws EOFException
+     */
+    InputStream slice( int length )
+        throws EOFException
+    {
+        require( length );
+        InputStream slice = new ByteArrayInputStream( buf, pos, length );
+        pos += length;
+        return slice;
+    }
+
+    /**
+     * @return an unsigned variable length integer
+     * @throws IOException
+     */
+    int readVarInt()
+        throws IOException
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 35; shift += 7 )
+        {
+            int b = readUnsignedByte();
+            value |= ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed variable length integer" );
+    }
+
+    /**
+     * @return an unsigned variable length long
+     * @throws IOException
+     */
+    long readVarLong()
+        throws IOException
+    {
+        long value = 0;
+        for ( int shift = 0; shift < 70; shift += 7 )
+        {
+            int b = readUnsignedByte();
+            value |= (long) ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed variable length long" );
+    }
+
+    /**
+     * @return a string written by {@link BinaryOutputBuffer#writeString(String)}
+     * @throws IOException
+     */
+    String readString()
+        throws IOException
+    {
+        int length = readVarInt();
+        require( length );
+        char[] chars = new char[length];
+
+        for ( int i = 0; i < length; i++ )
+        {
+            int b = buf[pos++] & 0xFF;
+            if ( b < 0x80 )
+            {
+                chars[i] = (char) b;
+            }
+            else if ( ( b & 0xE0 ) == 0xC0 )
+            {
+                require( 1 );
+                chars[i] = (char) ( ( b & 0x1F ) << 6 | buf[pos++] & 0x3F );
+            }
+            else
+            {
+                require( 2 );
+                chars[i] = (char) ( ( b & 0x0F ) << 12 | ( buf[pos++] & 0x3F ) << 6 | buf[pos++] & 0x3F );
+            }
+        }
+
+        return new String( chars );
+    }
+
+    /**
+     * Reads an object using the fast paths and codecs of the serializer.
+     * <p>
+     * @return the object, may be null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public Object readObject()
+        throws IOException, ClassNotFoundException
+    {
+        return serializer.readValue( this );
+    }
+
+    @Override
+    public int read()
+    {
+        return pos < end ? buf[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len )
+    {
+        if ( pos >= end )
+        {
+            return -1;
+        }
+        int n = Math.min( len, end - pos );
+        System.arraycopy( buf, pos, b, off, n );
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip( long n )
+    {
+        int skipped = (int) Math.max( 0, Math.min( n, end - pos ) );
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return end - pos;
+    }
+
+    @Override
+    public void readFully( byte[] b )
+        throws IOException
+    {
+        readFully( b, 0, b.length );
+    }
+
+    @Override
+    public void readFully( byte[] b, int off, int len )
+        throws IOException
+    {
+        require( len );
+        System.arraycopy( buf, pos, b, off, len );
+        pos += len;
+    }
+
+    @Override
+    public int skipBytes( int n )
+    {
+        return (int) skip( n );
+    }
+
+    @Override
+    public boolean readBoolean()
+        throws IOException
+    {
+        return readUnsignedByte() != 0;
+    }
+
+    @Override
+    public byte readByte()
+        throws IOException
+    {
+        require( 1 );
+        return buf[pos++];
+    }
+
+    @Override
+    public int readUnsignedByte()
+        throws IOException
+    {
+        require( 1 );
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public short readShort()
+        throws IOException
+    {
+        require( 2 );
+        return (short) ( ( buf[pos++] & 0xFF ) << 8 | buf[pos++] & 0xFF );
+    }
+
+    @Override
+    public int readUnsignedShort()
+        throws IOException
+    {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar()
+        throws IOException
+    {
+        return (char) readShort();
+    }
+
+    @Override
+    public int readInt()
+        throws IOException
+    {
+        require( 4 );
+        return ( buf[pos++] & 0xFF ) << 24 | ( buf[pos++] & 0xFF ) << 16 | ( buf[pos++] & 0xFF ) << 8
+            | buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public long readLong()
+        throws IOException
+    {
+        return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public float readFloat()
+        throws IOException
+    {
+        return Float.intBitsToFloat( readInt() );
+    }
+
+    @Override
+    public double readDouble()
+        throws IOException
+    {
+        return Double.longBitsToDouble( readLong() );
+    }
+
+    @Override
+    public String readLine()
+    {
+        if ( pos >= end )
+        {
+            return null;
+        }
+
+        StringBuilder line = new StringBuilder();
+        while ( pos < end )
+        {
+            char c = (char) ( buf[pos++] & 0xFF );
+            if ( c == '\n' )
+            {
+                break;
+            }
+            if ( c != '\r' )
+            {
+                line.append( c );
+            }
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF()
+        throws IOException
+    {
+        return readString();
+    }
+
+    @Override
+    public void close()
+    {
+        // nothing to close
+    }
+}
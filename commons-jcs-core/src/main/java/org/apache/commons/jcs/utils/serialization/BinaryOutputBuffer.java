@@ -0,0 +1,321 @@
+package org.apache.commons.jcs.utils.serialization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte array that the binary serializer writes to. It is reset and reused for every
+ * object. Strings are written with their length as a variable length integer, so
+ * {@link #writeUTF(String)} has no size limit and is not compatible with
+ * {@link java.io.DataOutputStream}.
+ */
+class BinaryOutputBuffer
+    extends OutputStream
+    implements ObjectOutput
+{
+    /** The serializer for nested objects */
+    private final BinarySerializer serializer;
+
+    /** The data */
+    private byte[] buf;
+
+    /** The number of bytes written */
+    private int count;
+
+    /**
+     * @param serializer the serializer for nested objects
+     * @param initialSize the initial capacity
+     */
+    BinaryOutputBuffer( BinarySerializer serializer, int initialSize )
+    {
+        this.serializer = serializer;
+        this.buf = new byte[initialSize];
+    }
+
+    /**
+     * Makes room for more bytes.
+     * <p>
+     * @param needed the number of bytes to be written
+     */
+    private void ensureCapacity( int needed )
+    {
+        int required = count + needed;
+        if ( required > buf.length )
+        {
+            buf = Arrays.copyOf( buf, Math.max( required, buf.length * 2 ) );
+        }
+    }
+
+    /**
+     * Discards the data and keeps the array.
+     */
+    void reset()
+    {
+        count = 0;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return the size of the array
+     */
+    int capacity()
+    {
+        return buf.length;
+    }
+
+    /**
+     * @return a copy of the data
+     */
+    byte[] toByteArray()
+    {
+        return Arrays.copyOf( buf, count );
+    }
+
+    /**
+     * Overwrites four bytes that were written before.
+     * <p>
+     * @param position the position of the first byte
+     * @param v the value
+     */
+    void setInt( int position, int v )
+    {
+        buf[position] = (byte) ( v >>> 24 );
+        buf[position + 1] = (byte) ( v >>> 16 );
+        buf[position + 2] = (byte) ( v >>> 8 );
+        buf[position + 3] = (byte) v;
+    }
+
+    /**
+     * Writes an unsigned variable length integer, seven bits per byte.
+     * <p>
+     * @param v the value
+     */
+    void writeVarInt( int v )
+    {
+        ensureCapacity( 5 );
+        while ( ( v & ~0x7F ) != 0 )
+        {
+            buf[count++] = (byte) ( ( v & 0x7F ) | 0x80 );
+            v >>>= 7;
+        }
+        buf[count++] = (byte) v;
+    }
+
+    /**
+     * Writes an unsigned variable length long, seven bits per byte.
+     * <p>
+     * @param v the value
+     */
+    void writeVarLong( long v )
+    {
+        ensureCapacity( 10 );
+        while ( ( v & ~0x7FL ) != 0 )
+        {
+            buf[count++] = (byte) ( ( v & 0x7F ) | 0x80 );
+            v >>>= 7;
+        }
+        buf[count++] = (byte) v;
+    }
+
+    /**
+     * Writes the length followed by the characters, one to three bytes each.
+     * <p>
+     * @param s the string
+     */
+    void writeString( String s )
+    {
+        int length = s.length();
+        writeVarInt( length );
+        ensureCapacity( length );
+
+        int i = 0;
+        // plain ASCII needs no checks
+        for ( ; i < length; i++ )
+        {
+            char c = s.charAt( i );
+            if ( c >= 0x80 )
+            {
+                break;
+            }
+            buf[count++] = (byte) c;
+        }
+
+        if ( i < length )
+        {
+            ensureCapacity( ( length - i ) * 3 );
+            for ( ; i < length; i++ )
+            {
+                char c = s.charAt( i );
+                if ( c < 0x80 )
+                {
+                    buf[count++] = (byte) c;
+                }
+                else if ( c < 0x800 )
+                {
+                    buf[count++] = (byte) ( 0xC0 | c >> 6 );
+                    buf[count++] = (byte) ( 0x80 | c & 0x3F );
+                }
+                else
+                {
+                    buf[count++] = (byte) ( 0xE0 | c >> 12 );
+                    buf[count++] = (byte) ( 0x80 | c >> 6 & 0x3F );
+                    buf[count++] = (byte) ( 0x80 | c & 0x3F );
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an object using the fast paths and codecs of the serializer.
+     * <p>
+     * @param obj the object, may be null
+     * @throws IOException
+     */
+    @Override
+    public void writeObject( Object obj )
+        throws IOException
+    {
+        serializer.writeValue( this, obj );
+    }
+
+    @Override
+    public void write( int b )
+    {
+        ensureCapacity( 1 );
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write( byte[] b )
+    {
+        write( b, 0, b.length );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len )
+    {
+        ensureCapacity( len );
+        System.arraycopy( b, off, buf, count, len );
+        count += len;
+    }
+
+    @Override
+    public void writeBoolean( boolean v )
+    {
+        write( v ? 1 : 0 );
+    }
+
+    @Override
+    public void writeByte( int v )
+    {
+        write( v );
+    }
+
+    @Override
+    public void writeShort( int v )
+    {
+        ensureCapacity( 2 );
+        buf[count++] = (byte) ( v >>> 8 );
+        buf[count++] = (byte) v;
+    }
+
+    @Override
+    public void writeChar( int v )
+    {
+        writeShort( v );
+    }
+
+    @Override
+    public void writeInt( int v )
+    {
+        ensureCapacity( 4 );
+        setInt( count, v );
+        count += 4;
+    }
+
+    @Override
+    public void writeLong( long v )
+    {
+        writeInt( (int) ( v >>> 32 ) );
+        writeInt( (int) v );
+    }
+
+    @Override
+    public void writeFloat( float v )
+    {
+        writeInt( Float.floatToIntBits( v ) );
+    }
+
+    @Override
+    public void writeDouble( double v )
+    {
+        writeLong( Double.doubleToLongBits( v ) );
+    }
+
+    @Override
+    public void writeBytes( String s )
+    {
+        int length = s.length();
+        ensureCapacity( length );
+        for ( int i = 0; i < length; i++ )
+        {
+            buf[count++] = (byte) s.charAt( i );
+        }
+    }
+
+    @Override
+    public void writeChars( String s )
+    {
+        int length = s.length();
+        for ( int i = 0; i < length; i++ )
+        {
+            writeChar( s.charAt( i ) );
+        }
+    }
+
+    @Override
+    public void writeUTF( String s )
+    {
+        writeString( s );
+    }
+
+    @Override
+    public void flush()
+    {
+        // nothing to flush
+    }
+
+    @Override
+    public void close()
+    {
+        // the buffer is reused
+    }
+}
@@ -0,0 +1,687 @@
+package org.apache.commons.jcs.utils.serialization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CacheElementSerialized;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.control.group.GroupId;
+import org.apache.commons.jcs.io.ObjectInputStreamClassLoaderAware;
+import org.apache.commons.jcs.utils.serialization.behavior.IBinaryCodec;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A compact binary serializer. Cache elements, element attributes, group keys, strings, boxed
+ * primitives and byte arrays are written directly, without class descriptors. Other classes can be
+ * registered with a class ID and a codec, or, if they are {@link Externalizable}, with a class ID
+ * only. Everything else falls back to standard serialization.
+ * <p>
+ * Each thread writes into its own reusable buffer, so serializing does not allocate beyond the
+ * returned array.
+ * <p>
+ * The format is not compatible with the {@link StandardSerializer}. Select it per auxiliary in the
+ * cache.ccf file:
+ * <pre>
+ * jcs.auxiliary.DC.serializer=org.apache.commons.jcs.utils.serialization.BinarySerializer
+ * jcs.auxiliary.DC.serializer.attributes.RegisteredClasses=100:com.example.PersonCodec,101:com.example.Address
+ * </pre>
+ * A registered class name is either an {@link IBinaryCodec} implementation or an
+ * {@link Externalizable} class. Both need a public no-argument constructor.
+ */
+public class BinarySerializer
+    implements IElementSerializer
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( BinarySerializer.class );
+
+    /** The first byte of the serialized form */
+    private static final byte FORMAT_VERSION = 1;
+
+    /** Type tags */
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte BYTE_ARRAY = 4;
+    private static final byte CACHE_ELEMENT = 5;
+    private static final byte CACHE_ELEMENT_SERIALIZED = 6;
+    private static final byte ELEMENT_ATTRIBUTES = 7;
+    private static final byte GROUP_ID = 8;
+    private static final byte GROUP_ATTR_NAME = 9;
+    private static final byte SHORT = 10;
+    private static final byte BYTE = 11;
+    private static final byte BOOLEAN = 12;
+    private static final byte CHARACTER = 13;
+    private static final byte FLOAT = 14;
+    private static final byte DOUBLE = 15;
+    private static final byte REGISTERED = 16;
+    private static final byte SERIALIZABLE = 17;
+
+    /** Flags of the element attributes */
+    private static final int SPOOL = 1;
+    private static final int LATERAL = 2;
+    private static final int REMOTE = 4;
+    private static final int ETERNAL = 8;
+    private static final int VERSIONED = 16;
+
+    /** The initial size of the per thread buffers */
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /** Larger buffers are not kept after use */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /** The class IDs of the registered classes */
+    private final ConcurrentMap<Class<?>, Integer> classIds = new ConcurrentHashMap<Class<?>, Integer>();
+
+    /** The codecs by class ID */
+    private final ConcurrentMap<Integer, IBinaryCodec<?>> codecs = new ConcurrentHashMap<Integer, IBinaryCodec<?>>();
+
+    /** The reusable buffers */
+    private final ThreadLocal<BinaryOutputBuffer> buffers = new ThreadLocal<BinaryOutputBuffer>()
+    {
+        @Override
+        protected BinaryOutputBuffer initialValue()
+        {
+            return new BinaryOutputBuffer( BinarySerializer.this, INITIAL_BUFFER_SIZE );
+        }
+    };
+
+    /**
+     * Registers a codec.
+     * <p>
+     * @param id the class ID, not negative
+     * @param codec the codec
+     * @throws IllegalArgumentException if the ID or the class is registered already
+     */
+    public <T> void register( int id, IBinaryCodec<T> codec )
+    {
+        if ( id < 0 )
+        {
+            throw new IllegalArgumentException( "Class ID must not be negative: " + id );
+        }
+        if ( codecs.putIfAbsent( Integer.valueOf( id ), codec ) != null )
+        {
+            throw new IllegalArgumentException( "Class ID " + id + " is registered already" );
+        }
+        if ( classIds.putIfAbsent( codec.getType(), Integer.valueOf( id ) ) != null )
+        {
+            codecs.remove( Integer.valueOf( id ) );
+            throw new IllegalArgumentException( "Class " + codec.getType().getName() + " is registered already" );
+        }
+    }
+
+    /**
+     * Registers an externalizable class. Its objects are created with the public no-argument
+     * constructor and read with {@link Externalizable#readExternal(ObjectInput)}.
+     * <p>
+     * @param id the class ID, not negative
+     * @param type the class
+     * @throws IllegalArgumentException if the ID or the class is registered already
+     */
+    public <T extends Externalizable> void register( int id, Class<T> type )
+    {
+        register( id, new ExternalizableCodec<T>( type ) );
+    }
+
+    /**
+     * Registers classes from a comma separated list of ID:CLASSNAME pairs. The class is either a
+     * codec or an externalizable class. This is used by the cache.ccf configuration.
+     * <p>
+     * @param registeredClasses the list
+     * @throws IllegalArgumentException if an entry is invalid
+     */
+    public void setRegisteredClasses( String registeredClasses )
+    {
+        for ( String entry : registeredClasses.split( "," ) )
+        {
+            entry = entry.trim();
+            if ( entry.length() == 0 )
+            {
+                continue;
+            }
+
+            int colon = entry.indexOf( ':' );
+            if ( colon < 1 )
+            {
+                throw new IllegalArgumentException( "Expected ID:CLASSNAME but got [" + entry + "]" );
+            }
+
+            try
+            {
+                int id = Integer.parseInt( entry.substring( 0, colon ).trim() );
+                Class<?> type = Class.forName( entry.substring( colon + 1 ).trim(), true,
+                    Thread.currentThread().getContextClassLoader() );
+                registerClass( id, type );
+
+                if ( log.isInfoEnabled() )
+                {
+                    log.info( "Registered class [" + type.getName() + "] with ID " + id );
+                }
+            }
+            catch ( NumberFormatException e )
+            {
+                throw new IllegalArgumentException( "Invalid class ID in [" + entry + "]", e );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                throw new IllegalArgumentException( "Class not found in [" + entry + "]", e );
+            }
+        }
+    }
+
+    /**
+     * Registers a codec class or an externalizable class.
+     * <p>
+     * @param id the class ID
+     * @param type the class
+     */
+    @SuppressWarnings("unchecked") // checked with isAssignableFrom
+    private void registerClass( int id, Class<?> type )
+    {
+        if ( IBinaryCodec.class.isAssignableFrom( type ) )
+        {
+            try
+            {
+                register( id, (IBinaryCodec<?>) type.newInstance() );
+            }
+            catch ( InstantiationException e )
+            {
+                throw new IllegalArgumentException( "Could not create codec " + type.getName(), e );
+            }
+            catch ( IllegalAccessException e )
+            {
+                throw new IllegalArgumentException( "Could not create codec " + type.getName(), e );
+            }
+        }
+        else if ( Externalizable.class.isAssignableFrom( type ) )
+        {
+            register( id, (Class<? extends Externalizable>) type );
+        }
+        else
+        {
+            throw new IllegalArgumentException( type.getName() + " is neither a codec nor externalizable" );
+        }
+    }
+
+    /**
+     * Serializes an object into a new byte array.
+     * <p>
+     * @param obj
+     * @return byte[]
+     * @throws IOException
+     */
+    @Override
+    public <T> byte[] serialize( T obj )
+        throws IOException
+    {
+        BinaryOutputBuffer out = buffers.get();
+        out.reset();
+        out.write( FORMAT_VERSION );
+        writeValue( out, obj );
+        byte[] data = out.toByteArray();
+
+        if ( out.capacity() > MAX_RETAINED_BUFFER_SIZE )
+        {
+            buffers.remove();
+        }
+
+        return data;
+    }
+
+    /**
+     * Turns a byte array into an object.
+     * <p>
+     * @param data
+     * @param loader class loader for objects that use standard serialization, may be null
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public <T> T deSerialize( byte[] data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        BinaryInputBuffer in = new BinaryInputBuffer( this, data, loader );
+        if ( data.length == 0 || in.readByte() != FORMAT_VERSION )
+        {
+            throw new StreamCorruptedException( "Not written by the binary serializer" );
+        }
+
+        @SuppressWarnings("unchecked") // Need to cast from Object
+        T readObject = (T) readValue( in );
+        return readObject;
+    }
+
+    /**
+     * Writes a type tag and the object.
+     * <p>
+     * @param out the buffer
+     * @param value the object, may be null
+     * @throws IOException
+     */
+    void writeValue( BinaryOutputBuffer out, Object value )
+        throws IOException
+    {
+        if ( value == null )
+        {
+            out.write( NULL );
+            return;
+        }
+
+        Class<?> type = value.getClass();
+        if ( type == String.class )
+        {
+            out.write( STRING );
+            out.writeString( (String) value );
+        }
+        else if ( type == Integer.class )
+        {
+            out.write( INTEGER );
+            int v = ( (Integer) value ).intValue();
+            out.writeVarInt( v << 1 ^ v >> 31 );
+        }
+        else if ( type == Long.class )
+        {
+            out.write( LONG );
+            long v = ( (Long) value ).longValue();
+            out.writeVarLong( v << 1 ^ v >> 63 );
+        }
+        else if ( type == byte[].class )
+        {
+            byte[] bytes = (byte[]) value;
+            out.write( BYTE_ARRAY );
+            out.writeVarInt( bytes.length );
+            out.write( bytes );
+        }
+        else if ( type == CacheElement.class )
+        {
+            ICacheElement<?, ?> element = (ICacheElement<?, ?>) value;
+            out.write( CACHE_ELEMENT );
+            writeValue( out, element.getCacheName() );
+            writeValue( out, element.getKey() );
+            writeValue( out, element.getVal() );
+            writeValue( out, element.getElementAttributes() );
+        }
+        else if ( type == CacheElementSerialized.class )
+        {
+            CacheElementSerialized<?, ?> element = (CacheElementSerialized<?, ?>) value;
+            out.write( CACHE_ELEMENT_SERIALIZED );
+            writeValue( out, element.getCacheName() );
+            writeValue( out, element.getKey() );
+            writeValue( out, element.getSerializedValue() );
+            writeValue( out, element.getElementAttributes() );
+        }
+        else if ( type == ElementAttributes.class )
+        {
+            out.write( ELEMENT_ATTRIBUTES );
+            writeAttributes( out, (ElementAttributes) value );
+        }
+        else if ( type == GroupAttrName.class )
+        {
+            GroupAttrName<?> name = (GroupAttrName<?>) value;
+            out.write( GROUP_ATTR_NAME );
+            writeValue( out, name.groupId.cacheName );
+            writeValue( out, name.groupId.groupName );
+            writeValue( out, name.attrName );
+        }
+        else if ( type == GroupId.class )
+        {
+            GroupId groupId = (GroupId) value;
+            out.write( GROUP_ID );
+            writeValue( out, groupId.cacheName );
+            writeValue( out, groupId.groupName );
+        }
+        else if ( type == Short.class )
+        {
+            out.write( SHORT );
+            out.writeShort( ( (Short) value ).shortValue() );
+        }
+        else if ( type == Byte.class )
+        {
+            out.write( BYTE );
+            out.write( ( (Byte) value ).byteValue() );
+        }
+        else if ( type == Boolean.class )
+        {
+            out.write( BOOLEAN );
+            out.writeBoolean( ( (Boolean) value ).booleanValue() );
+        }
+        else if ( type == Character.class )
+        {
+            out.write( CHARACTER );
+            out.writeChar( ( (Character) value ).charValue() );
+        }
+        else if ( type == Float.class )
+        {
+            out.write( FLOAT );
+            out.writeFloat( ( (Float) value ).floatValue() );
+        }
+        else if ( type == Double.class )
+        {
+            out.write( DOUBLE );
+            out.writeDouble( ( (Double) value ).doubleValue() );
+        }
+        else
+        {
+            Integer id = classIds.get( type );
+            if ( id != null )
+            {
+                out.write( REGISTERED );
+                out.writeVarInt( id.intValue() );
+                writeRegistered( out, codecs.get( id ), value );
+            }
+            else
+            {
+                writeSerializable( out, value );
+            }
+        }
+    }
+
+    /**
+     * Reads a type tag and the object.
+     * <p>
+     * @param in the buffer
+     * @return the object, may be null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    Object readValue( BinaryInputBuffer in )
+        throws IOException, ClassNotFoundException
+    {
+        byte tag = in.readByte();
+        switch ( tag )
+        {
+            case NULL:
+                return null;
+
+            case STRING:
+                return in.readString();
+
+            case INTEGER:
+            {
+                int v = in.readVarInt();
+                return Integer.valueOf( v >>> 1 ^ -( v & 1 ) );
+            }
+
+            case LONG:
+            {
+                long v = in.readVarLong();
+                return Long.valueOf( v >>> 1 ^ -( v & 1 ) );
+            }
+
+            case BYTE_ARRAY:
+            {
+                byte[] bytes = new byte[in.readVarInt()];
+                in.readFully( bytes );
+                return bytes;
+            }
+
+            case CACHE_ELEMENT:
+            {
+                String cacheName = (String) readValue( in );
+                Object key = readValue( in );
+                Object val = readValue( in );
+                IElementAttributes attr = (IElementAttributes) readValue( in );
+                return new CacheElement<Object, Object>( cacheName, key, val, attr );
+            }
+
+            case CACHE_ELEMENT_SERIALIZED:
+            {
+                String cacheName = (String) readValue( in );
+                Object key = readValue( in );
+                byte[] val = (byte[]) readValue( in );
+                IElementAttributes attr = (IElementAttributes) readValue( in );
+                return new CacheElementSerialized<Object, Object>( cacheName, key, val, attr );
+            }
+
+            case ELEMENT_ATTRIBUTES:
+                return readAttributes( in );
+
+            case GROUP_ATTR_NAME:
+            {
+                String cacheName = (String) readValue( in );
+                String groupName = (String) readValue( in );
+                Object attrName = readValue( in );
+                return new GroupAttrName<Object>( new GroupId( cacheName, groupName ), attrName );
+            }
+
+            case GROUP_ID:
+            {
+                String cacheName = (String) readValue( in );
+                String groupName = (String) readValue( in );
+                return new GroupId( cacheName, groupName );
+            }
+
+            case SHORT:
+                return Short.valueOf( in.readShort() );
+
+            case BYTE:
+                return Byte.valueOf( in.readByte() );
+
+            case BOOLEAN:
+                return Boolean.valueOf( in.readBoolean() );
+
+            case CHARACTER:
+                return Character.valueOf( in.readChar() );
+
+            case FLOAT:
+                return Float.valueOf( in.readFloat() );
+
+            case DOUBLE:
+                return Double.valueOf( in.readDouble() );
+
+            case REGISTERED:
+            {
+                int id = in.readVarInt();
+                IBinaryCodec<?> codec = codecs.get( Integer.valueOf( id ) );
+                if ( codec == null )
+                {
+                    throw new ClassNotFoundException( "No class registered with ID " + id );
+                }
+                return codec.read( in );
+            }
+
+            case SERIALIZABLE:
+                return readSerializable( in );
+
+            default:
+                throw new StreamCorruptedException( "Unknown type tag " + tag );
+        }
+    }
+
+    /**
+     * Writes the attributes. Event handlers are transient and not written.
+     * <p>
+     * @param out the buffer
+     * @param attr the attributes
+     */
+    private void writeAttributes( BinaryOutputBuffer out, ElementAttributes attr )
+    {
+        int flags = ( attr.getIsSpool() ? SPOOL : 0 ) | ( attr.getIsLateral() ? LATERAL : 0 )
+            | ( attr.getIsRemote() ? REMOTE : 0 ) | ( attr.getIsEternal() ? ETERNAL : 0 )
+            | ( attr.getVersion() != 0 ? VERSIONED : 0 );
+        out.write( flags );
+        if ( attr.getVersion() != 0 )
+        {
+            out.writeVarLong( attr.getVersion() );
+        }
+        out.writeLong( attr.getMaxLife() );
+        out.writeLong( attr.getIdleTime() );
+        out.writeVarInt( attr.getSize() );
+        out.writeLong( attr.getCreateTime() );
+        out.writeLong( attr.getLastAccessTime() );
+        out.writeLong( attr.getTimeFactorForMilliseconds() );
+    }
+
+    /**
+     * Reads the attributes.
+     * <p>
+     * @param in the buffer
+     * @return the attributes
+     * @throws IOException
+     */
+    private ElementAttributes readAttributes( BinaryInputBuffer in )
+        throws IOException
+    {
+        ElementAttributes attr = new ElementAttributes();
+        int flags = in.readUnsignedByte();
+        attr.setIsSpool( ( flags & SPOOL ) != 0 );
+        attr.setIsLateral( ( flags & LATERAL ) != 0 );
+        attr.setIsRemote( ( flags & REMOTE ) != 0 );
+        attr.setIsEternal( ( flags & ETERNAL ) != 0 );
+        if ( ( flags & VERSIONED ) != 0 )
+        {
+            attr.setVersion( in.readVarLong() );
+        }
+        attr.setMaxLife( in.readLong() );
+        attr.setIdleTime( in.readLong() );
+        attr.setSize( in.readVarInt() );
+        attr.setCreateTime( in.readLong() );
+        attr.setLastAccessTime( in.readLong() );
+        attr.setTimeFactorForMilliseconds( in.readLong() );
+        return attr;
+    }
+
+    /**
+     * Writes an object with its codec.
+     * <p>
+     * @param out the buffer
+     * @param codec the codec for the class of the object
+     * @param value the object
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked") // the codec was registered for the class of the value
+    private <T> void writeRegistered( BinaryOutputBuffer out, IBinaryCodec<T> codec, Object value )
+        throws IOException
+    {
+        codec.write( out, (T) value );
+    }
+
+    /**
+     * Writes an object with standard serialization, prefixed by its length.
+     * <p>
+     * @param out the buffer
+     * @param value the object
+     * @throws IOException
+     */
+    private void writeSerializable( BinaryOutputBuffer out, Object value )
+        throws IOException
+    {
+        out.write( SERIALIZABLE );
+        int lengthPosition = out.size();
+        out.writeInt( 0 );
+
+        ObjectOutputStream oos = new ObjectOutputStream( out );
+        oos.writeObject( value );
+        oos.flush();
+
+        out.setInt( lengthPosition, out.size() - lengthPosition - 4 );
+    }
+
+    /**
+     * Reads an object written with standard serialization.
+     * <p>
+     * @param in the buffer
+     * @return the object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private Object readSerializable( BinaryInputBuffer in )
+        throws IOException, ClassNotFoundException
+    {
+        int length = in.readInt();
+        ObjectInputStream ois = new ObjectInputStreamClassLoaderAware( in.slice( length ), in.getClassLoader() );
+        try
+        {
+            return ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    /**
+     * Reads and writes externalizable objects.
+     */
+    private static class ExternalizableCodec<T extends Externalizable>
+        implements IBinaryCodec<T>
+    {
+        /** The class */
+        private final Class<T> type;
+
+        /**
+         * @param type the class
+         */
+        public ExternalizableCodec( Class<T> type )
+        {
+            this.type = type;
+        }
+
+        @Override
+        public Class<T> getType()
+        {
+            return type;
+        }
+
+        @Override
+        public void write( ObjectOutput out, T value )
+            throws IOException
+        {
+            value.writeExternal( out );
+        }
+
+        @Override
+        public T read( ObjectInput in )
+            throws IOException, ClassNotFoundException
+        {
+            T value;
+            try
+            {
+                value = type.newInstance();
+            }
+            catch ( InstantiationException e )
+            {
+                throw new IOException( "Could not create " + type.getName() + ": " + e.getMessage() );
+            }
+            catch ( IllegalAccessException e )
+            {
+                throw new IOException( "Could not create " + type.getName() + ": " + e.getMessage() );
+            }
+            value.readExternal( in );
+            return value;
+        }
+    }
+}
@@ -20,8 +20,16 @@ package org.apache.commons.jcs.utils.serialization;
  */
 
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.Stats;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
 import org.apache.commons.jcs.io.ObjectInputStreamClassLoaderAware;
+import org.apache.commons.jcs.utils.config.OptionConverter;
 import org.apache.commons.jcs.utils.zip.CompressionUtil;
+import org.apache.commons.jcs.utils.zip.DeflateCodec;
+import org.apache.commons.jcs.utils.zip.LZCodec;
+import org.apache.commons.jcs.utils.zip.behavior.ICompressionCodec;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
@@ -29,13 +37,70 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 /**
- * Performs default serialization and de-serialization. It gzips the value.
+ * Performs default serialization and de-serialization and compresses the value.
+ * <p>
+ * The codec is configurable: "deflate" at the configured level, "lz" for a fast LZ compressor,
+ * or the class name of an {@link ICompressionCodec}. Values smaller than the minimum compress
+ * size are stored uncompressed. The first byte of the data tells how it was written, so data of
+ * older versions, which is a plain deflate stream, can still be read.
  */
 public class CompressingSerializer
     implements IElementSerializer
 {
+    /** Name of the deflate codec */
+    public static final String CODEC_DEFLATE = "deflate";
+
+    /** Name of the LZ codec */
+    public static final String CODEC_LZ = "lz";
+
+    /** Values smaller than this are not compressed by default */
+    public static final int DEFAULT_MIN_COMPRESS_SIZE = 128;
+
+    /** Flag of data that is stored uncompressed */
+    private static final int FLAG_STORED = 0;
+
+    /** The highest codec ID, so that flags never look like the header of a deflate stream */
+    private static final int MAX_CODEC_ID = 7;
+
+    /** The codec used to compress */
+    private ICompressionCodec codec = new DeflateCodec();
+
+    /** The configured codec name */
+    private String codecName = CODEC_DEFLATE;
+
+    /** The deflate level */
+    private int compressionLevel = Deflater.BEST_COMPRESSION;
+
+    /** Values smaller than this are not compressed */
+    private int minCompressSize = DEFAULT_MIN_COMPRESS_SIZE;
+
+    /** Number of values that were compressed */
+    private final AtomicLong compressedCount = new AtomicLong();
+
+    /** Number of values that were stored uncompressed */
+    private final AtomicLong storedCount = new AtomicLong();
+
+    /** Bytes handed to the codec */
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+
+    /** Bytes the codec returned */
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+
+    /** Time spent compressing */
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    /** Number of values that were decompressed */
+    private final AtomicLong decompressedCount = new AtomicLong();
+
+    /** Time spent decompressing */
+    private final AtomicLong decompressNanos = new AtomicLong();
+
     /**
      * Serializes an object using default serialization. Compresses the byte array.
      * <p>
@@ -48,8 +113,243 @@ public class CompressingSerializer
         throws IOException
     {
         byte[] uncompressed = serializeObject( obj );
-        byte[] compressed = CompressionUtil.compressByteArray( uncompressed );
-        return compressed;
+        if ( uncompressed.length >= minCompressSize )
+        {
+            ICompressionCodec current = codec;
+            long start = System.nanoTime();
+            byte[] compressed = current.compress( uncompressed );
+            compressNanos.addAndGet( System.nanoTime() - start );
+            bytesBeforeCompression.addAndGet( uncompressed.length );
+            bytesAfterCompression.addAndGet( compressed.length );
+
+            // flag and length have to pay off too
+            if ( compressed.length + 5 < uncompressed.length )
+            {
+                compressedCount.incrementAndGet();
+                byte[] result = new byte[compressed.length + 5];
+                result[0] = (byte) current.getId();
+                writeInt( result, 1, uncompressed.length );
+                System.arraycopy( compressed, 0, result, 5, compressed.length );
+                return result;
+            }
+        }
+
+        storedCount.incrementAndGet();
+        byte[] result = new byte[uncompressed.length + 1];
+        result[0] = FLAG_STORED;
+        System.arraycopy( uncompressed, 0, result, 1, uncompressed.length );
+        return result;
+    }
+
+    /**
+     * Uses default de-serialization to turn a byte array into an object. Decompresses the value
+     * first. All exceptions are converted into IOExceptions.
+     * <p>
+     * @param data bytes of data
+     * @return Object
+     * @throws IOException on i/o problem
+     * @throws ClassNotFoundException if class is not found during deserialization
+     */
+    @Override
+    public <T> T deSerialize( byte[] data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        if ( data == null )
+        {
+            return null;
+        }
+        if ( data.length == 0 )
+        {
+            throw new IOException( "No data" );
+        }
+
+        int flag = data[0] & 0xFF;
+        if ( flag > MAX_CODEC_ID )
+        {
+            // written by an older version, the header of a deflate stream never starts with a flag
+            return deserializeObject( CompressionUtil.decompressByteArray( data ) );
+        }
+        if ( flag == FLAG_STORED )
+        {
+            return deserializeObject( data, 1, data.length - 1 );
+        }
+        if ( data.length < 5 )
+        {
+            throw new IOException( "Compressed data too short" );
+        }
+
+        ICompressionCodec decoder = getDecoder( flag );
+        long start = System.nanoTime();
+        byte[] decompressed = decoder.decompress( data, 5, data.length - 5, readInt( data, 1 ) );
+        decompressNanos.addAndGet( System.nanoTime() - start );
+        decompressedCount.incrementAndGet();
+        return deserializeObject( decompressed );
+    }
+
+    /**
+     * @param id the codec ID from the data
+     * @return the codec that reads the data
+     * @throws IOException if the codec is unknown
+     */
+    private ICompressionCodec getDecoder( int id )
+        throws IOException
+    {
+        ICompressionCodec current = codec;
+        if ( current.getId() == id )
+        {
+            return current;
+        }
+        switch ( id )
+        {
+            case DeflateCodec.ID:
+                return new DeflateCodec();
+            case LZCodec.ID:
+                return new LZCodec();
+            default:
+                throw new IOException( "Data was compressed with the unknown codec " + id );
+        }
+    }
+
+    /**
+     * Sets the codec: "deflate", "lz" or the class name of an {@link ICompressionCodec}.
+     * <p>
+     * @param codecName the codec
+     */
+    public void setCodec( String codecName )
+    {
+        this.codec = createCodec( codecName, compressionLevel );
+        this.codecName = codecName;
+    }
+
+    /**
+     * @return the codec name
+     */
+    public String getCodec()
+    {
+        return codecName;
+    }
+
+    /**
+     * Sets the level of the deflate codec, 0 to 9 or -1 for the default.
+     * <p>
+     * @param compressionLevel the level
+     */
+    public void setCompressionLevel( int compressionLevel )
+    {
+        this.codec = createCodec( codecName, compressionLevel );
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the deflate level
+     */
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    /**
+     * @param minCompressSize values with fewer serialized bytes are stored uncompressed
+     */
+    public void setMinCompressSize( int minCompressSize )
+    {
+        this.minCompressSize = minCompressSize;
+    }
+
+    /**
+     * @return values with fewer serialized bytes are stored uncompressed
+     */
+    public int getMinCompressSize()
+    {
+        return minCompressSize;
+    }
+
+    /**
+     * @param name the codec name or class name
+     * @param level the deflate level
+     * @return the codec
+     */
+    private static ICompressionCodec createCodec( String name, int level )
+    {
+        ICompressionCodec result;
+        if ( CODEC_DEFLATE.equalsIgnoreCase( name ) )
+        {
+            result = new DeflateCodec( level );
+        }
+        else if ( CODEC_LZ.equalsIgnoreCase( name ) )
+        {
+            result = new LZCodec();
+        }
+        else
+        {
+            result = OptionConverter.instantiateByClassName( name, (ICompressionCodec) null );
+            if ( result == null )
+            {
+                throw new IllegalArgumentException( "Could not create the codec " + name );
+            }
+        }
+
+        if ( result.getId() <= FLAG_STORED || result.getId() > MAX_CODEC_ID )
+        {
+            throw new IllegalArgumentException( "Codec ID " + result.getId() + " is not between 1 and "
+                + MAX_CODEC_ID );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the compression statistics, to be added to the statistics of the region.
+     * <p>
+     * @return the statistics
+     */
+    public IStats getStatistics()
+    {
+        IStats stats = new Stats();
+        stats.setTypeName( "Compressing Serializer" );
+
+        long before = bytesBeforeCompression.get();
+        long after = bytesAfterCompression.get();
+        long compressed = compressedCount.get();
+        long decompressed = decompressedCount.get();
+
+        List<IStatElement<?>> elems = new ArrayList<IStatElement<?>>();
+        elems.add( new StatElement<String>( "Codec", codec.toString() ) );
+        elems.add( new StatElement<Long>( "Compressed Count", Long.valueOf( compressed ) ) );
+        elems.add( new StatElement<Long>( "Stored Uncompressed Count", Long.valueOf( storedCount.get() ) ) );
+        elems.add( new StatElement<Double>( "Compression Ratio",
+            Double.valueOf( after == 0 ? 1.0 : (double) before / after ) ) );
+        elems.add( new StatElement<Long>( "Average Compress Micros",
+            Long.valueOf( compressed == 0 ? 0 : compressNanos.get() / compressed / 1000 ) ) );
+        elems.add( new StatElement<Long>( "Decompressed Count", Long.valueOf( decompressed ) ) );
+        elems.add( new StatElement<Long>( "Average Decompress Micros",
+            Long.valueOf( decompressed == 0 ? 0 : decompressNanos.get() / decompressed / 1000 ) ) );
+        stats.setStatElements( elems );
+
+        return stats;
+    }
+
+    /**
+     * @param data the array
+     * @param pos the position
+     * @param v the value
+     */
+    private static void writeInt( byte[] data, int pos, int v )
+    {
+        data[pos] = (byte) ( v >>> 24 );
+        data[pos + 1] = (byte) ( v >>> 16 );
+        data[pos + 2] = (byte) ( v >>> 8 );
+        data[pos + 3] = (byte) v;
+    }
+
+    /**
+     * @param data the array
+     * @param pos the position
+     * @return the value
+     */
+    private static int readInt( byte[] data, int pos )
+    {
+        return ( data[pos] & 0xFF ) << 24 | ( data[pos + 1] & 0xFF ) << 16 | ( data[pos + 2] & 0xFF ) << 8
+            | data[pos + 3] & 0xFF;
     }
 
     /**
@@ -77,38 +377,33 @@ public class CompressingSerializer
     }
 
     /**
-     * Uses default de-serialization to turn a byte array into an object. Decompresses the value
-     * first. All exceptions are converted into IOExceptions.
+     * Does the standard deserialization.
      * <p>
-     * @param data bytes of data
+     * @param decompressedByteArray array of decompressed bytes
      * @return Object
-     * @throws IOException on i/o problem
+     * @throws IOException on i/o error
      * @throws ClassNotFoundException if class is not found during deserialization
      */
-    @Override
-    public <T> T deSerialize( byte[] data, ClassLoader loader )
+    protected <T> T deserializeObject( byte[] decompressedByteArray )
         throws IOException, ClassNotFoundException
     {
-        if ( data == null )
-        {
-            return null;
-        }
-        byte[] decompressedByteArray = CompressionUtil.decompressByteArray( data );
-        return deserializeObject( decompressedByteArray );
+        return deserializeObject( decompressedByteArray, 0, decompressedByteArray.length );
     }
 
     /**
-     * Does the standard deserialization.
+     * Does the standard deserialization of a part of an array.
      * <p>
-     * @param decompressedByteArray array of decompressed bytes
+     * @param data the array
+     * @param offset the start of the serialized object
+     * @param length the length of the serialized object
      * @return Object
      * @throws IOException on i/o error
      * @throws ClassNotFoundException if class is not found during deserialization
      */
-    protected <T> T deserializeObject( byte[] decompressedByteArray )
+    private <T> T deserializeObject( byte[] data, int offset, int length )
         throws IOException, ClassNotFoundException
     {
-        ByteArrayInputStream bais = new ByteArrayInputStream( decompressedByteArray );
+        ByteArrayInputStream bais = new ByteArrayInputStream( data, offset, length );
         BufferedInputStream bis = new BufferedInputStream( bais );
         ObjectInputStream ois = new ObjectInputStreamClassLoaderAware( bis, null );
 
@@ -0,0 +1,61 @@
+package org.apache.commons.jcs.utils.serialization.behavior;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Writes and reads the objects of one class for the binary serializer. A codec is registered
+ * under a class ID, which is written instead of the class name. The IDs have to be the same
+ * wherever the data is read.
+ * <p>
+ * Nested objects can be written with {@link ObjectOutput#writeObject(Object)}, which uses the
+ * serializer's fast paths and codecs again.
+ */
+public interface IBinaryCodec<T>
+{
+    /**
+     * @return the class of the objects this codec handles. Subclasses are not handled.
+     */
+    Class<T> getType();
+
+    /**
+     * Writes the object.
+     * <p>
+     * @param out the output
+     * @param value the object, never null
+     * @throws IOException
+     */
+    void write( ObjectOutput out, T value )
+        throws IOException;
+
+    /**
+     * Reads an object written by {@link #write(ObjectOutput, Object)}.
+     * <p>
+     * @param in the input
+     * @return the object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    T read( ObjectInput in )
+        throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,172 @@
+package org.apache.commons.jcs.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.jcs.utils.zip.behavior.ICompressionCodec;
+
+/**
+ * Compresses with deflate at a configurable level. Lower levels are faster, higher levels
+ * produce smaller data. The level does not matter for decompression.
+ */
+public class DeflateCodec
+    implements ICompressionCodec
+{
+    /** The ID of this codec */
+    public static final int ID = 1;
+
+    /** Deflate cannot expand data by more than this factor, which bounds a valid length */
+    private static final int MAX_EXPANSION = 1032;
+
+    /** The deflate level */
+    private final int level;
+
+    /**
+     * Uses the best compression, like {@link CompressionUtil}.
+     */
+    public DeflateCodec()
+    {
+        this( Deflater.BEST_COMPRESSION );
+    }
+
+    /**
+     * @param level the deflate level, 0 to 9 or -1 for the default
+     */
+    public DeflateCodec( int level )
+    {
+        if ( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION )
+        {
+            throw new IllegalArgumentException( "Invalid deflate level " + level );
+        }
+        this.level = level;
+    }
+
+    /**
+     * @return the deflate level
+     */
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * @return {@link #ID}
+     */
+    @Override
+    public int getId()
+    {
+        return ID;
+    }
+
+    /**
+     * @param input the uncompressed data
+     * @return the deflated data
+     * @throws IOException
+     */
+    @Override
+    public byte[] compress( byte[] input )
+        throws IOException
+    {
+        Deflater compressor = new Deflater( level );
+        try
+        {
+            compressor.setInput( input );
+            compressor.finish();
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( Math.max( 32, input.length / 2 ) );
+            byte[] buf = new byte[1024];
+            while ( !compressor.finished() )
+            {
+                int count = compressor.deflate( buf );
+                bos.write( buf, 0, count );
+            }
+            return bos.toByteArray();
+        }
+        finally
+        {
+            // JCS-136, release the native memory right away
+            compressor.end();
+        }
+    }
+
+    /**
+     * @param input the array holding the deflated data
+     * @param offset the start of the deflated data
+     * @param length the length of the deflated data
+     * @param originalLength the length of the uncompressed data
+     * @return the uncompressed data
+     * @throws IOException if the data is corrupt
+     */
+    @Override
+    public byte[] decompress( byte[] input, int offset, int length, int originalLength )
+        throws IOException
+    {
+        // the length comes from the stored data, check it before allocating
+        if ( originalLength < 0 || originalLength > (long) length * MAX_EXPANSION + MAX_EXPANSION )
+        {
+            throw new IOException( "Invalid original length " + originalLength + " for " + length
+                + " bytes of deflated data" );
+        }
+
+        Inflater decompressor = new Inflater();
+        try
+        {
+            decompressor.setInput( input, offset, length );
+            byte[] output = new byte[originalLength];
+            int count = 0;
+            while ( count < originalLength && !decompressor.finished() )
+            {
+                int n = decompressor.inflate( output, count, originalLength - count );
+                if ( n == 0 && ( decompressor.needsInput() || decompressor.needsDictionary() ) )
+                {
+                    break;
+                }
+                count += n;
+            }
+            if ( count != originalLength )
+            {
+                throw new IOException( "Expected " + originalLength + " bytes but inflated " + count );
+            }
+            return output;
+        }
+        catch ( DataFormatException e )
+        {
+            throw new IOException( "Corrupt deflate data", e );
+        }
+        finally
+        {
+            decompressor.end();
+        }
+    }
+
+    /**
+     * @return the codec and level
+     */
+    @Override
+    public String toString()
+    {
+        return "DeflateCodec level = " + level;
+    }
+}
@@ -0,0 +1,305 @@
+package org.apache.commons.jcs.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.commons.jcs.utils.zip.behavior.ICompressionCodec;
+
+/**
+ * A fast compressor of the LZ77 family in pure Java. It uses the block layout of LZ4: each
+ * sequence is a token with the literal and match lengths, the literals, and a two byte offset
+ * back into the output. Matches are found with a single hash table probe, so it compresses much
+ * less than deflate but costs only a fraction of the CPU.
+ */
+public class LZCodec
+    implements ICompressionCodec
+{
+    /** The ID of this codec */
+    public static final int ID = 2;
+
+    /** The shortest match worth encoding */
+    private static final int MIN_MATCH = 4;
+
+    /** The last bytes of the input are always literals */
+    private static final int LAST_LITERALS = 5;
+
+    /** No match may start this close to the end of the input */
+    private static final int MATCH_FIND_LIMIT = 12;
+
+    /** The largest offset a match can refer to */
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    /** The number of bits of the hash table index */
+    private static final int HASH_BITS = 12;
+
+    /** Length nibbles of this value are followed by more length bytes */
+    private static final int RUN_MASK = 0x0F;
+
+    /** A length byte adds at most this many bytes of output, which bounds the expansion */
+    private static final int MAX_EXPANSION = 0xFF;
+
+    /**
+     * @return {@link #ID}
+     */
+    @Override
+    public int getId()
+    {
+        return ID;
+    }
+
+    /**
+     * @param input the uncompressed data
+     * @return the compressed data
+     */
+    @Override
+    public byte[] compress( byte[] input )
+    {
+        int length = input.length;
+        byte[] output = new byte[length + length / 255 + 16];
+        int op = 0;
+        int anchor = 0;
+
+        if ( length > MATCH_FIND_LIMIT )
+        {
+            // positions are stored plus one so that zero means empty
+            int[] table = new int[1 << HASH_BITS];
+            int limit = length - MATCH_FIND_LIMIT;
+            int i = 0;
+
+            while ( i < limit )
+            {
+                int sequence = readInt( input, i );
+                int h = hash( sequence );
+                int ref = table[h] - 1;
+                table[h] = i + 1;
+
+                if ( ref < 0 || i - ref > MAX_OFFSET || readInt( input, ref ) != sequence )
+                {
+                    i++;
+                    continue;
+                }
+
+                int matchLength = MIN_MATCH;
+                int maxLength = length - LAST_LITERALS - i;
+                while ( matchLength < maxLength && input[ref + matchLength] == input[i + matchLength] )
+                {
+                    matchLength++;
+                }
+
+                op = writeSequence( input, anchor, i - anchor, output, op, i - ref, matchLength );
+                i += matchLength;
+                anchor = i;
+            }
+        }
+
+        op = writeSequence( input, anchor, length - anchor, output, op, 0, 0 );
+
+        byte[] result = new byte[op];
+        System.arraycopy( output, 0, result, 0, op );
+        return result;
+    }
+
+    /**
+     * Writes one sequence. The last sequence has no match.
+     * <p>
+     * @param input the uncompressed data
+     * @param literalStart the start of the literals
+     * @param literalLength the number of literals
+     * @param output the output
+     * @param op the write position
+     * @param offset the distance back to the match
+     * @param matchLength the length of the match, zero for the last sequence
+     * @return the new write position
+     */
+    private static int writeSequence( byte[] input, int literalStart, int literalLength, byte[] output, int op,
+                                      int offset, int matchLength )
+    {
+        int tokenPos = op++;
+        int token = Math.min( literalLength, RUN_MASK ) << 4;
+        if ( literalLength >= RUN_MASK )
+        {
+            op = writeLength( output, op, literalLength - RUN_MASK );
+        }
+        System.arraycopy( input, literalStart, output, op, literalLength );
+        op += literalLength;
+
+        if ( matchLength > 0 )
+        {
+            output[op++] = (byte) offset;
+            output[op++] = (byte) ( offset >>> 8 );
+            int extra = matchLength - MIN_MATCH;
+            token |= Math.min( extra, RUN_MASK );
+            if ( extra >= RUN_MASK )
+            {
+                op = writeLength( output, op, extra - RUN_MASK );
+            }
+        }
+
+        output[tokenPos] = (byte) token;
+        return op;
+    }
+
+    /**
+     * Writes the rest of a length as bytes of 255 followed by the remainder.
+     * <p>
+     * @param output the output
+     * @param op the write position
+     * @param length the rest of the length
+     * @return the new write position
+     */
+    private static int writeLength( byte[] output, int op, int length )
+    {
+        while ( length >= 0xFF )
+        {
+            output[op++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        output[op++] = (byte) length;
+        return op;
+    }
+
+    /**
+     * @param input the array holding the compressed data
+     * @param offset the start of the compressed data
+     * @param length the length of the compressed data
+     * @param originalLength the length of the uncompressed data
+     * @return the uncompressed data
+     * @throws IOException if the data is corrupt
+     */
+    @Override
+    public byte[] decompress( byte[] input, int offset, int length, int originalLength )
+        throws IOException
+    {
+        if ( offset < 0 || length < 0 || length > input.length - offset )
+        {
+            throw new IOException( "Invalid range of compressed data: offset " + offset + ", length " + length );
+        }
+        // the length comes from the stored data, check it before allocating
+        if ( originalLength < 0 || originalLength > (long) length * MAX_EXPANSION + MAX_EXPANSION )
+        {
+            throw new IOException( "Invalid original length " + originalLength + " for " + length
+                + " bytes of compressed data" );
+        }
+
+        byte[] output = new byte[originalLength];
+        int ip = offset;
+        int end = offset + length;
+        int op = 0;
+
+        try
+        {
+            while ( ip < end )
+            {
+                int token = input[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if ( literalLength == RUN_MASK )
+                {
+                    int b;
+                    do
+                    {
+                        b = input[ip++] & 0xFF;
+                        literalLength += b;
+                    }
+                    while ( b == 0xFF );
+                }
+                if ( literalLength > end - ip || literalLength > originalLength - op )
+                {
+                    throw new IOException( "Literals run past the end of the data" );
+                }
+                System.arraycopy( input, ip, output, op, literalLength );
+                ip += literalLength;
+                op += literalLength;
+
+                if ( ip == end )
+                {
+                    // the last sequence has no match
+                    break;
+                }
+
+                int matchOffset = ( input[ip++] & 0xFF ) | ( input[ip++] & 0xFF ) << 8;
+                int matchLength = token & RUN_MASK;
+                if ( matchLength == RUN_MASK )
+                {
+                    int b;
+                    do
+                    {
+                        b = input[ip++] & 0xFF;
+                        matchLength += b;
+                    }
+                    while ( b == 0xFF );
+                }
+                matchLength += MIN_MATCH;
+
+                if ( matchOffset == 0 || matchOffset > op || matchLength > originalLength - op )
+                {
+                    throw new IOException( "Invalid match at output position " + op );
+                }
+
+                // the match may overlap the bytes it produces
+                int from = op - matchOffset;
+                for ( int i = 0; i < matchLength; i++ )
+                {
+                    output[op++] = output[from + i];
+                }
+            }
+        }
+        catch ( ArrayIndexOutOfBoundsException e )
+        {
+            throw new IOException( "Truncated compressed data", e );
+        }
+
+        if ( op != originalLength )
+        {
+            throw new IOException( "Expected " + originalLength + " bytes but decompressed " + op );
+        }
+        return output;
+    }
+
+    /**
+     * @param data the array
+     * @param pos the position
+     * @return the four bytes at the position
+     */
+    private static int readInt( byte[] data, int pos )
+    {
+        return ( data[pos] & 0xFF ) | ( data[pos + 1] & 0xFF ) << 8 | ( data[pos + 2] & 0xFF ) << 16
+            | ( data[pos + 3] & 0xFF ) << 24;
+    }
+
+    /**
+     * @param sequence four bytes of input
+     * @return the hash table index
+     */
+    private static int hash( int sequence )
+    {
+        return ( sequence * -1640531535 ) >>> ( 32 - HASH_BITS );
+    }
+
+    /**
+     * @return the codec name
+     */
+    @Override
+    public String toString()
+    {
+        return "LZCodec";
+    }
+}
@@ -0,0 +1,60 @@
+package org.apache.commons.jcs.utils.zip.behavior;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses byte arrays for the compressing serializer. Each codec has an ID
+ * that is written in front of the data, so the serializer can pick the right codec when it reads
+ * the data back.
+ */
+public interface ICompressionCodec
+{
+    /**
+     * The ID must be between 1 and 7 and must never change once data has been written with it.
+     * <p>
+     * @return the id of this codec
+     */
+    int getId();
+
+    /**
+     * Compresses the data.
+     * <p>
+     * @param input the uncompressed data
+     * @return the compressed data
+     * @throws IOException
+     */
+    byte[] compress( byte[] input )
+        throws IOException;
+
+    /**
+     * Decompresses data written by {@link #compress(byte[])}.
+     * <p>
+     * @param input the array holding the compressed data
+     * @param offset the start of the compressed data
+     * @param length the length of the compressed data
+     * @param originalLength the length of the uncompressed data
+     * @return the uncompressed data
+     * @throws IOException if the data is corrupt
+     */
+    byte[] decompress( byte[] input, int offset, int length, int originalLength )
+        throws IOException;
+}
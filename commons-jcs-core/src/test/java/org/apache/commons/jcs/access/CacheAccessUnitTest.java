@@ -19,18 +19,31 @@ package org.apache.commons.jcs.access;
  * under the License.
  */
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.apache.commons.jcs.JCS;
 import org.apache.commons.jcs.access.exception.CacheException;
 import org.apache.commons.jcs.access.exception.ObjectExistsException;
+import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
+import org.apache.commons.jcs.auxiliary.remote.MockRemoteCacheClient;
+import org.apache.commons.jcs.auxiliary.remote.RemoteCacheAttributes;
+import org.apache.commons.jcs.auxiliary.remote.RemoteCacheNoWait;
+import org.apache.commons.jcs.auxiliary.remote.RemoteCacheNoWaitFacade;
+import org.apache.commons.jcs.auxiliary.remote.RemoteCacheShardedFacade;
+import org.apache.commons.jcs.auxiliary.remote.RemoteLocation;
+import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.CompositeCacheAttributes;
 import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICache;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
 
 import junit.framework.TestCase;
 
@@ -42,6 +55,97 @@ import junit.framework.TestCase;
 public class CacheAccessUnitTest
     extends TestCase
 {
+    /**
+     * Verify that the async gets return the values, and that a memory hit is done at once.
+     * @throws Exception
+     */
+    public void testGetAsync()
+        throws Exception
+    {
+        // SETUP
+        CacheAccess<String, String> access = JCS.getInstance( "testGetAsync" );
+        access.put( "key", "value" );
+        Set<String> keys = new HashSet<String>();
+        keys.add( "key" );
+        keys.add( "missing" );
+
+        // DO WORK
+        Future<String> hit = access.getAsync( "key" );
+        Future<String> miss = access.getAsync( "missing" );
+        Future<Map<String, ICacheElement<String, String>>> elements = access.getCacheElementsAsync( keys );
+
+        // VERIFY
+        assertTrue( "A memory hit should be done", hit.isDone() );
+        assertEquals( "Wrong value", "value", hit.get() );
+        assertNull( "Should not find the key", miss.get() );
+        assertEquals( "Wrong number of elements", 1, elements.get().size() );
+        assertEquals( "Wrong value", "value", elements.get().get( "key" ).getVal() );
+    }
+
+    /**
+     * Verify that an async get of a region with a remote auxiliary uses the asynchronous get of the
+     * remote client, and that the element is copied to memory.
+     * @throws Exception
+     */
+    public void testGetAsync_ChainsRemote()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache =
+            new CompositeCache<String, String>( new CompositeCacheAttributes(), new ElementAttributes() );
+        MockRemoteCacheClient<String, String> client = new MockRemoteCacheClient<String, String>();
+        client.getSetupMap.put( "key", new CacheElement<String, String>( "testGetAsync_ChainsRemote", "key", "value" ) );
+        List<ICache<String, String>> noWaits = new ArrayList<ICache<String, String>>();
+        noWaits.add( new RemoteCacheNoWait<String, String>( client ) );
+        List<RemoteLocation> locations = new ArrayList<RemoteLocation>();
+        locations.add( new RemoteLocation( "localhost", 1200 ) );
+        RemoteCacheShardedFacade<String, String> facade =
+            new RemoteCacheShardedFacade<String, String>( noWaits, locations, new RemoteCacheAttributes(), null, null, null );
+        @SuppressWarnings("unchecked")
+        AuxiliaryCache<String, String>[] aux = new AuxiliaryCache[] { facade };
+        cache.setAuxCaches( aux );
+        CacheAccess<String, String> access = new CacheAccess<String, String>( cache );
+
+        // DO WORK
+        String value = access.getAsync( "key" ).get();
+        String missing = access.getAsync( "missing" ).get();
+
+        // VERIFY
+        assertEquals( "Wrong value", "value", value );
+        assertNull( "Should not find the key", missing );
+        assertEquals( "Should use the asynchronous get of the client", 2, client.getAsyncCount );
+        assertNotNull( "Should copy the element to memory", cache.getMemoryCache().getQuiet( "key" ) );
+        assertEquals( "Wrong number of aux hits", 1, cache.getHitCountAux() );
+        assertEquals( "Wrong number of misses", 1, cache.getMissCountNotFound() );
+    }
+
+    /**
+     * Verify that an async get of a region whose remote auxiliary has no server to ask counts the
+     * miss, like a synchronous get.
+     * @throws Exception
+     */
+    public void testGetAsync_NoRemoteServerCountsMiss()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache =
+            new CompositeCache<String, String>( new CompositeCacheAttributes(), new ElementAttributes() );
+        RemoteCacheNoWaitFacade<String, String> facade = new RemoteCacheNoWaitFacade<String, String>(
+            new ArrayList<ICache<String, String>>(), new RemoteCacheAttributes(), null, null, null, null );
+        @SuppressWarnings("unchecked")
+        AuxiliaryCache<String, String>[] aux = new AuxiliaryCache[] { facade };
+        cache.setAuxCaches( aux );
+        CacheAccess<String, String> access = new CacheAccess<String, String>( cache );
+
+        // DO WORK
+        Future<String> missing = access.getAsync( "missing" );
+
+        // VERIFY
+        assertNull( "Should not find the key", missing.get() );
+        assertNull( "Should not find the key again", missing.get() );
+        assertEquals( "Wrong number of misses", 1, cache.getMissCountNotFound() );
+    }
+
     /**
      * Verify that we get an object exists exception if the item is in the cache.
      * @throws Exception
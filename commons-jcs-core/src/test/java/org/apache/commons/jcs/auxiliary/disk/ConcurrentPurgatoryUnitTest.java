@@ -0,0 +1,190 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.ElementAttributes;
+
+/** Unit tests for the concurrent purgatory. */
+public class ConcurrentPurgatoryUnitTest
+    extends TestCase
+{
+    /**
+     * @param key
+     * @return a purgatory element for the key
+     */
+    private static PurgatoryElement<String, String> element( String key )
+    {
+        return new PurgatoryElement<String, String>(
+            new CacheElement<String, String>( "testRegion", key, "value" + key, new ElementAttributes() ) );
+    }
+
+    /** Verify that the size limit is kept and the elements used last survive. */
+    public void testMaxSize()
+    {
+        // SETUP
+        int max = 20;
+        ConcurrentPurgatory<String, String> purgatory = new ConcurrentPurgatory<String, String>( max );
+
+        // DO WORK
+        for ( int i = 0; i < 100; i++ )
+        {
+            purgatory.put( "key" + i, element( "key" + i ) );
+            assertTrue( "Too many elements: " + purgatory.size(), purgatory.size() <= max );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", max, purgatory.size() );
+        assertEquals( "Wrong key count", max, purgatory.keySet().size() );
+        assertEquals( "Wrong eviction count", 80, purgatory.getEvictionCount() );
+        assertNotNull( "The last element should be kept", purgatory.get( "key99" ) );
+    }
+
+    /** Verify that a size of 0 or less means no limit. */
+    public void testUnbounded()
+    {
+        // SETUP
+        ConcurrentPurgatory<String, String> negative = new ConcurrentPurgatory<String, String>( -1 );
+        ConcurrentPurgatory<String, String> zero = new ConcurrentPurgatory<String, String>( 0 );
+
+        // DO WORK
+        for ( int i = 0; i < 1000; i++ )
+        {
+            negative.put( "key" + i, element( "key" + i ) );
+            zero.put( "key" + i, element( "key" + i ) );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", 1000, negative.size() );
+        assertEquals( "Nothing should be evicted", 0, negative.getEvictionCount() );
+        assertEquals( "Wrong size with 0", 1000, zero.size() );
+        assertEquals( "Nothing should be evicted with 0", 0, zero.getEvictionCount() );
+    }
+
+    /** Verify that removing an element does not remove a newer one of the same key. */
+    public void testRemoveIfCurrent()
+    {
+        // SETUP
+        ConcurrentPurgatory<String, String> purgatory = new ConcurrentPurgatory<String, String>( -1 );
+        PurgatoryElement<String, String> older = element( "key" );
+        PurgatoryElement<String, String> newer = element( "key" );
+        purgatory.put( "key", older );
+        purgatory.put( "key", newer );
+
+        // DO WORK
+        boolean removedOlder = purgatory.remove( "key", older );
+
+        // VERIFY
+        assertFalse( "Older element should not be current", removedOlder );
+        assertTrue( "Newer element should be current", purgatory.isCurrent( "key", newer ) );
+        assertEquals( "Wrong size", 1, purgatory.size() );
+        assertTrue( "Newer element should be removed", purgatory.remove( "key", newer ) );
+        assertEquals( "Wrong size", 0, purgatory.size() );
+    }
+
+    /** Verify that clear empties all segments but keeps the counters. */
+    public void testClear()
+    {
+        // SETUP
+        ConcurrentPurgatory<String, String> purgatory = new ConcurrentPurgatory<String, String>( 10 );
+        for ( int i = 0; i < 50; i++ )
+        {
+            purgatory.put( "key" + i, element( "key" + i ) );
+        }
+
+        // DO WORK
+        purgatory.clear();
+
+        // VERIFY
+        assertEquals( "Wrong size", 0, purgatory.size() );
+        assertTrue( "Wrong key set", purgatory.keySet().isEmpty() );
+        assertNull( "Should be empty", purgatory.get( "key49" ) );
+        assertEquals( "Evictions should be kept", 40, purgatory.getEvictionCount() );
+    }
+
+    /**
+     * Verify that concurrent puts, gets and removes keep the size consistent and are counted.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentAccess()
+        throws Exception
+    {
+        // SETUP
+        final int max = 500;
+        final ConcurrentPurgatory<String, String> purgatory = new ConcurrentPurgatory<String, String>( max );
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final int offset = t * 1000;
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 1000; i++ )
+                        {
+                            String key = "key" + ( offset + i );
+                            PurgatoryElement<String, String> pe = element( key );
+                            purgatory.put( key, pe );
+                            purgatory.get( key );
+                            if ( i % 3 == 0 )
+                            {
+                                purgatory.remove( key, pe );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        synchronized ( errors )
+                        {
+                            errors.add( e );
+                        }
+                    }
+                }
+            } );
+        }
+
+        // DO WORK
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertTrue( "Errors: " + errors, errors.isEmpty() );
+        assertTrue( "Too many elements: " + purgatory.size(), purgatory.size() <= max );
+        assertEquals( "Size should match the keys", purgatory.keySet().size(), purgatory.size() );
+        assertTrue( "Locks should be counted", purgatory.getLockCount() >= 8 * 2000 );
+        assertTrue( "Contended locks are a part of all", purgatory.getContendedCount() <= purgatory.getLockCount() );
+    }
+}
@@ -0,0 +1,205 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the disk buffer pool.
+ */
+public class DiskBufferPoolUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that a released buffer is handed out again for a request of the same size class.
+     */
+    public void testAcquireReleaseReuses()
+    {
+        // SETUP
+        DiskBufferPool pool = new DiskBufferPool();
+
+        // DO WORK
+        ByteBuffer first = pool.acquire( 1500 );
+        pool.release( first );
+        ByteBuffer second = pool.acquire( 2000 );
+
+        // VERIFY
+        assertSame( "Should reuse the buffer", first, second );
+        assertTrue( "Should be direct", second.isDirect() );
+        assertEquals( "Wrong capacity", 2048, second.capacity() );
+        assertEquals( "Wrong limit", 2000, second.limit() );
+        assertEquals( "Wrong position", 0, second.position() );
+        assertEquals( "Wrong allocations", 1, pool.getAllocations() );
+        assertEquals( "Wrong reuses", 1, pool.getReuses() );
+    }
+
+    /**
+     * Verify that requests above the maximum get a buffer of the maximum size.
+     */
+    public void testAcquireLargerThanMax()
+    {
+        // SETUP
+        DiskBufferPool pool = new DiskBufferPool( 4096, 2 );
+
+        // DO WORK
+        ByteBuffer buffer = pool.acquire( 100000 );
+
+        // VERIFY
+        assertEquals( "Wrong capacity", 4096, buffer.capacity() );
+        assertEquals( "Wrong limit", 4096, buffer.limit() );
+    }
+
+    /**
+     * Verify that only a bounded number of buffers is kept per size class.
+     */
+    public void testReleaseBounded()
+    {
+        // SETUP
+        DiskBufferPool pool = new DiskBufferPool( 4096, 2 );
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            buffers[i] = pool.acquire( 100 );
+        }
+
+        // DO WORK
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            pool.release( buffers[i] );
+        }
+        pool.release( ByteBuffer.allocate( 1024 ) );
+
+        // VERIFY
+        assertEquals( "Wrong number of free buffers", 2, pool.getFreeBuffers() );
+        assertEquals( "Wrong discards", 1, pool.getDiscards() );
+    }
+
+    /**
+     * Verify that a record larger than the maximum buffer is written completely.
+     * <p>
+     * @throws Exception
+     */
+    public void testWriteRecordInChunks()
+        throws Exception
+    {
+        // SETUP
+        DiskBufferPool pool = new DiskBufferPool( 1024, 2 );
+        File dir = new File( "target/test-sandbox/DiskBufferPoolUnitTest" );
+        dir.mkdirs();
+        File file = new File( dir, "testWriteRecordInChunks.data" );
+        file.delete();
+
+        byte[] data = new byte[5000];
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = (byte) i;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            FileChannel fc = raf.getChannel();
+
+            // DO WORK
+            long written = pool.writeRecord( fc, 10, data, 100, 4000 );
+
+            // VERIFY
+            assertEquals( "Wrong number of bytes written", 4004, written );
+            ByteBuffer header = ByteBuffer.allocate( 4 );
+            fc.read( header, 10 );
+            header.flip();
+            assertEquals( "Wrong header", 4000, header.getInt() );
+
+            ByteBuffer read = ByteBuffer.allocate( 4000 );
+            fc.read( read, 14 );
+            for ( int i = 0; i < 4000; i++ )
+            {
+                assertEquals( "Wrong byte at " + i, data[100 + i], read.get( i ) );
+            }
+            assertEquals( "Should have used one buffer", 1, pool.getAllocations() );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Verify that a record is read back in chunks through one pooled buffer, and that reading
+     * past the end of the file fails.
+     * <p>
+     * @throws Exception
+     */
+    public void testReadRecordInChunks()
+        throws Exception
+    {
+        // SETUP
+        DiskBufferPool pool = new DiskBufferPool( 1024, 2 );
+        File dir = new File( "target/test-sandbox/DiskBufferPoolUnitTest" );
+        dir.mkdirs();
+        File file = new File( dir, "testReadRecordInChunks.data" );
+        file.delete();
+
+        byte[] data = new byte[5000];
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = (byte) i;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            FileChannel fc = raf.getChannel();
+            pool.writeRecord( fc, 0, data, 0, data.length );
+            long allocations = pool.getAllocations();
+
+            // DO WORK
+            int length = pool.readInt( fc, 0 );
+            byte[] read = pool.read( fc, DiskBufferPool.HEADER_SIZE_BYTES, length );
+
+            // VERIFY
+            assertEquals( "Wrong header", 5000, length );
+            for ( int i = 0; i < data.length; i++ )
+            {
+                assertEquals( "Wrong byte at " + i, data[i], read[i] );
+            }
+            assertEquals( "Should have reused the buffers", allocations, pool.getAllocations() );
+            try
+            {
+                pool.read( fc, 4000, 2000 );
+                fail( "Should not read past the end of the file" );
+            }
+            catch ( EOFException e )
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.commons.jcs.auxiliary.disk.block;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.DiskTestObject;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * Tests for batched writes to the block disk cache.
+ */
+public class BlockDiskCacheBatchUnitTest
+    extends TestCase
+{
+    /** The test directory */
+    private static final String DISK_PATH = "target/test-sandbox/BlockDiskCacheBatchUnitTest";
+
+    /**
+     * Write a batch with elements that span several blocks, replacing earlier ones.
+     * <p>
+     * @throws Exception
+     */
+    public void testBlockBatchWithReplacements()
+        throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes cattr = new BlockDiskCacheAttributes();
+        cattr.setCacheName( "testBlockBatchWithReplacements" );
+        cattr.setMaxKeySize( 1000 );
+        cattr.setBlockSizeBytes( 1024 );
+        cattr.setDiskPath( DISK_PATH );
+        BlockDiskCache<Integer, DiskTestObject> disk = new BlockDiskCache<Integer, DiskTestObject>( cattr );
+        disk.processRemoveAll();
+        for ( int i = 0; i < 20; i++ )
+        {
+            disk.processUpdate( createElement( disk.getCacheName(), i, 3000 ) );
+        }
+
+        List<ICacheElement<Integer, DiskTestObject>> batch = new ArrayList<ICacheElement<Integer, DiskTestObject>>();
+        for ( int i = 10; i < 60; i++ )
+        {
+            batch.add( createElement( disk.getCacheName(), i, i * 100 ) );
+        }
+
+        // DO WORK
+        disk.processUpdateBatch( batch );
+
+        // VERIFY
+        for ( int i = 0; i < 60; i++ )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            assertNotNull( "Should have element " + i, element );
+            assertEquals( "Wrong size for element " + i, i < 10 ? 3000 : i * 100, element.getVal().imageBytes.length );
+        }
+
+        disk.processDispose();
+    }
+
+    /**
+     * @param cacheName the region
+     * @param key the key
+     * @param size the number of bytes in the value
+     * @return an element
+     */
+    private ICacheElement<Integer, DiskTestObject> createElement( String cacheName, int key, int size )
+    {
+        return new CacheElement<Integer, DiskTestObject>( cacheName, Integer.valueOf( key ),
+            new DiskTestObject( Integer.valueOf( key ), new byte[size] ) );
+    }
+}
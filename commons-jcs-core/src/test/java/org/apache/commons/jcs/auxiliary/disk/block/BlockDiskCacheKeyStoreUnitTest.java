@@ -19,6 +19,11 @@ package org.apache.commons.jcs.auxiliary.disk.block;
  * under the License.
  */
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+
 import junit.framework.TestCase;
 
 import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
@@ -187,4 +192,135 @@ public class BlockDiskCacheKeyStoreUnitTest
         assertNull(keyStore.get("1"));
         assertNotNull(keyStore.get("2"));
     }
+
+    /**
+     * Creates attributes for an unlimited key store and deletes its files.
+     * <p>
+     *
+     * @param cacheName
+     * @return the attributes
+     */
+    private BlockDiskCacheAttributes createCleanAttributes(String cacheName)
+    {
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName(cacheName);
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(-1);
+        attributes.setBlockSizeBytes(2000);
+
+        File[] files = attributes.getDiskPath().listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            if (files[i].getName().startsWith(cacheName + "."))
+            {
+                files[i].delete();
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Verify that saving only flushes the journal and that a new key store replays it.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testJournalReplay()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = createCleanAttributes("testJournalReplay");
+        BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<String>(attributes, null);
+        for (int i = 0; i < 100; i++)
+        {
+            keyStore.put(String.valueOf(i), new int[] { i });
+        }
+        keyStore.remove("7");
+        keyStore.put("8", new int[] { 100, 101 });
+
+        // DO WORK
+        keyStore.saveKeys();
+        keyStore.close();
+        BlockDiskKeyStore<String> reloaded = new BlockDiskKeyStore<String>(attributes, null);
+
+        // VERIFY
+        assertEquals("Should not have written a snapshot", 0, new File(rootDirName, "testJournalReplay.key").length());
+        assertEquals("Wrong journal record count", 102, reloaded.getJournalRecordCount());
+        assertEquals("Wrong number of keys", 99, reloaded.size());
+        assertNull("Removed key should stay removed", reloaded.get("7"));
+        assertEquals("Last put should win", 2, reloaded.get("8").length);
+        assertEquals("Wrong block", 42, reloaded.get("42")[0]);
+    }
+
+    /**
+     * Verify that a large journal is compacted into a snapshot and that later changes are
+     * replayed over it.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testSnapshotCompaction()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = createCleanAttributes("testSnapshotCompaction");
+        attributes.setKeyJournalMaxPercent(50);
+        BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<String>(attributes, null);
+        for (int i = 0; i < 2000; i++)
+        {
+            keyStore.put(String.valueOf(i), new int[] { i });
+        }
+
+        // DO WORK
+        keyStore.saveKeys();
+
+        // VERIFY
+        assertEquals("Journal should be empty after the snapshot", 0, keyStore.getJournalRecordCount());
+        assertTrue("Should have written a snapshot", new File(rootDirName, "testSnapshotCompaction.key").length() > 0);
+        assertFalse("Old segment should be deleted", new File(rootDirName, "testSnapshotCompaction.keylog.1").exists());
+
+        // DO WORK
+        keyStore.remove("5");
+        keyStore.put("6", new int[] { 5000 });
+        keyStore.saveKeys();
+        keyStore.close();
+        BlockDiskKeyStore<String> reloaded = new BlockDiskKeyStore<String>(attributes, null);
+
+        // VERIFY
+        assertEquals("Only the changes since the snapshot should be replayed", 2, reloaded.getJournalRecordCount());
+        assertEquals("Wrong number of keys", 1999, reloaded.size());
+        assertNull("Removed key should stay removed", reloaded.get("5"));
+        assertEquals("Wrong block", 5000, reloaded.get("6")[0]);
+        assertEquals("Wrong block", 1999, reloaded.get("1999")[0]);
+    }
+
+    /**
+     * Verify that a key file written with serialized descriptors is still read.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testLoadSerializedKeyFile()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = createCleanAttributes("testLoadSerializedKeyFile");
+        ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(rootDirName, "testLoadSerializedKeyFile.key"))));
+        for (int i = 0; i < 10; i++)
+        {
+            BlockDiskElementDescriptor<String> descriptor = new BlockDiskElementDescriptor<String>();
+            descriptor.setKey(String.valueOf(i));
+            descriptor.setBlocks(new int[] { i });
+            oos.writeUnshared(descriptor);
+        }
+        oos.close();
+
+        // DO WORK
+        BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<String>(attributes, null);
+
+        // VERIFY
+        assertEquals("Wrong number of keys", 10, keyStore.size());
+        assertEquals("Wrong block", 3, keyStore.get("3")[0]);
+    }
 }
@@ -0,0 +1,202 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.DiskTestObject;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+
+/**
+ * Tests for batched writes to the indexed disk cache.
+ */
+public class IndexedDiskCacheBatchUnitTest
+    extends TestCase
+{
+    /** The test directory */
+    private static final String DISK_PATH = "target/test-sandbox/IndexedDiskCacheBatchUnitTest";
+
+    /**
+     * Put through the queue with batching enabled. Everything should reach the disk, in batches.
+     * <p>
+     * @throws Exception
+     */
+    public void testQueuedPutsAreBatched()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testQueuedPutsAreBatched" );
+        cattr.setMaxKeySize( 1000 );
+        cattr.setMaxPurgatorySize( -1 );
+        cattr.setDiskPath( DISK_PATH );
+        cattr.setMaxBatchSize( 50 );
+        cattr.setMaxBatchWaitMillis( 20 );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<Integer, DiskTestObject>( cattr );
+        disk.processRemoveAll();
+        int items = 500;
+
+        // DO WORK
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.update( createElement( disk.getCacheName(), i, 100 + i ) );
+        }
+        waitForPurgatory( disk );
+
+        // VERIFY
+        assertEquals( "Wrong size", items, disk.getSize() );
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            assertNotNull( "Should have element " + i, element );
+            assertEquals( "Wrong size for element " + i, 100 + i, element.getVal().imageBytes.length );
+        }
+        long batches = ( (Long) getStat( disk, "Batches" ) ).longValue();
+        assertTrue( "Should have written in batches", batches > 0 && batches < items );
+
+        disk.dispose();
+    }
+
+    /**
+     * Put a batch far larger than the number of element locks taken at once. It should be written
+     * in chunks instead of taking a lock per element at the same time.
+     * <p>
+     * @throws Exception
+     */
+    public void testLargeBatch()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testLargeBatch" );
+        cattr.setMaxKeySize( 100000 );
+        cattr.setMaxPurgatorySize( -1 );
+        cattr.setDiskPath( DISK_PATH );
+        cattr.setMaxBatchSize( 100000 );
+        cattr.setMaxBatchWaitMillis( 2000 );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<Integer, DiskTestObject>( cattr );
+        disk.processRemoveAll();
+        int items = 50000;
+
+        // DO WORK
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.update( createElement( disk.getCacheName(), i, 10 ) );
+        }
+        waitForPurgatory( disk );
+
+        // VERIFY
+        assertEquals( "Wrong size", items, disk.getSize() );
+        assertNotNull( "Should have the last element", disk.processGet( Integer.valueOf( items - 1 ) ) );
+
+        disk.dispose();
+    }
+
+    /**
+     * Write a batch that appends, reuses slots in place and recycles slots.
+     * <p>
+     * @throws Exception
+     */
+    public void testIndexedBatchWithReplacements()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testIndexedBatchWithReplacements" );
+        cattr.setMaxKeySize( 1000 );
+        cattr.setDiskPath( DISK_PATH );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<Integer, DiskTestObject>( cattr );
+        disk.processRemoveAll();
+        for ( int i = 0; i < 20; i++ )
+        {
+            disk.processUpdate( createElement( disk.getCacheName(), i, 1000 ) );
+        }
+        disk.processRemove( Integer.valueOf( 19 ) );
+
+        List<ICacheElement<Integer, DiskTestObject>> batch = new ArrayList<ICacheElement<Integer, DiskTestObject>>();
+        for ( int i = 0; i < 40; i++ )
+        {
+            // smaller ones fit their old slot, larger ones are appended or take the free slot
+            batch.add( createElement( disk.getCacheName(), i, i % 2 == 0 ? 500 : 1500 ) );
+        }
+
+        // DO WORK
+        disk.processUpdateBatch( batch );
+
+        // VERIFY
+        for ( int i = 0; i < 40; i++ )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            assertNotNull( "Should have element " + i, element );
+            assertEquals( "Wrong id", Integer.valueOf( i ), element.getVal().id );
+            assertEquals( "Wrong size for element " + i, i % 2 == 0 ? 500 : 1500, element.getVal().imageBytes.length );
+        }
+
+        disk.processDispose();
+    }
+
+    /**
+     * @param disk the cache
+     * @throws InterruptedException
+     */
+    private void waitForPurgatory( AbstractDiskCache<?, ?> disk )
+        throws InterruptedException
+    {
+        for ( int i = 0; i < 500 && ( (Integer) getStat( disk, "Purgatory Size" ) ).intValue() > 0; i++ )
+        {
+            Thread.sleep( 10 );
+        }
+    }
+
+    /**
+     * @param disk the cache
+     * @param name the name of the statistic
+     * @return the value
+     */
+    private Object getStat( AbstractDiskCache<?, ?> disk, String name )
+    {
+        for ( IStatElement<?> element : disk.getStatistics().getStatElements() )
+        {
+            if ( name.equals( element.getName() ) )
+            {
+                return element.getData();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param cacheName the region
+     * @param key the key
+     * @param size the number of bytes in the value
+     * @return an element
+     */
+    private ICacheElement<Integer, DiskTestObject> createElement( String cacheName, int key, int size )
+    {
+        return new CacheElement<Integer, DiskTestObject>( cacheName, Integer.valueOf( key ),
+            new DiskTestObject( Integer.valueOf( key ), new byte[size] ) );
+    }
+}
@@ -0,0 +1,196 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.DiskTestObject;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * Tests for the concurrent, copy-forward optimization.
+ */
+public class IndexedDiskCacheConcurrentOptimizationUnitTest
+    extends TestCase
+{
+    /**
+     * @param name the cache name
+     * @param bytesPerSecond the optimization throttle
+     * @return a cache with concurrent optimization and no automatic optimization
+     */
+    private IndexedDiskCache<Integer, DiskTestObject> createCache( String name, long bytesPerSecond )
+    {
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( name );
+        cattr.setMaxKeySize( 1000 );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheConcurrentOptimizationUnitTest" );
+        cattr.setConcurrentOptimization( true );
+        cattr.setOptimizationBytesPerSecond( bytesPerSecond );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<Integer, DiskTestObject>( cattr );
+        disk.processRemoveAll();
+        return disk;
+    }
+
+    /**
+     * Add elements, remove a third and optimize. The file should shrink and the remaining
+     * elements should be readable.
+     * <p>
+     * @throws Exception
+     */
+    public void testOptimizationShrinksFile()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCache<Integer, DiskTestObject> disk = createCache( "testOptimizationShrinksFile", 0 );
+        int items = 150;
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.processUpdate( createElement( disk, i, 500 + i ) );
+        }
+        for ( int i = 0; i < items; i += 3 )
+        {
+            disk.processRemove( Integer.valueOf( i ) );
+        }
+        long sizeBefore = disk.getDataFileSize();
+
+        // DO WORK
+        disk.optimizeFile();
+
+        // VERIFY
+        assertTrue( "File should have shrunk", disk.getDataFileSize() < sizeBefore );
+        assertEquals( "Nothing should be free", 0, disk.getBytesFree() );
+        assertEquals( "Wrong times optimized", 1, disk.getTimesOptimized() );
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            if ( i % 3 == 0 )
+            {
+                assertNull( "Should not have element " + i, element );
+            }
+            else
+            {
+                assertNotNull( "Should have element " + i, element );
+                assertEquals( "Wrong size for element " + i, 500 + i, element.getVal().imageBytes.length );
+            }
+        }
+
+        disk.processDispose();
+    }
+
+    /**
+     * Run a throttled optimization and read, write and remove while it copies. All changes should
+     * be visible afterwards.
+     * <p>
+     * @throws Exception
+     */
+    public void testReadsAndWritesDuringOptimization()
+        throws Exception
+    {
+        // SETUP
+        final IndexedDiskCache<Integer, DiskTestObject> disk =
+            createCache( "testReadsAndWritesDuringOptimization", 100 * 1024 );
+        int items = 200;
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.processUpdate( createElement( disk, i, 1000 ) );
+        }
+        for ( int i = 0; i < items; i += 2 )
+        {
+            disk.processRemove( Integer.valueOf( i ) );
+        }
+
+        Thread optimizer = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                disk.optimizeFile();
+            }
+        } );
+
+        // DO WORK
+        optimizer.start();
+        int readsDuringOptimization = 0;
+        for ( int i = 1; i < items; i += 2 )
+        {
+            assertNotNull( "Should have element " + i, disk.processGet( Integer.valueOf( i ) ) );
+            if ( optimizer.isAlive() )
+            {
+                readsDuringOptimization++;
+            }
+        }
+        for ( int i = 1; i < items; i += 4 )
+        {
+            // replace with a smaller element, would reuse the slot without optimization
+            disk.processUpdate( createElement( disk, i, 10 ) );
+        }
+        for ( int i = 3; i < items; i += 8 )
+        {
+            disk.processRemove( Integer.valueOf( i ) );
+        }
+        for ( int i = items; i < items + 20; i++ )
+        {
+            disk.processUpdate( createElement( disk, i, 2000 ) );
+        }
+        optimizer.join();
+
+        // VERIFY
+        assertTrue( "Should have read while optimizing", readsDuringOptimization > 0 );
+        for ( int i = 0; i < items + 20; i++ )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            if ( i >= items )
+            {
+                assertNotNull( "Should have added element " + i, element );
+                assertEquals( "Wrong size for element " + i, 2000, element.getVal().imageBytes.length );
+            }
+            else if ( i % 2 == 0 || i % 8 == 3 )
+            {
+                assertNull( "Should not have element " + i, element );
+            }
+            else if ( i % 4 == 1 )
+            {
+                assertNotNull( "Should have updated element " + i, element );
+                assertEquals( "Wrong size for element " + i, 10, element.getVal().imageBytes.length );
+            }
+            else
+            {
+                assertNotNull( "Should have element " + i, element );
+                assertEquals( "Wrong size for element " + i, 1000, element.getVal().imageBytes.length );
+            }
+        }
+
+        disk.processDispose();
+    }
+
+    /**
+     * @param disk
+     * @param key
+     * @param size size of the payload
+     * @return a new element
+     */
+    private ICacheElement<Integer, DiskTestObject> createElement( IndexedDiskCache<Integer, DiskTestObject> disk,
+                                                                  int key, int size )
+    {
+        return new CacheElement<Integer, DiskTestObject>( disk.getCacheName(), Integer.valueOf( key ),
+            new DiskTestObject( Integer.valueOf( key ), new byte[size] ) );
+    }
+}
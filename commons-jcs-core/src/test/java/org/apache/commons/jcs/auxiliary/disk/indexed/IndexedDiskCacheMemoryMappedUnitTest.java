@@ -0,0 +1,141 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.DiskTestObject;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * Tests the indexed disk cache with reads served from a memory mapped data file.
+ */
+public class IndexedDiskCacheMemoryMappedUnitTest
+    extends TestCase
+{
+    /**
+     * Creates a cache with a small segment size, so that records end up in many segments and some
+     * span a segment boundary.
+     * <p>
+     * @param name the cache name
+     * @return the cache
+     */
+    private IndexedDiskCache<Integer, DiskTestObject> createCache( String name )
+    {
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( name );
+        cattr.setMaxKeySize( 1000 );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheMemoryMappedUnitTest" );
+        cattr.setMemoryMapped( true );
+        cattr.setMappedSegmentSize( 4096 );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<Integer, DiskTestObject>( cattr );
+        disk.processRemoveAll();
+        return disk;
+    }
+
+    /**
+     * Verify that elements can be read back while the file grows beyond the mapped segments.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutGetWhileGrowing()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCache<Integer, DiskTestObject> disk = createCache( "testPutGetWhileGrowing" );
+        int items = 200;
+
+        // DO WORK
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.processUpdate( createElement( disk, i, i * 7 ) );
+
+            // read an older element after every write, so that the mapping has to follow the file
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i / 2 ) );
+            assertNotNull( "Should have element " + i / 2, element );
+        }
+
+        // VERIFY
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            assertNotNull( "Should have element " + i, element );
+            assertEquals( "Wrong value for element " + i, Integer.valueOf( i ), element.getVal().id );
+            assertEquals( "Wrong size for element " + i, i * 7, element.getVal().imageBytes.length );
+        }
+        assertTrue( "File should span several segments", disk.getDataFileSize() > 4096 * 4 );
+
+        disk.processDispose();
+    }
+
+    /**
+     * Verify that reads still work after the file has been optimized and truncated.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetAfterOptimization()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCache<Integer, DiskTestObject> disk = createCache( "testGetAfterOptimization" );
+        int items = 100;
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.processUpdate( createElement( disk, i, 1000 ) );
+        }
+        for ( int i = 0; i < items; i++ )
+        {
+            assertNotNull( disk.processGet( Integer.valueOf( i ) ) );
+        }
+
+        // DO WORK
+        for ( int i = 0; i < items; i += 2 )
+        {
+            disk.processRemove( Integer.valueOf( i ) );
+        }
+        long sizeBefore = disk.getDataFileSize();
+        disk.optimizeFile();
+
+        // VERIFY
+        assertTrue( "File should have shrunk", disk.getDataFileSize() < sizeBefore );
+        for ( int i = 1; i < items; i += 2 )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            assertNotNull( "Should have element " + i, element );
+            assertEquals( "Wrong value for element " + i, Integer.valueOf( i ), element.getVal().id );
+        }
+
+        disk.processDispose();
+    }
+
+    /**
+     * @param disk
+     * @param key
+     * @param size size of the payload
+     * @return a new element
+     */
+    private ICacheElement<Integer, DiskTestObject> createElement( IndexedDiskCache<Integer, DiskTestObject> disk,
+                                                                  int key, int size )
+    {
+        return new CacheElement<Integer, DiskTestObject>( disk.getCacheName(), Integer.valueOf( key ),
+            new DiskTestObject( Integer.valueOf( key ), new byte[size] ) );
+    }
+}
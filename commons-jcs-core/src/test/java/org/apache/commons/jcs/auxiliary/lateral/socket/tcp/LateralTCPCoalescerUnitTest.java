@@ -0,0 +1,220 @@
+package org.apache.commons.jcs.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CacheInfo;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.MockCompositeCacheManager;
+import org.apache.commons.jcs.utils.timing.SleepUtil;
+
+/**
+ * Tests the coalescing of lateral updates and removes.
+ */
+public class LateralTCPCoalescerUnitTest
+    extends TestCase
+{
+    /**
+     * @param port the listener port
+     * @param cacheMgr the cache manager of the listener
+     * @param windowMillis the coalesce window
+     * @param maxKeys the keys that send a batch before the window ends
+     * @return a service that coalesces
+     * @throws Exception
+     */
+    private LateralTCPService<String, String> createService( int port, MockCompositeCacheManager cacheMgr,
+        int windowMillis, int maxKeys )
+        throws Exception
+    {
+        TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+        lattr.setTcpListenerPort( port );
+        lattr.setTransmissionTypeName( "TCP" );
+        LateralTCPListener.getInstance( lattr, cacheMgr );
+
+        TCPLateralCacheAttributes lattr2 = new TCPLateralCacheAttributes();
+        lattr2.setTransmissionTypeName( "TCP" );
+        lattr2.setTcpServer( "localhost:" + port );
+        lattr2.setCoalesceWindowMillis( windowMillis );
+        lattr2.setCoalesceMaxKeys( maxKeys );
+
+        LateralTCPService<String, String> service = new LateralTCPService<String, String>( lattr2 );
+        service.setListenerId( 123456 );
+        return service;
+    }
+
+    /**
+     * Verify that only the last command per key is sent, in one batch.
+     * <p>
+     * @throws Exception
+     */
+    public void testLastCommandWins()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPService<String, String> service = createService( 1136, cacheMgr, 200, 1000 );
+
+        // DO WORK
+        for ( int i = 0; i < 1000; i++ )
+        {
+            service.update( new CacheElement<String, String>( "test", "key" + ( i % 10 ), "value" + i ) );
+        }
+        service.remove( "test", "key0" );
+        SleepUtil.sleepAtLeast( 1000 );
+
+        // VERIFY
+        LateralTCPCoalescer<String, String> coalescer = service.getCoalescer();
+        assertEquals( "Wrong number of added commands", 1001, coalescer.getAddCount() );
+        assertEquals( "Should only send one command per key", 10, coalescer.getSendCount() );
+        assertEquals( "Should send one batch", 1, coalescer.getBatchCount() );
+        assertEquals( "Wrong number of updates at the listener", 9, cache.getUpdateCount() );
+        assertNull( "The remove should win", cache.get( "key0" ) );
+        for ( int i = 1; i < 10; i++ )
+        {
+            assertEquals( "Last update should win", "value" + ( 990 + i ), cache.get( "key" + i ).getVal() );
+        }
+    }
+
+    /**
+     * Verify that a batch is sent as soon as the maximum number of keys is reached.
+     * <p>
+     * @throws Exception
+     */
+    public void testMaxKeys()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        LateralTCPService<String, String> service = createService( 1137, cacheMgr, 60000, 5 );
+
+        // DO WORK
+        for ( int i = 0; i < 12; i++ )
+        {
+            service.update( new CacheElement<String, String>( "test", "key" + i, "value" + i ) );
+        }
+
+        // VERIFY
+        assertEquals( "Should have sent two full batches", 2, service.getCoalescer().getBatchCount() );
+        assertEquals( "Should have sent the keys of the full batches", 10, service.getCoalescer().getSendCount() );
+    }
+
+    /**
+     * Verify that a remove all is not overtaken by collected updates.
+     * <p>
+     * @throws Exception
+     */
+    public void testRemoveAllFlushes()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPService<String, String> service = createService( 1138, cacheMgr, 60000, 1000 );
+
+        // DO WORK
+        service.update( new CacheElement<String, String>( "test", "key", "value" ) );
+        service.removeAll( "test" );
+        SleepUtil.sleepAtLeast( 500 );
+
+        // VERIFY
+        assertEquals( "The update should have been sent first", 1, cache.getUpdateCount() );
+        assertNull( "The remove all should win", cache.get( "key" ) );
+    }
+
+    /**
+     * Verify that commands of different requesters are not sent in one batch, so the receiver does
+     * not drop the commands of others together with its own.
+     * <p>
+     * @throws Exception
+     */
+    public void testMixedRequestersNotBatched()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPService<String, String> service = createService( 1147, cacheMgr, 60000, 1000 );
+
+        // DO WORK
+        service.update( new CacheElement<String, String>( "test", "own", "value" ), CacheInfo.listenerId );
+        service.update( new CacheElement<String, String>( "test", "other1", "value1" ), 123456 );
+        service.update( new CacheElement<String, String>( "test", "other2", "value2" ), 123456 );
+        service.getCoalescer().flush();
+        SleepUtil.sleepAtLeast( 500 );
+
+        // VERIFY
+        assertEquals( "Should send one frame per requester", 2, service.getCoalescer().getBatchCount() );
+        assertNull( "The own update should be dropped by the receiver", cache.get( "own" ) );
+        assertEquals( "Wrong value", "value1", cache.get( "other1" ).getVal() );
+        assertEquals( "Wrong value", "value2", cache.get( "other2" ).getVal() );
+    }
+
+    /**
+     * Verify that a command added after the coalescer was disposed is sent at once.
+     * <p>
+     * @throws Exception
+     */
+    public void testAddAfterDispose()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPService<String, String> service = createService( 1148, cacheMgr, 60000, 1000 );
+        service.update( new CacheElement<String, String>( "test", "key1", "value1" ) );
+        service.getCoalescer().dispose();
+
+        // DO WORK
+        service.update( new CacheElement<String, String>( "test", "key2", "value2" ) );
+        SleepUtil.sleepAtLeast( 500 );
+
+        // VERIFY
+        assertEquals( "Wrong number of sent commands", 2, service.getCoalescer().getSendCount() );
+        assertEquals( "Wrong value", "value1", cache.get( "key1" ).getVal() );
+        assertEquals( "Wrong value", "value2", cache.get( "key2" ).getVal() );
+    }
+
+    /**
+     * Verify that a remove that arrives after a newer put on the receiver does not remove the
+     * newer value.
+     * <p>
+     * @throws Exception
+     */
+    public void testLateRemoveKeepsNewerPut()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPService<String, String> service = createService( 1149, cacheMgr, 60000, 1000 );
+        service.remove( "test", "key" );
+        cache.update( new CacheElement<String, String>( "test", "key", "newer" ) );
+
+        // DO WORK
+        service.getCoalescer().flush();
+        SleepUtil.sleepAtLeast( 500 );
+
+        // VERIFY
+        assertEquals( "The newer put should survive the late remove", "newer", cache.get( "key" ).getVal() );
+    }
+}
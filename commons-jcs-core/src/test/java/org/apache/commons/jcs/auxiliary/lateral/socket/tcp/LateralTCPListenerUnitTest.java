@@ -0,0 +1,184 @@
+package org.apache.commons.jcs.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.lateral.LateralCommand;
+import org.apache.commons.jcs.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.ElementVersionClock;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.MockCompositeCacheManager;
+
+/**
+ * Tests the command processing of the listener.
+ */
+public class LateralTCPListenerUnitTest
+    extends TestCase
+{
+    /** The listener */
+    private LateralTCPListener<String, String> listener;
+
+    /**
+     * Starts a listener.
+     * <p>
+     * @throws Exception
+     */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+        lattr.setTcpListenerPort( 1139 );
+        lattr.setTransmissionTypeName( "TCP" );
+        // the listener is shared by all tests, each test uses its own key
+        listener = LateralTCPListener.getInstance( lattr, new MockCompositeCacheManager() );
+    }
+
+    /**
+     * @param key the key
+     * @param command the command
+     * @param value the value, null for a remove
+     * @param version the version
+     * @return the descriptor
+     */
+    private LateralElementDescriptor<String, String> createCommand( String key, LateralCommand command, String value, long version )
+    {
+        CacheElement<String, String> ce = new CacheElement<String, String>( "test", key, value );
+        if ( value != null )
+        {
+            ElementVersionClock.setVersion( ce.getElementAttributes(), version );
+        }
+        LateralElementDescriptor<String, String> led = new LateralElementDescriptor<String, String>( ce );
+        led.requesterId = 123456;
+        led.command = command;
+        led.version = version;
+        return led;
+    }
+
+    /**
+     * Verify that a delayed invalidation does not remove a newer value.
+     * <p>
+     * @throws Exception
+     */
+    public void testStaleRemoveIgnored()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = listener.getCache( "test" );
+        long older = ElementVersionClock.next();
+        long newer = ElementVersionClock.next();
+        listener.processCommand( createCommand( "testStaleRemoveIgnored", LateralCommand.UPDATE, "newer", newer ) );
+        int staleBefore = listener.getStaleCnt();
+
+        // DO WORK
+        listener.processCommand( createCommand( "testStaleRemoveIgnored", LateralCommand.REMOVE, null, older ) );
+
+        // VERIFY
+        assertEquals( "The newer value should survive", "newer", cache.get( "testStaleRemoveIgnored" ).getVal() );
+        assertEquals( "Wrong stale count", staleBefore + 1, listener.getStaleCnt() );
+    }
+
+    /**
+     * Verify that an invalidation from a node with a clock that is ahead moves the local clock, so
+     * a following local put is newer and its invalidation is not ignored by that node.
+     * <p>
+     * @throws Exception
+     */
+    public void testRemoveFromSkewedNodeMovesClock()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = listener.getCache( "test" );
+        long skewed = ( System.currentTimeMillis() + 60000 ) << ElementVersionClock.COUNTER_BITS;
+
+        // DO WORK
+        listener.processCommand( createCommand( "testRemoveFromSkewedNodeMovesClock", LateralCommand.REMOVE, null, skewed ) );
+        CacheElement<String, String> ce = new CacheElement<String, String>( "test", "testRemoveFromSkewedNodeMovesClock", "local" );
+        cache.update( ce );
+
+        // VERIFY
+        assertTrue( "The local put should be newer than the received remove",
+            ElementVersionClock.getVersion( ce.getElementAttributes() ) > skewed );
+    }
+
+    /**
+     * Verify that a newer invalidation removes an older value.
+     * <p>
+     * @throws Exception
+     */
+    public void testNewerRemoveApplied()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = listener.getCache( "test" );
+        long older = ElementVersionClock.next();
+        long newer = ElementVersionClock.next();
+        listener.processCommand( createCommand( "testNewerRemoveApplied", LateralCommand.UPDATE, "older", older ) );
+
+        // DO WORK
+        listener.processCommand( createCommand( "testNewerRemoveApplied", LateralCommand.REMOVE, null, newer ) );
+
+        // VERIFY
+        assertNull( "The older value should be removed", cache.get( "testNewerRemoveApplied" ) );
+    }
+
+    /**
+     * Verify that an update that arrives late does not overwrite a newer value.
+     * <p>
+     * @throws Exception
+     */
+    public void testStaleUpdateIgnored()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = listener.getCache( "test" );
+        long older = ElementVersionClock.next();
+        long newer = ElementVersionClock.next();
+        listener.processCommand( createCommand( "testStaleUpdateIgnored", LateralCommand.UPDATE, "newer", newer ) );
+
+        // DO WORK
+        listener.processCommand( createCommand( "testStaleUpdateIgnored", LateralCommand.UPDATE, "older", older ) );
+
+        // VERIFY
+        assertEquals( "The newer value should survive", "newer", cache.get( "testStaleUpdateIgnored" ).getVal() );
+    }
+
+    /**
+     * Verify that unversioned commands are always applied.
+     * <p>
+     * @throws Exception
+     */
+    public void testUnversionedApplied()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = listener.getCache( "test" );
+        listener.processCommand( createCommand( "testUnversionedApplied", LateralCommand.UPDATE, "value", ElementVersionClock.next() ) );
+
+        // DO WORK
+        listener.processCommand( createCommand( "testUnversionedApplied", LateralCommand.REMOVE, null, 0 ) );
+
+        // VERIFY
+        assertNull( "The value should be removed", cache.get( "testUnversionedApplied" ) );
+    }
+}
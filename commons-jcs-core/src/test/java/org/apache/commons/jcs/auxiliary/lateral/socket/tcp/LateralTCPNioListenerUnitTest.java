@@ -0,0 +1,405 @@
+package org.apache.commons.jcs.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.lateral.LateralCommand;
+import org.apache.commons.jcs.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.MockCompositeCacheManager;
+import org.apache.commons.jcs.utils.timing.SleepUtil;
+
+/**
+ * Tests the selector based listener and the framed protocol.
+ */
+public class LateralTCPNioListenerUnitTest
+    extends TestCase
+{
+    /**
+     * @param port the listener port
+     * @return attributes for a listener that uses the framed protocol
+     */
+    private TCPLateralCacheAttributes createListenerAttributes( int port )
+    {
+        TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+        lattr.setTcpListenerPort( port );
+        lattr.setTransmissionTypeName( "TCP" );
+        lattr.setNioEnabled( true );
+        lattr.setNioSelectorThreads( 2 );
+        lattr.setNioWorkerThreads( 2 );
+        lattr.setNioMaxPendingCommands( 10 );
+        return lattr;
+    }
+
+    /**
+     * @param port the listener port
+     * @return a service that sends framed commands to the listener
+     * @throws Exception
+     */
+    private LateralTCPService<String, String> createService( int port )
+        throws Exception
+    {
+        TCPLateralCacheAttributes lattr2 = new TCPLateralCacheAttributes();
+        lattr2.setTransmissionTypeName( "TCP" );
+        lattr2.setTcpServer( "localhost:" + port );
+        lattr2.setNioEnabled( true );
+
+        LateralTCPService<String, String> service = new LateralTCPService<String, String>( lattr2 );
+        service.setListenerId( 123456 );
+        return service;
+    }
+
+    /**
+     * @param cache the cache
+     * @param count the expected update count
+     */
+    private void waitForUpdates( CompositeCache<?, ?> cache, int count )
+    {
+        for ( int i = 0; i < 100 && cache.getUpdateCount() < count; i++ )
+        {
+            SleepUtil.sleepAtLeast( 50 );
+        }
+    }
+
+    /**
+     * Verify that the commands of a connection are applied in order, even if the pending limit
+     * stops reading.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdatesInOrder()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPListener.getInstance( createListenerAttributes( 1131 ), cacheMgr );
+        LateralTCPService<String, String> service = createService( 1131 );
+
+        // DO WORK
+        int cnt = 500;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<String, String>( "test", "key", "value" + i ) );
+        }
+        waitForUpdates( cache, cnt );
+
+        // VERIFY
+        assertEquals( "Didn't get the correct number", cnt, cache.getUpdateCount() );
+        assertEquals( "Last update should win", "value" + ( cnt - 1 ), cache.get( "key" ).getVal() );
+    }
+
+    /**
+     * Verify that gets are answered, misses included, and don't wait for the socket time out.
+     * <p>
+     * @throws Exception
+     */
+    public void testGet()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        cache.localUpdate( new CacheElement<String, String>( "test", "key", "value" ) );
+        LateralTCPListener.getInstance( createListenerAttributes( 1132 ), cacheMgr );
+        LateralTCPService<String, String> service = createService( 1132 );
+
+        // DO WORK
+        long start = System.currentTimeMillis();
+        ICacheElement<String, String> hit = service.get( "test", "key" );
+        ICacheElement<String, String> miss = service.get( "test", "nokey" );
+        long elapsed = System.currentTimeMillis() - start;
+
+        // VERIFY
+        assertNotNull( "Should have found the element", hit );
+        assertEquals( "Wrong value", "value", hit.getVal() );
+        assertNull( "Should not have found an element", miss );
+        assertTrue( "A miss should not wait for the time out, took " + elapsed, elapsed < 1000 );
+    }
+
+    /**
+     * Verify that many connections are served by the few selector threads.
+     * <p>
+     * @throws Exception
+     */
+    public void testManyConnections()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPListener.getInstance( createListenerAttributes( 1133 ), cacheMgr );
+        List<LateralTCPService<String, String>> services = new ArrayList<LateralTCPService<String, String>>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            services.add( createService( 1133 ) );
+        }
+
+        // DO WORK
+        int cnt = 50;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            for ( int j = 0; j < services.size(); j++ )
+            {
+                services.get( j ).update( new CacheElement<String, String>( "test", "key" + j, "value" + i ) );
+            }
+        }
+        waitForUpdates( cache, cnt * services.size() );
+
+        // VERIFY
+        assertEquals( "Didn't get the correct number", cnt * services.size(), cache.getUpdateCount() );
+        for ( int j = 0; j < services.size(); j++ )
+        {
+            assertEquals( "Last update should win", "value" + ( cnt - 1 ), cache.get( "key" + j ).getVal() );
+        }
+    }
+
+    /**
+     * Verify that gets from many threads share one connection and each gets its own reply.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentGets()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.localUpdate( new CacheElement<String, String>( "test", "key" + i, "value" + i ) );
+        }
+        LateralTCPListener.getInstance( createListenerAttributes( 1134 ), cacheMgr );
+        final LateralTCPService<String, String> service = createService( 1134 );
+        final AtomicInteger errors = new AtomicInteger();
+
+        // DO WORK
+        Thread[] threads = new Thread[10];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int offset = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 200; i++ )
+                        {
+                            int k = ( i + offset ) % 100;
+                            ICacheElement<String, String> element = service.get( "test", "key" + k );
+                            if ( element == null || !( "value" + k ).equals( element.getVal() ) )
+                            {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertEquals( "Every get should have its own reply", 0, errors.get() );
+    }
+
+    /**
+     * Verify that commands and requests are processed by the workers, never by a selector thread,
+     * even when there are far more of them than may wait for a worker.
+     * <p>
+     * @throws Exception
+     */
+    public void testSelectorNeverProcesses()
+        throws Exception
+    {
+        // SETUP
+        final List<String> threadNames = new CopyOnWriteArrayList<String>();
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache =
+            new CompositeCache<String, String>( new CompositeCacheAttributes(), new ElementAttributes() )
+        {
+            @Override
+            public void localUpdate( ICacheElement<String, String> ce )
+                throws IOException
+            {
+                threadNames.add( Thread.currentThread().getName() );
+                SleepUtil.sleepAtLeast( 1 );
+                super.localUpdate( ce );
+            }
+
+            @Override
+            public ICacheElement<String, String> localGet( String key )
+            {
+                threadNames.add( Thread.currentThread().getName() );
+                SleepUtil.sleepAtLeast( 1 );
+                return super.localGet( key );
+            }
+        };
+        cacheMgr.setCache( cache );
+        TCPLateralCacheAttributes lattr = createListenerAttributes( 1145 );
+        lattr.setNioWorkerThreads( 1 );
+        lattr.setNioMaxPendingCommands( 2 );
+        LateralTCPListener.getInstance( lattr, cacheMgr );
+        final LateralTCPService<String, String> service = createService( 1145 );
+        final AtomicInteger errors = new AtomicInteger();
+
+        // DO WORK
+        Thread[] threads = new Thread[5];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 20; i++ )
+                        {
+                            service.get( "test", "key" + i );
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        int cnt = 100;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<String, String>( "test", "key", "value" + i ) );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        waitForUpdates( cache, cnt );
+
+        // VERIFY
+        assertEquals( "Every get should be answered", 0, errors.get() );
+        assertEquals( "Didn't get the correct number", cnt, cache.getUpdateCount() );
+        assertEquals( "Last update should win", "value" + ( cnt - 1 ), cache.get( "key" ).getVal() );
+        for ( String name : threadNames )
+        {
+            assertTrue( "Should process on a worker, not on " + name, name.startsWith( "JCS-LateralTCPWorker-" ) );
+        }
+    }
+
+    /**
+     * Verify that a socket time out of 0, which means no limit, lets requests wait for their
+     * reply instead of failing at once.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetWithoutTimeOut()
+        throws Exception
+    {
+        // SETUP
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        cache.localUpdate( new CacheElement<String, String>( "test", "key", "value" ) );
+        LateralTCPListener.getInstance( createListenerAttributes( 1146 ), cacheMgr );
+
+        TCPLateralCacheAttributes lattr2 = new TCPLateralCacheAttributes();
+        lattr2.setTransmissionTypeName( "TCP" );
+        lattr2.setTcpServer( "localhost:1146" );
+        lattr2.setNioEnabled( true );
+        lattr2.setSocketTimeOut( 0 );
+        lattr2.setRequestTimeOut( 0 );
+        LateralTCPService<String, String> service = new LateralTCPService<String, String>( lattr2 );
+        service.setListenerId( 123456 );
+
+        // DO WORK
+        ICacheElement<String, String> hit = service.get( "test", "key" );
+
+        // VERIFY
+        assertNotNull( "Should have found the element", hit );
+        assertEquals( "Wrong value", "value", hit.getVal() );
+    }
+
+    /**
+     * Verify that a request times out if the peer does not answer.
+     * <p>
+     * @throws Exception
+     */
+    public void testRequestTimeOut()
+        throws Exception
+    {
+        // SETUP
+        ServerSocket server = new ServerSocket( 1135 );
+        try
+        {
+            TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+            lattr.setTcpServer( "localhost:1135" );
+            lattr.setNioEnabled( true );
+            lattr.setRequestTimeOut( 200 );
+            LateralTCPSender sender = new LateralTCPSender( lattr );
+            LateralElementDescriptor<String, String> led =
+                new LateralElementDescriptor<String, String>( new CacheElement<String, String>( "test", "key", null ) );
+            led.command = LateralCommand.GET;
+
+            // DO WORK
+            long start = System.currentTimeMillis();
+            try
+            {
+                sender.sendAndReceive( led );
+                fail( "Should have timed out" );
+            }
+            catch ( SocketTimeoutException e )
+            {
+                // expected
+            }
+            long elapsed = System.currentTimeMillis() - start;
+
+            // VERIFY
+            assertTrue( "Should time out after the request time out, took " + elapsed, elapsed < 2000 );
+            sender.dispose();
+        }
+        finally
+        {
+            server.close();
+        }
+    }
+}
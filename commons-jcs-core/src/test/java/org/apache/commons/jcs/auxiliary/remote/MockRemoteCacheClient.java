@@ -25,6 +25,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.jcs.auxiliary.AbstractAuxiliaryCache;
 import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
@@ -65,6 +68,9 @@ public class MockRemoteCacheClient<K, V>
     public Map<Set<K>, Map<K, ICacheElement<K, V>>> getMultipleSetupMap =
         new HashMap<Set<K>, Map<K,ICacheElement<K,V>>>();
 
+    /** The number of calls to getAsync */
+    public int getAsyncCount = 0;
+
     /** The last service passed to fixCache */
     public ICacheServiceNonLocal<K, V> fixed;
 
@@ -90,6 +96,15 @@ public class MockRemoteCacheClient<K, V>
         return 0;
     }
 
+    /**
+     * @return 0
+     */
+    @Override
+    public long getDisconnectTime()
+    {
+        return 0;
+    }
+
     /**
      * @return null
      */
@@ -129,7 +144,19 @@ public class MockRemoteCacheClient<K, V>
     public Map<K, ICacheElement<K, V>> getMultiple(Set<K> keys)
     {
         log.info( "get [" + keys + "]" );
-        return getMultipleSetupMap.get( keys );
+        if ( getMultipleSetupMap.containsKey( keys ) )
+        {
+            return getMultipleSetupMap.get( keys );
+        }
+        Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
+        for ( K key : keys )
+        {
+            if ( getSetupMap.containsKey( key ) )
+            {
+                elements.put( key, getSetupMap.get( key ) );
+            }
+        }
+        return elements;
     }
 
     /**
@@ -258,4 +285,77 @@ public class MockRemoteCacheClient<K, V>
     {
         return null;
     }
+
+    /**
+     * Counts the call and runs get in the caller's thread.
+     * <p>
+     * @param key
+     * @return a done future
+     */
+    @Override
+    public Future<ICacheElement<K, V>> getAsync( final K key )
+    {
+        getAsyncCount++;
+        return run( new Callable<ICacheElement<K, V>>()
+        {
+            @Override
+            public ICacheElement<K, V> call()
+                throws IOException
+            {
+                return get( key );
+            }
+        } );
+    }
+
+    /**
+     * Runs getMultiple in the caller's thread.
+     * <p>
+     * @param keys
+     * @return a done future
+     */
+    @Override
+    public Future<Map<K, ICacheElement<K, V>>> getMultipleAsync( final Set<K> keys )
+    {
+        return run( new Callable<Map<K, ICacheElement<K, V>>>()
+        {
+            @Override
+            public Map<K, ICacheElement<K, V>> call()
+                throws IOException
+            {
+                return getMultiple( keys );
+            }
+        } );
+    }
+
+    /**
+     * Runs update in the caller's thread.
+     * <p>
+     * @param ce
+     * @return a done future
+     */
+    @Override
+    public Future<Void> updateAsync( final ICacheElement<K, V> ce )
+    {
+        return run( new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws IOException
+            {
+                update( ce );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * @param task
+     * @return the done future of the task
+     */
+    private <T> Future<T> run( Callable<T> task )
+    {
+        FutureTask<T> future = new FutureTask<T>( task );
+        future.run();
+        return future;
+    }
 }
@@ -0,0 +1,152 @@
+package org.apache.commons.jcs.auxiliary.remote;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.remote.server.RemoteCacheServer;
+import org.apache.commons.jcs.auxiliary.remote.server.RemoteCacheServerAttributes;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.ElementVersionClock;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+import org.apache.commons.jcs.utils.timing.SleepUtil;
+
+/**
+ * Tests for loading a region from a remote cache server.
+ */
+public class RemoteCacheRegionSyncUnitTest
+    extends TestCase
+{
+    /** The server */
+    private RemoteCacheServer<String, String> server;
+
+    /**
+     * Starts the server.
+     * <p>
+     * @throws Exception
+     */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        RemoteCacheServerAttributes rcsa = new RemoteCacheServerAttributes();
+        rcsa.setConfigFileName( "/TestRemoteCacheServer.ccf" );
+        // the constructor is protected, the factory would export the server
+        server = new RemoteCacheServer<String, String>( rcsa )
+        {
+            /** Don't change */
+            private static final long serialVersionUID = 1L;
+        };
+    }
+
+    /**
+     * Stops the server.
+     * <p>
+     * @throws Exception
+     */
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        server.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * Verify that the whole region is loaded in chunks.
+     * <p>
+     * @throws Exception
+     */
+    public void testSyncAll()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testSyncAll";
+        for ( int i = 0; i < 25; i++ )
+        {
+            server.update( new CacheElement<String, String>( cacheName, "key" + i, "value" + i ) );
+        }
+        CompositeCache<String, String> target = createTarget( cacheName );
+        RemoteCacheRegionSync<String, String> sync =
+            new RemoteCacheRegionSync<String, String>( server, new StandardSerializer() );
+
+        // DO WORK
+        int loaded = sync.sync( target, 0, 10, 0 );
+
+        // VERIFY
+        assertEquals( "Wrong number loaded", 25, loaded );
+        assertEquals( "Wrong number in memory", 25, target.getMemoryCache().getSize() );
+        assertEquals( "Wrong value", "value7", target.localGet( "key7" ).getVal() );
+    }
+
+    /**
+     * Verify that only the elements changed since the given time are loaded, and that newer local
+     * elements are kept.
+     * <p>
+     * @throws Exception
+     */
+    public void testSyncChangedSince()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testSyncChangedSince";
+        server.update( new CacheElement<String, String>( cacheName, "old", "1" ) );
+        SleepUtil.sleepAtLeast( 20 );
+        long since = System.currentTimeMillis();
+        server.update( new CacheElement<String, String>( cacheName, "new", "2" ) );
+        server.update( new CacheElement<String, String>( cacheName, "local", "3" ) );
+
+        CompositeCache<String, String> target = createTarget( cacheName );
+        ICacheElement<String, String> local = new CacheElement<String, String>( cacheName, "local", "mine" );
+        local.setElementAttributes( new ElementAttributes() );
+        ElementVersionClock.setVersion( local.getElementAttributes(), ElementVersionClock.next() );
+        target.localUpdate( local );
+
+        RemoteCacheRegionSync<String, String> sync =
+            new RemoteCacheRegionSync<String, String>( server, new StandardSerializer() );
+
+        // DO WORK
+        int loaded = sync.sync( target, since, 1, 0 );
+
+        // VERIFY
+        assertEquals( "Wrong number loaded", 1, loaded );
+        assertEquals( "Wrong value", "2", target.localGet( "new" ).getVal() );
+        assertNull( "Should not load unchanged elements", target.localGet( "old" ) );
+        assertEquals( "Should keep the newer local element", "mine", target.localGet( "local" ).getVal() );
+    }
+
+    /**
+     * @param cacheName the region
+     * @return a local region without auxiliaries
+     */
+    private CompositeCache<String, String> createTarget( String cacheName )
+    {
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMaxObjects( 100 );
+        return new CompositeCache<String, String>( cattr, new ElementAttributes() );
+    }
+}
@@ -0,0 +1,300 @@
+package org.apache.commons.jcs.auxiliary.remote;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CacheStatus;
+import org.apache.commons.jcs.engine.behavior.ICache;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.control.group.GroupId;
+import org.apache.commons.jcs.utils.timing.SleepUtil;
+
+/**
+ * Tests the sharded facade.
+ */
+public class RemoteCacheShardedFacadeUnitTest
+    extends TestCase
+{
+    /** The number of shards */
+    private static final int SHARDS = 3;
+
+    /** The number of keys */
+    private static final int KEYS = 300;
+
+    /** The shard clients */
+    private List<MockRemoteCacheClient<String, String>> clients;
+
+    /** The facade under test */
+    private RemoteCacheShardedFacade<String, String> facade;
+
+    /**
+     * Creates shards that all know every key; the value names the shard.
+     * <p>
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        clients = new ArrayList<MockRemoteCacheClient<String, String>>();
+        List<ICache<String, String>> noWaits = new ArrayList<ICache<String, String>>();
+        List<RemoteLocation> locations = new ArrayList<RemoteLocation>();
+        for ( int s = 0; s < SHARDS; s++ )
+        {
+            MockRemoteCacheClient<String, String> client = new MockRemoteCacheClient<String, String>();
+            for ( int k = 0; k < KEYS; k++ )
+            {
+                client.getSetupMap.put( "key" + k, new CacheElement<String, String>( "test", "key" + k, "shard" + s ) );
+            }
+            clients.add( client );
+            noWaits.add( new RemoteCacheNoWait<String, String>( client ) );
+            locations.add( new RemoteLocation( "localhost", 1200 + s ) );
+        }
+
+        RemoteCacheAttributes rca = new RemoteCacheAttributes();
+        rca.setCacheName( "test" );
+        facade = new RemoteCacheShardedFacade<String, String>( noWaits, locations, rca, null, null, null );
+    }
+
+    /**
+     * Verify that a key is always served by the same shard, and that the keys are spread over all
+     * shards.
+     * <p>
+     * @throws Exception
+     */
+    public void testKeysAreSpread()
+        throws Exception
+    {
+        // DO WORK
+        int[] counts = new int[SHARDS];
+        for ( int k = 0; k < KEYS; k++ )
+        {
+            String shard = facade.get( "key" + k ).getVal();
+            assertEquals( "Should be served by the same shard", shard, facade.get( "key" + k ).getVal() );
+            assertEquals( "Should be served by the owner", "shard" + facade.route( "key" + k, false ), shard );
+            counts[Integer.parseInt( shard.substring( 5 ) )]++;
+        }
+
+        // VERIFY
+        for ( int s = 0; s < SHARDS; s++ )
+        {
+            assertTrue( "Shard " + s + " should own a fair part of the keys, has " + counts[s],
+                        counts[s] > KEYS / SHARDS / 2 );
+        }
+    }
+
+    /**
+     * Verify that the keys of a failed shard are routed to the others, and that updates of them
+     * are sent to the failed owner as well.
+     * <p>
+     * @throws Exception
+     */
+    public void testReroute()
+        throws Exception
+    {
+        // SETUP
+        String key = "key1";
+        int owner = facade.route( key, false );
+        clients.get( owner ).status = CacheStatus.ERROR;
+
+        // DO WORK
+        ICacheElement<String, String> element = facade.get( key );
+        facade.update( new CacheElement<String, String>( "test", key, "new" ) );
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        int target = facade.route( key, true );
+        assertTrue( "Should route to another shard", target != owner );
+        assertEquals( "Wrong shard", "shard" + target, element.getVal() );
+        assertEquals( "The target should get the update", 1, clients.get( target ).updateList.size() );
+        assertEquals( "The owner should get the update as well", 1, clients.get( owner ).updateList.size() );
+
+        // the keys of the other shards stay where they are
+        for ( int k = 0; k < KEYS; k++ )
+        {
+            int keyOwner = facade.route( "key" + k, false );
+            if ( keyOwner != owner )
+            {
+                assertEquals( "Should not move", keyOwner, facade.route( "key" + k, true ) );
+            }
+        }
+    }
+
+    /**
+     * Verify that a value written to another shard while the owner failed is removed there once the
+     * owner is back, so a second failure of the owner does not serve it again.
+     * <p>
+     * @throws Exception
+     */
+    public void testFallbackCopyRemovedAfterRecovery()
+        throws Exception
+    {
+        // SETUP
+        String key = "key1";
+        int owner = facade.route( key, false );
+        clients.get( owner ).status = CacheStatus.ERROR;
+        int target = facade.route( key, true );
+        facade.update( new CacheElement<String, String>( "test", key, "first outage" ) );
+
+        // DO WORK
+        clients.get( owner ).status = CacheStatus.ALIVE;
+        facade.get( "key2" );
+        SleepUtil.sleepAtLeast( 200 );
+        clients.get( owner ).status = CacheStatus.ERROR;
+        facade.get( "key2" );
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        assertEquals( "The copy should be removed from the other shard once", 1, clients.get( target ).removeList.size() );
+        assertEquals( "Wrong key", key, clients.get( target ).removeList.get( 0 ) );
+    }
+
+    /**
+     * Verify that an update through the owner removes the copy that another shard got while the
+     * owner failed.
+     * <p>
+     * @throws Exception
+     */
+    public void testFallbackCopyRemovedOnWriteThrough()
+        throws Exception
+    {
+        // SETUP
+        String key = "key1";
+        int owner = facade.route( key, false );
+        clients.get( owner ).status = CacheStatus.ERROR;
+        int target = facade.route( key, true );
+        facade.update( new CacheElement<String, String>( "test", key, "first outage" ) );
+        clients.get( owner ).status = CacheStatus.ALIVE;
+
+        // DO WORK
+        facade.update( new CacheElement<String, String>( "test", key, "owner" ) );
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        assertEquals( "The copy should be removed from the other shard", 1, clients.get( target ).removeList.size() );
+        assertEquals( "The owner should have both updates", 2, clients.get( owner ).updateList.size() );
+    }
+
+    /**
+     * Verify that get multiple collects the keys from all shards.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetMultiple()
+        throws Exception
+    {
+        // SETUP
+        Set<String> keys = new HashSet<String>();
+        for ( int k = 0; k < 30; k++ )
+        {
+            keys.add( "key" + k );
+        }
+
+        // DO WORK
+        Map<String, ICacheElement<String, String>> elements = facade.getMultiple( keys );
+
+        // VERIFY
+        assertEquals( "Wrong number of elements", keys.size(), elements.size() );
+        for ( String key : keys )
+        {
+            assertEquals( "Wrong shard for " + key, "shard" + facade.route( key, false ), elements.get( key ).getVal() );
+        }
+    }
+
+    /**
+     * Verify that a hierarchical remove reaches all shards.
+     * <p>
+     * @throws Exception
+     */
+    public void testHierarchicalRemoveGoesToAllShards()
+        throws Exception
+    {
+        // DO WORK
+        facade.remove( "key:" );
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        for ( MockRemoteCacheClient<String, String> client : clients )
+        {
+            assertEquals( "Every shard should get the remove", "key:", client.removeList.get( 0 ) );
+        }
+    }
+
+    /**
+     * Verify that invalidating a group reaches all shards, its attributes are spread over them.
+     * <p>
+     * @throws Exception
+     */
+    public void testGroupInvalidateGoesToAllShards()
+        throws Exception
+    {
+        // SETUP
+        List<MockRemoteCacheClient<GroupAttrName<String>, String>> groupClients =
+            new ArrayList<MockRemoteCacheClient<GroupAttrName<String>, String>>();
+        List<ICache<GroupAttrName<String>, String>> noWaits = new ArrayList<ICache<GroupAttrName<String>, String>>();
+        List<RemoteLocation> locations = new ArrayList<RemoteLocation>();
+        for ( int s = 0; s < SHARDS; s++ )
+        {
+            MockRemoteCacheClient<GroupAttrName<String>, String> client =
+                new MockRemoteCacheClient<GroupAttrName<String>, String>();
+            groupClients.add( client );
+            noWaits.add( new RemoteCacheNoWait<GroupAttrName<String>, String>( client ) );
+            locations.add( new RemoteLocation( "localhost", 1200 + s ) );
+        }
+        RemoteCacheAttributes rca = new RemoteCacheAttributes();
+        rca.setCacheName( "test" );
+        RemoteCacheShardedFacade<GroupAttrName<String>, String> groupFacade =
+            new RemoteCacheShardedFacade<GroupAttrName<String>, String>( noWaits, locations, rca, null, null, null );
+
+        GroupId groupId = new GroupId( "test", "group" );
+        for ( int a = 0; a < 30; a++ )
+        {
+            GroupAttrName<String> key = new GroupAttrName<String>( groupId, "attr" + a );
+            groupFacade.update( new CacheElement<GroupAttrName<String>, String>( "test", key, "value" ) );
+        }
+
+        // DO WORK
+        GroupAttrName<String> groupKey = new GroupAttrName<String>( groupId, null );
+        groupFacade.remove( groupKey );
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        int shardsWithAttributes = 0;
+        for ( MockRemoteCacheClient<GroupAttrName<String>, String> client : groupClients )
+        {
+            if ( !client.updateList.isEmpty() )
+            {
+                shardsWithAttributes++;
+            }
+            assertEquals( "Every shard should get the remove", groupKey, client.removeList.get( 0 ) );
+        }
+        assertTrue( "The attributes should be spread", shardsWithAttributes > 1 );
+    }
+}
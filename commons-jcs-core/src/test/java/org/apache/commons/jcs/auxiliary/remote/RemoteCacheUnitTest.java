@@ -21,6 +21,8 @@ package org.apache.commons.jcs.auxiliary.remote;
 
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 import junit.framework.TestCase;
 
@@ -183,6 +185,72 @@ public class RemoteCacheUnitTest
         assertEquals( "End should have been called.", 1, cacheEventLogger.endICacheEventCalls );
     }
 
+    /**
+     * Verify that the async get calls the service in the background and logs the event.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetAsync()
+        throws Exception
+    {
+        // SETUP
+        RemoteCache<String, String> remoteCache = new RemoteCache<String, String>( cattr, service, listener, monitor );
+        MockCacheEventLogger cacheEventLogger = new MockCacheEventLogger();
+        remoteCache.setCacheEventLogger( cacheEventLogger );
+
+        // DO WORK
+        Future<ICacheElement<String, String>> future = remoteCache.getAsync( "key" );
+
+        // VERIFY
+        assertNull( "The mock has nothing", future.get() );
+        assertEquals( "Wrong key", "key", service.lastGetKey );
+        assertEquals( "Start should have been called.", 1, cacheEventLogger.startICacheEventCalls );
+        assertEquals( "End should have been called.", 1, cacheEventLogger.endICacheEventCalls );
+    }
+
+    /**
+     * Verify that the async get multiple sends all keys in one call.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetMultipleAsync()
+        throws Exception
+    {
+        // SETUP
+        RemoteCache<String, String> remoteCache = new RemoteCache<String, String>( cattr, service, listener, monitor );
+        Set<String> keys = new HashSet<String>();
+        keys.add( "a" );
+        keys.add( "b" );
+
+        // DO WORK
+        Map<String, ICacheElement<String, String>> result = remoteCache.getMultipleAsync( keys ).get();
+
+        // VERIFY
+        assertTrue( "The mock has nothing", result.isEmpty() );
+        assertEquals( "Wrong keys", keys, service.lastGetMultipleKeys );
+    }
+
+    /**
+     * Verify that the async update is done once the service has the item.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdateAsync()
+        throws Exception
+    {
+        // SETUP
+        RemoteCache<String, String> remoteCache = new RemoteCache<String, String>( cattr, service, listener, monitor );
+        ICacheElement<String, String> element = new CacheElement<String, String>( "testUpdateAsync", "key", "value" );
+
+        // DO WORK
+        remoteCache.updateAsync( element ).get();
+
+        // VERIFY
+        assertTrue( "The element should be in the serialized wrapper.",
+                    service.lastUpdate instanceof ICacheElementSerialized );
+        assertEquals( "Wrong key", "key", service.lastUpdate.getKey() );
+    }
+
     /**
      * Verify event log calls.
      * <p>
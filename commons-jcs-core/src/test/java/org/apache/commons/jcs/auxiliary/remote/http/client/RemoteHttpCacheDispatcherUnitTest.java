@@ -19,9 +19,19 @@ package org.apache.commons.jcs.auxiliary.remote.http.client;
  * under the License.
  */
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.TestCase;
+import org.apache.commons.jcs.auxiliary.remote.util.RemoteCacheBatchCodec;
+import org.apache.commons.jcs.auxiliary.remote.util.RemoteCacheRequestFactory;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheRequest;
+import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheResponse;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteRequestType;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
 
 /** Unit tests for the dispatcher. */
 public class RemoteHttpCacheDispatcherUnitTest
@@ -49,4 +59,85 @@ public class RemoteHttpCacheDispatcherUnitTest
         // VERIFY
         assertEquals( "Wrong url", baseUrl + "&CacheName=" + cacheName + "&Key=&RequestType=REMOVE_ALL", result  );
     }
+
+    /**
+     * Verify that the requests of concurrent callers are combined and each caller gets its own
+     * response.
+     * <p>
+     * @throws Exception
+     */
+    public void testBinaryBatching()
+        throws Exception
+    {
+        // SETUP
+        RemoteHttpCacheAttributes remoteHttpCacheAttributes = new RemoteHttpCacheAttributes();
+        remoteHttpCacheAttributes.setBinaryProtocol( true );
+        remoteHttpCacheAttributes.setBatchMaxInFlight( 1 );
+        remoteHttpCacheAttributes.setUrl( "http://localhost/cache" );
+        final RemoteHttpCacheDispatcher dispatcher = new RemoteHttpCacheDispatcher( remoteHttpCacheAttributes )
+        {
+            @Override
+            protected byte[] processBatch( byte[] batchAsByteArray, String url )
+                throws IOException
+            {
+                try
+                {
+                    // give the other callers time to pile up
+                    Thread.sleep( 50 );
+                    List<RemoteCacheRequest<String, String>> requests = RemoteCacheBatchCodec.decodeRequests( batchAsByteArray );
+                    List<RemoteCacheResponse<Object>> responses = new ArrayList<RemoteCacheResponse<Object>>();
+                    for ( RemoteCacheRequest<String, String> request : requests )
+                    {
+                        RemoteCacheResponse<Object> response = new RemoteCacheResponse<Object>();
+                        response.setPayload( new CacheElement<String, String>( request.getCacheName(), request.getKey(),
+                            "value-" + request.getKey() ) );
+                        responses.add( response );
+                    }
+                    return RemoteCacheBatchCodec.encodeResponses( responses );
+                }
+                catch ( Exception e )
+                {
+                    throw new IOException( e.getMessage() );
+                }
+            }
+        };
+        final AtomicInteger errors = new AtomicInteger();
+
+        // DO WORK
+        Thread[] threads = new Thread[20];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final String key = "key" + t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        RemoteCacheResponse<ICacheElement<String, String>> response =
+                            dispatcher.dispatchRequest( RemoteCacheRequestFactory.<String, String>createGetRequest( "test", key, 1 ) );
+                        if ( !( "value-" + key ).equals( response.getPayload().getVal() ) )
+                        {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    catch ( IOException e )
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertEquals( "Every caller should get its own response", 0, errors.get() );
+        assertTrue( "Should have combined requests, batches " + dispatcher.getBatchCount(),
+            dispatcher.getBatchCount() < threads.length );
+    }
 }
@@ -20,12 +20,15 @@ package org.apache.commons.jcs.auxiliary.remote.http.server;
  */
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.jcs.auxiliary.remote.MockRemoteCacheService;
+import org.apache.commons.jcs.auxiliary.remote.util.RemoteCacheBatchCodec;
 import org.apache.commons.jcs.auxiliary.remote.util.RemoteCacheRequestFactory;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheRequest;
 import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheResponse;
@@ -174,4 +177,37 @@ public class RemoteHttpCacheServletUnitTest
         assertNotNull( "Should have a result.", result );
         assertEquals( "Wrong cacheName.", cacheName, remoteHttpCacheService.lastRemoveAllCacheName );
     }
+
+    /** Verify that the requests of a batch are processed in order and answered. */
+    public void testProcessBatch()
+        throws Exception
+    {
+        // SETUP
+        CacheElement<Serializable, Serializable> element = new CacheElement<Serializable, Serializable>( "test", "key", "value" );
+        List<RemoteCacheRequest<Serializable, Serializable>> requests = new ArrayList<RemoteCacheRequest<Serializable, Serializable>>();
+        requests.add( RemoteCacheRequestFactory.createUpdateRequest( element, 2 ) );
+        requests.add( RemoteCacheRequestFactory.<Serializable, Serializable>createRemoveRequest( "test", "other", 2 ) );
+        requests.add( RemoteCacheRequestFactory.<Serializable, Serializable>createGetMultipleRequest( "test",
+            Collections.<Serializable>singleton( "key" ), 2 ) );
+
+        // DO WORK
+        byte[] result = servlet.processBatch( RemoteCacheBatchCodec.encodeRequests( requests ) );
+
+        // VERIFY
+        List<RemoteCacheResponse<Object>> responses = RemoteCacheBatchCodec.decodeResponses( result );
+        assertEquals( "Wrong number of responses", 3, responses.size() );
+        assertEquals( "Wrong value", "value", remoteHttpCacheService.lastUpdate.getVal() );
+        assertEquals( "Wrong key", "other", remoteHttpCacheService.lastRemoveKey );
+        assertEquals( "Wrong keys", Collections.singleton( "key" ), remoteHttpCacheService.lastGetMultipleKeys );
+    }
+
+    /** Verify that a broken batch is rejected. */
+    public void testProcessBatch_corrupt()
+    {
+        // DO WORK
+        byte[] result = servlet.processBatch( new byte[] { 1, 2, 3 } );
+
+        // VERIFY
+        assertNull( "Should reject the batch", result );
+    }
 }
@@ -22,6 +22,8 @@ package org.apache.commons.jcs.auxiliary.remote.server;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
@@ -342,6 +344,148 @@ public class RemoteCacheServerUnitTest
         }
     }
 
+    /**
+     * Verify that with interest based invalidation a client is only sent removes for the keys it
+     * fetched, and only once until it fetches the key again.
+     * <p>
+     * @throws Exception
+     */
+    public void testInterestBasedInvalidation()
+        throws Exception
+    {
+        // SETUP
+        IRemoteCacheServerAttributes rcsa = new RemoteCacheServerAttributes();
+        rcsa.setConfigFileName( "/TestRemoteCacheServer.ccf" );
+        rcsa.setInterestMaxKeys( 10 );
+        RemoteCacheServer<String, String> server = new RemoteCacheServer<String, String>( rcsa );
+
+        MockRemoteCacheListener<String, String> reader = new MockRemoteCacheListener<String, String>();
+        MockRemoteCacheListener<String, String> idle = new MockRemoteCacheListener<String, String>();
+        String cacheName = "testInterestBasedInvalidation";
+        server.addCacheListener( cacheName, reader );
+        server.addCacheListener( cacheName, idle );
+
+        server.get( cacheName, "a", reader.getListenerId() );
+
+        // DO WORK
+        server.update( new CacheElement<String, String>( cacheName, "a", "1" ), 9999 );
+        server.update( new CacheElement<String, String>( cacheName, "b", "1" ), 9999 );
+        server.update( new CacheElement<String, String>( cacheName, "a", "2" ), 9999 );
+        server.remove( cacheName, "b", 9999 );
+
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        assertEquals( "Should not send puts", 0, reader.putItems.size() + idle.putItems.size() );
+        assertEquals( "Should invalidate the fetched key once", 1, reader.removedKeys.size() );
+        assertEquals( "Wrong key", "a", reader.removedKeys.get( 0 ) );
+        assertEquals( "Should not invalidate keys that were not fetched", 0, idle.removedKeys.size() );
+
+        server.shutdown();
+    }
+
+    /**
+     * Verify that a hierarchical remove invalidates the clients that hold keys below it.
+     * <p>
+     * @throws Exception
+     */
+    public void testInterestBasedInvalidation_hierarchicalRemove()
+        throws Exception
+    {
+        // SETUP
+        IRemoteCacheServerAttributes rcsa = new RemoteCacheServerAttributes();
+        rcsa.setConfigFileName( "/TestRemoteCacheServer.ccf" );
+        rcsa.setInterestMaxKeys( 10 );
+        RemoteCacheServer<String, String> server = new RemoteCacheServer<String, String>( rcsa );
+
+        MockRemoteCacheListener<String, String> reader = new MockRemoteCacheListener<String, String>();
+        MockRemoteCacheListener<String, String> idle = new MockRemoteCacheListener<String, String>();
+        String cacheName = "testInterestBasedInvalidation_hierarchicalRemove";
+        server.addCacheListener( cacheName, reader );
+        server.addCacheListener( cacheName, idle );
+
+        server.update( new CacheElement<String, String>( cacheName, "a:b", "1" ), 9999 );
+        server.get( cacheName, "a:b", reader.getListenerId() );
+        server.get( cacheName, "c", idle.getListenerId() );
+
+        // DO WORK
+        server.remove( cacheName, "a:", 9999 );
+        server.update( new CacheElement<String, String>( cacheName, "a:b", "2" ), 9999 );
+
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        assertEquals( "Should invalidate the key below the removed one", 1, reader.removedKeys.size() );
+        assertEquals( "Wrong key", "a:", reader.removedKeys.get( 0 ) );
+        assertEquals( "Should not invalidate clients without such keys", 0, idle.removedKeys.size() );
+
+        server.shutdown();
+    }
+
+    /**
+     * Verify that keys falling out of the bounded interest of a client are invalidated at the client.
+     * <p>
+     * @throws Exception
+     */
+    public void testInterestBasedInvalidation_evicted()
+        throws Exception
+    {
+        // SETUP
+        IRemoteCacheServerAttributes rcsa = new RemoteCacheServerAttributes();
+        rcsa.setConfigFileName( "/TestRemoteCacheServer.ccf" );
+        rcsa.setInterestMaxKeys( 2 );
+        RemoteCacheServer<String, String> server = new RemoteCacheServer<String, String>( rcsa );
+
+        MockRemoteCacheListener<String, String> reader = new MockRemoteCacheListener<String, String>();
+        String cacheName = "testInterestBasedInvalidation_evicted";
+        server.addCacheListener( cacheName, reader );
+
+        // DO WORK
+        server.get( cacheName, "a", reader.getListenerId() );
+        server.get( cacheName, "b", reader.getListenerId() );
+        server.get( cacheName, "a", reader.getListenerId() );
+        server.get( cacheName, "c", reader.getListenerId() );
+
+        SleepUtil.sleepAtLeast( 200 );
+
+        // VERIFY
+        assertEquals( "Should invalidate the least recently fetched key", 1, reader.removedKeys.size() );
+        assertEquals( "Wrong key", "b", reader.removedKeys.get( 0 ) );
+
+        server.shutdown();
+    }
+
+    /**
+     * Verify that only the elements changed since the given time are returned.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetMultipleChangedSince()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testGetMultipleChangedSince";
+        server.update( new CacheElement<String, String>( cacheName, "old", "1" ) );
+        SleepUtil.sleepAtLeast( 20 );
+        long since = System.currentTimeMillis();
+        server.update( new CacheElement<String, String>( cacheName, "new", "2" ) );
+
+        Set<String> keys = new HashSet<String>();
+        keys.add( "old" );
+        keys.add( "new" );
+        keys.add( "missing" );
+
+        // DO WORK
+        Map<String, ICacheElement<String, String>> all = server.getMultipleChangedSince( cacheName, keys, 0, 0 );
+        Map<String, ICacheElement<String, String>> changed =
+            server.getMultipleChangedSince( cacheName, keys, since, 0 );
+
+        // VERIFY
+        assertEquals( "Wrong keys without a time", 2, all.size() );
+        assertEquals( "Wrong number of changed elements", 1, changed.size() );
+        assertEquals( "Wrong changed element", "2", changed.get( "new" ).getVal() );
+    }
+
     /**
      * Verify event log calls.
      * <p>
@@ -0,0 +1,148 @@
+package org.apache.commons.jcs.auxiliary.remote.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheRequest;
+import org.apache.commons.jcs.auxiliary.remote.value.RemoteCacheResponse;
+import org.apache.commons.jcs.auxiliary.remote.value.RemoteRequestType;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+
+/**
+ * Tests the binary batch codec.
+ */
+public class RemoteCacheBatchCodecUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that the requests of all types survive a round trip.
+     * <p>
+     * @throws Exception
+     */
+    public void testRequests()
+        throws Exception
+    {
+        // SETUP
+        Set<String> keys = new HashSet<String>();
+        keys.add( "a" );
+        keys.add( "b" );
+        List<RemoteCacheRequest<String, String>> before = new ArrayList<RemoteCacheRequest<String, String>>();
+        before.add( RemoteCacheRequestFactory.<String, String>createGetRequest( "region", "key", 1 ) );
+        before.add( RemoteCacheRequestFactory.<String, String>createGetMultipleRequest( "region", keys, 2 ) );
+        before.add( RemoteCacheRequestFactory.<String, String>createGetMatchingRequest( "region", "k.*", 3 ) );
+        before.add( RemoteCacheRequestFactory.createUpdateRequest(
+            new CacheElement<String, String>( "region", "key", "value" ), 4 ) );
+        before.add( RemoteCacheRequestFactory.<String, String>createRemoveRequest( "region", "key", 5 ) );
+        before.add( RemoteCacheRequestFactory.<String, String>createRemoveAllRequest( "region", 6 ) );
+        before.add( RemoteCacheRequestFactory.<String, String>createAliveCheckRequest( 7 ) );
+
+        // DO WORK
+        List<RemoteCacheRequest<String, String>> after =
+            RemoteCacheBatchCodec.decodeRequests( RemoteCacheBatchCodec.encodeRequests( before ) );
+
+        // VERIFY
+        assertEquals( "Wrong number of requests", before.size(), after.size() );
+        for ( int i = 0; i < before.size(); i++ )
+        {
+            assertEquals( "Wrong type", before.get( i ).getRequestType(), after.get( i ).getRequestType() );
+            assertEquals( "Wrong requester", before.get( i ).getRequesterId(), after.get( i ).getRequesterId() );
+            assertEquals( "Wrong cache name", before.get( i ).getCacheName(), after.get( i ).getCacheName() );
+        }
+        assertEquals( "Wrong key", "key", after.get( 0 ).getKey() );
+        assertEquals( "Wrong keys", keys, after.get( 1 ).getKeySet() );
+        assertEquals( "Wrong pattern", "k.*", after.get( 2 ).getPattern() );
+        assertEquals( "Wrong value", "value", after.get( 3 ).getCacheElement().getVal() );
+        assertEquals( "Wrong key", "key", after.get( 4 ).getKey() );
+        assertEquals( "Wrong type", RemoteRequestType.ALIVE_CHECK, after.get( 6 ).getRequestType() );
+    }
+
+    /**
+     * Verify that the responses survive a round trip, maps of elements included.
+     * <p>
+     * @throws Exception
+     */
+    public void testResponses()
+        throws Exception
+    {
+        // SETUP
+        Map<String, ICacheElement<String, String>> map = new HashMap<String, ICacheElement<String, String>>();
+        map.put( "key", new CacheElement<String, String>( "region", "key", "value" ) );
+        List<RemoteCacheResponse<Object>> before = new ArrayList<RemoteCacheResponse<Object>>();
+        RemoteCacheResponse<Object> element = new RemoteCacheResponse<Object>();
+        element.setPayload( new CacheElement<String, String>( "region", "key", "value" ) );
+        before.add( element );
+        RemoteCacheResponse<Object> elements = new RemoteCacheResponse<Object>();
+        elements.setPayload( map );
+        before.add( elements );
+        RemoteCacheResponse<Object> error = new RemoteCacheResponse<Object>();
+        error.setSuccess( false );
+        error.setErrorMessage( "failed" );
+        before.add( error );
+
+        // DO WORK
+        List<RemoteCacheResponse<Object>> after =
+            RemoteCacheBatchCodec.decodeResponses( RemoteCacheBatchCodec.encodeResponses( before ) );
+
+        // VERIFY
+        assertEquals( "Wrong number of responses", 3, after.size() );
+        assertEquals( "Wrong value", "value", ( (ICacheElement<?, ?>) after.get( 0 ).getPayload() ).getVal() );
+        Map<?, ?> afterMap = (Map<?, ?>) after.get( 1 ).getPayload();
+        assertEquals( "Wrong value", "value", ( (ICacheElement<?, ?>) afterMap.get( "key" ) ).getVal() );
+        assertTrue( "Should be a success", after.get( 1 ).isSuccess() );
+        assertFalse( "Should be a failure", after.get( 2 ).isSuccess() );
+        assertEquals( "Wrong message", "failed", after.get( 2 ).getErrorMessage() );
+        assertNull( "Should have no payload", after.get( 2 ).getPayload() );
+    }
+
+    /**
+     * Verify that a serialized request is rejected.
+     * <p>
+     * @throws Exception
+     */
+    public void testRejectsSerializedRequest()
+        throws Exception
+    {
+        // SETUP
+        byte[] data = new StandardSerializer().serialize(
+            RemoteCacheRequestFactory.<String, String>createGetRequest( "region", "key", 1 ) );
+
+        // DO WORK
+        try
+        {
+            RemoteCacheBatchCodec.decodeRequests( data );
+            fail( "Should reject a serialized request" );
+        }
+        catch ( StreamCorruptedException e )
+        {
+            // expected
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.apache.commons.jcs.engine;
  * under the License.
  */
 
+import java.io.File;
+
 import junit.framework.TestCase;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 
@@ -28,6 +30,27 @@ import org.apache.commons.jcs.engine.behavior.ICacheElement;
 public class ZombieCacheServiceNonLocalUnitTest
     extends TestCase
 {
+    /** The parent of the journal directories of the tests */
+    private static final File SANDBOX = new File( "target/test-sandbox/ZombieCacheServiceNonLocalUnitTest" );
+
+    /**
+     * Removes the journals of earlier runs.
+     */
+    @Override
+    protected void setUp()
+    {
+        delete( SANDBOX );
+    }
+
+    /**
+     * Removes the journals of this test.
+     */
+    @Override
+    protected void tearDown()
+    {
+        delete( SANDBOX );
+    }
+
     /**
      * Verify that an update event gets added and then is sent to the service passed to propagate.
      * <p>
@@ -122,4 +145,176 @@ public class ZombieCacheServiceNonLocalUnitTest
         // VERIFY
         assertEquals( "Updated element is not as expected.", cacheName, service.lastRemoveAllCacheName );
     }
+
+    /**
+     * Verify that only the last event of a key is replayed, and that a removeAll drops the earlier
+     * events of its region.
+     * <p>
+     * @throws Exception
+     */
+    public void testCoalesceByKey()
+        throws Exception
+    {
+        // SETUP
+        MockCacheServiceNonLocal<String, String> service = new MockCacheServiceNonLocal<String, String>();
+        ZombieCacheServiceNonLocal<String, String> zombie = new ZombieCacheServiceNonLocal<String, String>( 10 );
+
+        // DO WORK
+        zombie.update( new CacheElement<String, String>( "other", "key", "1" ), 123l );
+        zombie.update( new CacheElement<String, String>( "region", "key", "1" ), 123l );
+        zombie.remove( "region", "gone", 123l );
+        zombie.removeAll( "region", 123l );
+        zombie.update( new CacheElement<String, String>( "region", "key", "2" ), 123l );
+        zombie.update( new CacheElement<String, String>( "region", "key", "3" ), 123l );
+        int queued = zombie.getQueueSize();
+        zombie.propagateEvents( service );
+
+        // VERIFY
+        assertEquals( "Wrong queue size", 3, queued );
+        assertEquals( "Wrong coalesce count", 3, zombie.getCoalesceCount() );
+        assertEquals( "Wrong number of updates", 2, service.updateRequestList.size() );
+        assertEquals( "Wrong first update", "other", service.updateRequestList.get( 0 ).getCacheName() );
+        assertEquals( "Wrong last update", "3", service.lastUpdate.getVal() );
+        assertNull( "Remove should be dropped by the removeAll", service.lastRemoveKey );
+        assertEquals( "Wrong removeAll", "region", service.lastRemoveAllCacheName );
+    }
+
+    /**
+     * Verify that events that do not fit in memory go to the journal and are replayed in order.
+     * <p>
+     * @throws Exception
+     */
+    public void testJournalOverflow()
+        throws Exception
+    {
+        // SETUP
+        MockCacheServiceNonLocal<String, String> service = new MockCacheServiceNonLocal<String, String>();
+        ZombieCacheServiceNonLocal<String, String> zombie = new ZombieCacheServiceNonLocal<String, String>( 2 );
+        File dir = new File( SANDBOX, "overflow" );
+        zombie.setJournal( dir, 100 );
+        zombie.setReplayRate( 0, 3 );
+
+        // DO WORK
+        for ( int i = 0; i < 10; i++ )
+        {
+            zombie.update( new CacheElement<String, String>( "region", "key" + i, "value" + i ), 123l );
+        }
+        zombie.update( new CacheElement<String, String>( "region", "key0", "latest" ), 123l );
+        int queued = zombie.getQueueSize();
+        zombie.propagateEvents( service );
+
+        // VERIFY
+        assertEquals( "Wrong queue size", 10, queued );
+        assertEquals( "Wrong journal count", 9, zombie.getJournalCount() );
+        assertEquals( "Nothing should be dropped", 0, zombie.getDropCount() );
+        assertEquals( "Wrong replay count", 10, zombie.getReplayCount() );
+        assertEquals( "Wrong number of updates", 10, service.updateRequestList.size() );
+        for ( int i = 1; i < 10; i++ )
+        {
+            assertEquals( "Wrong order", "value" + i, service.updateRequestList.get( i - 1 ).getVal() );
+        }
+        assertEquals( "Wrong last update", "latest", service.lastUpdate.getVal() );
+        assertEquals( "Queue should be empty", 0, zombie.getQueueSize() );
+        String[] files = dir.list();
+        assertEquals( "Journal should be deleted", 0, files == null ? 0 : files.length );
+    }
+
+    /**
+     * Verify that events beyond the journal are dropped and counted.
+     * <p>
+     * @throws Exception
+     */
+    public void testJournalFull()
+        throws Exception
+    {
+        // SETUP
+        MockCacheServiceNonLocal<String, String> service = new MockCacheServiceNonLocal<String, String>();
+        ZombieCacheServiceNonLocal<String, String> zombie = new ZombieCacheServiceNonLocal<String, String>( 2 );
+        zombie.setJournal( new File( SANDBOX, "full" ), 3 );
+
+        // DO WORK
+        for ( int i = 0; i < 10; i++ )
+        {
+            zombie.update( new CacheElement<String, String>( "region", "key" + i, "value" + i ), 123l );
+        }
+        zombie.propagateEvents( service );
+
+        // VERIFY
+        assertEquals( "Wrong drop count", 5, zombie.getDropCount() );
+        assertEquals( "Wrong number of updates", 5, service.updateRequestList.size() );
+        assertEquals( "Should keep the newest", "value5", service.updateRequestList.get( 0 ).getVal() );
+    }
+
+    /**
+     * Verify that the journal keeps the last event of a key when it is compacted, and that no
+     * other files are left behind.
+     * <p>
+     * @throws Exception
+     */
+    public void testJournalCompaction()
+        throws Exception
+    {
+        // SETUP
+        MockCacheServiceNonLocal<String, String> service = new MockCacheServiceNonLocal<String, String>();
+        ZombieCacheServiceNonLocal<String, String> zombie = new ZombieCacheServiceNonLocal<String, String>( 1 );
+        File dir = new File( SANDBOX, "compaction" );
+        zombie.setJournal( dir, 100 );
+
+        // DO WORK
+        for ( int i = 0; i < 3000; i++ )
+        {
+            zombie.update( new CacheElement<String, String>( "region", "key" + i % 3, "value" + i ), 123l );
+        }
+        String[] files = dir.list();
+        zombie.propagateEvents( service );
+
+        // VERIFY
+        assertEquals( "Compaction should leave only the journal", 1, files.length );
+        assertEquals( "Wrong number of updates", 3, service.updateRequestList.size() );
+        assertEquals( "Wrong first update", "value2997", service.updateRequestList.get( 0 ).getVal() );
+        assertEquals( "Wrong last update", "value2999", service.lastUpdate.getVal() );
+    }
+
+    /**
+     * Verify that the replay keeps to the rate.
+     * <p>
+     * @throws Exception
+     */
+    public void testReplayRate()
+        throws Exception
+    {
+        // SETUP
+        MockCacheServiceNonLocal<String, String> service = new MockCacheServiceNonLocal<String, String>();
+        ZombieCacheServiceNonLocal<String, String> zombie = new ZombieCacheServiceNonLocal<String, String>( 100 );
+        zombie.setReplayRate( 100, 5 );
+        for ( int i = 0; i < 20; i++ )
+        {
+            zombie.update( new CacheElement<String, String>( "region", "key" + i, "value" + i ), 123l );
+        }
+
+        // DO WORK
+        long start = System.currentTimeMillis();
+        zombie.propagateEvents( service );
+        long elapsed = System.currentTimeMillis() - start;
+
+        // VERIFY
+        assertEquals( "Wrong number of updates", 20, service.updateRequestList.size() );
+        assertTrue( "Replay was too fast: " + elapsed, elapsed >= 190 );
+    }
+
+    /**
+     * @param file a file or a directory to delete with its contents
+     */
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
 }
@@ -25,6 +25,7 @@ import org.apache.commons.jcs.auxiliary.MockAuxiliaryCache;
 import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.CompositeCacheAttributes;
 import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.ElementVersionClock;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheType.CacheType;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
@@ -33,6 +34,7 @@ import org.apache.commons.jcs.engine.memory.MockMemoryCache;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests that directly engage the composite cache.
@@ -242,4 +244,104 @@ public class CompositeCacheUnitTest
         // VERIFY
         assertEquals( "Wrong number of calls", 1, diskMock.getMatchingCallCount );
     }
+
+    /**
+     * Verify that concurrent puts and gets on different keys all succeed and that a hierarchical
+     * remove still removes every matching key.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentUpdateAndGet()
+        throws Exception
+    {
+        // SETUP
+        final int numThreads = 8;
+        final int numPerThread = 500;
+        String memoryCacheClassName = "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache";
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testConcurrentUpdateAndGet" );
+        cattr.setMemoryCacheName( memoryCacheClassName );
+        cattr.setMaxObjects( numThreads * numPerThread );
+
+        IElementAttributes attr = new ElementAttributes();
+
+        final CompositeCache<String, Integer> cache = new CompositeCache<String, Integer>( cattr, attr );
+        final AtomicInteger misses = new AtomicInteger();
+
+        // DO WORK
+        Thread[] threads = new Thread[numThreads];
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            final int threadNum = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < numPerThread; i++ )
+                        {
+                            String key = threadNum + ":" + i;
+                            cache.update( new CacheElement<String, Integer>( "testConcurrentUpdateAndGet", key, Integer.valueOf( i ) ) );
+                            if ( cache.get( key ) == null )
+                            {
+                                misses.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch ( IOException e )
+                    {
+                        misses.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertEquals( "Wrong number of misses", 0, misses.get() );
+        assertEquals( "Wrong number of elements", numThreads * numPerThread, cache.getSize() );
+
+        cache.remove( "0:" );
+        assertEquals( "Wrong number of elements after hierarchical remove", ( numThreads - 1 ) * numPerThread, cache.getSize() );
+    }
+
+    /**
+     * Verify that local puts get increasing versions and that puts from other nodes keep theirs.
+     * <p>
+     * @throws IOException
+     */
+    public void testUpdateVersions()
+        throws IOException
+    {
+        // SETUP
+        String cacheName = "testCacheName";
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        CompositeCache<String, Integer> cache = new CompositeCache<String, Integer>( cattr, new ElementAttributes() );
+
+        ICacheElement<String, Integer> first = new CacheElement<String, Integer>( cacheName, "key", Integer.valueOf( 1 ) );
+        ICacheElement<String, Integer> second = new CacheElement<String, Integer>( cacheName, "key", Integer.valueOf( 2 ) );
+        ICacheElement<String, Integer> remote = new CacheElement<String, Integer>( cacheName, "key", Integer.valueOf( 3 ) );
+        long remoteVersion = ElementVersionClock.next() + 1000000;
+        ElementVersionClock.setVersion( remote.getElementAttributes(), remoteVersion );
+        ICacheElement<String, Integer> third = new CacheElement<String, Integer>( cacheName, "key", Integer.valueOf( 4 ) );
+
+        // DO WORK
+        cache.update( first );
+        cache.update( second );
+        cache.localUpdate( remote );
+        cache.update( third );
+
+        // VERIFY
+        long firstVersion = ElementVersionClock.getVersion( first.getElementAttributes() );
+        assertTrue( "Should have a version", firstVersion > 0 );
+        assertTrue( "Versions should increase", ElementVersionClock.getVersion( second.getElementAttributes() ) > firstVersion );
+        assertEquals( "Should keep the version of the other node", remoteVersion, ElementVersionClock.getVersion( remote.getElementAttributes() ) );
+        assertTrue( "Should be newer than the version of the other node", ElementVersionClock.getVersion( third.getElementAttributes() ) > remoteVersion );
+    }
 }
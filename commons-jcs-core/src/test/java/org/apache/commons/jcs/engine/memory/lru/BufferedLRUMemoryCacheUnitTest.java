@@ -0,0 +1,231 @@
+package org.apache.commons.jcs.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.memory.behavior.IMemoryCache;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+
+/**
+ * Tests for the LRU memory cache with buffered reads.
+ */
+public class BufferedLRUMemoryCacheUnitTest
+    extends TestCase
+{
+    /**
+     * Put twice as many as the max. Verify that the second half is in the cache.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutGetThroughHub()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = createCache( 100 );
+
+        // DO WORK
+        for ( int i = 0; i < 200; i++ )
+        {
+            put( cache, i + ":key" );
+        }
+
+        // VERIFY
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertNull( "Should not have value for key [" + i + ":key]", cache.get( i + ":key" ) );
+        }
+        for ( int i = 100; i < 200; i++ )
+        {
+            assertEquals( "Wrong value", "value " + i + ":key", cache.get( i + ":key" ).getVal() );
+        }
+    }
+
+    /**
+     * Verify that a hit that is still in a read buffer counts when the next put spools.
+     * <p>
+     * @throws Exception
+     */
+    public void testBufferedHitProtectsFromSpool()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = createCache( 10 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            put( cache, i + ":key" );
+        }
+
+        // DO WORK
+        cache.get( "0:key" );
+        put( cache, "new" );
+
+        // VERIFY
+        IMemoryCache<String, String> memCache = cache.getMemoryCache();
+        assertNotNull( "The key that was hit should stay", memCache.getQuiet( "0:key" ) );
+        assertNull( "The least recently used key should be spooled", memCache.getQuiet( "1:key" ) );
+        assertEquals( "Wrong size", 10, memCache.getSize() );
+    }
+
+    /**
+     * Verify that hierarchical removal and freeing keep the map and list consistent.
+     * <p>
+     * @throws Exception
+     */
+    public void testRemoveAndFree()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = createCache( 100 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            put( cache, "a:" + i );
+            put( cache, "b:" + i );
+            cache.get( "a:" + i );
+        }
+
+        // DO WORK
+        cache.remove( "a:" );
+        int freed = cache.getMemoryCache().freeElements( 3 );
+
+        // VERIFY
+        IMemoryCache<String, String> memCache = cache.getMemoryCache();
+        assertEquals( "Wrong number freed", 3, freed );
+        assertEquals( "Wrong size", 7, memCache.getSize() );
+        assertNull( "Oldest b should be freed", memCache.getQuiet( "b:0" ) );
+        assertNotNull( "Newest b should stay", memCache.getQuiet( "b:9" ) );
+        assertEquals( "List and map differ", 7, getListSize( memCache ) );
+    }
+
+    /**
+     * Verify that concurrent gets and puts leave the map and the list consistent.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentGetsAndPuts()
+        throws Exception
+    {
+        // SETUP
+        final CompositeCache<String, String> cache = createCache( 500 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int seed = t;
+            threads[t] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random( seed );
+                    try
+                    {
+                        for ( int i = 0; i < 50000; i++ )
+                        {
+                            String key = random.nextInt( 1000 ) + ":key";
+                            if ( random.nextInt( 10 ) == 0 )
+                            {
+                                put( cache, key );
+                            }
+                            else
+                            {
+                                cache.get( key );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            } );
+        }
+
+        // DO WORK
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertNull( "Unexpected failure: " + failure.get(), failure.get() );
+        IMemoryCache<String, String> memCache = cache.getMemoryCache();
+        assertTrue( "Too many elements: " + memCache.getSize(), memCache.getSize() <= 500 );
+        assertEquals( "List and map differ", memCache.getSize(), getListSize( memCache ) );
+    }
+
+    /**
+     * @param memCache the memory cache
+     * @return the size of the list from the statistics
+     */
+    private int getListSize( IMemoryCache<String, String> memCache )
+    {
+        IStats stats = memCache.getStatistics();
+        for ( IStatElement<?> element : stats.getStatElements() )
+        {
+            if ( "List Size".equals( element.getName() ) )
+            {
+                return ( (Integer) element.getData() ).intValue();
+            }
+        }
+        fail( "No list size in " + stats );
+        return -1;
+    }
+
+    /**
+     * @param maxObjects the size of the memory cache
+     * @return a region without auxiliaries
+     */
+    private CompositeCache<String, String> createCache( int maxObjects )
+    {
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testBufferedLRU" );
+        cattr.setMaxObjects( maxObjects );
+        cattr.setMemoryCacheName( BufferedLRUMemoryCache.class.getName() );
+        cattr.setSpoolChunkSize( 1 );
+        cattr.setUseMemoryShrinker( false );
+        return new CompositeCache<String, String>( cattr, new ElementAttributes() );
+    }
+
+    /**
+     * @param cache the region
+     * @param key the key
+     * @throws Exception
+     */
+    private static void put( CompositeCache<String, String> cache, String key )
+        throws Exception
+    {
+        cache.update( new CacheElement<String, String>( "testBufferedLRU", key, "value " + key,
+            cache.getElementAttributes() ) );
+    }
+}
@@ -0,0 +1,168 @@
+package org.apache.commons.jcs.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.utils.timing.SleepUtil;
+
+/**
+ * Tests the LRU memory cache with background eviction.
+ */
+public class LRUMemoryCacheBackgroundEvictionUnitTest
+    extends TestCase
+{
+    /** The names of the threads that spooled */
+    private final List<String> spoolThreads = new CopyOnWriteArrayList<String>();
+
+    /**
+     * Verify that puts leave the spooling to the evictor, which brings the cache back to the max.
+     * <p>
+     * @throws Exception
+     */
+    public void testEvictorSpoolsOverflow()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = createCache( 100, 1000 );
+
+        // DO WORK
+        for ( int i = 0; i < 150; i++ )
+        {
+            put( cache, i + ":key" );
+        }
+        waitForSize( cache, 100 );
+
+        // VERIFY
+        assertEquals( "Wrong number spooled", 50, spoolThreads.size() );
+        for ( String name : spoolThreads )
+        {
+            assertTrue( "Should spool on the evictor, not on " + name, name.startsWith( "JCS-MemoryEvictor-" ) );
+        }
+        assertNull( "Oldest should be spooled", cache.getMemoryCache().getQuiet( "0:key" ) );
+        assertNotNull( "Newest should stay", cache.getMemoryCache().getQuiet( "149:key" ) );
+        cache.dispose();
+    }
+
+    /**
+     * Verify that a put beyond the allowed overflow spools on its own thread.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutSpoolsBeyondOverflow()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = createCache( 10, 0 );
+
+        // DO WORK
+        for ( int i = 0; i < 20; i++ )
+        {
+            put( cache, i + ":key" );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", 10, cache.getMemoryCache().getSize() );
+        assertTrue( "The puts should have spooled", spoolThreads.contains( Thread.currentThread().getName() ) );
+        cache.dispose();
+    }
+
+    /**
+     * Verify that puts spool on their own thread once the evictor is shut down.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutSpoolsAfterDispose()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = createCache( 10, 1000 );
+        cache.getMemoryCache().dispose();
+
+        // DO WORK
+        for ( int i = 0; i < 20; i++ )
+        {
+            put( cache, i + ":key" );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", 10, cache.getMemoryCache().getSize() );
+        assertEquals( "Wrong number spooled", 10, spoolThreads.size() );
+    }
+
+    /**
+     * @param cache the region
+     * @param size the expected size of the memory cache
+     */
+    private void waitForSize( CompositeCache<String, String> cache, int size )
+    {
+        for ( int i = 0; i < 100 && cache.getMemoryCache().getSize() > size; i++ )
+        {
+            SleepUtil.sleepAtLeast( 20 );
+        }
+    }
+
+    /**
+     * @param maxObjects the size of the memory cache
+     * @param maxOverflow the overflow left to the evictor
+     * @return a region that records the threads that spool
+     */
+    private CompositeCache<String, String> createCache( int maxObjects, int maxOverflow )
+    {
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testBackgroundEviction" );
+        cattr.setMaxObjects( maxObjects );
+        cattr.setMemoryCacheName( LRUMemoryCache.class.getName() );
+        cattr.setSpoolChunkSize( 1 );
+        cattr.setUseMemoryShrinker( false );
+        cattr.setUseBackgroundEviction( true );
+        cattr.setMaxEvictionOverflow( maxOverflow );
+        return new CompositeCache<String, String>( cattr, new ElementAttributes() )
+        {
+            @Override
+            public void spoolToDisk( ICacheElement<String, String> ce )
+            {
+                spoolThreads.add( Thread.currentThread().getName() );
+                super.spoolToDisk( ce );
+            }
+        };
+    }
+
+    /**
+     * @param cache the region
+     * @param key the key
+     * @throws Exception
+     */
+    private static void put( CompositeCache<String, String> cache, String key )
+        throws Exception
+    {
+        cache.update( new CacheElement<String, String>( "testBackgroundEviction", key, "value " + key,
+            cache.getElementAttributes() ) );
+    }
+}
@@ -0,0 +1,223 @@
+package org.apache.commons.jcs.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.memory.behavior.IMemoryCache;
+import org.apache.commons.jcs.engine.memory.util.EstimatingElementWeigher;
+import org.apache.commons.jcs.engine.memory.util.SerializedSizeElementWeigher;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+
+/**
+ * Tests the LRU memory cache bounded in bytes.
+ */
+public class LRUMemoryCacheMaxBytesUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that the least recently used elements are spooled until the cache fits in the
+     * budget.
+     * <p>
+     * @throws Exception
+     */
+    public void testEvictsToByteBudget()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<Integer, Serializable> cache = createCache( 10000, EstimatingElementWeigher.class.getName() );
+        long weight = new EstimatingElementWeigher().weigh(
+            new CacheElement<Integer, byte[]>( "testMaxBytes", Integer.valueOf( 0 ), new byte[1000] ) );
+
+        // DO WORK
+        for ( int i = 0; i < 20; i++ )
+        {
+            put( cache, i, new byte[1000] );
+        }
+
+        // VERIFY
+        IMemoryCache<Integer, Serializable> memCache = cache.getMemoryCache();
+        assertEquals( "Wrong size", (int) ( 10000 / weight ), memCache.getSize() );
+        assertEquals( "Wrong number of bytes", memCache.getSize() * weight, getMemoryBytes( memCache ) );
+        assertNotNull( "Newest should stay", memCache.getQuiet( Integer.valueOf( 19 ) ) );
+        assertNull( "Oldest should be spooled", memCache.getQuiet( Integer.valueOf( 0 ) ) );
+    }
+
+    /**
+     * Verify that an element heavier than the budget does not flush the cache.
+     * <p>
+     * @throws Exception
+     */
+    public void testOversizedElementIsSpooled()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<Integer, Serializable> cache = createCache( 10000, EstimatingElementWeigher.class.getName() );
+        put( cache, 1, new byte[100] );
+        put( cache, 2, new byte[100] );
+
+        // DO WORK
+        put( cache, 3, new byte[20000] );
+        put( cache, 2, new byte[20000] );
+
+        // VERIFY
+        IMemoryCache<Integer, Serializable> memCache = cache.getMemoryCache();
+        assertNotNull( "Small element should stay", memCache.getQuiet( Integer.valueOf( 1 ) ) );
+        assertNull( "Oversized element should not be in memory", memCache.getQuiet( Integer.valueOf( 3 ) ) );
+        assertNull( "Old small element of an oversized key should be gone", memCache.getQuiet( Integer.valueOf( 2 ) ) );
+        assertEquals( "Wrong size", 1, memCache.getSize() );
+    }
+
+    /**
+     * Verify that replacing and removing elements keep the number of bytes right.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdateAndRemoveAdjustBytes()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<Integer, Serializable> cache = createCache( 100000, EstimatingElementWeigher.class.getName() );
+        IMemoryCache<Integer, Serializable> memCache = cache.getMemoryCache();
+        put( cache, 1, new byte[5000] );
+        long large = getMemoryBytes( memCache );
+
+        // DO WORK
+        put( cache, 1, new byte[104] );
+        long small = getMemoryBytes( memCache );
+        cache.remove( Integer.valueOf( 1 ) );
+
+        // VERIFY
+        assertEquals( "Replacing should subtract the old weight", 5000 - 104, large - small );
+        assertEquals( "Removing should subtract the weight", 0, getMemoryBytes( memCache ) );
+    }
+
+    /**
+     * Verify that the serialized size weigher can be configured and honors the budget.
+     * <p>
+     * @throws Exception
+     */
+    public void testSerializedSizeWeigher()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<Integer, Serializable> cache = createCache( 20000, SerializedSizeElementWeigher.class.getName() );
+
+        // DO WORK
+        for ( int i = 0; i < 100; i++ )
+        {
+            ArrayList<String> value = new ArrayList<String>();
+            for ( int j = 0; j < 50; j++ )
+            {
+                value.add( "value " + i + " " + j );
+            }
+            put( cache, i, value );
+        }
+
+        // VERIFY
+        IMemoryCache<Integer, Serializable> memCache = cache.getMemoryCache();
+        long bytes = getMemoryBytes( memCache );
+        assertTrue( "Should be within the budget: " + bytes, bytes <= 20000 );
+        assertTrue( "Should hold more than a few elements: " + memCache.getSize(), memCache.getSize() > 5 );
+        assertTrue( "Should have spooled: " + memCache.getSize(), memCache.getSize() < 100 );
+    }
+
+    /**
+     * Verify that a size in the element attributes is the weight, and that the serialized size
+     * counts the bytes of the value.
+     */
+    public void testWeighers()
+    {
+        // SETUP
+        ElementAttributes attr = new ElementAttributes();
+        attr.setSize( 5000 );
+        CacheElement<String, byte[]> sized = new CacheElement<String, byte[]>( "testMaxBytes", "key", new byte[10], attr );
+        CacheElement<String, byte[]> unsized =
+            new CacheElement<String, byte[]>( "testMaxBytes", "key", new byte[1000], new ElementAttributes() );
+
+        // DO WORK
+        long fromAttributes = new EstimatingElementWeigher().weigh( sized );
+        long estimated = new EstimatingElementWeigher().weigh( unsized );
+        long serialized = new SerializedSizeElementWeigher().weigh( unsized );
+
+        // VERIFY
+        assertEquals( "Should use the size of the attributes", 5000, fromAttributes );
+        assertTrue( "Should count the value: " + estimated, estimated > 1000 && estimated < 1500 );
+        assertTrue( "Should count the value: " + serialized, serialized > 1000 && serialized < 1500 );
+    }
+
+    /**
+     * @param memCache the memory cache
+     * @return the number of bytes from the statistics
+     */
+    private long getMemoryBytes( IMemoryCache<?, ?> memCache )
+    {
+        List<IStatElement<?>> elements = memCache.getStatistics().getStatElements();
+        for ( IStatElement<?> element : elements )
+        {
+            if ( "Memory Bytes".equals( element.getName() ) )
+            {
+                return ( (Number) element.getData() ).longValue();
+            }
+        }
+        fail( "No memory bytes in " + elements );
+        return -1;
+    }
+
+    /**
+     * @param maxBytes the byte budget
+     * @param weigherName the weigher
+     * @return a region without auxiliaries
+     */
+    private CompositeCache<Integer, Serializable> createCache( long maxBytes, String weigherName )
+    {
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testMaxBytes" );
+        cattr.setMaxObjects( 1000 );
+        cattr.setMemoryCacheName( LRUMemoryCache.class.getName() );
+        cattr.setSpoolChunkSize( 1 );
+        cattr.setUseMemoryShrinker( false );
+        cattr.setMaxMemoryBytes( maxBytes );
+        cattr.setElementWeigherName( weigherName );
+        return new CompositeCache<Integer, Serializable>( cattr, new ElementAttributes() );
+    }
+
+    /**
+     * @param cache the region
+     * @param key the key
+     * @param value the value
+     * @throws Exception
+     */
+    private static void put( CompositeCache<Integer, Serializable> cache, int key, Serializable value )
+        throws Exception
+    {
+        cache.update( new CacheElement<Integer, Serializable>( "testMaxBytes", Integer.valueOf( key ), value,
+            cache.getElementAttributes() ) );
+    }
+}
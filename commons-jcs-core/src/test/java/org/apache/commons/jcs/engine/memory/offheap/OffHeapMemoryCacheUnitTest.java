@@ -0,0 +1,441 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.event.ElementEventHandlerMockImpl;
+import org.apache.commons.jcs.engine.memory.behavior.IMemoryCache;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+
+/**
+ * Tests for the off-heap memory cache.
+ */
+public class OffHeapMemoryCacheUnitTest
+    extends TestCase
+{
+    /** 8 slabs of 8 KB */
+    private static final long MAX_BYTES = 64 * 1024;
+
+    /**
+     * Put and get through the hub. Verify that a hit returns a copy of the value.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutGetThroughHub()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, Serializable> cache = createCache( MAX_BYTES );
+
+        // DO WORK
+        for ( int i = 0; i < 100; i++ )
+        {
+            put( cache, i + ":key", "value " + i );
+        }
+        put( cache, "array", new int[] { 1, 2, 3 } );
+        ( (int[]) cache.get( "array" ).getVal() )[0] = 42;
+
+        // VERIFY
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( "Wrong value", "value " + i, cache.get( i + ":key" ).getVal() );
+        }
+        assertEquals( "Should not share the value", 1, ( (int[]) cache.get( "array" ).getVal() )[0] );
+        assertEquals( "Wrong size", 101, cache.getMemoryCache().getSize() );
+    }
+
+    /**
+     * Verify that the oldest elements are evicted once the slabs are full.
+     * <p>
+     * @throws Exception
+     */
+    public void testEvictsToByteBudget()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, Serializable> cache = createCache( MAX_BYTES );
+
+        // DO WORK
+        for ( int i = 0; i < 200; i++ )
+        {
+            put( cache, i + ":key", new byte[1000] );
+        }
+
+        // VERIFY
+        IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        long bytes = getStat( memCache, "Memory Bytes" );
+        assertTrue( "Should be within the budget: " + bytes, bytes <= MAX_BYTES );
+        assertTrue( "Should fill most of the budget: " + memCache.getSize(), memCache.getSize() >= 40 );
+        assertEquals( "Wrong number evicted", 200 - memCache.getSize(), getStat( memCache, "Evicted Count" ) );
+        assertNull( "Oldest should be evicted", memCache.getQuiet( "0:key" ) );
+        assertNotNull( "Newest should stay", memCache.getQuiet( "199:key" ) );
+    }
+
+    /**
+     * Verify that an element that was hit survives the reset of its slab.
+     * <p>
+     * @throws Exception
+     */
+    public void testHitSurvivesReset()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, Serializable> cache = createCache( MAX_BYTES );
+        for ( int i = 0; i < 56; i++ )
+        {
+            put( cache, i + ":key", new byte[1000] );
+        }
+
+        // DO WORK
+        cache.get( "0:key" );
+        for ( int i = 56; i < 90; i++ )
+        {
+            put( cache, i + ":key", new byte[1000] );
+        }
+
+        // VERIFY
+        IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        assertNotNull( "The key that was hit should stay", memCache.getQuiet( "0:key" ) );
+        assertNull( "The key next to it should be evicted", memCache.getQuiet( "1:key" ) );
+        assertEquals( "Wrong number of survivors", 1, getStat( memCache, "Survivor Count" ) );
+    }
+
+    /**
+     * Verify that an element larger than a slab is not kept and replaces the old value.
+     * <p>
+     * @throws Exception
+     */
+    public void testOversizedElementIsSpooled()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, Serializable> cache = createCache( MAX_BYTES );
+        put( cache, "small", new byte[100] );
+        put( cache, "replaced", new byte[100] );
+
+        // DO WORK
+        put( cache, "large", new byte[20000] );
+        put( cache, "replaced", new byte[20000] );
+
+        // VERIFY
+        IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        assertNotNull( "Small element should stay", memCache.getQuiet( "small" ) );
+        assertNull( "Oversized element should not be in memory", memCache.getQuiet( "large" ) );
+        assertNull( "Old value of an oversized key should be gone", memCache.getQuiet( "replaced" ) );
+        assertEquals( "Wrong size", 1, memCache.getSize() );
+    }
+
+    /**
+     * Verify that replacing, removing and removing all keep the number of bytes right.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdateAndRemoveAdjustBytes()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, Serializable> cache = createCache( MAX_BYTES );
+        IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        put( cache, "a:1", new byte[5000] );
+        long large = getStat( memCache, "Memory Bytes" );
+
+        // DO WORK
+        put( cache, "a:1", new byte[100] );
+        long small = getStat( memCache, "Memory Bytes" );
+        put( cache, "a:2", "value" );
+        put( cache, "b:1", "value" );
+        cache.remove( "a:" );
+        long afterRemove = memCache.getSize();
+        memCache.removeAll();
+
+        // VERIFY
+        assertEquals( "Replacing should subtract the old record", 4900, large - small );
+        assertEquals( "Hierarchical remove should remove a:", 1, afterRemove );
+        assertEquals( "Removing all should clear the bytes", 0, getStat( memCache, "Memory Bytes" ) );
+        assertEquals( "Wrong size", 0, memCache.getSize() );
+    }
+
+    /**
+     * Verify that freeing spools the oldest elements.
+     * <p>
+     * @throws Exception
+     */
+    public void testFreeElements()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, Serializable> cache = createCache( MAX_BYTES );
+        for ( int i = 0; i < 10; i++ )
+        {
+            put( cache, i + ":key", "value " + i );
+        }
+
+        // DO WORK
+        int freed = cache.getMemoryCache().freeElements( 3 );
+
+        // VERIFY
+        IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        assertEquals( "Wrong number freed", 3, freed );
+        assertEquals( "Wrong size", 7, memCache.getSize() );
+        assertNull( "Oldest should be freed", memCache.getQuiet( "2:key" ) );
+        assertNotNull( "Newest should stay", memCache.getQuiet( "3:key" ) );
+    }
+
+    /**
+     * Verify that concurrent gets never see the value of another key while slabs are reset.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentGetsAndPuts()
+        throws Exception
+    {
+        // SETUP
+        final CompositeCache<String, Serializable> cache = createCache( 16 * 1024 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int seed = t;
+            threads[t] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random( seed );
+                    try
+                    {
+                        for ( int i = 0; i < 20000; i++ )
+                        {
+                            String key = random.nextInt( 1000 ) + ":key";
+                            if ( random.nextInt( 4 ) == 0 )
+                            {
+                                put( cache, key, "value " + key );
+                            }
+                            else
+                            {
+                                ICacheElement<String, Serializable> ce = cache.get( key );
+                                if ( ce != null && !ce.getVal().equals( "value " + key ) )
+                                {
+                                    throw new AssertionError( "Wrong value " + ce.getVal() + " for " + key );
+                                }
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            } );
+        }
+
+        // DO WORK
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertNull( "Unexpected failure: " + failure.get(), failure.get() );
+        IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        long bytes = getStat( memCache, "Memory Bytes" );
+        assertTrue( "Should be within the budget: " + bytes, bytes <= 16 * 1024 );
+    }
+
+    /**
+     * Verify that the attributes written to the record header and the time of the last access
+     * come back with the element.
+     * <p>
+     * @throws Exception
+     */
+    public void testAttributesRoundTrip()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, Serializable> cache = createCache( MAX_BYTES );
+        IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        ElementAttributes attributes = new ElementAttributes();
+        attributes.setCreateTime( 1000 );
+        attributes.setMaxLife( 3600 );
+        attributes.setIdleTime( 600 );
+        attributes.setIsEternal( false );
+        attributes.setIsSpool( false );
+        attributes.setIsLateral( true );
+        attributes.setIsRemote( false );
+        attributes.setVersion( 42 );
+        attributes.setSize( 7 );
+        attributes.setLastAccessTime( 2000 );
+        ElementEventHandlerMockImpl handler = new ElementEventHandlerMockImpl();
+        attributes.addElementEventHandler( handler );
+
+        // DO WORK
+        memCache.update( new CacheElement<String, Serializable>( "testOffHeap", "key", "value", attributes ) );
+        ICacheElement<String, Serializable> before = memCache.get( "key" );
+        ICacheElement<String, Serializable> after = memCache.getQuiet( "key" );
+
+        // VERIFY
+        ElementAttributes read = (ElementAttributes) before.getElementAttributes();
+        assertEquals( "Wrong value", "value", before.getVal() );
+        assertEquals( "Wrong create time", 1000, read.getCreateTime() );
+        assertEquals( "Wrong max life", 3600, read.getMaxLife() );
+        assertEquals( "Wrong idle time", 600, read.getIdleTime() );
+        assertFalse( "Should not be eternal", read.getIsEternal() );
+        assertFalse( "Should not spool", read.getIsSpool() );
+        assertTrue( "Should be lateral", read.getIsLateral() );
+        assertFalse( "Should not be remote", read.getIsRemote() );
+        assertEquals( "Wrong version", 42, read.getVersion() );
+        assertEquals( "Wrong size", 7, read.getSize() );
+        assertEquals( "Should carry the previous access", 2000, read.getLastAccessTime() );
+        assertEquals( "Wrong handlers", 1, read.getElementEventHandlers().size() );
+        assertSame( "Wrong handler", handler, read.getElementEventHandlers().get( 0 ) );
+        assertTrue( "The hit should set the last access",
+                    after.getElementAttributes().getLastAccessTime() > 2000 );
+    }
+
+    /**
+     * Verify that gets that race with the reset of the slab of their record find the record at its
+     * new place. The writer hits the key after every put, so it always survives the reset.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetDuringResetFindsMovedRecord()
+        throws Exception
+    {
+        // SETUP
+        final CompositeCache<String, Serializable> cache = createCache( 16 * 1024 );
+        final IMemoryCache<String, Serializable> memCache = cache.getMemoryCache();
+        put( cache, "hot", "hot value" );
+        memCache.get( "hot" );
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for ( int t = 0; t < readers.length; t++ )
+        {
+            readers[t] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        while ( !done.get() )
+                        {
+                            if ( memCache.get( "hot" ) == null )
+                            {
+                                misses.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            } );
+        }
+
+        // DO WORK
+        for ( Thread reader : readers )
+        {
+            reader.start();
+        }
+        for ( int i = 0; i < 2000; i++ )
+        {
+            put( cache, i + ":key", new byte[1000] );
+            assertNotNull( "The hot key should survive", memCache.get( "hot" ) );
+        }
+        done.set( true );
+        for ( Thread reader : readers )
+        {
+            reader.join();
+        }
+
+        // VERIFY
+        assertNull( "Unexpected failure: " + failure.get(), failure.get() );
+        assertEquals( "The hot key should never be missed", 0, misses.get() );
+        assertTrue( "The hot key should have been moved", getStat( memCache, "Survivor Count" ) > 0 );
+    }
+
+    /**
+     * @param memCache the memory cache
+     * @param name the name of the statistic
+     * @return the value of the statistic
+     */
+    private long getStat( IMemoryCache<?, ?> memCache, String name )
+    {
+        List<IStatElement<?>> elements = memCache.getStatistics().getStatElements();
+        for ( IStatElement<?> element : elements )
+        {
+            if ( name.equals( element.getName() ) )
+            {
+                return ( (Number) element.getData() ).longValue();
+            }
+        }
+        fail( "No " + name + " in " + elements );
+        return -1;
+    }
+
+    /**
+     * @param maxBytes the byte budget
+     * @return a region without auxiliaries
+     */
+    private CompositeCache<String, Serializable> createCache( long maxBytes )
+    {
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testOffHeap" );
+        cattr.setMaxObjects( 1000 );
+        cattr.setMemoryCacheName( OffHeapMemoryCache.class.getName() );
+        cattr.setUseMemoryShrinker( false );
+        cattr.setMaxMemoryBytes( maxBytes );
+        return new CompositeCache<String, Serializable>( cattr, new ElementAttributes() );
+    }
+
+    /**
+     * @param cache the region
+     * @param key the key
+     * @param value the value
+     * @throws Exception
+     */
+    private static void put( CompositeCache<String, Serializable> cache, String key, Serializable value )
+        throws Exception
+    {
+        cache.update( new CacheElement<String, Serializable>( "testOffHeap", key, value,
+            cache.getElementAttributes() ) );
+    }
+}
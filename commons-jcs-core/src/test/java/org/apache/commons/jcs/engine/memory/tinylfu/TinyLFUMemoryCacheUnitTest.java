@@ -0,0 +1,346 @@
+package org.apache.commons.jcs.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.JCS;
+import org.apache.commons.jcs.access.CacheAccess;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.memory.behavior.IMemoryCache;
+import org.apache.commons.jcs.engine.memory.fifo.FIFOMemoryCache;
+import org.apache.commons.jcs.engine.memory.lru.LHMLRUMemoryCache;
+import org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache;
+import org.apache.commons.jcs.engine.memory.mru.MRUMemoryCache;
+
+/**
+ * Tests for the TinyLFU memory cache, including hit rate comparisons with the other memory caches
+ * on generated traces.
+ */
+public class TinyLFUMemoryCacheUnitTest
+    extends TestCase
+{
+    /** The number of elements in the caches of the trace tests */
+    private static final int CACHE_SIZE = 500;
+
+    /** Test setup */
+    @Override
+    public void setUp()
+    {
+        JCS.setConfigFilename( "/TestTinyLFUCache.ccf" );
+    }
+
+    /**
+     * Verify that the TinyLFU cache gets used by a non-defined region when it is set as the
+     * default in the default region.
+     * <p>
+     * @throws Exception
+     */
+    public void testLoadFromCCF()
+        throws Exception
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testLoadFromCCF" );
+        String memoryCacheName = cache.getCacheAttributes().getMemoryCacheName();
+        assertTrue( "Cache name should have TinyLFU in it.", memoryCacheName.indexOf( "TinyLFUMemoryCache" ) != -1 );
+    }
+
+    /**
+     * Put twice as many as the max. Verify that the size is the max and that the values are right.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutGetThroughHub()
+        throws Exception
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testPutGetThroughHub" );
+
+        int max = cache.getCacheAttributes().getMaxObjects();
+        int items = max * 2;
+
+        for ( int i = 0; i < items; i++ )
+        {
+            cache.put( i + ":key", "myregion" + " data " + i );
+        }
+
+        int found = 0;
+        for ( int i = 0; i < items; i++ )
+        {
+            String value = cache.get( i + ":key" );
+            if ( value != null )
+            {
+                assertEquals( "Wrong value", "myregion" + " data " + i, value );
+                found++;
+            }
+        }
+        assertEquals( "Wrong number of elements in the cache", max, found );
+        assertEquals( "The last put should be in the window", "myregion data " + ( items - 1 ),
+            cache.get( ( items - 1 ) + ":key" ) );
+    }
+
+    /**
+     * Verify that a new key that was asked for more often than the victim replaces it, and that
+     * one that was not is rejected.
+     * <p>
+     * @throws Exception
+     */
+    public void testAdmission()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<Integer, String> cache = createCache( TinyLFUMemoryCache.class.getName(), 100 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            put( cache, i );
+        }
+
+        // DO WORK
+        for ( int i = 0; i < 5; i++ )
+        {
+            cache.get( Integer.valueOf( 1000 ) );
+        }
+        put( cache, 1000 );
+        put( cache, 1001 );
+        put( cache, 2000 );
+
+        // VERIFY
+        IMemoryCache<Integer, String> memCache = cache.getMemoryCache();
+        assertEquals( "Wrong size", 100, memCache.getSize() );
+        assertNotNull( "The frequent key should be admitted", memCache.getQuiet( Integer.valueOf( 1000 ) ) );
+        assertNull( "The key seen once should be rejected", memCache.getQuiet( Integer.valueOf( 1001 ) ) );
+        assertNotNull( "The last key should be in the window", memCache.getQuiet( Integer.valueOf( 2000 ) ) );
+    }
+
+    /**
+     * Verify that updating and removing keys keeps the segments consistent.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdateRemoveAndFree()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<Integer, String> cache = createCache( TinyLFUMemoryCache.class.getName(), 50 );
+        for ( int i = 0; i < 50; i++ )
+        {
+            put( cache, i );
+            cache.get( Integer.valueOf( i ) );
+        }
+
+        // DO WORK
+        put( cache, 10 );
+        cache.remove( Integer.valueOf( 20 ) );
+        int freed = cache.getMemoryCache().freeElements( 5 );
+
+        // VERIFY
+        IMemoryCache<Integer, String> memCache = cache.getMemoryCache();
+        assertEquals( "Wrong number freed", 5, freed );
+        assertEquals( "Wrong size", 44, memCache.getSize() );
+        assertEquals( "Wrong key set", 44, memCache.getKeySet().size() );
+        assertNotNull( "Updated key should be there", memCache.getQuiet( Integer.valueOf( 10 ) ) );
+        assertNull( "Removed key should be gone", memCache.getQuiet( Integer.valueOf( 20 ) ) );
+
+        memCache.removeAll();
+        assertEquals( "Should be empty", 0, memCache.getSize() );
+        put( cache, 1 );
+        assertEquals( "Should work after remove all", 1, memCache.getSize() );
+    }
+
+    /**
+     * Verify that a hot working set survives scans of keys that are used once. Compares the hit
+     * rate with the recency based memory caches.
+     * <p>
+     * @throws Exception
+     */
+    public void testHitRateWithScans()
+        throws Exception
+    {
+        // SETUP
+        int[] trace = createScanTrace();
+
+        // DO WORK
+        double tinyLfu = hitRate( TinyLFUMemoryCache.class.getName(), trace );
+        double lru = hitRate( LRUMemoryCache.class.getName(), trace );
+        double lhmlru = hitRate( LHMLRUMemoryCache.class.getName(), trace );
+        double fifo = hitRate( FIFOMemoryCache.class.getName(), trace );
+        double mru = hitRate( MRUMemoryCache.class.getName(), trace );
+
+        // VERIFY
+        String rates = "TinyLFU " + tinyLfu + ", LRU " + lru + ", LHMLRU " + lhmlru + ", FIFO " + fifo + ", MRU " + mru;
+        assertTrue( "TinyLFU should beat LRU clearly: " + rates, tinyLfu > lru * 1.05 );
+        assertTrue( "TinyLFU should beat LHMLRU: " + rates, tinyLfu > lhmlru );
+        assertTrue( "TinyLFU should beat FIFO: " + rates, tinyLfu > fifo );
+        assertTrue( "TinyLFU should beat MRU: " + rates, tinyLfu > mru );
+    }
+
+    /**
+     * Verify that the hit rate on a skewed trace without scans is at least that of the LRU.
+     * <p>
+     * @throws Exception
+     */
+    public void testHitRateZipf()
+        throws Exception
+    {
+        // SETUP
+        Random random = new Random( 17 );
+        ZipfGenerator zipf = new ZipfGenerator( CACHE_SIZE * 20, 0.9 );
+        int[] trace = new int[200000];
+        for ( int i = 0; i < trace.length; i++ )
+        {
+            trace[i] = zipf.next( random );
+        }
+
+        // DO WORK
+        double tinyLfu = hitRate( TinyLFUMemoryCache.class.getName(), trace );
+        double lru = hitRate( LRUMemoryCache.class.getName(), trace );
+        double fifo = hitRate( FIFOMemoryCache.class.getName(), trace );
+
+        // VERIFY
+        String rates = "TinyLFU " + tinyLfu + ", LRU " + lru + ", FIFO " + fifo;
+        assertTrue( "TinyLFU should beat LRU: " + rates, tinyLfu > lru );
+        assertTrue( "TinyLFU should beat FIFO: " + rates, tinyLfu > fifo );
+    }
+
+    /**
+     * A skewed trace over a working set twice the size of the cache, interrupted by scans of new
+     * keys that are three times the size of the cache.
+     * <p>
+     * @return the keys in the order they are used
+     */
+    private int[] createScanTrace()
+    {
+        Random random = new Random( 42 );
+        ZipfGenerator zipf = new ZipfGenerator( CACHE_SIZE * 2, 0.8 );
+        int[] trace = new int[200000];
+        int scanKey = Integer.MAX_VALUE / 2;
+        int i = 0;
+        while ( i < trace.length )
+        {
+            for ( int j = 0; j < 5000 && i < trace.length; j++ )
+            {
+                trace[i++] = zipf.next( random );
+            }
+            for ( int j = 0; j < CACHE_SIZE * 3 && i < trace.length; j++ )
+            {
+                trace[i++] = scanKey++;
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Replays a trace. A miss puts the key, like a read through cache.
+     * <p>
+     * @param memoryCacheName the memory cache class
+     * @param trace the keys
+     * @return the hit rate
+     * @throws Exception
+     */
+    private double hitRate( String memoryCacheName, int[] trace )
+        throws Exception
+    {
+        CompositeCache<Integer, String> cache = createCache( memoryCacheName, CACHE_SIZE );
+        int hits = 0;
+        for ( int key : trace )
+        {
+            if ( cache.get( Integer.valueOf( key ) ) != null )
+            {
+                hits++;
+            }
+            else
+            {
+                put( cache, key );
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    /**
+     * @param memoryCacheName the memory cache class
+     * @param maxObjects the size of the memory cache
+     * @return a region without auxiliaries
+     */
+    private CompositeCache<Integer, String> createCache( String memoryCacheName, int maxObjects )
+    {
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testTinyLFU" );
+        cattr.setMaxObjects( maxObjects );
+        cattr.setMemoryCacheName( memoryCacheName );
+        cattr.setSpoolChunkSize( 1 );
+        cattr.setUseMemoryShrinker( false );
+        return new CompositeCache<Integer, String>( cattr, new ElementAttributes() );
+    }
+
+    /**
+     * @param cache the region
+     * @param key the key
+     * @throws Exception
+     */
+    private void put( CompositeCache<Integer, String> cache, int key )
+        throws Exception
+    {
+        cache.update( new CacheElement<Integer, String>( "testTinyLFU", Integer.valueOf( key ), "value" + key,
+            cache.getElementAttributes() ) );
+    }
+
+    /**
+     * Draws keys from 0 to n - 1 with a Zipf distribution, 0 is the most frequent.
+     */
+    private static class ZipfGenerator
+    {
+        /** The cumulative probabilities */
+        private final double[] cumulative;
+
+        /**
+         * @param n the number of keys
+         * @param skew the exponent
+         */
+        ZipfGenerator( int n, double skew )
+        {
+            cumulative = new double[n];
+            double sum = 0;
+            for ( int i = 0; i < n; i++ )
+            {
+                sum += 1 / Math.pow( i + 1, skew );
+                cumulative[i] = sum;
+            }
+            for ( int i = 0; i < n; i++ )
+            {
+                cumulative[i] /= sum;
+            }
+        }
+
+        /**
+         * @param random the source
+         * @return the next key
+         */
+        int next( Random random )
+        {
+            int index = Arrays.binarySearch( cumulative, random.nextDouble() );
+            return index >= 0 ? index : Math.min( -index - 1, cumulative.length - 1 );
+        }
+    }
+}
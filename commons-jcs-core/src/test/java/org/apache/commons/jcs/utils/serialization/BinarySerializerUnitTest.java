@@ -0,0 +1,364 @@
+package org.apache.commons.jcs.utils.serialization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.AuxiliaryCacheConfigurator;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CacheElementSerialized;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.control.group.GroupId;
+import org.apache.commons.jcs.utils.serialization.behavior.IBinaryCodec;
+
+/**
+ * Tests the binary serializer.
+ */
+public class BinarySerializerUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that the built in types survive a round trip.
+     * <p>
+     * @throws Exception
+     */
+    public void testBuiltInTypes()
+        throws Exception
+    {
+        // SETUP
+        BinarySerializer serializer = new BinarySerializer();
+        Object[] values = new Object[] { null, "", "ascii", "\u00e4\u00f6\u00fc \u20ac \ud83d\ude00",
+            Integer.valueOf( 0 ), Integer.valueOf( -1 ), Integer.valueOf( Integer.MIN_VALUE ),
+            Integer.valueOf( Integer.MAX_VALUE ), Long.valueOf( Long.MIN_VALUE ), Long.valueOf( 1234567890123L ),
+            Short.valueOf( (short) -7 ), Byte.valueOf( (byte) 200 ), Boolean.TRUE, Character.valueOf( 'x' ),
+            Float.valueOf( 1.5f ), Double.valueOf( -2.25 ), new GroupId( "region", "group" ) };
+
+        for ( Object before : values )
+        {
+            // DO WORK
+            Object after = serializer.deSerialize( serializer.serialize( before ), null );
+
+            // VERIFY
+            assertEquals( "Before and after should be the same.", before, after );
+        }
+    }
+
+    /**
+     * Verify that a cache element with attributes survives a round trip.
+     * <p>
+     * @throws Exception
+     */
+    public void testCacheElement()
+        throws Exception
+    {
+        // SETUP
+        BinarySerializer serializer = new BinarySerializer();
+        ElementAttributes attr = new ElementAttributes();
+        attr.setIsEternal( false );
+        attr.setIsLateral( false );
+        attr.setMaxLife( 123 );
+        attr.setIdleTime( 45 );
+        attr.setSize( 6 );
+        attr.setCreateTime( 1000L );
+        attr.setLastAccessTime( 2000L );
+        attr.setVersion( 1234567890123456L );
+        byte[] value = new byte[] { 1, 2, 3 };
+        GroupAttrName<String> key = new GroupAttrName<String>( new GroupId( "region", "group" ), "attr" );
+        ICacheElement<GroupAttrName<String>, byte[]> before =
+            new CacheElement<GroupAttrName<String>, byte[]>( "region", key, value, attr );
+
+        // DO WORK
+        ICacheElement<GroupAttrName<String>, byte[]> after =
+            serializer.deSerialize( serializer.serialize( before ), null );
+
+        // VERIFY
+        assertEquals( "Wrong cache name", "region", after.getCacheName() );
+        assertEquals( "Wrong key", key, after.getKey() );
+        assertTrue( "Wrong value", Arrays.equals( value, after.getVal() ) );
+        ElementAttributes afterAttr = (ElementAttributes) after.getElementAttributes();
+        assertFalse( "Wrong eternal", afterAttr.getIsEternal() );
+        assertFalse( "Wrong lateral", afterAttr.getIsLateral() );
+        assertTrue( "Wrong remote", afterAttr.getIsRemote() );
+        assertTrue( "Wrong spool", afterAttr.getIsSpool() );
+        assertEquals( "Wrong max life", 123, afterAttr.getMaxLife() );
+        assertEquals( "Wrong idle time", 45, afterAttr.getIdleTime() );
+        assertEquals( "Wrong size", 6, afterAttr.getSize() );
+        assertEquals( "Wrong create time", 1000L, afterAttr.getCreateTime() );
+        assertEquals( "Wrong last access time", 2000L, afterAttr.getLastAccessTime() );
+        assertEquals( "Wrong version", 1234567890123456L, afterAttr.getVersion() );
+    }
+
+    /**
+     * Verify that a serialized cache element survives a round trip.
+     * <p>
+     * @throws Exception
+     */
+    public void testCacheElementSerialized()
+        throws Exception
+    {
+        // SETUP
+        BinarySerializer serializer = new BinarySerializer();
+        CacheElementSerialized<String, String> before =
+            new CacheElementSerialized<String, String>( "region", "key", new byte[] { 4, 5 }, new ElementAttributes() );
+
+        // DO WORK
+        CacheElementSerialized<String, String> after = serializer.deSerialize( serializer.serialize( before ), null );
+
+        // VERIFY
+        assertEquals( "Wrong key", "key", after.getKey() );
+        assertTrue( "Wrong value", Arrays.equals( new byte[] { 4, 5 }, after.getSerializedValue() ) );
+    }
+
+    /**
+     * Verify that unknown classes fall back to standard serialization, also inside an element.
+     * <p>
+     * @throws Exception
+     */
+    public void testSerializableFallback()
+        throws Exception
+    {
+        // SETUP
+        BinarySerializer serializer = new BinarySerializer();
+        List<String> value = new ArrayList<String>();
+        value.add( "one" );
+        value.add( "two" );
+        ICacheElement<Integer, List<String>> before =
+            new CacheElement<Integer, List<String>>( "region", Integer.valueOf( 1 ), value, new ElementAttributes() );
+
+        // DO WORK
+        ICacheElement<Integer, List<String>> after = serializer.deSerialize( serializer.serialize( before ), null );
+
+        // VERIFY
+        assertEquals( "Wrong value", value, after.getVal() );
+    }
+
+    /**
+     * Verify that the binary form is smaller than the standard one.
+     * <p>
+     * @throws Exception
+     */
+    public void testSmallerThanStandard()
+        throws Exception
+    {
+        // SETUP
+        ICacheElement<String, String> element =
+            new CacheElement<String, String>( "region", "key", "value", new ElementAttributes() );
+
+        // DO WORK
+        int binary = new BinarySerializer().serialize( element ).length;
+        int standard = new StandardSerializer().serialize( element ).length;
+
+        // VERIFY
+        assertTrue( "Binary " + binary + " should be much smaller than standard " + standard, binary * 5 < standard );
+    }
+
+    /**
+     * Verify that registered codecs and externalizable classes are used.
+     * <p>
+     * @throws Exception
+     */
+    public void testRegisteredClasses()
+        throws Exception
+    {
+        // SETUP
+        BinarySerializer serializer = new BinarySerializer();
+        serializer.setRegisteredClasses( "7:" + PointCodec.class.getName() + ", 8:" + Name.class.getName() );
+
+        // DO WORK
+        Point point = serializer.deSerialize( serializer.serialize( new Point( 3, 4 ) ), null );
+        Name name = serializer.deSerialize( serializer.serialize( new Name( "jcs" ) ), null );
+
+        // VERIFY
+        assertEquals( "Wrong x", 3, point.x );
+        assertEquals( "Wrong y", 4, point.y );
+        assertEquals( "Wrong name", "jcs", name.name );
+        assertEquals( "Should only write tag, ID and two ints", 1 + 1 + 1 + 8,
+            serializer.serialize( new Point( 3, 4 ) ).length );
+    }
+
+    /**
+     * Verify that the serializer and its classes can be configured for an auxiliary.
+     * <p>
+     * @throws Exception
+     */
+    public void testConfiguredForAuxiliary()
+        throws Exception
+    {
+        // SETUP
+        Properties props = new Properties();
+        props.put( "jcs.auxiliary.DC.serializer", BinarySerializer.class.getName() );
+        props.put( "jcs.auxiliary.DC.serializer.attributes.RegisteredClasses", "7:" + PointCodec.class.getName() );
+
+        // DO WORK
+        IElementSerializer serializer = AuxiliaryCacheConfigurator.parseElementSerializer( props, "jcs.auxiliary.DC" );
+
+        // VERIFY
+        assertTrue( "Wrong serializer", serializer instanceof BinarySerializer );
+        Point point = serializer.deSerialize( serializer.serialize( new Point( 1, 2 ) ), null );
+        assertEquals( "Wrong y", 2, point.y );
+    }
+
+    /**
+     * Verify that an ID cannot be registered twice.
+     */
+    public void testDuplicateId()
+    {
+        // SETUP
+        BinarySerializer serializer = new BinarySerializer();
+        serializer.register( 1, new PointCodec() );
+
+        // DO WORK
+        try
+        {
+            serializer.register( 1, Name.class );
+            fail( "Should not allow a duplicate ID" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Verify that data from the standard serializer is rejected.
+     * <p>
+     * @throws Exception
+     */
+    public void testRejectsStandardFormat()
+        throws Exception
+    {
+        // SETUP
+        byte[] standard = new StandardSerializer().serialize( "value" );
+
+        // DO WORK
+        try
+        {
+            new BinarySerializer().deSerialize( standard, null );
+            fail( "Should reject data of the standard serializer" );
+        }
+        catch ( StreamCorruptedException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * A class without serialization support.
+     */
+    public static class Point
+    {
+        /** coordinate */
+        final int x;
+
+        /** coordinate */
+        final int y;
+
+        /**
+         * @param x
+         * @param y
+         */
+        public Point( int x, int y )
+        {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * Codec for points.
+     */
+    public static class PointCodec
+        implements IBinaryCodec<Point>
+    {
+        @Override
+        public Class<Point> getType()
+        {
+            return Point.class;
+        }
+
+        @Override
+        public void write( ObjectOutput out, Point value )
+            throws IOException
+        {
+            out.writeInt( value.x );
+            out.writeInt( value.y );
+        }
+
+        @Override
+        public Point read( ObjectInput in )
+            throws IOException
+        {
+            return new Point( in.readInt(), in.readInt() );
+        }
+    }
+
+    /**
+     * An externalizable class.
+     */
+    public static class Name
+        implements Externalizable
+    {
+        /** The name */
+        String name;
+
+        /**
+         * Needed for externalization.
+         */
+        public Name()
+        {
+            super();
+        }
+
+        /**
+         * @param name
+         */
+        public Name( String name )
+        {
+            this.name = name;
+        }
+
+        @Override
+        public void writeExternal( ObjectOutput out )
+            throws IOException
+        {
+            out.writeUTF( name );
+        }
+
+        @Override
+        public void readExternal( ObjectInput in )
+            throws IOException
+        {
+            name = in.readUTF();
+        }
+    }
+}
@@ -22,6 +22,10 @@ package org.apache.commons.jcs.utils.serialization;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.utils.zip.CompressionUtil;
 
 /**
  * Tests the compressing serializer.
@@ -116,4 +120,155 @@ public class CompressingSerializerUnitTest
         assertTrue( "Compressed should be smaller. compressed size = " + compressed.length + "nonCompressed size = "
             + nonCompressed.length, compressed.length < nonCompressed.length );
     }
+
+    /**
+     * Verify that each codec can read back what it wrote and that another serializer can read it
+     * too, whatever its own codec is.
+     * <p>
+     * @throws Exception on error
+     */
+    public void testCodecsBackAndForth()
+        throws Exception
+    {
+        // SETUP
+        String before = createText( 2000 );
+        CompressingSerializer reader = new CompressingSerializer();
+
+        String[] codecs = new String[] { "deflate", "lz" };
+        for ( String codec : codecs )
+        {
+            CompressingSerializer serializer = new CompressingSerializer();
+            serializer.setCodec( codec );
+            serializer.setCompressionLevel( 1 );
+
+            // DO WORK
+            byte[] data = serializer.serialize( before );
+
+            // VERIFY
+            assertTrue( codec + " should compress", data.length < serializer.serializeObject( before ).length / 2 );
+            assertEquals( codec + " should read its own data", before, serializer.deSerialize( data, null ) );
+            assertEquals( codec + " should be readable by default", before, reader.deSerialize( data, null ) );
+        }
+    }
+
+    /**
+     * Verify that data written by older versions, without a flag byte, can still be read.
+     * <p>
+     * @throws Exception on error
+     */
+    public void testDeserialize_LegacyFormat()
+        throws Exception
+    {
+        // SETUP
+        CompressingSerializer serializer = new CompressingSerializer();
+        serializer.setCodec( "lz" );
+        String before = createText( 500 );
+        byte[] legacy = CompressionUtil.compressByteArray( serializer.serializeObject( before ) );
+
+        // DO WORK
+        String after = serializer.deSerialize( legacy, null );
+
+        // VERIFY
+        assertEquals( "Before and after should be the same.", before, after );
+    }
+
+    /**
+     * Verify that small values are stored as they are.
+     * <p>
+     * @throws Exception on error
+     */
+    public void testSerialize_BelowMinCompressSize()
+        throws Exception
+    {
+        // SETUP
+        CompressingSerializer serializer = new CompressingSerializer();
+        serializer.setMinCompressSize( 1000 );
+        String before = createText( 50 );
+        byte[] uncompressed = serializer.serializeObject( before );
+
+        // DO WORK
+        byte[] data = serializer.serialize( before );
+
+        // VERIFY
+        assertEquals( "Should only add the flag", uncompressed.length + 1, data.length );
+        assertTrue( "Should be stored as is",
+            Arrays.equals( uncompressed, Arrays.copyOfRange( data, 1, data.length ) ) );
+        assertEquals( "Before and after should be the same.", before, serializer.deSerialize( data, null ) );
+        assertEquals( "Wrong stored count", Long.valueOf( 1 ), getStat( serializer, "Stored Uncompressed Count" ) );
+        assertEquals( "Wrong compressed count", Long.valueOf( 0 ), getStat( serializer, "Compressed Count" ) );
+    }
+
+    /**
+     * Verify that the statistics show the compression ratio.
+     * <p>
+     * @throws Exception on error
+     */
+    public void testGetStatistics()
+        throws Exception
+    {
+        // SETUP
+        CompressingSerializer serializer = new CompressingSerializer();
+        serializer.setCodec( "lz" );
+
+        // DO WORK
+        serializer.deSerialize( serializer.serialize( createText( 5000 ) ), null );
+
+        // VERIFY
+        assertEquals( "Wrong compressed count", Long.valueOf( 1 ), getStat( serializer, "Compressed Count" ) );
+        assertEquals( "Wrong decompressed count", Long.valueOf( 1 ), getStat( serializer, "Decompressed Count" ) );
+        Double ratio = (Double) getStat( serializer, "Compression Ratio" );
+        assertTrue( "Ratio should be above 2 but was " + ratio, ratio.doubleValue() > 2 );
+    }
+
+    /**
+     * Verify that an unknown codec is rejected.
+     */
+    public void testSetCodec_Unknown()
+    {
+        // SETUP
+        CompressingSerializer serializer = new CompressingSerializer();
+
+        // DO WORK
+        try
+        {
+            serializer.setCodec( "org.apache.commons.jcs.NoSuchCodec" );
+            fail( "Should reject an unknown codec" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * @param serializer the serializer
+     * @param name the name of the statistic
+     * @return the value
+     */
+    private static Object getStat( CompressingSerializer serializer, String name )
+    {
+        for ( IStatElement<?> element : serializer.getStatistics().getStatElements() )
+        {
+            if ( name.equals( element.getName() ) )
+            {
+                return element.getData();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param words the number of words
+     * @return text with a small vocabulary
+     */
+    private static String createText( int words )
+    {
+        String[] vocabulary = new String[] { "cache", "region", "element", "disk", "memory", "lateral", "remote" };
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < words; i++ )
+        {
+            text.append( vocabulary[( i * 7 + i / 3 ) % vocabulary.length] ).append( ' ' ).append( i % 13 );
+        }
+        return text.toString();
+    }
 }
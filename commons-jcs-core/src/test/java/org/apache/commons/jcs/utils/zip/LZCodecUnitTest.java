@@ -0,0 +1,116 @@
+package org.apache.commons.jcs.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the LZ codec */
+public class LZCodecUnitTest
+    extends TestCase
+{
+    /**
+     * Verify round trips of data that is hard to get right at the boundaries.
+     * <p>
+     * @throws IOException
+     */
+    public void testCompressDecompress()
+        throws IOException
+    {
+        // SETUP
+        LZCodec codec = new LZCodec();
+        Random random = new Random( 42 );
+        byte[] randomBytes = new byte[70000];
+        random.nextBytes( randomBytes );
+        byte[] run = new byte[100000];
+        Arrays.fill( run, (byte) 'a' );
+        byte[] text = new byte[200000];
+        for ( int i = 0; i < text.length; i++ )
+        {
+            text[i] = (byte) ( 'a' + ( i * 31 + i / 97 ) % 11 );
+        }
+
+        byte[][] inputs = new byte[][] { new byte[0], new byte[] { 1 }, "abcdabcdabcda".getBytes( "UTF-8" ),
+            randomBytes, run, text };
+
+        for ( byte[] input : inputs )
+        {
+            // DO WORK
+            byte[] compressed = codec.compress( input );
+            byte[] decompressed = codec.decompress( compressed, 0, compressed.length, input.length );
+
+            // VERIFY
+            assertTrue( "Round trip failed for " + input.length + " bytes", Arrays.equals( input, decompressed ) );
+        }
+        assertTrue( "A run should compress well", codec.compress( run ).length < run.length / 100 );
+    }
+
+    /**
+     * Verify that damaged data causes an IOException.
+     */
+    public void testDecompress_Corrupt()
+    {
+        // SETUP
+        LZCodec codec = new LZCodec();
+        byte[] input = new byte[5000];
+        Arrays.fill( input, (byte) 'x' );
+        byte[] compressed = codec.compress( input );
+
+        // DO WORK
+        try
+        {
+            codec.decompress( compressed, 0, compressed.length - 3, input.length );
+            fail( "Should detect truncated data" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Verify that a corrupt original length causes an IOException instead of a huge or negative
+     * allocation.
+     */
+    public void testDecompress_InvalidOriginalLength()
+    {
+        // SETUP
+        LZCodec codec = new LZCodec();
+        byte[] compressed = codec.compress( new byte[100] );
+        int[] lengths = { -1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+
+        for ( int originalLength : lengths )
+        {
+            // DO WORK
+            try
+            {
+                codec.decompress( compressed, 0, compressed.length, originalLength );
+                fail( "Should reject original length " + originalLength );
+            }
+            catch ( IOException e )
+            {
+                // expected
+            }
+        }
+    }
+}